@@ -22,6 +22,8 @@
 package org.jboss.ejb3.packagemanager;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.List;
 import java.util.Set;
@@ -29,6 +31,7 @@ import java.util.Set;
 import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
 import org.jboss.ejb3.packagemanager.metadata.ScriptType;
 import org.jboss.ejb3.packagemanager.metadata.SystemRequirementsType;
+import org.jboss.ejb3.packagemanager.xml.InstallFileHandler;
 
 /**
  * PackageContext
@@ -90,11 +93,33 @@ public interface PackageContext extends Comparable<PackageContext>
    List<ScriptType> getPreInstallScripts();
 
    /**
-    * Returns the files to be installed by this package
+    * Returns the files to be installed by this package. Streamed files (see 
+    * {@link #isStreamingInstallationFiles()}) aren't held in memory, so they can only be 
+    * processed through {@link #processInstallationFiles(InstallFileHandler)}
     * @return
+    * @throws IllegalStateException If the files are streamed
     */
    List<InstallFileType> getInstallationFiles();
 
+   /**
+    * Returns true if the files to be installed by this package aren't held in memory, but
+    * are parsed out of the package.xml each time they are processed through 
+    * {@link #processInstallationFiles(InstallFileHandler)}
+    * @return
+    */
+   boolean isStreamingInstallationFiles();
+
+   /**
+    * Hands each of the files to be installed by this package to the <code>fileHandler</code>, 
+    * in the order in which they are listed in the package.xml. Unlike {@link #getInstallationFiles()}, 
+    * this works irrespective of whether the files are streamed.
+    * 
+    * @param fileHandler The handler of the files
+    * @throws Exception If the files could not be read, or the <code>fileHandler</code> failed
+    *           to handle a file
+    */
+   void processInstallationFiles(InstallFileHandler fileHandler) throws Exception;
+
    /**
     * Returns the pre-uninstall scripts
     * @return
@@ -107,4 +132,48 @@ public interface PackageContext extends Comparable<PackageContext>
     */
    List<ScriptType> getPostUnInstallScripts();
 
+   /**
+    * Returns the content of a <code>file</code> to be installed by this package.
+    * Depending on how the package was processed, the file might not be available under 
+    * the package root (see {@link #getPackageRoot()}), in which case the content
+    * is read from the package archive.
+    * 
+    * @param file The file to be installed
+    * @return Returns the content of the file. Returns null if the file is not 
+    *           present in the package. It's the responsibility of the caller to close 
+    *           the returned stream.
+    * @throws IOException
+    */
+   InputStream getInstallationFileContent(InstallFileType file) throws IOException;
+
+   /**
+    * Returns the (hex encoded) SHA-256 checksum of the content of a <code>file</code>
+    * to be installed by this package. The checksum is computed on first use and 
+    * remembered in the file metadata.
+    * 
+    * @param file The file to be installed
+    * @return Returns the checksum of the file. Returns null if the file is not present
+    *           in the package.
+    * @throws IOException
+    */
+   String getInstallationFileChecksum(InstallFileType file) throws IOException;
+
+   /**
+    * Returns the (hex encoded) SHA-256 checksum of the content of a <code>file</code>
+    * to be installed by this package, only if it is already known (declared in the 
+    * package.xml, or computed during extraction or installation). Unlike 
+    * {@link #getInstallationFileChecksum(InstallFileType)}, the content of the file 
+    * is never read.
+    * 
+    * @param file The file to be installed
+    * @return Returns null if the checksum of the file isn't known
+    */
+   String getKnownInstallationFileChecksum(InstallFileType file);
+
+   /**
+    * Releases the resources (like an open package archive) held by this package 
+    * context and the package contexts of its dependencies. 
+    */
+   void release();
+
 }
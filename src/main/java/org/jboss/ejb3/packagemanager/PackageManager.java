@@ -32,6 +32,7 @@ import org.jboss.ejb3.packagemanager.exception.PackageNotInstalledException;
 import org.jboss.ejb3.packagemanager.option.InstallOptions;
 import org.jboss.ejb3.packagemanager.option.UnInstallOptions;
 import org.jboss.ejb3.packagemanager.option.UpgradeOptions;
+import org.jboss.ejb3.packagemanager.workspace.WorkspaceManager;
 
 /**
  * PackageManager
@@ -164,5 +165,17 @@ public interface PackageManager
     */
    PackageDatabaseManager getDatabaseManager();
    
+   /**
+    * @return Returns the workspace manager associated with the package manager.
+    * The workspace manager is responsible for the build and tmp folders used
+    * during the package manager operations
+    */
+   WorkspaceManager getWorkspaceManager();
+   
+   /**
+    * Releases the resources (like pooled HTTP connections) held by this package manager.
+    * Should be called once the package manager is no longer required.
+    */
+   void shutdown();
    
 }
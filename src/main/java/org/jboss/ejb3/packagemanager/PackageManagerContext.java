@@ -24,7 +24,14 @@ package org.jboss.ejb3.packagemanager;
 
 import javax.transaction.TransactionManager;
 
+import org.apache.http.client.HttpClient;
+import org.jboss.ejb3.packagemanager.cache.DownloadCache;
+import org.jboss.ejb3.packagemanager.cache.ExtractionCache;
+import org.jboss.ejb3.packagemanager.cache.MetadataCache;
 import org.jboss.ejb3.packagemanager.db.PackageDatabaseManager;
+import org.jboss.ejb3.packagemanager.mirror.MirrorSelector;
+import org.jboss.ejb3.packagemanager.throttle.Throttle;
+import org.jboss.ejb3.packagemanager.workspace.WorkspaceManager;
 
 
 /**
@@ -60,4 +67,55 @@ public interface PackageManagerContext
     
     PackageDatabaseManager getDatabaseManager();
     
+    /**
+     * Returns the cache of extracted packages
+     * 
+     * @return Returns null if the cache is not enabled
+     */
+    ExtractionCache getExtractionCache();
+    
+    /**
+     * Returns the cache of packages downloaded over HTTP
+     * 
+     * @return Returns null if the cache is not enabled
+     */
+    DownloadCache getDownloadCache();
+    
+    /**
+     * Returns the cache of metadata parsed out of package.xml files
+     * 
+     * @return Returns null if the cache is not enabled
+     */
+    MetadataCache getMetadataCache();
+    
+    /**
+     * Returns the workspace manager which manages the build and tmp folders
+     * 
+     * @return
+     */
+    WorkspaceManager getWorkspaceManager();
+    
+    /**
+     * Returns the HTTP client shared by all the HTTP retrievals of the package manager.
+     * The client is thread safe and pools its connections. 
+     * 
+     * @return
+     */
+    HttpClient getHttpClient();
+    
+    /**
+     * Returns the selector which picks the mirrors from which packages are retrieved
+     * 
+     * @return
+     */
+    MirrorSelector getMirrorSelector();
+    
+    /**
+     * Returns the throttle which limits the network and disk bandwidth used 
+     * while retrieving, extracting and installing packages
+     * 
+     * @return
+     */
+    Throttle getThrottle();
+    
 }
@@ -122,6 +122,95 @@ public class PackageManagerEnvironment
       return this.properties.get(propertyName);
    }
 
+   /**
+    * Returns the value of the property <code>propertyName</code>. If the property
+    * is not set in this environment, then the system property of the same name is 
+    * looked up. If that too isn't set, then <code>defaultValue</code> is returned. 
+    * 
+    * @param propertyName The name of the property
+    * @param defaultValue The value to return if the property is not set
+    * @return
+    */
+   public String getProperty(String propertyName, String defaultValue)
+   {
+      String value = this.properties.get(propertyName);
+      if (value == null)
+      {
+         value = System.getProperty(propertyName);
+      }
+      return value == null ? defaultValue : value.trim();
+   }
+
+   /**
+    * Returns the int value of the property <code>propertyName</code>, looked up
+    * as explained in {@link #getProperty(String, String)}
+    * 
+    * @param propertyName The name of the property
+    * @param defaultValue The value to return if the property is not set
+    * @return
+    * @throws IllegalArgumentException If the value of the property is not an int
+    */
+   public int getIntProperty(String propertyName, int defaultValue)
+   {
+      String value = this.getProperty(propertyName, null);
+      if (value == null || value.length() == 0)
+      {
+         return defaultValue;
+      }
+      try
+      {
+         return Integer.parseInt(value);
+      }
+      catch (NumberFormatException nfe)
+      {
+         throw new IllegalArgumentException("Value " + value + " of property " + propertyName + " is not a number");
+      }
+   }
+
+   /**
+    * Returns the long value of the property <code>propertyName</code>, looked up
+    * as explained in {@link #getProperty(String, String)}
+    * 
+    * @param propertyName The name of the property
+    * @param defaultValue The value to return if the property is not set
+    * @return
+    * @throws IllegalArgumentException If the value of the property is not a long
+    */
+   public long getLongProperty(String propertyName, long defaultValue)
+   {
+      String value = this.getProperty(propertyName, null);
+      if (value == null || value.length() == 0)
+      {
+         return defaultValue;
+      }
+      try
+      {
+         return Long.parseLong(value);
+      }
+      catch (NumberFormatException nfe)
+      {
+         throw new IllegalArgumentException("Value " + value + " of property " + propertyName + " is not a number");
+      }
+   }
+
+   /**
+    * Returns the boolean value of the property <code>propertyName</code>, looked up
+    * as explained in {@link #getProperty(String, String)}
+    * 
+    * @param propertyName The name of the property
+    * @param defaultValue The value to return if the property is not set
+    * @return
+    */
+   public boolean getBooleanProperty(String propertyName, boolean defaultValue)
+   {
+      String value = this.getProperty(propertyName, null);
+      if (value == null || value.length() == 0)
+      {
+         return defaultValue;
+      }
+      return Boolean.valueOf(value);
+   }
+
    public void setProperty(String propertyName, String propertyValue)
    {
       this.properties.put(propertyName, propertyValue);
@@ -0,0 +1,335 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PackageVersion
+ * 
+ * A parsed, immutable, package version. The version string is split into its parts once,
+ * when it's parsed, so that comparing versions involves no parsing (or regular expressions) at
+ * all. A version is split at each of the <code>.</code>, <code>_</code>, <code>-</code> and 
+ * <code>+</code> separators and wherever a letter is followed by a digit or a digit by a letter. 
+ * For example, <code>1.0.0-beta2</code> is made of the parts <code>1</code>, <code>0</code>, 
+ * <code>0</code>, <code>beta</code> and <code>2</code>.
+ * 
+ * Versions are ordered the way {@link PackageVersionComparator} has always ordered them:
+ * <ul>
+ *   <li>the parts are compared in order, until a part differs</li>
+ *   <li>a numeric part is greater than a non-numeric part</li>
+ *   <li>numeric parts are compared by their numeric value and non-numeric parts lexicographically</li>
+ *   <li>if a version has more parts than the other, the version with the extra parts is greater
+ *   if the first extra part is numeric (<code>1.0.1 &gt; 1.0</code>) and lesser otherwise 
+ *   (<code>1.0.beta &lt; 1.0</code>)</li>
+ * </ul>
+ * Note that the ordering is inconsistent with {@link #equals(Object)}, which compares the 
+ * version strings. For example, <code>1.0</code> and <code>1-0</code> are not equal, but
+ * compare as equal.
+ * 
+ * Use {@link #valueOf(String)} to obtain a version. It caches upto {@link #MAX_CACHED_VERSIONS}
+ * recently used versions, so that the same version isn't parsed again and again.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class PackageVersion implements Comparable<PackageVersion>
+{
+
+   /**
+    * Max number of parsed versions cached
+    */
+   public static final int MAX_CACHED_VERSIONS = 1000;
+
+   /**
+    * A part which isn't a number
+    */
+   private static final byte TEXT = 0;
+
+   /**
+    * A numeric part whose value fits in a long
+    */
+   private static final byte NUMBER = 1;
+
+   /**
+    * A numeric part which is too large for a long
+    */
+   private static final byte LARGE_NUMBER = 2;
+
+   /**
+    * Parsed versions keyed by the version string, in access order
+    */
+   private static Map<String, PackageVersion> versions = new LinkedHashMap<String, PackageVersion>(16, 0.75f,
+         true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PackageVersion> eldest)
+      {
+         return this.size() > MAX_CACHED_VERSIONS;
+      }
+   };
+
+   /**
+    * The version string
+    */
+   private final String version;
+
+   /**
+    * The parts of the version
+    */
+   private final String[] parts;
+
+   /**
+    * The kind ({@link #TEXT}, {@link #NUMBER} or {@link #LARGE_NUMBER}) of each of the {@link #parts}
+    */
+   private final byte[] kinds;
+
+   /**
+    * The value of each of the {@link #NUMBER} parts
+    */
+   private final long[] values;
+
+   /**
+    * Returns the parsed <code>version</code>, parsing it only if it isn't cached
+    * 
+    * @param version The version string
+    * @return
+    * @throws NullPointerException If <code>version</code> is null
+    */
+   public static PackageVersion valueOf(String version)
+   {
+      if (version == null)
+      {
+         throw new NullPointerException("Version is null");
+      }
+      synchronized (versions)
+      {
+         PackageVersion packageVersion = versions.get(version);
+         if (packageVersion != null)
+         {
+            return packageVersion;
+         }
+      }
+      PackageVersion packageVersion = new PackageVersion(version);
+      synchronized (versions)
+      {
+         versions.put(version, packageVersion);
+      }
+      return packageVersion;
+   }
+
+   /**
+    * Parses the <code>version</code>
+    * 
+    * @param version The version string
+    */
+   private PackageVersion(String version)
+   {
+      this.version = version;
+      List<String> versionParts = new ArrayList<String>();
+      boolean split = false;
+      int start = 0;
+      for (int i = 0; i < version.length(); i++)
+      {
+         char c = version.charAt(i);
+         if (c == '.' || c == '_' || c == '-' || c == '+')
+         {
+            versionParts.add(version.substring(start, i));
+            start = i + 1;
+            split = true;
+         }
+         else if (i > start && isBoundary(version.charAt(i - 1), c))
+         {
+            versionParts.add(version.substring(start, i));
+            start = i;
+            split = true;
+         }
+      }
+      versionParts.add(version.substring(start));
+      if (split)
+      {
+         // like String.split(), trailing empty parts are dropped (but an unsplit, empty, version is kept)
+         int size = versionParts.size();
+         while (size > 0 && versionParts.get(size - 1).length() == 0)
+         {
+            versionParts.remove(--size);
+         }
+      }
+      this.parts = versionParts.toArray(new String[versionParts.size()]);
+      this.kinds = new byte[this.parts.length];
+      this.values = new long[this.parts.length];
+      for (int i = 0; i < this.parts.length; i++)
+      {
+         if (!isNumber(this.parts[i]))
+         {
+            this.kinds[i] = TEXT;
+            continue;
+         }
+         try
+         {
+            this.values[i] = Long.parseLong(this.parts[i]);
+            this.kinds[i] = NUMBER;
+         }
+         catch (NumberFormatException nfe)
+         {
+            this.kinds[i] = LARGE_NUMBER;
+         }
+      }
+   }
+
+   /**
+    * Returns the version string
+    */
+   public String getVersion()
+   {
+      return this.version;
+   }
+
+   /**
+    * Returns the number of parts of this version
+    */
+   public int getPartCount()
+   {
+      return this.parts.length;
+   }
+
+   /**
+    * Compares this version with <code>other</code>, as described in {@link PackageVersion}
+    * 
+    * @throws NumberFormatException If the versions have to be compared by a numeric part 
+    *           which is too large for a long
+    * @see java.lang.Comparable#compareTo(java.lang.Object)
+    */
+   public int compareTo(PackageVersion other)
+   {
+      if (this == other || this.version.equals(other.version))
+      {
+         return 0;
+      }
+      int i = 0;
+      for (; i < this.parts.length && i < other.parts.length; i++)
+      {
+         if (this.parts[i].equals(other.parts[i]))
+         {
+            continue;
+         }
+         boolean isNumber = this.kinds[i] != TEXT;
+         boolean isOtherNumber = other.kinds[i] != TEXT;
+         if (isNumber && !isOtherNumber)
+         {
+            return 1;
+         }
+         if (isOtherNumber && !isNumber)
+         {
+            return -1;
+         }
+         if (isNumber && isOtherNumber)
+         {
+            // note that parts with the same numeric value (like 01 and 1) end the comparison
+            return this.compareNumber(i, other);
+         }
+         return this.parts[i].compareTo(other.parts[i]);
+      }
+      if (i < this.parts.length)
+      {
+         return this.kinds[i] != TEXT ? 1 : -1;
+      }
+      if (i < other.parts.length)
+      {
+         return other.kinds[i] != TEXT ? -1 : 1;
+      }
+      return 0;
+   }
+
+   private int compareNumber(int i, PackageVersion other)
+   {
+      if (this.kinds[i] == LARGE_NUMBER || other.kinds[i] == LARGE_NUMBER)
+      {
+         // fails the way the numbers have always failed to compare
+         return Long.valueOf(this.parts[i]).compareTo(Long.valueOf(other.parts[i]));
+      }
+      long value = this.values[i];
+      long otherValue = other.values[i];
+      return value < otherValue ? -1 : (value == otherValue ? 0 : 1);
+   }
+
+   /**
+    * Returns true if the <code>obj</code> is a {@link PackageVersion} with the same version string
+    */
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (!(obj instanceof PackageVersion))
+      {
+         return false;
+      }
+      return this.version.equals(((PackageVersion) obj).version);
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return this.version.hashCode();
+   }
+
+   @Override
+   public String toString()
+   {
+      return this.version;
+   }
+
+   private static boolean isBoundary(char previous, char c)
+   {
+      return (isLetter(previous) && isDigit(c)) || (isDigit(previous) && isLetter(c));
+   }
+
+   private static boolean isNumber(String part)
+   {
+      if (part.length() == 0)
+      {
+         return false;
+      }
+      for (int i = 0; i < part.length(); i++)
+      {
+         if (!isDigit(part.charAt(i)))
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static boolean isDigit(char c)
+   {
+      return c >= '0' && c <= '9';
+   }
+
+   private static boolean isLetter(char c)
+   {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+   }
+}
@@ -25,6 +25,9 @@ import java.util.Comparator;
 
 /**
  * PackageVersionComparator
+ * 
+ * Compares version strings, through their parsed (and cached) {@link PackageVersion}s. See 
+ * {@link PackageVersion} for how versions are ordered.
  *
  * @author Jaikiran Pai
  * @version $Revision: $
@@ -46,51 +49,6 @@ public class PackageVersionComparator implements Comparator<String>
       // Change this and implement it on the lines of OSGi version numbering.
       // Instead of writing the version compare logic all over again, see if there's 
       // a reusable util
-      String rev1 = version1.replaceAll("([a-zA-Z])(\\d)", "$1.$2");
-      rev1 = rev1.replaceAll("(\\d)([a-zA-Z])", "$1.$2");
-      String rev2 = version2.replaceAll("([a-zA-Z])(\\d)", "$1.$2");
-      rev2 = rev2.replaceAll("(\\d)([a-zA-Z])", "$1.$2");
-
-      String[] parts1 = rev1.split("[\\._\\-\\+]");
-      String[] parts2 = rev2.split("[\\._\\-\\+]");
-
-      int i = 0;
-      for (; i < parts1.length && i < parts2.length; i++)
-      {
-         if (parts1[i].equals(parts2[i]))
-         {
-            continue;
-         }
-         boolean is1Number = isNumber(parts1[i]);
-         boolean is2Number = isNumber(parts2[i]);
-         if (is1Number && !is2Number)
-         {
-            return 1;
-         }
-         if (is2Number && !is1Number)
-         {
-            return -1;
-         }
-         if (is1Number && is2Number)
-         {
-            return Long.valueOf(parts1[i]).compareTo(Long.valueOf(parts2[i]));
-         }
-         // both are strings, we compare them
-         return parts1[i].compareTo(parts2[i]);
-      }
-      if (i < parts1.length)
-      {
-         return isNumber(parts1[i]) ? 1 : -1;
-      }
-      if (i < parts2.length)
-      {
-         return isNumber(parts2[i]) ? -1 : 1;
-      }
-      return 0;
-   }
-
-   private boolean isNumber(String str)
-   {
-      return str.matches("\\d+");
+      return PackageVersion.valueOf(version1).compareTo(PackageVersion.valueOf(version2));
    }
 }
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.cache;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * CachedDownload
+ * 
+ * An entry in the {@link DownloadCache}. Represents a package which was downloaded from
+ * a URL, along with the validators (ETag and Last-Modified) which the server returned
+ * for it. The validators are used to check whether the cached copy is still current.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class CachedDownload
+{
+
+   /**
+    * The URL from which the package was downloaded
+    */
+   private URL url;
+
+   /**
+    * The cached copy of the package
+    */
+   private File file;
+
+   /**
+    * Value of the ETag header returned by the server. Can be null.
+    */
+   private String etag;
+
+   /**
+    * Value of the Last-Modified header returned by the server. Can be null. 
+    */
+   private String lastModified;
+
+   /**
+    * Size, in bytes, of the downloaded package
+    */
+   private long size;
+
+   CachedDownload(URL url, File file, String etag, String lastModified, long size)
+   {
+      this.url = url;
+      this.file = file;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.size = size;
+   }
+
+   /**
+    * @return Returns the URL from which the package was downloaded
+    */
+   public URL getURL()
+   {
+      return this.url;
+   }
+
+   /**
+    * @return Returns the cached copy of the package. The file is owned by the
+    * cache and must not be modified.
+    */
+   public File getFile()
+   {
+      return this.file;
+   }
+
+   /**
+    * @return Returns the ETag of the downloaded package or null if the server 
+    * did not send one
+    */
+   public String getETag()
+   {
+      return this.etag;
+   }
+
+   /**
+    * @return Returns the Last-Modified date (as sent by the server) of the downloaded 
+    * package or null if the server did not send one
+    */
+   public String getLastModified()
+   {
+      return this.lastModified;
+   }
+
+   public long getSize()
+   {
+      return this.size;
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("CachedDownload [url=");
+      sb.append(this.url);
+      sb.append(" ,etag=");
+      sb.append(this.etag);
+      sb.append(" ,lastModified=");
+      sb.append(this.lastModified);
+      sb.append(" ,size=");
+      sb.append(this.size);
+      sb.append("]");
+      return sb.toString();
+   }
+}
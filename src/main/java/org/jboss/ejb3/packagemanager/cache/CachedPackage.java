@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.cache;
+
+import java.io.File;
+
+import org.jboss.ejb3.packagemanager.metadata.PackageType;
+
+/**
+ * CachedPackage
+ * 
+ * An entry in the {@link ExtractionCache}. Represents the extracted tree (and the 
+ * parsed metadata) of a package archive with a specific digest. The extracted tree
+ * is shared by all the users of the entry and hence must be treated as read-only.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class CachedPackage
+{
+
+   /**
+    * SHA-256 digest of the package archive
+    */
+   private String digest;
+
+   /**
+    * The directory containing the extracted package
+    */
+   private File root;
+
+   /**
+    * The parsed package.xml of the package
+    */
+   private PackageType metadata;
+
+   /**
+    * Number of users currently holding this entry. Guarded by the cache
+    */
+   int referenceCount;
+
+   CachedPackage(String digest, File root)
+   {
+      this.digest = digest;
+      this.root = root;
+   }
+
+   /**
+    * @return Returns the SHA-256 digest of the package archive
+    */
+   public String getDigest()
+   {
+      return this.digest;
+   }
+
+   /**
+    * @return Returns the directory containing the extracted package
+    */
+   public File getRoot()
+   {
+      return this.root;
+   }
+
+   /**
+    * @return Returns the parsed package.xml of the package or null if it
+    *       hasn't yet been parsed
+    */
+   public synchronized PackageType getMetadata()
+   {
+      return this.metadata;
+   }
+
+   /**
+    * @param metadata The parsed package.xml of the package
+    */
+   public synchronized void setMetadata(PackageType metadata)
+   {
+      this.metadata = metadata;
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("CachedPackage [digest=");
+      sb.append(this.digest);
+      sb.append(" ,root=");
+      sb.append(this.root);
+      sb.append("]");
+      return sb.toString();
+   }
+}
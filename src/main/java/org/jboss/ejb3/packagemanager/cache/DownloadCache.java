@@ -0,0 +1,492 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.cache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.throttle.Throttle;
+import org.jboss.ejb3.packagemanager.throttle.TokenBucket;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.logging.Logger;
+
+/**
+ * DownloadCache
+ * 
+ * A persistent cache of packages downloaded over HTTP, under &lt;package-manager-home&gt;/cache/downloads. 
+ * Entries are keyed by the URL of the package and hold the validators (ETag/Last-Modified) 
+ * returned by the server, so that a subsequent download of the same URL can be turned into a 
+ * conditional request. If the server responds with "304 Not Modified" the package is 
+ * served from the cache. Responses without any validators aren't cached.
+ * 
+ * Each entry consists of the package file (&lt;key&gt;.jar) and a properties file (&lt;key&gt;.properties)
+ * holding the URL, the validators and the size of the package. Both are written to a temporary 
+ * file first and then renamed, so a partially written entry is never visible in the cache. The 
+ * last modified time of the properties file is used as the last access time of the entry, and 
+ * the least recently used entries are evicted when the cache grows beyond its max size.
+ * 
+ * The cache is enabled by default and can be disabled through the {@link #PROPERTY_DOWNLOAD_CACHE_ENABLED}
+ * property.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class DownloadCache
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(DownloadCache.class);
+
+   /**
+    * Name of the property which enables the cache. Defaults to true.
+    */
+   public static final String PROPERTY_DOWNLOAD_CACHE_ENABLED = "packagemanager.download-cache.enabled";
+
+   /**
+    * Name of the property which specifies the max size (in MB) of the cache.
+    * Defaults to {@link #DEFAULT_MAX_SIZE_MB}
+    */
+   public static final String PROPERTY_DOWNLOAD_CACHE_MAX_SIZE = "packagemanager.download-cache.max-size";
+
+   /**
+    * Default max size (in MB) of the cache
+    */
+   public static final long DEFAULT_MAX_SIZE_MB = 512;
+
+   private static final String PACKAGE_FILE_SUFFIX = ".jar";
+
+   private static final String ENTRY_FILE_SUFFIX = ".properties";
+
+   private static final String TMP_FILE_SUFFIX = ".tmp";
+
+   /**
+    * Temporary files older than this are deleted
+    */
+   private static final long STALE_TMP_FILE_AGE = 24 * 60 * 60 * 1000L;
+
+   /**
+    * Caches, per cache folder
+    */
+   private static Map<File, DownloadCache> caches = new HashMap<File, DownloadCache>();
+
+   /**
+    * The folder containing the cached packages
+    */
+   private File downloadsDir;
+
+   /**
+    * Max size (in bytes) of the cache
+    */
+   private long maxSize;
+
+   private long hits;
+
+   private long misses;
+
+   private long evictions;
+
+   /**
+    * Number of bytes served from the cache (i.e. not downloaded)
+    */
+   private long bytesServed;
+
+   /**
+    * Limits the rate at which the cache writes to the disk. Can be null.
+    */
+   private volatile Throttle throttle;
+
+   /**
+    * Returns the download cache for the package manager <code>environment</code>.
+    * Package managers which share the package manager home, share the cache too.
+    * 
+    * @param environment The package manager environment
+    * @return Returns the cache or null if the cache is not enabled
+    */
+   public static synchronized DownloadCache getDownloadCache(PackageManagerEnvironment environment)
+   {
+      if (!environment.getBooleanProperty(PROPERTY_DOWNLOAD_CACHE_ENABLED, true))
+      {
+         return null;
+      }
+      File downloadsDir = new File(new File(environment.getPackageManagerHome(), "cache"), "downloads");
+      try
+      {
+         downloadsDir = downloadsDir.getCanonicalFile();
+      }
+      catch (IOException ioe)
+      {
+         downloadsDir = downloadsDir.getAbsoluteFile();
+      }
+      DownloadCache cache = caches.get(downloadsDir);
+      if (cache == null)
+      {
+         long maxSizeMB = environment.getLongProperty(PROPERTY_DOWNLOAD_CACHE_MAX_SIZE, DEFAULT_MAX_SIZE_MB);
+         cache = new DownloadCache(downloadsDir, maxSizeMB * 1024 * 1024);
+         cache.setThrottle(Throttle.getThrottle(environment));
+         caches.put(downloadsDir, cache);
+      }
+      return cache;
+   }
+
+   /**
+    * @param downloadsDir The folder of the cache
+    * @param maxSize The max size (in bytes) of the cache
+    */
+   public DownloadCache(File downloadsDir, long maxSize)
+   {
+      this.downloadsDir = downloadsDir;
+      this.maxSize = maxSize;
+      this.downloadsDir.mkdirs();
+      this.deleteStaleTmpFiles();
+   }
+
+   /**
+    * Returns the cache entry for the <code>url</code>
+    * 
+    * @param url The URL of the package
+    * @return Returns null if the package at <code>url</code> is not in the cache
+    */
+   public CachedDownload lookup(URL url)
+   {
+      String key = this.getKey(url);
+      File entryFile = new File(this.downloadsDir, key + ENTRY_FILE_SUFFIX);
+      File packageFile = new File(this.downloadsDir, key + PACKAGE_FILE_SUFFIX);
+      if (!entryFile.isFile() || !packageFile.isFile())
+      {
+         return null;
+      }
+      Properties entry = new Properties();
+      try
+      {
+         InputStream is = new FileInputStream(entryFile);
+         try
+         {
+            entry.load(is);
+         }
+         finally
+         {
+            IOUtil.close(is);
+         }
+         // guard against (the unlikely) collisions of the key
+         if (!url.toExternalForm().equals(entry.getProperty("url")))
+         {
+            return null;
+         }
+         return new CachedDownload(url, packageFile, entry.getProperty("etag"), entry.getProperty("last-modified"),
+               Long.parseLong(entry.getProperty("size")));
+      }
+      catch (Exception e)
+      {
+         logger.debug("Ignoring unreadable download cache entry " + entryFile, e);
+         return null;
+      }
+   }
+
+   /**
+    * Copies the cached package of the <code>cachedDownload</code> to <code>dest</code>. This is 
+    * expected to be called once the server confirms that the cached package is still current. 
+    * 
+    * @param cachedDownload The cache entry
+    * @param dest The file to copy to
+    * @return Returns false if the cached package is no longer available (for example, it was evicted 
+    *           in the meantime), in which case the package has to be downloaded again
+    */
+   public boolean copyTo(CachedDownload cachedDownload, File dest)
+   {
+      try
+      {
+         IOUtil.copy(cachedDownload.getFile(), dest, this.getDiskBucket());
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not copy " + cachedDownload + " from download cache", ioe);
+         return false;
+      }
+      // the entry could have been replaced while it was being copied
+      if (dest.length() != cachedDownload.getSize())
+      {
+         return false;
+      }
+      String key = this.getKey(cachedDownload.getURL());
+      new File(this.downloadsDir, key + ENTRY_FILE_SUFFIX).setLastModified(System.currentTimeMillis());
+      synchronized (this)
+      {
+         this.hits++;
+         this.bytesServed += cachedDownload.getSize();
+      }
+      logger.debug("Served " + cachedDownload + " from download cache");
+      return true;
+   }
+
+   /**
+    * Stores the <code>downloadedPackage</code>, which was downloaded from <code>url</code>,
+    * in the cache. The package isn't cached if the server returned neither an ETag nor a 
+    * Last-Modified for it, since the package cannot be revalidated then.
+    * 
+    * @param url The URL from which the package was downloaded
+    * @param downloadedPackage The downloaded package. The cache stores a copy of it.
+    * @param etag The ETag returned by the server. Can be null.
+    * @param lastModified The Last-Modified returned by the server. Can be null.
+    * @return Returns the cache entry or null if the package wasn't cached
+    * @throws IOException
+    */
+   public CachedDownload store(URL url, File downloadedPackage, String etag, String lastModified)
+         throws IOException
+   {
+      synchronized (this)
+      {
+         this.misses++;
+      }
+      if (etag == null && lastModified == null)
+      {
+         logger.debug("Not caching " + url + " since the server did not return any validators");
+         return null;
+      }
+      String key = this.getKey(url);
+      String tmpPrefix = key + "-" + Thread.currentThread().getId() + "-" + System.nanoTime();
+      File tmpPackageFile = new File(this.downloadsDir, tmpPrefix + PACKAGE_FILE_SUFFIX + TMP_FILE_SUFFIX);
+      File tmpEntryFile = new File(this.downloadsDir, tmpPrefix + ENTRY_FILE_SUFFIX + TMP_FILE_SUFFIX);
+      try
+      {
+         // copy outside the lock, so that caching a big package doesn't hold up others
+         IOUtil.copy(downloadedPackage, tmpPackageFile, this.getDiskBucket());
+         Properties entry = new Properties();
+         entry.setProperty("url", url.toExternalForm());
+         entry.setProperty("size", String.valueOf(tmpPackageFile.length()));
+         if (etag != null)
+         {
+            entry.setProperty("etag", etag);
+         }
+         if (lastModified != null)
+         {
+            entry.setProperty("last-modified", lastModified);
+         }
+         OutputStream os = new FileOutputStream(tmpEntryFile);
+         try
+         {
+            entry.store(os, null);
+         }
+         finally
+         {
+            IOUtil.close(os);
+         }
+         File packageFile = new File(this.downloadsDir, key + PACKAGE_FILE_SUFFIX);
+         File entryFile = new File(this.downloadsDir, key + ENTRY_FILE_SUFFIX);
+         // replace the package and its entry together, so that concurrent downloads of the
+         // same URL don't leave behind a package with the validators of another 
+         synchronized (this)
+         {
+            entryFile.delete();
+            packageFile.delete();
+            if (!tmpPackageFile.renameTo(packageFile) || !tmpEntryFile.renameTo(entryFile))
+            {
+               packageFile.delete();
+               throw new IOException("Could not add " + url + " to download cache " + this.downloadsDir);
+            }
+         }
+         CachedDownload cachedDownload = new CachedDownload(url, packageFile, etag, lastModified, packageFile
+               .length());
+         logger.debug("Added " + cachedDownload + " to download cache");
+         this.evict();
+         return cachedDownload;
+      }
+      finally
+      {
+         tmpPackageFile.delete();
+         tmpEntryFile.delete();
+      }
+   }
+
+   /**
+    * Sets the throttle which limits the rate at which the cache writes to the disk
+    * 
+    * @param throttle The throttle. Can be null, in which case the writes aren't limited.
+    */
+   public void setThrottle(Throttle throttle)
+   {
+      this.throttle = throttle;
+   }
+
+   private TokenBucket getDiskBucket()
+   {
+      Throttle currentThrottle = this.throttle;
+      return currentThrottle == null ? null : currentThrottle.getDiskBucket();
+   }
+
+   /**
+    * @return Returns the number of times a package was served from the cache
+    */
+   public synchronized long getHits()
+   {
+      return this.hits;
+   }
+
+   /**
+    * @return Returns the number of times a package had to be downloaded
+    */
+   public synchronized long getMisses()
+   {
+      return this.misses;
+   }
+
+   /**
+    * @return Returns the number of entries evicted from the cache
+    */
+   public synchronized long getEvictions()
+   {
+      return this.evictions;
+   }
+
+   /**
+    * @return Returns the number of bytes which were served from the cache instead
+    * of being downloaded
+    */
+   public synchronized long getBytesServed()
+   {
+      return this.bytesServed;
+   }
+
+   /**
+    * Evicts the least recently used entries till the size of the cache is within 
+    * the max size
+    */
+   private synchronized void evict()
+   {
+      File[] entryFiles = this.downloadsDir.listFiles(new FileFilter()
+      {
+         public boolean accept(File file)
+         {
+            return file.getName().endsWith(ENTRY_FILE_SUFFIX);
+         }
+      });
+      if (entryFiles == null)
+      {
+         return;
+      }
+      long totalSize = 0;
+      final Map<File, Long> lastUsed = new HashMap<File, Long>();
+      for (File entryFile : entryFiles)
+      {
+         totalSize += this.getPackageFile(entryFile).length();
+         lastUsed.put(entryFile, entryFile.lastModified());
+      }
+      if (totalSize <= this.maxSize)
+      {
+         return;
+      }
+      Arrays.sort(entryFiles, new Comparator<File>()
+      {
+         public int compare(File entryFile, File other)
+         {
+            long time = lastUsed.get(entryFile);
+            long otherTime = lastUsed.get(other);
+            return time < otherTime ? -1 : (time == otherTime ? 0 : 1);
+         }
+      });
+      for (File entryFile : entryFiles)
+      {
+         if (totalSize <= this.maxSize)
+         {
+            break;
+         }
+         File packageFile = this.getPackageFile(entryFile);
+         long size = packageFile.length();
+         // delete the entry first, so that a package without its entry is never looked up
+         entryFile.delete();
+         packageFile.delete();
+         totalSize -= size;
+         this.evictions++;
+         logger.debug("Evicted " + packageFile + " from download cache");
+      }
+   }
+
+   private File getPackageFile(File entryFile)
+   {
+      String name = entryFile.getName();
+      String key = name.substring(0, name.length() - ENTRY_FILE_SUFFIX.length());
+      return new File(this.downloadsDir, key + PACKAGE_FILE_SUFFIX);
+   }
+
+   /**
+    * Returns the key of the cache entry for the <code>url</code>
+    */
+   private String getKey(URL url)
+   {
+      return DigestUtil.sha256(url.toExternalForm());
+   }
+
+   private void deleteStaleTmpFiles()
+   {
+      File[] leftovers = this.downloadsDir.listFiles(new FileFilter()
+      {
+         public boolean accept(File file)
+         {
+            return file.getName().endsWith(TMP_FILE_SUFFIX);
+         }
+      });
+      if (leftovers == null)
+      {
+         return;
+      }
+      long now = System.currentTimeMillis();
+      for (File leftover : leftovers)
+      {
+         if (now - leftover.lastModified() > STALE_TMP_FILE_AGE)
+         {
+            leftover.delete();
+         }
+      }
+   }
+
+   @Override
+   public synchronized String toString()
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("DownloadCache [dir=");
+      sb.append(this.downloadsDir);
+      sb.append(" ,hits=");
+      sb.append(this.hits);
+      sb.append(" ,misses=");
+      sb.append(this.misses);
+      sb.append(" ,evictions=");
+      sb.append(this.evictions);
+      sb.append(" ,bytesServed=");
+      sb.append(this.bytesServed);
+      sb.append("]");
+      return sb.toString();
+   }
+}
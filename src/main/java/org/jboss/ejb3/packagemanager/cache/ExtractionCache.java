@@ -0,0 +1,523 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.cache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.throttle.Throttle;
+import org.jboss.ejb3.packagemanager.throttle.TokenBucket;
+import org.jboss.ejb3.packagemanager.util.DigestMemo;
+import org.jboss.ejb3.packagemanager.util.ExtractionStatistics;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.logging.Logger;
+
+/**
+ * ExtractionCache
+ * 
+ * A content addressed cache of extracted package archives. The SHA-256 digest of a 
+ * package archive maps to an (immutable) extracted tree under &lt;package-manager-home&gt;/cache/extracted/&lt;digest&gt;
+ * and to the parsed metadata of the package. So installing the same package more than once 
+ * (onto different server homes, re-installs, upgrade retries...) extracts the package only once.
+ * 
+ * Packages are extracted to a staging folder and then renamed to their final location, so
+ * a partially extracted tree is never visible in the cache. Users of the cache {@link #acquire(File, int)}
+ * an entry and {@link #release(CachedPackage)} it once done. The cache is bounded by size
+ * and the least recently used entries which aren't in use are evicted when the cache grows beyond
+ * that size. Note that the reference counts are maintained per JVM, so the cache is not
+ * meant to be shared by package managers running in different JVMs.
+ * 
+ * The cache is disabled by default and can be enabled through the {@link #PROPERTY_CACHE_ENABLED}
+ * property.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class ExtractionCache
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(ExtractionCache.class);
+
+   /**
+    * Name of the property which enables the cache. Defaults to false.
+    */
+   public static final String PROPERTY_CACHE_ENABLED = "packagemanager.cache.enabled";
+
+   /**
+    * Name of the property which specifies the max size (in MB) of the cache. 
+    * Defaults to {@link #DEFAULT_MAX_SIZE_MB}
+    */
+   public static final String PROPERTY_CACHE_MAX_SIZE = "packagemanager.cache.max-size";
+
+   /**
+    * Default max size (in MB) of the cache 
+    */
+   public static final long DEFAULT_MAX_SIZE_MB = 1024;
+
+   /**
+    * Suffix of the file which holds the size of a cached tree. The last modified
+    * time of this file is used as the last access time of the entry
+    */
+   private static final String SIZE_FILE_SUFFIX = ".size";
+
+   /**
+    * Leftovers in the staging folder older than this are deleted
+    */
+   private static final long STALE_STAGING_AGE = 24 * 60 * 60 * 1000L;
+
+   /**
+    * Caches, per cache folder
+    */
+   private static Map<File, ExtractionCache> caches = new HashMap<File, ExtractionCache>();
+
+   /**
+    * The folder containing the extracted trees
+    */
+   private File extractedDir;
+
+   /**
+    * The folder to which the packages are extracted before being moved to 
+    * the {@link #extractedDir}
+    */
+   private File stagingDir;
+
+   /**
+    * Max size (in bytes) of the cache
+    */
+   private long maxSize;
+
+   /**
+    * Known entries of this cache, keyed by digest
+    */
+   private Map<String, CachedPackage> entries = new HashMap<String, CachedPackage>();
+
+   private long hits;
+
+   private long misses;
+
+   private long evictions;
+
+   /**
+    * Limits the rate at which the cache writes to the disk. Can be null.
+    */
+   private volatile Throttle throttle;
+
+   /**
+    * Returns the extraction cache for the package manager <code>environment</code>. 
+    * Package managers which share the package manager home, share the cache too.
+    * 
+    * @param environment The package manager environment
+    * @return Returns the cache or null if the cache is not enabled 
+    */
+   public static synchronized ExtractionCache getExtractionCache(PackageManagerEnvironment environment)
+   {
+      if (!environment.getBooleanProperty(PROPERTY_CACHE_ENABLED, false))
+      {
+         return null;
+      }
+      File cacheDir = new File(environment.getPackageManagerHome(), "cache");
+      try
+      {
+         cacheDir = cacheDir.getCanonicalFile();
+      }
+      catch (IOException ioe)
+      {
+         cacheDir = cacheDir.getAbsoluteFile();
+      }
+      ExtractionCache cache = caches.get(cacheDir);
+      if (cache == null)
+      {
+         long maxSizeMB = environment.getLongProperty(PROPERTY_CACHE_MAX_SIZE, DEFAULT_MAX_SIZE_MB);
+         cache = new ExtractionCache(cacheDir, maxSizeMB * 1024 * 1024);
+         cache.setThrottle(Throttle.getThrottle(environment));
+         caches.put(cacheDir, cache);
+      }
+      return cache;
+   }
+
+   /**
+    * @param cacheDir The folder of the cache
+    * @param maxSize The max size (in bytes) of the cache 
+    */
+   public ExtractionCache(File cacheDir, long maxSize)
+   {
+      this.extractedDir = new File(cacheDir, "extracted");
+      this.stagingDir = new File(cacheDir, "staging");
+      this.maxSize = maxSize;
+      this.extractedDir.mkdirs();
+      this.stagingDir.mkdirs();
+      this.deleteStaleStagingDirs();
+   }
+
+   /**
+    * Returns the cache entry for the package <code>archive</code>, extracting the
+    * archive if it's not already in the cache. The returned entry won't be evicted till
+    * it's {@link #release(CachedPackage) released}.
+    * 
+    * @param archive The package archive
+    * @param extractionThreads Number of threads to use if the archive has to be extracted
+    * @return
+    * @throws IOException
+    */
+   public CachedPackage acquire(File archive, int extractionThreads) throws IOException
+   {
+      String digest = DigestMemo.sha256(archive);
+      CachedPackage cachedPackage = null;
+      synchronized (this)
+      {
+         cachedPackage = this.entries.get(digest);
+         if (cachedPackage == null)
+         {
+            cachedPackage = new CachedPackage(digest, new File(this.extractedDir, digest));
+            this.entries.put(digest, cachedPackage);
+         }
+         cachedPackage.referenceCount++;
+      }
+      boolean acquired = false;
+      boolean extracted = false;
+      try
+      {
+         // lock just this entry, not the entire cache, while extracting, so that the 
+         // same archive isn't extracted more than once at the same time
+         synchronized (cachedPackage)
+         {
+            if (cachedPackage.getRoot().isDirectory())
+            {
+               this.sizeFile(digest).setLastModified(System.currentTimeMillis());
+            }
+            else
+            {
+               this.extract(archive, cachedPackage, extractionThreads);
+               extracted = true;
+            }
+         }
+         acquired = true;
+      }
+      finally
+      {
+         if (!acquired)
+         {
+            this.release(cachedPackage);
+         }
+      }
+      synchronized (this)
+      {
+         if (extracted)
+         {
+            this.misses++;
+         }
+         else
+         {
+            this.hits++;
+         }
+      }
+      logger.debug((extracted ? "Extracted " : "Found ") + archive + " in cache " + cachedPackage);
+      if (extracted)
+      {
+         this.evict();
+      }
+      return cachedPackage;
+   }
+
+   /**
+    * Releases the <code>cachedPackage</code> which was previously acquired. The
+    * entry can be evicted once all its users release it.
+    * 
+    * @param cachedPackage The cache entry
+    */
+   public synchronized void release(CachedPackage cachedPackage)
+   {
+      if (cachedPackage.referenceCount <= 0)
+      {
+         throw new IllegalStateException(cachedPackage + " has not been acquired");
+      }
+      cachedPackage.referenceCount--;
+      // forget entries whose extraction failed
+      if (cachedPackage.referenceCount == 0 && !cachedPackage.getRoot().isDirectory())
+      {
+         this.entries.remove(cachedPackage.getDigest());
+      }
+   }
+
+   /**
+    * Sets the throttle which limits the rate at which the cache writes to the disk
+    * 
+    * @param throttle The throttle. Can be null, in which case the writes aren't limited.
+    */
+   public void setThrottle(Throttle throttle)
+   {
+      this.throttle = throttle;
+   }
+
+   private TokenBucket getDiskBucket()
+   {
+      Throttle currentThrottle = this.throttle;
+      return currentThrottle == null ? null : currentThrottle.getDiskBucket();
+   }
+
+   /**
+    * @return Returns the number of times an archive was found in the cache
+    */
+   public synchronized long getHits()
+   {
+      return this.hits;
+   }
+
+   /**
+    * @return Returns the number of times an archive had to be extracted
+    */
+   public synchronized long getMisses()
+   {
+      return this.misses;
+   }
+
+   /**
+    * @return Returns the number of entries evicted from the cache
+    */
+   public synchronized long getEvictions()
+   {
+      return this.evictions;
+   }
+
+   /**
+    * Extracts the <code>archive</code> to a staging folder and then moves it
+    * to the location of the <code>cachedPackage</code>
+    */
+   private void extract(File archive, CachedPackage cachedPackage, int extractionThreads) throws IOException
+   {
+      File staging = new File(this.stagingDir, cachedPackage.getDigest() + "-" + System.nanoTime());
+      Set<String> noExclusions = Collections.emptySet();
+      try
+      {
+         ExtractionStatistics stats = IOUtil.extractJarFile(staging, archive, extractionThreads,
+               noExclusions, this.getDiskBucket());
+         this.writeSize(cachedPackage.getDigest(), stats.getBytes());
+         if (!staging.renameTo(cachedPackage.getRoot()) && !cachedPackage.getRoot().isDirectory())
+         {
+            throw new IOException("Could not move extracted package from " + staging + " to "
+                  + cachedPackage.getRoot());
+         }
+         logger.debug("Extracted " + archive + " to cache - " + stats);
+      }
+      finally
+      {
+         if (staging.exists())
+         {
+            IOUtil.delete(staging);
+         }
+      }
+   }
+
+   /**
+    * Evicts the least recently used entries, which are not in use, till the size
+    * of the cache is within the max size
+    */
+   private void evict()
+   {
+      List<File> evicted = new ArrayList<File>();
+      synchronized (this)
+      {
+         File[] trees = this.extractedDir.listFiles(new FileFilter()
+         {
+            public boolean accept(File file)
+            {
+               return file.isDirectory();
+            }
+         });
+         if (trees == null)
+         {
+            return;
+         }
+         final Map<File, Long> lastUsed = new HashMap<File, Long>();
+         Map<File, Long> sizes = new HashMap<File, Long>();
+         long totalSize = 0;
+         for (File tree : trees)
+         {
+            long size = this.readSize(tree);
+            sizes.put(tree, size);
+            lastUsed.put(tree, this.sizeFile(tree.getName()).lastModified());
+            totalSize += size;
+         }
+         if (totalSize <= this.maxSize)
+         {
+            return;
+         }
+         List<File> leastRecentlyUsed = new ArrayList<File>(sizes.keySet());
+         Collections.sort(leastRecentlyUsed, new Comparator<File>()
+         {
+            public int compare(File tree, File other)
+            {
+               long time = lastUsed.get(tree);
+               long otherTime = lastUsed.get(other);
+               return time < otherTime ? -1 : (time == otherTime ? 0 : 1);
+            }
+         });
+         for (File tree : leastRecentlyUsed)
+         {
+            if (totalSize <= this.maxSize)
+            {
+               break;
+            }
+            CachedPackage cachedPackage = this.entries.get(tree.getName());
+            if (cachedPackage != null && cachedPackage.referenceCount > 0)
+            {
+               continue;
+            }
+            // move it out of the cache first, so that a partially deleted tree
+            // is never visible in the cache
+            File evictedTree = new File(this.stagingDir, tree.getName() + "-evicted-" + System.nanoTime());
+            if (!tree.renameTo(evictedTree))
+            {
+               logger.warn("Could not evict " + tree + " from cache");
+               continue;
+            }
+            this.entries.remove(tree.getName());
+            this.sizeFile(tree.getName()).delete();
+            evicted.add(evictedTree);
+            totalSize -= sizes.get(tree);
+            this.evictions++;
+         }
+      }
+      // the evicted trees are no longer part of the cache, so delete them
+      // without holding the lock
+      for (File evictedTree : evicted)
+      {
+         IOUtil.delete(evictedTree);
+         logger.debug("Evicted " + evictedTree + " from cache");
+      }
+   }
+
+   private File sizeFile(String digest)
+   {
+      return new File(this.extractedDir, digest + SIZE_FILE_SUFFIX);
+   }
+
+   private void writeSize(String digest, long size) throws IOException
+   {
+      OutputStream os = new FileOutputStream(this.sizeFile(digest));
+      try
+      {
+         os.write(String.valueOf(size).getBytes("UTF-8"));
+      }
+      finally
+      {
+         IOUtil.close(os);
+      }
+   }
+
+   private long readSize(File tree)
+   {
+      File sizeFile = this.sizeFile(tree.getName());
+      if (sizeFile.exists())
+      {
+         try
+         {
+            InputStream is = new FileInputStream(sizeFile);
+            try
+            {
+               byte[] content = new byte[(int) sizeFile.length()];
+               int read = 0;
+               while (read < content.length)
+               {
+                  int n = is.read(content, read, content.length - read);
+                  if (n == -1)
+                  {
+                     break;
+                  }
+                  read += n;
+               }
+               return Long.parseLong(new String(content, 0, read, "UTF-8").trim());
+            }
+            finally
+            {
+               IOUtil.close(is);
+            }
+         }
+         catch (Exception e)
+         {
+            logger.debug("Could not read size of " + tree + " from " + sizeFile, e);
+         }
+      }
+      // size not known, so compute it (and remember it for next time)
+      long size = IOUtil.size(tree);
+      try
+      {
+         this.writeSize(tree.getName(), size);
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not write size of " + tree + " to " + sizeFile, ioe);
+      }
+      return size;
+   }
+
+   private void deleteStaleStagingDirs()
+   {
+      File[] leftovers = this.stagingDir.listFiles();
+      if (leftovers == null)
+      {
+         return;
+      }
+      long now = System.currentTimeMillis();
+      for (File leftover : leftovers)
+      {
+         if (now - leftover.lastModified() > STALE_STAGING_AGE)
+         {
+            IOUtil.delete(leftover);
+         }
+      }
+   }
+
+   @Override
+   public synchronized String toString()
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("ExtractionCache [dir=");
+      sb.append(this.extractedDir);
+      sb.append(" ,entries=");
+      sb.append(this.entries.size());
+      sb.append(" ,hits=");
+      sb.append(this.hits);
+      sb.append(" ,misses=");
+      sb.append(this.misses);
+      sb.append(" ,evictions=");
+      sb.append(this.evictions);
+      sb.append("]");
+      return sb.toString();
+   }
+}
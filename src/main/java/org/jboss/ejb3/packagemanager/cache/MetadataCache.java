@@ -0,0 +1,384 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.metadata.PackageType;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.logging.Logger;
+
+/**
+ * MetadataCache
+ * 
+ * A persistent cache of the metadata parsed out of package.xml files, under 
+ * &lt;package-manager-home&gt;/cache/metadata. Entries are keyed by the SHA-256 digest of the 
+ * package.xml and hold the metadata in the binary form of the {@link PackageMetadataSerializer}, 
+ * so a package.xml which was parsed (and validated) once needn't go through the XML parser 
+ * and the schema validation again.
+ * 
+ * Each entry records the digest of the package.xml, the digest of the schema against which 
+ * the package.xml was validated and the version of the binary form. An entry is used only if 
+ * all of them match, any other entry is deleted. Entries are written to a temporary file first 
+ * and then renamed, so a partially written entry is never visible in the cache. The last modified 
+ * time of an entry is used as its last access time and the least recently used entries are 
+ * evicted when the cache holds more than {@link #PROPERTY_METADATA_CACHE_MAX_ENTRIES} entries.
+ * 
+ * The cache is enabled by default and can be disabled through the {@link #PROPERTY_METADATA_CACHE_ENABLED}
+ * property.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class MetadataCache
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(MetadataCache.class);
+
+   /**
+    * Name of the property which enables the cache. Defaults to true.
+    */
+   public static final String PROPERTY_METADATA_CACHE_ENABLED = "packagemanager.metadata-cache.enabled";
+
+   /**
+    * Name of the property which specifies the max number of entries in the cache.
+    * Defaults to {@link #DEFAULT_MAX_ENTRIES}
+    */
+   public static final String PROPERTY_METADATA_CACHE_MAX_ENTRIES = "packagemanager.metadata-cache.max-entries";
+
+   /**
+    * Default max number of entries in the cache
+    */
+   public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+   /**
+    * Identifies an entry file
+    */
+   private static final int MAGIC = 0x504b4d44;
+
+   private static final String ENTRY_FILE_SUFFIX = ".bin";
+
+   private static final String TMP_FILE_SUFFIX = ".tmp";
+
+   /**
+    * Caches, per cache folder
+    */
+   private static Map<File, MetadataCache> caches = new HashMap<File, MetadataCache>();
+
+   /**
+    * The folder containing the entries
+    */
+   private File metadataDir;
+
+   /**
+    * Max number of entries in the cache
+    */
+   private int maxEntries;
+
+   private PackageMetadataSerializer serializer = new PackageMetadataSerializer();
+
+   private long hits;
+
+   private long misses;
+
+   /**
+    * Number of entries which were discarded since they were written for a different schema 
+    * (or binary form) or were unreadable
+    */
+   private long invalidations;
+
+   private long evictions;
+
+   /**
+    * Returns the metadata cache for the package manager <code>environment</code>.
+    * Package managers which share the package manager home, share the cache too.
+    * 
+    * @param environment The package manager environment
+    * @return Returns the cache or null if the cache is not enabled
+    */
+   public static synchronized MetadataCache getMetadataCache(PackageManagerEnvironment environment)
+   {
+      if (!environment.getBooleanProperty(PROPERTY_METADATA_CACHE_ENABLED, true))
+      {
+         return null;
+      }
+      File metadataDir = new File(new File(environment.getPackageManagerHome(), "cache"), "metadata");
+      try
+      {
+         metadataDir = metadataDir.getCanonicalFile();
+      }
+      catch (IOException ioe)
+      {
+         metadataDir = metadataDir.getAbsoluteFile();
+      }
+      MetadataCache cache = caches.get(metadataDir);
+      if (cache == null)
+      {
+         int maxEntries = environment.getIntProperty(PROPERTY_METADATA_CACHE_MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+         cache = new MetadataCache(metadataDir, maxEntries);
+         caches.put(metadataDir, cache);
+      }
+      return cache;
+   }
+
+   /**
+    * @param metadataDir The folder of the cache
+    * @param maxEntries The max number of entries in the cache
+    */
+   public MetadataCache(File metadataDir, int maxEntries)
+   {
+      this.metadataDir = metadataDir;
+      this.maxEntries = maxEntries;
+      this.metadataDir.mkdirs();
+   }
+
+   /**
+    * Returns the metadata of the package.xml whose digest is <code>packageXmlDigest</code>,
+    * provided it was cached after validating against the schema whose digest is 
+    * <code>schemaDigest</code>. Each call returns a new copy of the metadata.
+    * 
+    * @param packageXmlDigest The (hex encoded) SHA-256 digest of the package.xml
+    * @param schemaDigest The (hex encoded) SHA-256 digest of the schema against which the 
+    *           package.xml is validated
+    * @return Returns null if the metadata isn't in the cache
+    */
+   public PackageType lookup(String packageXmlDigest, String schemaDigest)
+   {
+      File entryFile = this.getEntryFile(packageXmlDigest);
+      if (!entryFile.isFile())
+      {
+         this.missed();
+         return null;
+      }
+      PackageType pkg = null;
+      try
+      {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)));
+         try
+         {
+            if (in.readInt() == MAGIC && in.readInt() == PackageMetadataSerializer.FORMAT_VERSION
+                  && in.readUTF().equals(schemaDigest) && in.readUTF().equals(packageXmlDigest))
+            {
+               pkg = this.serializer.read(in);
+            }
+         }
+         finally
+         {
+            IOUtil.close(in);
+         }
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not read metadata cache entry " + entryFile + " - " + ioe.getMessage());
+      }
+      catch (RuntimeException re)
+      {
+         // the model rejected what was read back
+         logger.debug("Could not read metadata cache entry " + entryFile, re);
+         pkg = null;
+      }
+      if (pkg == null)
+      {
+         entryFile.delete();
+         synchronized (this)
+         {
+            this.invalidations++;
+            this.misses++;
+         }
+         return null;
+      }
+      entryFile.setLastModified(System.currentTimeMillis());
+      synchronized (this)
+      {
+         this.hits++;
+      }
+      return pkg;
+   }
+
+   /**
+    * Stores the metadata <code>pkg</code>, parsed out of the package.xml whose digest is 
+    * <code>packageXmlDigest</code>, in the cache. Failure to store the metadata isn't considered 
+    * an error, since the package.xml can always be parsed again.
+    * 
+    * @param packageXmlDigest The (hex encoded) SHA-256 digest of the package.xml
+    * @param schemaDigest The (hex encoded) SHA-256 digest of the schema against which the 
+    *           package.xml was validated
+    * @param pkg The metadata
+    */
+   public void store(String packageXmlDigest, String schemaDigest, PackageType pkg)
+   {
+      File entryFile = this.getEntryFile(packageXmlDigest);
+      File tmpEntryFile = new File(this.metadataDir, packageXmlDigest + "-" + Thread.currentThread().getId()
+            + "-" + System.nanoTime() + ENTRY_FILE_SUFFIX + TMP_FILE_SUFFIX);
+      try
+      {
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpEntryFile)));
+         try
+         {
+            out.writeInt(MAGIC);
+            out.writeInt(PackageMetadataSerializer.FORMAT_VERSION);
+            out.writeUTF(schemaDigest);
+            out.writeUTF(packageXmlDigest);
+            this.serializer.write(pkg, out);
+         }
+         finally
+         {
+            IOUtil.close(out);
+         }
+         synchronized (this)
+         {
+            entryFile.delete();
+            if (!tmpEntryFile.renameTo(entryFile))
+            {
+               logger.debug("Could not add metadata of " + pkg.getName() + " to metadata cache " + this.metadataDir);
+               return;
+            }
+         }
+         logger.debug("Added metadata of package " + pkg.getName() + " version " + pkg.getVersion()
+               + " to metadata cache");
+         this.evict();
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not add metadata of " + pkg.getName() + " to metadata cache - " + ioe.getMessage());
+      }
+      finally
+      {
+         tmpEntryFile.delete();
+      }
+   }
+
+   /**
+    * @return Returns the number of times the metadata was served from the cache
+    */
+   public synchronized long getHits()
+   {
+      return this.hits;
+   }
+
+   /**
+    * @return Returns the number of times the metadata wasn't in the cache
+    */
+   public synchronized long getMisses()
+   {
+      return this.misses;
+   }
+
+   /**
+    * @return Returns the number of entries which were discarded since they didn't match the 
+    * current schema or binary form
+    */
+   public synchronized long getInvalidations()
+   {
+      return this.invalidations;
+   }
+
+   /**
+    * @return Returns the number of entries evicted from the cache
+    */
+   public synchronized long getEvictions()
+   {
+      return this.evictions;
+   }
+
+   private synchronized void missed()
+   {
+      this.misses++;
+   }
+
+   /**
+    * Evicts the least recently used entries till the number of entries is within 
+    * the max entries
+    */
+   private synchronized void evict()
+   {
+      File[] entryFiles = this.metadataDir.listFiles(new FileFilter()
+      {
+         public boolean accept(File file)
+         {
+            return file.getName().endsWith(ENTRY_FILE_SUFFIX);
+         }
+      });
+      if (entryFiles == null || entryFiles.length <= this.maxEntries)
+      {
+         return;
+      }
+      final Map<File, Long> lastUsed = new HashMap<File, Long>();
+      for (File entryFile : entryFiles)
+      {
+         lastUsed.put(entryFile, entryFile.lastModified());
+      }
+      Arrays.sort(entryFiles, new Comparator<File>()
+      {
+         public int compare(File entryFile, File other)
+         {
+            long time = lastUsed.get(entryFile);
+            long otherTime = lastUsed.get(other);
+            return time < otherTime ? -1 : (time == otherTime ? 0 : 1);
+         }
+      });
+      for (int i = 0; i < entryFiles.length - this.maxEntries; i++)
+      {
+         entryFiles[i].delete();
+         this.evictions++;
+         logger.debug("Evicted " + entryFiles[i] + " from metadata cache");
+      }
+   }
+
+   private File getEntryFile(String packageXmlDigest)
+   {
+      return new File(this.metadataDir, packageXmlDigest + ENTRY_FILE_SUFFIX);
+   }
+
+   @Override
+   public synchronized String toString()
+   {
+      StringBuffer sb = new StringBuffer("MetadataCache [dir=");
+      sb.append(this.metadataDir);
+      sb.append(" ,hits=");
+      sb.append(this.hits);
+      sb.append(" ,misses=");
+      sb.append(this.misses);
+      sb.append(" ,invalidations=");
+      sb.append(this.invalidations);
+      sb.append(" ,evictions=");
+      sb.append(this.evictions);
+      sb.append("]");
+      return sb.toString();
+   }
+}
@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import org.jboss.ejb3.packagemanager.metadata.DependenciesType;
+import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
+import org.jboss.ejb3.packagemanager.metadata.PackageType;
+import org.jboss.ejb3.packagemanager.metadata.PackagedDependency;
+import org.jboss.ejb3.packagemanager.metadata.PostInstallType;
+import org.jboss.ejb3.packagemanager.metadata.PostUnInstallType;
+import org.jboss.ejb3.packagemanager.metadata.PreInstallType;
+import org.jboss.ejb3.packagemanager.metadata.PreUnInstallType;
+import org.jboss.ejb3.packagemanager.metadata.ScriptType;
+import org.jboss.ejb3.packagemanager.metadata.UnProcessedDependenciesType;
+import org.jboss.ejb3.packagemanager.metadata.impl.DependenciesImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.InstallFileImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.PackageImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.PackagedDependencyImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.PostInstallImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.PostInstallScript;
+import org.jboss.ejb3.packagemanager.metadata.impl.PostUnInstallImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.PostUnInstallScript;
+import org.jboss.ejb3.packagemanager.metadata.impl.PreInstallImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.PreInstallScript;
+import org.jboss.ejb3.packagemanager.metadata.impl.PreUnInstallImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.PreUninstallScript;
+import org.jboss.ejb3.packagemanager.metadata.impl.SystemRequirementsImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.UnProcessedDependenciesImpl;
+
+/**
+ * PackageMetadataSerializer
+ * 
+ * Writes the {@link PackageType} metadata, as created by the {@link org.jboss.ejb3.packagemanager.xml.PackageUnmarshaller},
+ * in a compact binary form and reads it back. The metadata read back is equivalent to the one
+ * which was written: the files, scripts and dependencies are in the same order and unset (null) 
+ * values stay unset. 
+ * 
+ * The binary form has no version of its own, users of this class are expected to record the 
+ * {@link #FORMAT_VERSION} along with it. This class is stateless and thread safe.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class PackageMetadataSerializer
+{
+
+   /**
+    * Version of the binary form. Has to be incremented whenever the binary form changes
+    */
+   public static final int FORMAT_VERSION = 1;
+
+   /**
+    * Written instead of the size of a list which is null
+    */
+   private static final int NULL_LIST = -1;
+
+   /**
+    * Writes out the <code>pkg</code> metadata to <code>out</code>
+    * 
+    * @param pkg The package metadata
+    * @param out The output to write to
+    * @throws IOException
+    */
+   public void write(PackageType pkg, DataOutput out) throws IOException
+   {
+      writeString(pkg.getName(), out);
+      writeString(pkg.getVersion(), out);
+      List<InstallFileType> files = pkg.getFiles();
+      out.writeInt(files == null ? NULL_LIST : files.size());
+      if (files != null)
+      {
+         for (InstallFileType file : files)
+         {
+            writeString(file.getName(), out);
+            writeString(file.getSrcPath(), out);
+            writeString(file.getDestPath(), out);
+            writeString(file.getType() == null ? null : file.getType().name().toLowerCase(), out);
+            writeString(file.getChecksum(), out);
+         }
+      }
+      PreInstallType preInstall = pkg.getPreInstall();
+      out.writeBoolean(preInstall != null);
+      if (preInstall != null)
+      {
+         writeScripts(preInstall.getScripts(), out);
+      }
+      PostInstallType postInstall = pkg.getPostInstall();
+      out.writeBoolean(postInstall != null);
+      if (postInstall != null)
+      {
+         writeScripts(postInstall.getScripts(), out);
+      }
+      PreUnInstallType preUnInstall = pkg.getPreUninstall();
+      out.writeBoolean(preUnInstall != null);
+      if (preUnInstall != null)
+      {
+         writeScripts(preUnInstall.getScripts(), out);
+      }
+      PostUnInstallType postUnInstall = pkg.getPostUninstall();
+      out.writeBoolean(postUnInstall != null);
+      if (postUnInstall != null)
+      {
+         writeScripts(postUnInstall.getScripts(), out);
+      }
+      DependenciesType dependencies = pkg.getDependencies();
+      out.writeBoolean(dependencies != null);
+      if (dependencies != null)
+      {
+         UnProcessedDependenciesType unProcessedDeps = dependencies.getUnProcessedDependencies();
+         out.writeBoolean(unProcessedDeps != null);
+         if (unProcessedDeps != null)
+         {
+            writeString(unProcessedDeps.getFile(), out);
+            writeString(unProcessedDeps.getManager(), out);
+         }
+         List<PackagedDependency> packagedDeps = dependencies.getPackagedDependencies();
+         out.writeInt(packagedDeps == null ? NULL_LIST : packagedDeps.size());
+         if (packagedDeps != null)
+         {
+            for (PackagedDependency packagedDep : packagedDeps)
+            {
+               writeString(packagedDep.getFile(), out);
+            }
+         }
+      }
+      out.writeBoolean(pkg.getSystemRequirements() != null);
+   }
+
+   /**
+    * Reads the package metadata written out by {@link #write(PackageType, DataOutput)}
+    * 
+    * @param in The input to read from
+    * @return Returns the package metadata
+    * @throws IOException If the metadata could not be read 
+    */
+   public PackageType read(DataInput in) throws IOException
+   {
+      PackageType pkg = new PackageImpl();
+      pkg.setName(readString(in));
+      pkg.setVersion(readString(in));
+      int fileCount = in.readInt();
+      for (int i = 0; i < fileCount; i++)
+      {
+         InstallFileType file = new InstallFileImpl(pkg);
+         file.setName(readString(in));
+         file.setSrcPath(readString(in));
+         file.setDestPath(readString(in));
+         file.setType(readString(in));
+         file.setChecksum(readString(in));
+         pkg.addFile(file);
+      }
+      if (in.readBoolean())
+      {
+         PreInstallType preInstall = new PreInstallImpl(pkg);
+         int scriptCount = in.readInt();
+         for (int i = 0; i < scriptCount; i++)
+         {
+            preInstall.addScript(readScript(new PreInstallScript(preInstall), in));
+         }
+         pkg.setPreInstall(preInstall);
+      }
+      if (in.readBoolean())
+      {
+         PostInstallType postInstall = new PostInstallImpl(pkg);
+         int scriptCount = in.readInt();
+         for (int i = 0; i < scriptCount; i++)
+         {
+            postInstall.addScript(readScript(new PostInstallScript(postInstall), in));
+         }
+         pkg.setPostInstall(postInstall);
+      }
+      if (in.readBoolean())
+      {
+         PreUnInstallType preUnInstall = new PreUnInstallImpl(pkg);
+         int scriptCount = in.readInt();
+         for (int i = 0; i < scriptCount; i++)
+         {
+            preUnInstall.addScript(readScript(new PreUninstallScript(preUnInstall), in));
+         }
+         pkg.setPreUnInstall(preUnInstall);
+      }
+      if (in.readBoolean())
+      {
+         PostUnInstallType postUnInstall = new PostUnInstallImpl(pkg);
+         int scriptCount = in.readInt();
+         for (int i = 0; i < scriptCount; i++)
+         {
+            postUnInstall.addScript(readScript(new PostUnInstallScript(postUnInstall), in));
+         }
+         pkg.setPostUnInstall(postUnInstall);
+      }
+      if (in.readBoolean())
+      {
+         DependenciesType dependencies = new DependenciesImpl(pkg);
+         if (in.readBoolean())
+         {
+            UnProcessedDependenciesType unProcessedDeps = new UnProcessedDependenciesImpl(pkg);
+            unProcessedDeps.setFile(readString(in));
+            unProcessedDeps.setManager(readString(in));
+            dependencies.setUnProcessedDependencies(unProcessedDeps);
+         }
+         int packagedDepCount = in.readInt();
+         for (int i = 0; i < packagedDepCount; i++)
+         {
+            PackagedDependency packagedDep = new PackagedDependencyImpl(pkg);
+            packagedDep.setFile(readString(in));
+            dependencies.addPackagedDependency(packagedDep);
+         }
+         pkg.setDependencies(dependencies);
+      }
+      if (in.readBoolean())
+      {
+         pkg.setSystemRequirements(new SystemRequirementsImpl(pkg));
+      }
+      return pkg;
+   }
+
+   private static void writeScripts(List<ScriptType> scripts, DataOutput out) throws IOException
+   {
+      // scripts are only ever added to the lists, so an empty list reads back as null
+      out.writeInt(scripts == null ? NULL_LIST : scripts.size());
+      if (scripts == null)
+      {
+         return;
+      }
+      for (ScriptType script : scripts)
+      {
+         writeString(script.getName(), out);
+         writeString(script.getPath(), out);
+      }
+   }
+
+   private static ScriptType readScript(ScriptType script, DataInput in) throws IOException
+   {
+      script.setName(readString(in));
+      script.setPath(readString(in));
+      return script;
+   }
+
+   private static void writeString(String value, DataOutput out) throws IOException
+   {
+      out.writeBoolean(value != null);
+      if (value != null)
+      {
+         out.writeUTF(value);
+      }
+   }
+
+   private static String readString(DataInput in) throws IOException
+   {
+      return in.readBoolean() ? in.readUTF() : null;
+   }
+}
@@ -22,9 +22,16 @@
 package org.jboss.ejb3.packagemanager.db;
 
 import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
@@ -33,6 +40,7 @@ import javax.persistence.Persistence;
 import javax.persistence.Query;
 import javax.transaction.Synchronization;
 
+import org.hibernate.Session;
 import org.jboss.ejb3.packagemanager.PackageContext;
 import org.jboss.ejb3.packagemanager.PackageManagerContext;
 import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
@@ -40,11 +48,14 @@ import org.jboss.ejb3.packagemanager.entity.PersistentDependency;
 import org.jboss.ejb3.packagemanager.entity.PersistentFile;
 import org.jboss.ejb3.packagemanager.entity.PersistentPackage;
 import org.jboss.ejb3.packagemanager.entity.PersistentPackageManager;
+import org.jboss.ejb3.packagemanager.entity.PersistentPostUnInstallScript;
 import org.jboss.ejb3.packagemanager.entity.PersistentPreUnInstallScript;
 import org.jboss.ejb3.packagemanager.exception.PackageManagerException;
 import org.jboss.ejb3.packagemanager.exception.PackageNotInstalledException;
 import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
 import org.jboss.ejb3.packagemanager.metadata.ScriptType;
+import org.jboss.ejb3.packagemanager.util.DBUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
 import org.jboss.logging.Logger;
 
 /**
@@ -86,10 +97,51 @@ public class DefaultDatabaseManager implements PackageDatabaseManager, Synchroni
       System.setProperty("derby.system.home", dbHome.getAbsolutePath());
 
       logger.info("Package manager DB home set to " + System.getProperty("derby.system.home"));
+      // the schema isn't generated (or updated) by hibernate
+      this.upgradeSchema();
       this.entityMgrFactory = Persistence.createEntityManagerFactory("default");
 
    }
 
+   /**
+    * Upgrades the schema of a database which was setup by an older version of 
+    * the package manager
+    */
+   private void upgradeSchema()
+   {
+      Connection conn;
+      try
+      {
+         conn = DriverManager.getConnection("jdbc:derby:pmdb");
+      }
+      catch (SQLException sqle)
+      {
+         // the database hasn't been setup, so there's nothing to upgrade
+         logger.debug("Could not connect to package manager database, skipping schema upgrade", sqle);
+         return;
+      }
+      try
+      {
+         DBUtil.upgradeSchema(conn);
+      }
+      catch (SQLException sqle)
+      {
+         throw new RuntimeException("Could not upgrade package manager database schema", sqle);
+      }
+      finally
+      {
+         try
+         {
+            conn.close();
+         }
+         catch (SQLException sqle)
+         {
+            // can't do much
+            logger.trace("Could not close connection:", sqle);
+         }
+      }
+   }
+
    private PersistentPackageManager getOrCreatePackageManagerEntity(PackageManagerContext pkgMgrCtx)
    {
       EntityManager em = this.getEntityManager();
@@ -140,6 +192,106 @@ public class DefaultDatabaseManager implements PackageDatabaseManager, Synchroni
       return newlyInstalledPackage;
    }
 
+   /**
+    * @see org.jboss.ejb3.packagemanager.db.PackageDatabaseManager#recordInstalledFiles(PersistentPackage, PackageContext, Collection)
+    */
+   @Override
+   public void recordInstalledFiles(PersistentPackage installedPackage, PackageContext pkgCtx,
+         Collection<InstallFileType> installedFiles)
+   {
+      EntityManager em = this.getEntityManager();
+      // the package record has to reach the DB before the records of its files
+      em.flush();
+      PersistentPackage pkg = em.find(PersistentPackage.class, installedPackage.getPackageName());
+      if (pkg == null)
+      {
+         throw new RuntimeException("Installation of package " + pkgCtx + " has not been recorded");
+      }
+      List<PersistentFile> records = new ArrayList<PersistentFile>(installedFiles.size());
+      for (InstallFileType file : installedFiles)
+      {
+         // the record isn't added to the files of the package, which would keep it in memory 
+         PersistentFile record = this.createInstallationFile(pkg, pkgCtx, file);
+         em.persist(record);
+         records.add(record);
+      }
+      em.flush();
+      // only the records of this batch are let go of, the rest of the (managed) entities 
+      // of the transaction stay as they are
+      Session session = (Session) em.getDelegate();
+      for (PersistentFile record : records)
+      {
+         session.evict(record);
+      }
+      logger.debug("Recorded " + installedFiles.size() + " installed file(s) of package " + pkgCtx + " to database");
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.db.PackageDatabaseManager#upgradePackage(PersistentPackage, PackageContext, Collection, Collection)
+    */
+   @Override
+   public PersistentPackage upgradePackage(PersistentPackage installedPackage, PackageContext pkgCtx,
+         Collection<PersistentFile> removedFiles, Collection<InstallFileType> installedFiles)
+   {
+      EntityManager em = this.getEntityManager();
+      PersistentPackage upgradedPackage = em.merge(installedPackage);
+      upgradedPackage.setPackageVersion(pkgCtx.getPackageVersion());
+
+      // index the recorded files by their path relative to JBOSS_HOME
+      Map<String, PersistentFile> recordedFiles = new HashMap<String, PersistentFile>();
+      if (upgradedPackage.getInstallationFiles() != null)
+      {
+         for (PersistentFile recordedFile : upgradedPackage.getInstallationFiles())
+         {
+            recordedFiles.put(IOUtil.getRelativePath(recordedFile.getInstalledPath(), recordedFile.getFileName()),
+                  recordedFile);
+         }
+      }
+      for (PersistentFile removedFile : removedFiles)
+      {
+         PersistentFile recordedFile = recordedFiles.remove(IOUtil.getRelativePath(removedFile.getInstalledPath(),
+               removedFile.getFileName()));
+         if (recordedFile != null)
+         {
+            upgradedPackage.getInstallationFiles().remove(recordedFile);
+            em.remove(recordedFile);
+         }
+      }
+      for (InstallFileType file : installedFiles)
+      {
+         PersistentFile recordedFile = recordedFiles.get(IOUtil.getRelativePath(file.getDestPath(), file.getName()));
+         if (recordedFile == null)
+         {
+            recordedFile = this.createInstallationFile(upgradedPackage, pkgCtx, file);
+            upgradedPackage.addInstallationFile(recordedFile);
+            em.persist(recordedFile);
+         }
+         else
+         {
+            recordedFile.setFileType(file.getType() == null ? null : file.getType().toString());
+            // the recorded checksum is of the previous content, so it's dropped if the new one isn't known 
+            recordedFile.setChecksum(pkgCtx.getKnownInstallationFileChecksum(file));
+         }
+      }
+
+      // the uninstall scripts and dependencies are replaced by those of the new version
+      this.removeAll(em, upgradedPackage.getPreUnInstallScripts());
+      this.removeAll(em, upgradedPackage.getPostUnInstallScripts());
+      this.removeAll(em, upgradedPackage.getDependencies());
+      this.addUnInstallScripts(upgradedPackage, pkgCtx);
+      try
+      {
+         this.addDependencies(upgradedPackage, pkgCtx);
+      }
+      catch (PackageNotInstalledException pnie)
+      {
+         throw new RuntimeException(pnie);
+      }
+
+      logger.info("Recorded upgrade of package " + pkgCtx + " to database");
+      return upgradedPackage;
+   }
+
    /**
     * @see org.jboss.ejb3.packagemanager.db.PackageDatabaseManager#getInstalledPackage(java.lang.String)
     */
@@ -205,21 +357,50 @@ public class DefaultDatabaseManager implements PackageDatabaseManager, Synchroni
       PersistentPackage newPackage = new PersistentPackage(pkgMgrEntity, pkgCtx.getPackageName(), pkgCtx
             .getPackageVersion());
 
-      List<InstallFileType> files = pkgCtx.getInstallationFiles();
-      if (files != null)
+      // streamed files are recorded as they are installed (see recordInstalledFiles)
+      if (!pkgCtx.isStreamingInstallationFiles())
       {
-         for (InstallFileType file : files)
+         for (InstallFileType file : pkgCtx.getInstallationFiles())
          {
-            PersistentFile installationFile = new PersistentFile(file.getName(), file.getDestPath());
-            if (file.getType() != null)
-            {
-               installationFile.setFileType(file.getType().toString());
-            }
-            newPackage.addInstallationFile(installationFile);
-            installationFile.setPkg(newPackage);
-
+            newPackage.addInstallationFile(this.createInstallationFile(newPackage, pkgCtx, file));
          }
       }
+      this.addUnInstallScripts(newPackage, pkgCtx);
+      this.addDependencies(newPackage, pkgCtx);
+      return newPackage;
+   }
+
+   /**
+    * Creates a {@link PersistentFile} for a <code>file</code>, of the package 
+    * <code>pkgCtx</code>, which was installed 
+    * 
+    * @param pkg The package to which the file belongs
+    * @param pkgCtx The package context
+    * @param file The installed file
+    * @return
+    */
+   private PersistentFile createInstallationFile(PersistentPackage pkg, PackageContext pkgCtx, InstallFileType file)
+   {
+      PersistentFile installationFile = new PersistentFile(file.getName(), file.getDestPath());
+      if (file.getType() != null)
+      {
+         installationFile.setFileType(file.getType().toString());
+      }
+      // only a checksum which is already known is recorded, the file isn't read just to compute one.
+      // A file recorded without a checksum is digested when (and if) its checksum is needed
+      installationFile.setChecksum(pkgCtx.getKnownInstallationFileChecksum(file));
+      installationFile.setPkg(pkg);
+      return installationFile;
+   }
+
+   /**
+    * Adds the pre/post uninstall scripts of <code>pkgCtx</code> to the package
+    * 
+    * @param pkg The package
+    * @param pkgCtx The package context
+    */
+   private void addUnInstallScripts(PersistentPackage pkg, PackageContext pkgCtx)
+   {
       String relativePathToScriptStore = this.packageManagerCtx.getScriptStoreLocation(pkgCtx);
       List<ScriptType> preUnInstallScripts = pkgCtx.getPreUnInstallScripts();
       if (preUnInstallScripts != null)
@@ -227,9 +408,9 @@ public class DefaultDatabaseManager implements PackageDatabaseManager, Synchroni
          for (ScriptType script : preUnInstallScripts)
          {
             String scriptName = script.getName();
-            PersistentPreUnInstallScript preUnInstallScript = new PersistentPreUnInstallScript(newPackage, scriptName,
+            PersistentPreUnInstallScript preUnInstallScript = new PersistentPreUnInstallScript(pkg, scriptName,
                   relativePathToScriptStore);
-            newPackage.addPreUnInstallScript(preUnInstallScript);
+            pkg.addPreUnInstallScript(preUnInstallScript);
          }
       }
 
@@ -239,30 +420,58 @@ public class DefaultDatabaseManager implements PackageDatabaseManager, Synchroni
          for (ScriptType script : postUnInstallScripts)
          {
             String scriptName = script.getName();
-            org.jboss.ejb3.packagemanager.entity.PersistentPostUnInstallScript postUnInstallScript = new org.jboss.ejb3.packagemanager.entity.PersistentPostUnInstallScript(
-                  newPackage, scriptName, relativePathToScriptStore);
-            newPackage.addPostUnInstallScript(postUnInstallScript);
+            PersistentPostUnInstallScript postUnInstallScript = new PersistentPostUnInstallScript(pkg, scriptName,
+                  relativePathToScriptStore);
+            pkg.addPostUnInstallScript(postUnInstallScript);
          }
       }
+   }
 
+   /**
+    * Adds the dependencies of <code>pkgCtx</code> to the package. The dependency
+    * packages are expected to be already installed.
+    * 
+    * @param pkg The package
+    * @param pkgCtx The package context
+    * @throws PackageNotInstalledException If any of the dependency packages is not installed
+    */
+   private void addDependencies(PersistentPackage pkg, PackageContext pkgCtx) throws PackageNotInstalledException
+   {
       Set<PackageContext> dependencyPackages = pkgCtx.getDependencyPackages();
       if (dependencyPackages != null)
       {
-         Set<PersistentDependency> dependencyPackagesForNewPackage = new HashSet<PersistentDependency>(
-               dependencyPackages.size());
-         newPackage.setDependencies(dependencyPackagesForNewPackage);
-
+         Set<PersistentDependency> dependencies = new HashSet<PersistentDependency>(dependencyPackages.size());
          for (PackageContext dependencyPkgCtx : dependencyPackages)
          {
             PersistentDependency dependency = new PersistentDependency();
-            dependency.setDependentPackage(newPackage);
+            dependency.setDependentPackage(pkg);
             PersistentPackage dependencyPackage = this.getInstalledPackage(dependencyPkgCtx.getPackageName());
             dependency.setDependeePackage(dependencyPackage);
 
-            dependencyPackagesForNewPackage.add(dependency);
+            dependencies.add(dependency);
          }
+         pkg.addDependencies(dependencies);
       }
-      return newPackage;
+   }
+
+   /**
+    * Removes the <code>entities</code> through the entity manager and clears
+    * the collection
+    * 
+    * @param em Entity manager
+    * @param entities The entities to remove. Can be null.
+    */
+   private void removeAll(EntityManager em, Collection<?> entities)
+   {
+      if (entities == null)
+      {
+         return;
+      }
+      for (Object entity : entities)
+      {
+         em.remove(entity);
+      }
+      entities.clear();
    }
 
    /**
@@ -21,11 +21,14 @@
 */
 package org.jboss.ejb3.packagemanager.db;
 
+import java.util.Collection;
 import java.util.Set;
 
 import org.jboss.ejb3.packagemanager.PackageContext;
+import org.jboss.ejb3.packagemanager.entity.PersistentFile;
 import org.jboss.ejb3.packagemanager.entity.PersistentPackage;
 import org.jboss.ejb3.packagemanager.exception.PackageNotInstalledException;
+import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
 
 /**
  * PackageDatabaseManager
@@ -50,6 +53,39 @@ public interface PackageDatabaseManager
     * installed package
     */
    PersistentPackage installPackage(PackageContext pkgCtx);
+
+   /**
+    * Store the information, in DB, about the <code>installedFiles</code> of a package
+    * whose files are streamed (see {@link PackageContext#isStreamingInstallationFiles()}). 
+    * The package itself is expected to be already recorded through {@link #installPackage(PackageContext)}.
+    * 
+    * This method is called for each batch of files, as they are installed. The records 
+    * are flushed to the DB and then evicted from the persistence context, so the memory used to record the 
+    * files of a package doesn't grow with the number of files.
+    * 
+    * @param installedPackage The package to which the files belong
+    * @param pkgCtx The package which is being installed
+    * @param installedFiles The files which were installed
+    */
+   void recordInstalledFiles(PersistentPackage installedPackage, PackageContext pkgCtx,
+         Collection<InstallFileType> installedFiles);
+
+   /**
+    * Store the information, in DB, about an installed package which was upgraded
+    * in place to the version represented by <code>pkgCtx</code>.
+    * 
+    * Only the records of the files which were removed or (re)installed during the 
+    * upgrade are changed. The records of the rest of the files are retained as-is.
+    * 
+    * @param installedPackage The currently installed version of the package
+    * @param pkgCtx The new version of the package
+    * @param removedFiles The files which were removed during the upgrade
+    * @param installedFiles The files which were installed (added or overwritten) during 
+    *           the upgrade
+    * @return Returns the {@link PersistentPackage} representing the upgraded package
+    */
+   PersistentPackage upgradePackage(PersistentPackage installedPackage, PackageContext pkgCtx,
+         Collection<PersistentFile> removedFiles, Collection<InstallFileType> installedFiles);
    
    /**
     * Returns a package with the package name - <code>name</code>, which is already installed. 
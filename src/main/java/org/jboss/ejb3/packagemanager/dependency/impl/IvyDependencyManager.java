@@ -120,10 +120,8 @@ public class IvyDependencyManager implements DependencyManager
          // Now that the dependencies have been resolved, let now retrieve them
          ModuleDescriptor md = resolveReport.getModuleDescriptor();
          // the dependency packages will be retrieved to a sub folder under the package manager's
-         // tmp folder
-         File pkgTmpDir = new File(pkgMgrContext.getPackageManagerEnvironment().getPackageManagerTmpDir(), pkgCtx.getPackageName());
-               
-         pkgTmpDir.mkdir();
+         // tmp folder, which is deleted once the package manager operation completes
+         File pkgTmpDir = pkgMgrContext.getWorkspaceManager().leaseTmpDirectory(pkgCtx.getPackageName());
 
          ModuleRevisionId mRID = md.getModuleRevisionId();
          RetrieveOptions retrieveOptions = new RetrieveOptions();
@@ -140,25 +138,15 @@ public class IvyDependencyManager implements DependencyManager
          // retrieve them!
          int packagesRetrieved = ivy.retrieve(mRID, pattern, retrieveOptions);
          logger.info("Retrieved " + packagesRetrieved + " dependencies for package " + pkgCtx);
-         Set<PackageContext> depPkgCtxs = new HashSet<PackageContext>();
-         // for each of the retrieved packages, create a package context
+         // create a package context for each of the retrieved packages. The files which 
+         // aren't packages are skipped
+         List<URL> depPkgURLs = new ArrayList<URL>();
          for (File depPkg : getJarFilesRecursively(pkgTmpDir))
          {
-            PackageContext depPkgCtx;
-            try
-            {
-               depPkgCtx = new DefaultPackageContext(pkgMgrContext, depPkg.toURI().toURL());
-               depPkgCtxs.add(depPkgCtx);
-            }
-            catch (InvalidPackageException e)
-            {
-               // this is not a package file so skip it and log a WARN message
-               logger.warn("Skipping dependency file " + depPkg
-                     + " since it's not a package. Was listed as a dependency of " + pkgCtx);
-               continue;
-            }
-
+            depPkgURLs.add(depPkg.toURI().toURL());
          }
+         Set<PackageContext> depPkgCtxs = new HashSet<PackageContext>(DefaultPackageContext.createPackageContexts(
+               pkgMgrContext, depPkgURLs, true));
          return depPkgCtxs;
       }
       catch (IOException ioe)
@@ -169,6 +157,11 @@ public class IvyDependencyManager implements DependencyManager
       {
          throw new DependencyResoultionException(pe);
       }
+      catch (InvalidPackageException ipe)
+      {
+         // invalid packages are skipped, so this is a corrupt package
+         throw new DependencyResoultionException(ipe);
+      }
 
    }
 
@@ -50,6 +50,12 @@ public class PersistentFile
    
    private String fileType;
    
+   /**
+    * The (hex encoded) SHA-256 checksum of the installed content. Can be null
+    * for files which were installed before checksums were being recorded.
+    */
+   private String checksum;
+   
    @ManyToOne 
    @JoinColumn(name="package_name")
    private PersistentPackage pkg;
@@ -111,6 +117,16 @@ public class PersistentFile
       this.fileType = fileType;
    }
 
+   public String getChecksum()
+   {
+      return checksum;
+   }
+
+   public void setChecksum(String checksum)
+   {
+      this.checksum = checksum;
+   }
+
    public PersistentPackage getPkg()
    {
       return pkg;
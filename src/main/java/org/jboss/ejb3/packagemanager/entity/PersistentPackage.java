@@ -88,6 +88,11 @@ public class PersistentPackage
       return this.version;
    }
 
+   public void setPackageVersion(String packageVersion)
+   {
+      this.version = packageVersion;
+   }
+
    public Set<PersistentFile> getInstallationFiles()
    {
       return installationFiles;
@@ -21,14 +21,26 @@
 */
 package org.jboss.ejb3.packagemanager.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 import org.apache.ivy.Ivy;
@@ -37,8 +49,12 @@ import org.apache.ivy.plugins.latest.ArtifactInfo;
 import org.apache.ivy.plugins.version.VersionMatcher;
 import org.jboss.ejb3.packagemanager.PackageContext;
 import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.cache.CachedPackage;
+import org.jboss.ejb3.packagemanager.cache.ExtractionCache;
+import org.jboss.ejb3.packagemanager.cache.MetadataCache;
 import org.jboss.ejb3.packagemanager.dependency.DependencyManager;
 import org.jboss.ejb3.packagemanager.dependency.impl.IvyDependencyManager;
+import org.jboss.ejb3.packagemanager.exception.ChecksumMismatchException;
 import org.jboss.ejb3.packagemanager.exception.DependencyResoultionException;
 import org.jboss.ejb3.packagemanager.exception.InvalidPackageException;
 import org.jboss.ejb3.packagemanager.exception.PackageRetrievalException;
@@ -53,9 +69,18 @@ import org.jboss.ejb3.packagemanager.metadata.PreUnInstallType;
 import org.jboss.ejb3.packagemanager.metadata.ScriptType;
 import org.jboss.ejb3.packagemanager.metadata.SystemRequirementsType;
 import org.jboss.ejb3.packagemanager.metadata.UnProcessedDependenciesType;
+import org.jboss.ejb3.packagemanager.retriever.InputStreamPackageRetriever;
 import org.jboss.ejb3.packagemanager.retriever.PackageRetriever;
+import org.jboss.ejb3.packagemanager.retriever.StreamingPackageRetriever;
 import org.jboss.ejb3.packagemanager.retriever.impl.PackageRetrievalFactory;
+import org.jboss.ejb3.packagemanager.throttle.TokenBucket;
+import org.jboss.ejb3.packagemanager.util.DigestMemo;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.ExtractionStatistics;
 import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.ejb3.packagemanager.util.JarExtractor;
+import org.jboss.ejb3.packagemanager.util.ParallelTaskRunner;
+import org.jboss.ejb3.packagemanager.xml.InstallFileHandler;
 import org.jboss.ejb3.packagemanager.xml.PackageUnmarshaller;
 import org.jboss.logging.Logger;
 
@@ -68,6 +93,63 @@ import org.jboss.logging.Logger;
 public class DefaultPackageContext implements PackageContext
 {
 
+   /**
+    * Name of the property which specifies the max number of threads used
+    * for extracting a package. Defaults to 1 (i.e. the package is extracted in the
+    * calling thread)
+    */
+   public static final String PROPERTY_EXTRACTION_THREADS = "packagemanager.extraction.threads";
+
+   /**
+    * Name of the property which specifies the max number of threads used for 
+    * creating (i.e. retrieving, extracting and processing) the package contexts of the
+    * dependencies of a package. Defaults to 1 (i.e. the dependencies are processed 
+    * one after the other, in the calling thread)
+    */
+   public static final String PROPERTY_DEPENDENCY_THREADS = "packagemanager.dependency.threads";
+
+   /**
+    * Name of the property which specifies how a package is extracted to the 
+    * build folder. The supported values are {@link #EXTRACTION_MODE_FULL} (the default)
+    * and {@link #EXTRACTION_MODE_SELECTIVE}
+    */
+   public static final String PROPERTY_EXTRACTION_MODE = "packagemanager.extraction.mode";
+
+   /**
+    * The entire package is extracted to the build folder
+    */
+   public static final String EXTRACTION_MODE_FULL = "full";
+
+   /**
+    * The files to be installed (i.e. the files referenced by the &lt;file&gt; elements in
+    * package.xml) are not extracted to the build folder. They are instead installed directly
+    * from the package archive. Everything else (scripts, dependency files etc...) is extracted.
+    */
+   public static final String EXTRACTION_MODE_SELECTIVE = "selective";
+
+   /**
+    * Name of the property which enables the extraction of a package while it's being 
+    * retrieved (for retrievers which support it), instead of after it has been retrieved. 
+    * Only applies to the {@link #EXTRACTION_MODE_FULL full} extraction mode, when the extraction
+    * cache isn't in use. Defaults to false.
+    */
+   public static final String PROPERTY_STREAMING_EXTRACTION = "packagemanager.extraction.streaming";
+
+   /**
+    * Name of the property which, when set to true, makes the files of a package be parsed out of 
+    * its package.xml each time they are processed, instead of being held in memory for as long 
+    * as the package is being installed (see {@link #isStreamingInstallationFiles()}). Meant for 
+    * packages listing a very large number of files. Applies only to packages which are 
+    * fully extracted and aren't served from the extraction cache. Defaults to false.
+    */
+   public static final String PROPERTY_STREAMING_FILES = "packagemanager.install.streaming-files";
+
+   /**
+    * Size of the buffer between the retrieval and the extraction of a package, when they
+    * run concurrently
+    */
+   private static final int STREAMING_BUFFER_SIZE = 1024 * 1024;
+
    /**
     * Logger
     */
@@ -84,6 +166,34 @@ public class DefaultPackageContext implements PackageContext
     */
    private File packageRoot;
 
+   /**
+    * The retrieved package archive
+    */
+   private File packageArchive;
+
+   /**
+    * The package archive opened for reading the installation files 
+    * which weren't extracted. Opened lazily.
+    */
+   private JarFile openArchive;
+
+   /**
+    * Names of the entries in the package archive which weren't extracted 
+    * to the package root
+    */
+   private Set<String> unextractedEntries = Collections.emptySet();
+
+   /**
+    * The extraction cache entry holding the extracted package. Null if the 
+    * extraction cache is not enabled
+    */
+   private CachedPackage cachedPackage;
+
+   /**
+    * The extraction cache from which the {@link #cachedPackage} was acquired
+    */
+   private ExtractionCache extractionCache;
+
    /**
     * The package manager context
     */
@@ -99,6 +209,18 @@ public class DefaultPackageContext implements PackageContext
     */
    private Set<PackageContext> dependencyPackages = new HashSet<PackageContext>();
 
+   /**
+    * True if the files of the package aren't part of {@link #pkg}, but are parsed out of 
+    * the package.xml whenever they are processed
+    */
+   private boolean streamingFiles;
+
+   /**
+    * True if any of the files of the package declares a checksum. Only maintained when
+    * the files are streamed.
+    */
+   private boolean declaresChecksums;
+
    /**
     * Constructs a package context out of a package source, for 
     * a package manager context
@@ -154,9 +276,44 @@ public class DefaultPackageContext implements PackageContext
    @Override
    public List<InstallFileType> getInstallationFiles()
    {
+      if (this.streamingFiles)
+      {
+         throw new IllegalStateException("Files of package " + this
+               + " are streamed, process them through processInstallationFiles() instead");
+      }
       return Collections.unmodifiableList(this.pkg.getFiles());
    }
 
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageContext#isStreamingInstallationFiles()
+    */
+   @Override
+   public boolean isStreamingInstallationFiles()
+   {
+      return this.streamingFiles;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageContext#processInstallationFiles(org.jboss.ejb3.packagemanager.xml.InstallFileHandler)
+    */
+   @Override
+   public void processInstallationFiles(InstallFileHandler fileHandler) throws Exception
+   {
+      if (!this.streamingFiles)
+      {
+         if (this.pkg.getFiles() != null)
+         {
+            for (InstallFileType file : this.pkg.getFiles())
+            {
+               fileHandler.handleFile(file);
+            }
+         }
+         return;
+      }
+      File packageXml = new File(this.packageRoot, "package.xml");
+      PackageUnmarshaller.getInstance().unmarshal(packageXml.toURI().toURL(), fileHandler);
+   }
+
    /**
     * @see org.jboss.ejb3.packagemanager.PackageContext#getPackageName()
     */
@@ -261,6 +418,248 @@ public class DefaultPackageContext implements PackageContext
       return this.pkg.getSystemRequirements();
    }
 
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageContext#getInstallationFileContent(org.jboss.ejb3.packagemanager.metadata.InstallFileType)
+    */
+   @Override
+   public InputStream getInstallationFileContent(InstallFileType file) throws IOException
+   {
+      String entryName = IOUtil.getRelativePath(file.getSrcPath(), file.getName());
+      if (!this.unextractedEntries.contains(entryName))
+      {
+         File srcPath = file.getSrcPath() == null ? this.packageRoot : new File(this.packageRoot, file.getSrcPath());
+         File extractedFile = new File(srcPath, file.getName());
+         return extractedFile.isFile() ? new FileInputStream(extractedFile) : null;
+      }
+      JarFile archive = this.getOpenArchive();
+      JarEntry entry = archive.getJarEntry(entryName);
+      return entry == null ? null : archive.getInputStream(entry);
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageContext#getInstallationFileChecksum(org.jboss.ejb3.packagemanager.metadata.InstallFileType)
+    */
+   @Override
+   public String getInstallationFileChecksum(InstallFileType file) throws IOException
+   {
+      String checksum = file.getChecksum();
+      if (checksum != null)
+      {
+         return checksum;
+      }
+      checksum = this.computeInstallationFileChecksum(file);
+      if (checksum != null)
+      {
+         file.setChecksum(checksum);
+      }
+      return checksum;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageContext#getKnownInstallationFileChecksum(org.jboss.ejb3.packagemanager.metadata.InstallFileType)
+    */
+   @Override
+   public String getKnownInstallationFileChecksum(InstallFileType file)
+   {
+      String checksum = file.getChecksum();
+      if (checksum != null)
+      {
+         return checksum;
+      }
+      String entryName = IOUtil.getRelativePath(file.getSrcPath(), file.getName());
+      if (this.unextractedEntries.contains(entryName))
+      {
+         return null;
+      }
+      return DigestMemo.lookup(new File(this.packageRoot, entryName));
+   }
+
+   /**
+    * Computes the checksum of the content of the <code>file</code>, ignoring the checksum (if any) 
+    * declared in the package.xml. The checksums of extracted files are usually known from 
+    * their extraction, so such files aren't read again.
+    * 
+    * @return Returns null if the package doesn't contain the file
+    */
+   private String computeInstallationFileChecksum(InstallFileType file) throws IOException
+   {
+      String entryName = IOUtil.getRelativePath(file.getSrcPath(), file.getName());
+      if (!this.unextractedEntries.contains(entryName))
+      {
+         File extractedFile = new File(this.packageRoot, entryName);
+         return extractedFile.isFile() ? DigestMemo.sha256(extractedFile) : null;
+      }
+      InputStream content = this.getInstallationFileContent(file);
+      if (content == null)
+      {
+         return null;
+      }
+      try
+      {
+         return DigestUtil.sha256(content);
+      }
+      finally
+      {
+         IOUtil.close(content);
+      }
+   }
+
+   /**
+    * Verifies the files of the package against the checksums declared for them in 
+    * the package.xml, so that a corrupt or tampered package is rejected before any of 
+    * its files is installed.
+    * 
+    * @throws ChecksumMismatchException If the checksum of any file doesn't match
+    */
+   private void verifyInstallationFileChecksums() throws ChecksumMismatchException
+   {
+      int verified = 0;
+      if (this.streamingFiles)
+      {
+         // the files are parsed again only if there's anything to verify
+         if (this.declaresChecksums)
+         {
+            verified = this.verifyStreamedInstallationFileChecksums();
+         }
+      }
+      else
+      {
+         for (InstallFileType file : this.pkg.getFiles())
+         {
+            if (this.verifyInstallationFileChecksum(file))
+            {
+               verified++;
+            }
+         }
+      }
+      if (verified > 0)
+      {
+         logger.debug("Verified checksums of " + verified + " file(s) of package " + this.packageSource);
+      }
+   }
+
+   /**
+    * Verifies the streamed files of the package against the checksums declared for them 
+    * in the package.xml
+    * 
+    * @return Returns the number of files verified
+    * @throws ChecksumMismatchException If the checksum of any file doesn't match
+    */
+   private int verifyStreamedInstallationFileChecksums() throws ChecksumMismatchException
+   {
+      final int[] verified = new int[1];
+      try
+      {
+         this.processInstallationFiles(new InstallFileHandler()
+         {
+            public void handleFile(InstallFileType file) throws Exception
+            {
+               if (verifyInstallationFileChecksum(file))
+               {
+                  verified[0]++;
+               }
+            }
+         });
+      }
+      catch (ChecksumMismatchException cme)
+      {
+         throw cme;
+      }
+      catch (RuntimeException re)
+      {
+         throw re;
+      }
+      catch (Exception e)
+      {
+         throw new RuntimeException("Could not verify checksums of files in package " + this.packageSource, e);
+      }
+      return verified[0];
+   }
+
+   /**
+    * Verifies the <code>file</code> against the checksum declared for it in the package.xml
+    * 
+    * @return Returns false if the file doesn't declare a checksum 
+    * @throws ChecksumMismatchException If the checksum of the file doesn't match or the file 
+    *           is missing from the package
+    */
+   private boolean verifyInstallationFileChecksum(InstallFileType file) throws ChecksumMismatchException
+   {
+      String declaredChecksum = file.getChecksum();
+      if (declaredChecksum == null)
+      {
+         return false;
+      }
+      String checksum = null;
+      try
+      {
+         checksum = this.computeInstallationFileChecksum(file);
+      }
+      catch (IOException ioe)
+      {
+         throw new RuntimeException("Could not compute checksum of file " + file.getName() + " in package "
+               + this.packageSource, ioe);
+      }
+      if (checksum == null)
+      {
+         throw new ChecksumMismatchException("File " + file.getName() + ", declared with checksum " + declaredChecksum
+               + ", is missing from package " + this.packageSource);
+      }
+      if (!checksum.equals(declaredChecksum))
+      {
+         throw new ChecksumMismatchException("Checksum of file " + file.getName() + " in package "
+               + this.packageSource + " is " + checksum + ", expected " + declaredChecksum);
+      }
+      return true;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageContext#release()
+    */
+   @Override
+   public void release()
+   {
+      synchronized (this)
+      {
+         if (this.openArchive != null)
+         {
+            try
+            {
+               this.openArchive.close();
+            }
+            catch (IOException ioe)
+            {
+               logger.debug("Could not close package archive " + this.packageArchive, ioe);
+            }
+            this.openArchive = null;
+         }
+      }
+      synchronized (this)
+      {
+         if (this.cachedPackage != null)
+         {
+            this.extractionCache.release(this.cachedPackage);
+            this.cachedPackage = null;
+         }
+      }
+      for (PackageContext dependency : this.dependencyPackages)
+      {
+         dependency.release();
+      }
+   }
+
+   /**
+    * Returns the package archive, opening it if it's not already open
+    */
+   private synchronized JarFile getOpenArchive() throws IOException
+   {
+      if (this.openArchive == null)
+      {
+         this.openArchive = new JarFile(this.packageArchive);
+      }
+      return this.openArchive;
+   }
+
    
    private void initPackageDependencies() throws DependencyResoultionException, InvalidPackageException
    {
@@ -306,7 +705,7 @@ public class DefaultPackageContext implements PackageContext
          return Collections.EMPTY_SET;
       }
       List<PackagedDependency> packagedDeps = dependencies.getPackagedDependencies();
-      Set<PackageContext> depPackageCtxs = new HashSet<PackageContext>();
+      List<URL> dependencyPackageURLs = new ArrayList<URL>(packagedDeps.size());
       for (PackagedDependency packagedDep : packagedDeps)
       {
          String relativePathToDependencyPackage = packagedDep.getFile();
@@ -315,19 +714,141 @@ public class DefaultPackageContext implements PackageContext
          {
             throw new DependencyResoultionException("packaged-dependency file " + dependencyPackage + " does not exist");
          }
-         PackageContext dependencyPkgCtx;
          try
          {
-            dependencyPkgCtx = new DefaultPackageContext(this.pkgMgrCtx, dependencyPackage.toURI().toURL());
-            depPackageCtxs.add(dependencyPkgCtx);
-
+            dependencyPackageURLs.add(dependencyPackage.toURI().toURL());
          }
          catch (MalformedURLException mue)
          {
             throw new RuntimeException(mue);
          }
       }
-      return depPackageCtxs;
+      return new HashSet<PackageContext>(createPackageContexts(this.pkgMgrCtx, dependencyPackageURLs, false));
+   }
+
+   /**
+    * Creates the package contexts for each of the <code>packageURLs</code>. The contexts 
+    * are created concurrently on (at most) {@link #PROPERTY_DEPENDENCY_THREADS} threads.
+    * If the creation of any of the contexts fails, the rest are cancelled and the contexts
+    * which were already created are released.
+    * 
+    * @param pkgMgrCtx Package manager context
+    * @param packageURLs The sources of the packages
+    * @param skipInvalidPackages If true, the sources which aren't valid packages are skipped
+    *           (with a WARN message). Else an {@link InvalidPackageException} is thrown for them.
+    * @return Returns the package contexts, in the order of the <code>packageURLs</code>
+    * @throws InvalidPackageException If any of the sources is not a valid package
+    * @throws DependencyResoultionException If the dependencies of any of the packages cannot
+    *           be resolved
+    */
+   public static List<PackageContext> createPackageContexts(final PackageManagerContext pkgMgrCtx,
+         List<URL> packageURLs, final boolean skipInvalidPackages) throws InvalidPackageException,
+         DependencyResoultionException
+   {
+      // the contexts created so far. Released if the creation of any other context fails 
+      final List<PackageContext> createdContexts = new ArrayList<PackageContext>();
+      final boolean[] failed = new boolean[1];
+      List<Callable<PackageContext>> tasks = new ArrayList<Callable<PackageContext>>(packageURLs.size());
+      for (final URL packageURL : packageURLs)
+      {
+         tasks.add(new Callable<PackageContext>()
+         {
+            public PackageContext call() throws Exception
+            {
+               PackageContext pkgCtx;
+               try
+               {
+                  pkgCtx = new DefaultPackageContext(pkgMgrCtx, packageURL);
+               }
+               catch (InvalidPackageException ipe)
+               {
+                  // a corrupt package is never skipped
+                  if (!skipInvalidPackages || ipe instanceof ChecksumMismatchException)
+                  {
+                     throw ipe;
+                  }
+                  logger.warn("Skipping " + packageURL + " since it's not a package");
+                  return null;
+               }
+               synchronized (createdContexts)
+               {
+                  // the batch already failed, so nobody is going to use this context 
+                  if (failed[0])
+                  {
+                     pkgCtx.release();
+                     return null;
+                  }
+                  createdContexts.add(pkgCtx);
+               }
+               return pkgCtx;
+            }
+         });
+      }
+      int threads = pkgMgrCtx.getPackageManagerEnvironment().getIntProperty(PROPERTY_DEPENDENCY_THREADS, 1);
+      ParallelTaskRunner runner = new ParallelTaskRunner("dependency-resolver", threads);
+      List<PackageContext> pkgCtxs = null;
+      Exception failure = null;
+      try
+      {
+         pkgCtxs = runner.invokeAll(tasks);
+      }
+      catch (ExecutionException ee)
+      {
+         Throwable cause = ee.getCause();
+         if (cause instanceof Error)
+         {
+            releaseAll(createdContexts, failed);
+            throw (Error) cause;
+         }
+         failure = (Exception) cause;
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         failure = ie;
+      }
+      if (failure != null)
+      {
+         releaseAll(createdContexts, failed);
+         if (failure instanceof InvalidPackageException)
+         {
+            throw (InvalidPackageException) failure;
+         }
+         if (failure instanceof DependencyResoultionException)
+         {
+            throw (DependencyResoultionException) failure;
+         }
+         if (failure instanceof RuntimeException)
+         {
+            throw (RuntimeException) failure;
+         }
+         throw new DependencyResoultionException("Could not process dependency packages", failure);
+      }
+      List<PackageContext> result = new ArrayList<PackageContext>(pkgCtxs.size());
+      for (PackageContext pkgCtx : pkgCtxs)
+      {
+         if (pkgCtx != null)
+         {
+            result.add(pkgCtx);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Marks the batch as failed and releases the package contexts created so far
+    */
+   private static void releaseAll(List<PackageContext> createdContexts, boolean[] failed)
+   {
+      synchronized (createdContexts)
+      {
+         failed[0] = true;
+         for (PackageContext pkgCtx : createdContexts)
+         {
+            pkgCtx.release();
+         }
+         createdContexts.clear();
+      }
    }
 
    /**
@@ -342,32 +863,61 @@ public class DefaultPackageContext implements PackageContext
       PackageRetriever pkgRetriever = PackageRetrievalFactory.getPackageRetriever(this.packageSource);
       try
       {
-         File pkg = pkgRetriever.retrievePackage(this.pkgMgrCtx, this.packageSource);
-         // the directory to which the package will be extracted
-         this.packageRoot = new File(pkgMgrCtx.getPackageManagerEnvironment().getPackageManagerBuildDir(), pkg
-               .getName());
-         if (!this.packageRoot.exists())
+         ExtractionCache extractionCache = this.pkgMgrCtx.getExtractionCache();
+         int extractionThreads = pkgMgrCtx.getPackageManagerEnvironment().getIntProperty(
+               PROPERTY_EXTRACTION_THREADS, 1);
+         String extractionMode = pkgMgrCtx.getPackageManagerEnvironment().getProperty(PROPERTY_EXTRACTION_MODE,
+               EXTRACTION_MODE_FULL);
+         boolean streaming = pkgMgrCtx.getPackageManagerEnvironment().getBooleanProperty(
+               PROPERTY_STREAMING_EXTRACTION, false);
+         // selective extraction and the extraction cache need the complete list of files upfront
+         this.streamingFiles = extractionCache == null && EXTRACTION_MODE_FULL.equalsIgnoreCase(extractionMode)
+               && pkgMgrCtx.getPackageManagerEnvironment().getBooleanProperty(PROPERTY_STREAMING_FILES, false);
+         File pkg = null;
+         if (extractionCache == null && EXTRACTION_MODE_FULL.equalsIgnoreCase(extractionMode)
+               && pkgRetriever instanceof InputStreamPackageRetriever)
          {
-            this.packageRoot.mkdirs();
+            this.extractFromStream((InputStreamPackageRetriever) pkgRetriever);
          }
-         JarFile jar = null;
-         try
+         else if (streaming && extractionCache == null && EXTRACTION_MODE_FULL.equalsIgnoreCase(extractionMode)
+               && pkgRetriever instanceof StreamingPackageRetriever)
          {
-            jar = new JarFile(pkg);
-            IOUtil.extractJarFile(this.packageRoot, jar);
+            pkg = this.retrieveAndExtract((StreamingPackageRetriever) pkgRetriever, extractionThreads);
          }
-         finally
+         else
          {
-            if (jar != null)
+            pkg = pkgRetriever.retrievePackage(this.pkgMgrCtx, this.packageSource);
+            if (extractionCache != null)
+            {
+               this.initPackageContextFromCache(extractionCache, pkg);
+               return;
+            }
+            // the directory to which the package will be extracted
+            this.packageRoot = this.pkgMgrCtx.getWorkspaceManager().leaseBuildDirectory(pkg.getName());
+            this.packageArchive = pkg;
+            if (EXTRACTION_MODE_SELECTIVE.equalsIgnoreCase(extractionMode))
             {
-               jar.close();
+               // parse the package.xml straight from the archive, so that we know
+               // which entries need not be extracted
+               this.initPackageMetadata(pkg);
+               this.unextractedEntries = this.getInstallationFileEntries();
             }
+            else if (!EXTRACTION_MODE_FULL.equalsIgnoreCase(extractionMode))
+            {
+               throw new IllegalArgumentException("Unknown extraction mode " + extractionMode + " set for property "
+                     + PROPERTY_EXTRACTION_MODE);
+            }
+            ExtractionStatistics stats = IOUtil.extractJarFile(this.packageRoot, pkg, extractionThreads,
+                  this.unextractedEntries, this.pkgMgrCtx.getThrottle().getDiskBucket());
+            logger.debug("Extracted " + pkg + " to " + this.packageRoot + " using " + extractionThreads
+                  + " thread(s) in " + extractionMode + " mode - " + stats);
          }
          // validate that it contains a package.xml
          File packageXml = new File(this.packageRoot, "package.xml");
-         if (!packageXml.exists())
+         if (this.pkg == null && !packageXml.exists())
          {
-            throw new InvalidPackageException(pkg + " is not a valid package - it does not contain a package.xml");
+            throw new InvalidPackageException((pkg == null ? this.packageSource : pkg)
+                  + " is not a valid package - it does not contain a package.xml");
          }
       }
       catch (PackageRetrievalException pre)
@@ -380,7 +930,189 @@ public class DefaultPackageContext implements PackageContext
       }
 
       // now that package has been retrieved and extracted, lets parse the package.xml
-      this.initPackageMetadata();
+      // (unless it was already parsed from the archive)
+      if (this.pkg == null)
+      {
+         this.initPackageMetadata();
+      }
+      try
+      {
+         this.verifyInstallationFileChecksums();
+      }
+      catch (InvalidPackageException ipe)
+      {
+         this.release();
+         throw ipe;
+      }
+   }
+
+   /**
+    * Extracts the package to the build folder straight from the stream handed out by the 
+    * retriever, without writing the package archive to a file
+    * 
+    * @param pkgRetriever The package retriever
+    */
+   private void extractFromStream(InputStreamPackageRetriever pkgRetriever) throws PackageRetrievalException,
+         IOException
+   {
+      this.packageRoot = this.leaseBuildDirectory();
+      InputStream is = pkgRetriever.openPackage(this.pkgMgrCtx, this.packageSource);
+      try
+      {
+         ExtractionStatistics stats = new JarExtractor(JarExtractor.DEFAULT_BUFFER_SIZE, this.pkgMgrCtx
+               .getThrottle().getDiskBucket()).extract(is, this.packageRoot);
+         logger.debug("Extracted " + this.packageSource + " to " + this.packageRoot + " from stream - " + stats);
+      }
+      finally
+      {
+         IOUtil.close(is);
+      }
+   }
+
+   /**
+    * Leases the build directory to which the package is extracted, named after the package source
+    */
+   private File leaseBuildDirectory() throws IOException
+   {
+      String name = new File(this.packageSource.getPath()).getName();
+      return this.pkgMgrCtx.getWorkspaceManager().leaseBuildDirectory(name.length() == 0 ? "package" : name);
+   }
+
+   /**
+    * Retrieves the package and extracts it to the build folder while it's being retrieved.
+    * The bytes handed out by the retriever are fed, through a bounded buffer, to an extractor
+    * running in a thread of its own. If the extractor didn't get to see the entire package (for 
+    * example, the package was served from a cache or the retrieval had to start over) or
+    * failed to extract it, then the retrieved package is extracted the usual way.
+    * 
+    * @param pkgRetriever The package retriever
+    * @param extractionThreads The number of threads to use if the package has to be extracted
+    *           after it's retrieved
+    * @return Returns the retrieved package
+    */
+   private File retrieveAndExtract(StreamingPackageRetriever pkgRetriever, int extractionThreads)
+         throws PackageRetrievalException, IOException
+   {
+      String name = new File(this.packageSource.getPath()).getName();
+      this.packageRoot = this.leaseBuildDirectory();
+      PipedInputStream pipeIn = new PipedInputStream(STREAMING_BUFFER_SIZE);
+      PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+      final CountingInputStream streamedContent = new CountingInputStream(pipeIn);
+      final TokenBucket diskBucket = this.pkgMgrCtx.getThrottle().getDiskBucket();
+      FutureTask<ExtractionStatistics> extraction = new FutureTask<ExtractionStatistics>(
+            new Callable<ExtractionStatistics>()
+            {
+               public ExtractionStatistics call() throws Exception
+               {
+                  try
+                  {
+                     return new JarExtractor(JarExtractor.DEFAULT_BUFFER_SIZE, diskBucket).extract(
+                           streamedContent, packageRoot);
+                  }
+                  finally
+                  {
+                     // let the retriever know that no more bytes are being read
+                     IOUtil.close(streamedContent);
+                  }
+               }
+            });
+      Thread extractor = new Thread(extraction, "package-extractor-" + name);
+      extractor.setDaemon(true);
+      extractor.start();
+      long start = System.currentTimeMillis();
+      File pkg = null;
+      try
+      {
+         pkg = pkgRetriever.retrievePackage(this.pkgMgrCtx, this.packageSource, pipeOut);
+      }
+      finally
+      {
+         // the extractor sees the end of the stream
+         IOUtil.close(pipeOut);
+         if (pkg == null)
+         {
+            extraction.cancel(true);
+         }
+      }
+      this.packageArchive = pkg;
+      ExtractionStatistics stats = null;
+      try
+      {
+         stats = extraction.get();
+      }
+      catch (ExecutionException ee)
+      {
+         logger.debug("Could not extract " + this.packageSource + " while retrieving it", ee.getCause());
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while extracting " + this.packageSource);
+      }
+      if (stats != null && streamedContent.getCount() == pkg.length())
+      {
+         logger.debug("Retrieved and extracted " + this.packageSource + " to " + this.packageRoot + " in "
+               + (System.currentTimeMillis() - start) + " ms - " + stats);
+         return pkg;
+      }
+      logger.debug("Extractor received " + streamedContent.getCount() + " of " + pkg.length() + " bytes of "
+            + this.packageSource + ", extracting the retrieved package instead");
+      File[] extracted = this.packageRoot.listFiles();
+      if (extracted != null)
+      {
+         for (File file : extracted)
+         {
+            IOUtil.delete(file);
+         }
+      }
+      Set<String> noExclusions = Collections.emptySet();
+      stats = IOUtil.extractJarFile(this.packageRoot, pkg, extractionThreads, noExclusions, diskBucket);
+      logger.debug("Extracted " + pkg + " to " + this.packageRoot + " using " + extractionThreads
+            + " thread(s) - " + stats);
+      return pkg;
+   }
+
+   /**
+    * Uses the (immutable) extracted package and the metadata from the extraction cache, 
+    * extracting the package into the cache if required.
+    * 
+    * @param extractionCache The extraction cache
+    * @param pkg The package archive
+    */
+   private void initPackageContextFromCache(ExtractionCache extractionCache, File pkg) throws IOException,
+         InvalidPackageException
+   {
+      this.packageArchive = pkg;
+      int extractionThreads = pkgMgrCtx.getPackageManagerEnvironment().getIntProperty(PROPERTY_EXTRACTION_THREADS, 1);
+      this.cachedPackage = extractionCache.acquire(pkg, extractionThreads);
+      this.extractionCache = extractionCache;
+      this.packageRoot = this.cachedPackage.getRoot();
+      this.pkg = this.cachedPackage.getMetadata();
+      if (this.pkg != null)
+      {
+         return;
+      }
+      try
+      {
+         if (!new File(this.packageRoot, "package.xml").exists())
+         {
+            throw new InvalidPackageException(pkg + " is not a valid package - it does not contain a package.xml");
+         }
+         this.initPackageMetadata();
+         // the cached tree is verified only once, when its metadata is first parsed
+         this.verifyInstallationFileChecksums();
+      }
+      catch (InvalidPackageException ipe)
+      {
+         this.release();
+         throw ipe;
+      }
+      catch (RuntimeException re)
+      {
+         this.release();
+         throw re;
+      }
+      this.cachedPackage.setMetadata(this.pkg);
    }
 
    /**
@@ -391,7 +1123,25 @@ public class DefaultPackageContext implements PackageContext
       File packageXmlFile = new File(this.packageRoot, "package.xml");
       try
       {
-         this.pkg = new PackageUnmarshaller().unmarshal(packageXmlFile.toURI().toURL());
+         if (this.streamingFiles)
+         {
+            this.initPackageMetadataWithoutFiles(packageXmlFile);
+            return;
+         }
+         MetadataCache metadataCache = this.pkgMgrCtx.getMetadataCache();
+         if (metadataCache == null)
+         {
+            this.pkg = PackageUnmarshaller.getInstance().unmarshal(packageXmlFile.toURI().toURL());
+            return;
+         }
+         // the digest of an extracted package.xml is usually known from the extraction
+         String packageXmlDigest = DigestMemo.sha256(packageXmlFile);
+         this.pkg = this.lookupMetadata(metadataCache, packageXmlDigest);
+         if (this.pkg == null)
+         {
+            this.pkg = PackageUnmarshaller.getInstance().unmarshal(packageXmlFile.toURI().toURL());
+            this.cacheMetadata(metadataCache, packageXmlDigest);
+         }
       }
       catch (Exception e)
       {
@@ -399,6 +1149,149 @@ public class DefaultPackageContext implements PackageContext
       }
    }
 
+   /**
+    * Parses the <code>packageXmlFile</code> and creates metadata, without the files, out of it.
+    * The files are only counted, so that the package.xml is completely validated before 
+    * any of the files is processed. Such metadata isn't stored in the metadata cache.
+    */
+   private void initPackageMetadataWithoutFiles(File packageXmlFile) throws Exception
+   {
+      final int[] files = new int[1];
+      final boolean[] checksums = new boolean[1];
+      this.pkg = PackageUnmarshaller.getInstance().unmarshal(packageXmlFile.toURI().toURL(),
+            new InstallFileHandler()
+            {
+               public void handleFile(InstallFileType file)
+               {
+                  files[0]++;
+                  checksums[0] = checksums[0] || file.getChecksum() != null;
+               }
+            });
+      this.declaresChecksums = checksums[0];
+      logger.debug("Parsed package.xml of " + this.packageSource + ", listing " + files[0]
+            + " file(s), with the files streamed");
+   }
+
+   /**
+    * Parses the package.xml file within the package <code>archive</code> and creates 
+    * metadata out of it
+    * 
+    * @param archive The package archive
+    */
+   private void initPackageMetadata(File archive) throws InvalidPackageException, IOException
+   {
+      JarFile jar = new JarFile(archive);
+      try
+      {
+         JarEntry packageXml = jar.getJarEntry("package.xml");
+         if (packageXml == null)
+         {
+            throw new InvalidPackageException(archive + " is not a valid package - it does not contain a package.xml");
+         }
+         InputStream is = jar.getInputStream(packageXml);
+         try
+         {
+            MetadataCache metadataCache = this.pkgMgrCtx.getMetadataCache();
+            if (metadataCache == null)
+            {
+               this.pkg = PackageUnmarshaller.getInstance().unmarshal(is);
+               return;
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            IOUtil.copy(is, content, new byte[JarExtractor.DEFAULT_BUFFER_SIZE]);
+            byte[] packageXmlContent = content.toByteArray();
+            String packageXmlDigest = DigestUtil.sha256(new ByteArrayInputStream(packageXmlContent));
+            this.pkg = this.lookupMetadata(metadataCache, packageXmlDigest);
+            if (this.pkg == null)
+            {
+               this.pkg = PackageUnmarshaller.getInstance().unmarshal(new ByteArrayInputStream(packageXmlContent));
+               this.cacheMetadata(metadataCache, packageXmlDigest);
+            }
+         }
+         catch (Exception e)
+         {
+            throw new RuntimeException("Could not create metadata from package.xml file in " + archive, e);
+         }
+         finally
+         {
+            IOUtil.close(is);
+         }
+      }
+      finally
+      {
+         jar.close();
+      }
+   }
+
+   /**
+    * Returns the metadata of the package.xml, whose digest is <code>packageXmlDigest</code>, from
+    * the <code>metadataCache</code>. 
+    * 
+    * @return Returns null if the metadata isn't cached, or was cached for another version of the schema
+    */
+   private PackageType lookupMetadata(MetadataCache metadataCache, String packageXmlDigest) throws Exception
+   {
+      PackageType cachedMetadata = metadataCache.lookup(packageXmlDigest, PackageUnmarshaller.getInstance()
+            .getSchemaDigest());
+      if (cachedMetadata != null)
+      {
+         logger.debug("Using cached metadata of package " + cachedMetadata.getName() + " version "
+               + cachedMetadata.getVersion() + " from " + this.packageSource);
+      }
+      return cachedMetadata;
+   }
+
+   /**
+    * Stores the just parsed metadata of the package.xml, whose digest is <code>packageXmlDigest</code>,
+    * in the <code>metadataCache</code>
+    */
+   private void cacheMetadata(MetadataCache metadataCache, String packageXmlDigest) throws Exception
+   {
+      if (this.pkg != null)
+      {
+         metadataCache.store(packageXmlDigest, PackageUnmarshaller.getInstance().getSchemaDigest(), this.pkg);
+      }
+   }
+
+   /**
+    * Returns the names of the archive entries of the files to be installed by this
+    * package. Files which are also used as scripts or dependency files are not included.
+    */
+   private Set<String> getInstallationFileEntries()
+   {
+      Set<String> entries = new HashSet<String>();
+      for (InstallFileType file : this.pkg.getFiles())
+      {
+         entries.add(IOUtil.getRelativePath(file.getSrcPath(), file.getName()));
+      }
+      List<ScriptType> scripts = new ArrayList<ScriptType>();
+      scripts.addAll(this.getPreInstallScripts());
+      scripts.addAll(this.getPostInstallScripts());
+      scripts.addAll(this.getPreUnInstallScripts());
+      scripts.addAll(this.getPostUnInstallScripts());
+      for (ScriptType script : scripts)
+      {
+         entries.remove(IOUtil.getRelativePath(script.getPath(), script.getName()));
+      }
+      DependenciesType dependencies = this.pkg.getDependencies();
+      if (dependencies != null)
+      {
+         if (dependencies.getUnProcessedDependencies() != null)
+         {
+            entries.remove(IOUtil.getRelativePath(null, dependencies.getUnProcessedDependencies().getFile()));
+         }
+         if (dependencies.getPackagedDependencies() != null)
+         {
+            for (PackagedDependency packagedDep : dependencies.getPackagedDependencies())
+            {
+               entries.remove(IOUtil.getRelativePath(null, packagedDep.getFile()));
+            }
+         }
+      }
+      entries.remove("package.xml");
+      return entries;
+   }
+
    private DependencyManager getDependencyManager(UnProcessedDependenciesType dependencies)
    {
       if (dependencies == null)
@@ -478,6 +1371,63 @@ public class DefaultPackageContext implements PackageContext
    }
 
    
+   /**
+    * Counts the bytes read from the wrapped stream
+    */
+   private static class CountingInputStream extends FilterInputStream
+   {
+      private volatile long count;
+
+      public CountingInputStream(InputStream is)
+      {
+         super(is);
+      }
+
+      @Override
+      public int read() throws IOException
+      {
+         int b = super.read();
+         if (b != -1)
+         {
+            this.count++;
+         }
+         return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+         int n = super.read(b, off, len);
+         if (n > 0)
+         {
+            this.count += n;
+         }
+         return n;
+      }
+
+      @Override
+      public long skip(long n) throws IOException
+      {
+         long skipped = super.skip(n);
+         this.count += skipped;
+         return skipped;
+      }
+
+      /**
+       * Mark/reset would make the count meaningless
+       */
+      @Override
+      public boolean markSupported()
+      {
+         return false;
+      }
+
+      public long getCount()
+      {
+         return this.count;
+      }
+   }
+
    private class MockIvyArtifactInfo implements ArtifactInfo
    {
 
@@ -25,12 +25,20 @@ import java.io.File;
 
 import javax.transaction.TransactionManager;
 
+import org.apache.http.client.HttpClient;
 import org.jboss.ejb3.packagemanager.PackageContext;
 import org.jboss.ejb3.packagemanager.PackageManager;
 import org.jboss.ejb3.packagemanager.PackageManagerContext;
 import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.cache.DownloadCache;
+import org.jboss.ejb3.packagemanager.cache.ExtractionCache;
+import org.jboss.ejb3.packagemanager.cache.MetadataCache;
 import org.jboss.ejb3.packagemanager.db.PackageDatabaseManager;
 import org.jboss.ejb3.packagemanager.metadata.ScriptType;
+import org.jboss.ejb3.packagemanager.mirror.MirrorSelector;
+import org.jboss.ejb3.packagemanager.retriever.impl.HttpClientManager;
+import org.jboss.ejb3.packagemanager.throttle.Throttle;
+import org.jboss.ejb3.packagemanager.workspace.WorkspaceManager;
 
 /**
  * DefaultPackageManagerContext
@@ -46,14 +54,50 @@ public class DefaultPackageManagerContext implements PackageManagerContext
     */
    private PackageManager pkgMgr;
 
+   /**
+    * Manages the HTTP client shared by the package manager
+    */
+   private HttpClientManager httpClientManager;
+
+   /**
+    * Picks the mirrors from which packages are retrieved
+    */
+   private MirrorSelector mirrorSelector;
+
    /**
     * Constructs a context for the {@code pkgMgr}
     *  
     * @param pkgMgr The package manager to which this context corresponds
     */
    public DefaultPackageManagerContext(PackageManager pkgMgr)
+   {
+      this(pkgMgr, new HttpClientManager(pkgMgr.getPackageManagerEnvironment()));
+   }
+
+   /**
+    * Constructs a context for the {@code pkgMgr}
+    *  
+    * @param pkgMgr The package manager to which this context corresponds
+    * @param httpClientManager Manages the HTTP client shared by the package manager
+    */
+   public DefaultPackageManagerContext(PackageManager pkgMgr, HttpClientManager httpClientManager)
+   {
+      this(pkgMgr, httpClientManager, new MirrorSelector(pkgMgr.getPackageManagerEnvironment(), httpClientManager));
+   }
+
+   /**
+    * Constructs a context for the {@code pkgMgr}
+    *  
+    * @param pkgMgr The package manager to which this context corresponds
+    * @param httpClientManager Manages the HTTP client shared by the package manager
+    * @param mirrorSelector Picks the mirrors from which packages are retrieved
+    */
+   public DefaultPackageManagerContext(PackageManager pkgMgr, HttpClientManager httpClientManager,
+         MirrorSelector mirrorSelector)
    {
       this.pkgMgr = pkgMgr;
+      this.httpClientManager = httpClientManager;
+      this.mirrorSelector = mirrorSelector;
    }
 
    /**
@@ -102,6 +146,69 @@ public class DefaultPackageManagerContext implements PackageManagerContext
       return this.pkgMgr.getTransactionManager();
    }
 
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageManagerContext#getExtractionCache()
+    */
+   @Override
+   public ExtractionCache getExtractionCache()
+   {
+      return ExtractionCache.getExtractionCache(this.getPackageManagerEnvironment());
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageManagerContext#getDownloadCache()
+    */
+   @Override
+   public DownloadCache getDownloadCache()
+   {
+      return DownloadCache.getDownloadCache(this.getPackageManagerEnvironment());
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageManagerContext#getMetadataCache()
+    */
+   @Override
+   public MetadataCache getMetadataCache()
+   {
+      return MetadataCache.getMetadataCache(this.getPackageManagerEnvironment());
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageManagerContext#getWorkspaceManager()
+    */
+   @Override
+   public WorkspaceManager getWorkspaceManager()
+   {
+      return this.pkgMgr.getWorkspaceManager();
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageManagerContext#getHttpClient()
+    */
+   @Override
+   public HttpClient getHttpClient()
+   {
+      return this.httpClientManager.getHttpClient();
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageManagerContext#getMirrorSelector()
+    */
+   @Override
+   public MirrorSelector getMirrorSelector()
+   {
+      return this.mirrorSelector;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageManagerContext#getThrottle()
+    */
+   @Override
+   public Throttle getThrottle()
+   {
+      return Throttle.getThrottle(this.getPackageManagerEnvironment());
+   }
+
    
 
 }
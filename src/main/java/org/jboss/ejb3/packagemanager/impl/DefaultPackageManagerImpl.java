@@ -25,8 +25,18 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.transaction.TransactionManager;
 
@@ -39,6 +49,8 @@ import org.jboss.ejb3.packagemanager.db.DefaultDatabaseManager;
 import org.jboss.ejb3.packagemanager.db.PackageDatabaseManager;
 import org.jboss.ejb3.packagemanager.entity.PersistentFile;
 import org.jboss.ejb3.packagemanager.entity.PersistentPackage;
+import org.jboss.ejb3.packagemanager.entity.PersistentPostUnInstallScript;
+import org.jboss.ejb3.packagemanager.entity.PersistentPreUnInstallScript;
 import org.jboss.ejb3.packagemanager.exception.PackageManagerException;
 import org.jboss.ejb3.packagemanager.exception.PackageNotInstalledException;
 import org.jboss.ejb3.packagemanager.installer.DefaultInstaller;
@@ -49,15 +61,24 @@ import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
 import org.jboss.ejb3.packagemanager.metadata.PackagedDependency;
 import org.jboss.ejb3.packagemanager.metadata.ScriptType;
 import org.jboss.ejb3.packagemanager.metadata.UnProcessedDependenciesType;
+import org.jboss.ejb3.packagemanager.metadata.impl.InstallFileImpl;
+import org.jboss.ejb3.packagemanager.metadata.impl.PackageImpl;
+import org.jboss.ejb3.packagemanager.mirror.MirrorSelector;
 import org.jboss.ejb3.packagemanager.option.DefaultInstallOptions;
 import org.jboss.ejb3.packagemanager.option.DefaultUnInstallOptions;
 import org.jboss.ejb3.packagemanager.option.DefaultUpgradeOptions;
 import org.jboss.ejb3.packagemanager.option.InstallOptions;
 import org.jboss.ejb3.packagemanager.option.UnInstallOptions;
 import org.jboss.ejb3.packagemanager.option.UpgradeOptions;
+import org.jboss.ejb3.packagemanager.retriever.impl.HttpClientManager;
+import org.jboss.ejb3.packagemanager.retriever.impl.PackageRetrievalFactory;
 import org.jboss.ejb3.packagemanager.script.ScriptProcessor;
 import org.jboss.ejb3.packagemanager.script.impl.AntScriptProcessor;
 import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.ejb3.packagemanager.util.ParallelTaskRunner;
+import org.jboss.ejb3.packagemanager.workspace.DefaultWorkspaceManager;
+import org.jboss.ejb3.packagemanager.workspace.WorkspaceManager;
+import org.jboss.ejb3.packagemanager.xml.InstallFileHandler;
 import org.jboss.logging.Logger;
 
 /**
@@ -69,6 +90,39 @@ import org.jboss.logging.Logger;
 public class DefaultPackageManagerImpl implements PackageManager
 {
 
+   /**
+    * Name of the property which specifies the max number of threads used
+    * for installing the files of a package. Defaults to 1 (i.e. the files are 
+    * installed in the calling thread)
+    */
+   public static final String PROPERTY_INSTALL_THREADS = "packagemanager.install.threads";
+
+   /**
+    * Name of the property which specifies the max number of threads used
+    * for uninstalling the files of a package. Defaults to 1 (i.e. the files are 
+    * uninstalled in the calling thread)
+    */
+   public static final String PROPERTY_UNINSTALL_THREADS = "packagemanager.uninstall.threads";
+
+   /**
+    * Name of the property which specifies the number of files which are installed, and then 
+    * recorded to the DB, at a time, when the files of a package are streamed (see 
+    * {@link DefaultPackageContext#PROPERTY_STREAMING_FILES}). It also bounds the number of files
+    * parsed ahead of the installation. Defaults to {@link #DEFAULT_STREAMING_BATCH_SIZE}.
+    */
+   public static final String PROPERTY_STREAMING_BATCH_SIZE = "packagemanager.install.streaming-batch-size";
+
+   /**
+    * Default number of streamed files installed and recorded at a time
+    */
+   public static final int DEFAULT_STREAMING_BATCH_SIZE = 500;
+
+   /**
+    * Marks the end of the streamed files parsed out of a package.xml (whether the parsing 
+    * completed or failed)
+    */
+   private static final InstallFileType END_OF_STREAMED_FILES = new InstallFileImpl(new PackageImpl());
+
    /**
     * Logger
     */
@@ -95,6 +149,21 @@ public class DefaultPackageManagerImpl implements PackageManager
     */
    private PackageDatabaseManager pkgDatabaseManager;
 
+   /**
+    * Workspace manager
+    */
+   private WorkspaceManager workspaceManager;
+
+   /**
+    * Manages the HTTP client shared by the package retrievals
+    */
+   private HttpClientManager httpClientManager;
+
+   /**
+    * Picks the mirrors from which packages are retrieved
+    */
+   private MirrorSelector mirrorSelector;
+
    /**
     * Creates the default package manager for a server 
     * 
@@ -105,8 +174,11 @@ public class DefaultPackageManagerImpl implements PackageManager
    {
       this.environment = environment;
       this.installationServerHome = jbossHome;
-      this.pkgMgrCtx = new DefaultPackageManagerContext(this);
+      this.httpClientManager = new HttpClientManager(environment);
+      this.mirrorSelector = new MirrorSelector(environment, this.httpClientManager);
+      this.pkgMgrCtx = new DefaultPackageManagerContext(this, this.httpClientManager, this.mirrorSelector);
       this.pkgDatabaseManager = new DefaultDatabaseManager(this.pkgMgrCtx);
+      this.workspaceManager = new DefaultWorkspaceManager(this.pkgMgrCtx);
    }
 
    /**
@@ -133,6 +205,25 @@ public class DefaultPackageManagerImpl implements PackageManager
    {
       return this.pkgDatabaseManager;
    }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageManager#getWorkspaceManager()
+    */
+   @Override
+   public WorkspaceManager getWorkspaceManager()
+   {
+      return this.workspaceManager;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.PackageManager#shutdown()
+    */
+   @Override
+   public void shutdown()
+   {
+      this.mirrorSelector.shutdown();
+      this.httpClientManager.shutdown();
+   }
    
    /**
     * Installs a package
@@ -197,7 +288,14 @@ public class DefaultPackageManagerImpl implements PackageManager
 
       // create a package context
       PackageContext pkgCtx = new DefaultPackageContext(this.pkgMgrCtx, packageURL);
-      this.installPackage(pkgCtx, installOptions);
+      try
+      {
+         this.installPackage(pkgCtx, installOptions);
+      }
+      finally
+      {
+         pkgCtx.release();
+      }
       
    }
    
@@ -222,6 +320,11 @@ public class DefaultPackageManagerImpl implements PackageManager
       logger.debug("New package " + pkgContext + " being installed");
       // proceed with installation of the package
 
+      if (pkgContext.isStreamingInstallationFiles())
+      {
+         this.installPackageWithStreamedFiles(pkgContext);
+         return;
+      }
       if (pkgContext.getInstallationFiles() == null)
       {
          throw new PackageManagerException("There are no files to install for package: " + pkgContext);
@@ -234,11 +337,7 @@ public class DefaultPackageManagerImpl implements PackageManager
       // pre-installation step
       this.preInstallPackage(pkgContext);
       // install files in this package
-      for (InstallFileType fileToInstall : pkgContext.getInstallationFiles())
-      {
-         Installer installer = getInstaller(fileToInstall);
-         installer.install(pkgContext, fileToInstall);
-      }
+      this.installFiles(pkgContext, pkgContext.getInstallationFiles());
       // post-installation step
       this.postInstallPackage(pkgContext);
       // store the pre/post uninstall scripts (if any) at a particular location
@@ -249,6 +348,27 @@ public class DefaultPackageManagerImpl implements PackageManager
       logger.info("Installed " + pkgContext);
    }
 
+   /**
+    * Installs a package whose files are streamed (see {@link PackageContext#isStreamingInstallationFiles()}).
+    * Since the files are never all in memory, the package is recorded into the DB before its files 
+    * are installed, and the files are then recorded as they are installed (see 
+    * {@link #installStreamedFiles(PackageContext, PersistentPackage)}). The DB changes are 
+    * discarded, along with the rest of the transaction, if the installation fails.
+    * 
+    * @param pkgContext The package being installed
+    * @throws PackageManagerException
+    */
+   protected void installPackageWithStreamedFiles(PackageContext pkgContext) throws PackageManagerException
+   {
+      this.installDependencies(pkgContext);
+      this.preInstallPackage(pkgContext);
+      PersistentPackage installedPackage = this.pkgDatabaseManager.installPackage(pkgContext);
+      int files = this.installStreamedFiles(pkgContext, installedPackage);
+      this.postInstallPackage(pkgContext);
+      this.storeScripts(pkgContext);
+      logger.info("Installed " + pkgContext + " - " + files + " streamed file(s)");
+   }
+
    /**
     * @see org.jboss.ejb3.packagemanager.PackageManager#removePackage(java.lang.String)
     */
@@ -286,13 +406,8 @@ public class DefaultPackageManagerImpl implements PackageManager
       }
       // pre-uninstall step
       this.preUnInstallPackage(installedPackage);
-      // TODO : Revisit this installer creation
-      Installer installer = new DefaultInstaller(this.pkgMgrCtx);
-      // install files in this package
-      for (PersistentFile fileToUninstall : installedPackage.getInstallationFiles())
-      {
-         installer.uninstall(installedPackage, fileToUninstall);
-      }
+      // uninstall files in this package
+      this.uninstallFiles(installedPackage, installedPackage.getInstallationFiles());
       // post-uninstall step
       this.postUnInstallPackage(installedPackage);
       this.pkgDatabaseManager.removePackage(installedPackage);
@@ -351,7 +466,14 @@ public class DefaultPackageManagerImpl implements PackageManager
 
       // create a package context
       PackageContext pkgCtx = new DefaultPackageContext(this.pkgMgrCtx, packageURL);
-      this.updatePackage(pkgCtx, upgradeOptions);      
+      try
+      {
+         this.updatePackage(pkgCtx, upgradeOptions);
+      }
+      finally
+      {
+         pkgCtx.release();
+      }
    }
    
    protected void updatePackage(PackageContext pkgContext, UpgradeOptions upgradeOptions) throws PackageManagerException
@@ -384,6 +506,13 @@ public class DefaultPackageManagerImpl implements PackageManager
          // this is a newer version, so continue with upgrade   
          logger.info("Upgrading package " + packageName + " from installed version " + installedPackage.getPackageVersion()
                + " to new version " + pkgContext.getPackageVersion());
+         // an incremental upgrade compares the complete file lists, so it isn't done for streamed files 
+         if (upgradeOptions.isIncrementalUpgrade() && !pkgContext.isStreamingInstallationFiles()
+               && this.isIncrementalUpgradePossible(installedPackage))
+         {
+            this.upgradePackageIncrementally(installedPackage, pkgContext);
+            return;
+         }
          UnInstallOptions uninstallOptions = new DefaultUnInstallOptions();
          uninstallOptions.setForcedUnInstall(true);
          removePackage(packageName, uninstallOptions);
@@ -393,6 +522,61 @@ public class DefaultPackageManagerImpl implements PackageManager
 
    }
 
+   /**
+    * Returns true if the <code>installedPackage</code> can be upgraded in place. A package
+    * with pre/post uninstall scripts is always completely uninstalled during an upgrade, 
+    * so that those scripts get a chance to run.  
+    * 
+    * @param installedPackage The installed package
+    * @return
+    */
+   protected boolean isIncrementalUpgradePossible(PersistentPackage installedPackage)
+   {
+      Set<PersistentPreUnInstallScript> preUnInstallScripts = installedPackage.getPreUnInstallScripts();
+      Set<PersistentPostUnInstallScript> postUnInstallScripts = installedPackage.getPostUnInstallScripts();
+      return (preUnInstallScripts == null || preUnInstallScripts.isEmpty())
+            && (postUnInstallScripts == null || postUnInstallScripts.isEmpty());
+   }
+
+   /**
+    * Upgrades the <code>installedPackage</code> in place, to the version represented by 
+    * <code>pkgContext</code>. Only the files which were added or changed in the new version are 
+    * installed and only the files which are no longer part of the new version are removed. 
+    * The unchanged files are left untouched.
+    * 
+    * @param installedPackage The installed version of the package
+    * @param pkgContext The new version of the package
+    * @throws PackageManagerException
+    */
+   protected void upgradePackageIncrementally(PersistentPackage installedPackage, PackageContext pkgContext)
+         throws PackageManagerException
+   {
+      if (pkgContext.getInstallationFiles() == null)
+      {
+         throw new PackageManagerException("There are no files to install for package: " + pkgContext);
+      }
+      this.installDependencies(pkgContext);
+      this.preInstallPackage(pkgContext);
+      FileSetDiff diff = null;
+      try
+      {
+         diff = new FileSetDiff(new File(this.installationServerHome), installedPackage, pkgContext);
+      }
+      catch (IOException ioe)
+      {
+         throw new PackageManagerException("Could not compare the installed files of package "
+               + installedPackage.getPackageName() + " with " + pkgContext, ioe);
+      }
+      logger.debug("Upgrading " + pkgContext + " in place - " + diff);
+      Collection<InstallFileType> filesToInstall = diff.getFilesToInstall();
+      this.installFiles(pkgContext, filesToInstall);
+      this.uninstallFiles(installedPackage, diff.getRemovedFiles());
+      this.postInstallPackage(pkgContext);
+      this.storeScripts(pkgContext);
+      this.pkgDatabaseManager.upgradePackage(installedPackage, pkgContext, diff.getRemovedFiles(), filesToInstall);
+      logger.info("Upgraded " + pkgContext + " - " + diff);
+   }
+
    /**
     * @see org.jboss.ejb3.packagemanager.PackageManager#getTransactionManager()
     */
@@ -415,7 +599,7 @@ public class DefaultPackageManagerImpl implements PackageManager
       URL url = null;
       try
       {
-         url = new URL(pkgPath);
+         url = PackageRetrievalFactory.getPackageURL(pkgPath);
       }
       catch (MalformedURLException e)
       {
@@ -444,6 +628,294 @@ public class DefaultPackageManagerImpl implements PackageManager
       return new DefaultInstaller(this.pkgMgrCtx);
    }
 
+   /**
+    * Installs the <code>files</code> of a package. The files are installed on a pool of
+    * (at most) {@link #PROPERTY_INSTALL_THREADS} threads. Files which are installed to 
+    * the same destination are installed by the same thread, in the order in which they 
+    * appear in <code>files</code>.
+    * 
+    * All the files are attempted, even if some of them fail to install. The failures
+    * are then reported through a single {@link PackageManagerException}.
+    * 
+    * @param pkgCtx The package being installed
+    * @param files The files to install
+    * @throws PackageManagerException If any of the files could not be installed
+    */
+   private void installFiles(final PackageContext pkgCtx, Collection<InstallFileType> files)
+         throws PackageManagerException
+   {
+      // group the files by their destination
+      Map<String, List<InstallFileType>> filesByDestination = new LinkedHashMap<String, List<InstallFileType>>();
+      for (InstallFileType file : files)
+      {
+         String destination = IOUtil.getRelativePath(file.getDestPath(), file.getName());
+         List<InstallFileType> filesForDestination = filesByDestination.get(destination);
+         if (filesForDestination == null)
+         {
+            filesForDestination = new ArrayList<InstallFileType>(1);
+            filesByDestination.put(destination, filesForDestination);
+         }
+         filesForDestination.add(file);
+      }
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(filesByDestination.size());
+      for (final List<InstallFileType> filesForDestination : filesByDestination.values())
+      {
+         tasks.add(new Callable<Void>()
+         {
+            public Void call() throws Exception
+            {
+               for (InstallFileType fileToInstall : filesForDestination)
+               {
+                  Installer installer = getInstaller(fileToInstall);
+                  installer.install(pkgCtx, fileToInstall);
+               }
+               return null;
+            }
+         });
+      }
+      int threads = this.environment.getIntProperty(PROPERTY_INSTALL_THREADS, 1);
+      ParallelTaskRunner runner = new ParallelTaskRunner("file-installer", threads);
+      List<Throwable> failures = null;
+      try
+      {
+         failures = runner.invokeAllCollectingFailures(tasks);
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new PackageManagerException("Interrupted while installing files of package " + pkgCtx, ie);
+      }
+      this.reportFailures(failures, "install files of package " + pkgCtx);
+   }
+
+   /**
+    * Installs the streamed files of a package and records them into the DB. The files are 
+    * parsed out of the package.xml in a thread of its own and handed, through a queue of (at most)
+    * {@link #PROPERTY_STREAMING_BATCH_SIZE} files, to the calling thread. The calling thread
+    * installs them a batch at a time (see {@link #installFiles(PackageContext, Collection)}) and 
+    * records each batch once it's installed. So the number of files in memory is bounded by twice 
+    * the batch size, irrespective of the number of files in the package. The parser ends the queue 
+    * with {@link #END_OF_STREAMED_FILES}, even if the parsing fails (or is given up), in which case
+    * the files still on the queue are dropped and the failure is reported instead. The parser is
+    * waited for before this method returns, so that the package.xml is no longer read once the 
+    * installation is over.
+    * 
+    * @param pkgCtx The package being installed
+    * @param installedPackage The DB record of the package
+    * @return Returns the number of files installed
+    * @throws PackageManagerException If the files could not be parsed, installed or recorded
+    */
+   private int installStreamedFiles(final PackageContext pkgCtx, PersistentPackage installedPackage)
+         throws PackageManagerException
+   {
+      int batchSize = Math.max(1, this.environment.getIntProperty(PROPERTY_STREAMING_BATCH_SIZE,
+            DEFAULT_STREAMING_BATCH_SIZE));
+      final BlockingQueue<InstallFileType> parsedFiles = new ArrayBlockingQueue<InstallFileType>(batchSize);
+      FutureTask<Void> parsing = new FutureTask<Void>(new Callable<Void>()
+      {
+         public Void call() throws Exception
+         {
+            boolean parsed = false;
+            try
+            {
+               pkgCtx.processInstallationFiles(new InstallFileHandler()
+               {
+                  public void handleFile(InstallFileType file) throws InterruptedException
+                  {
+                     // blocks while the installation is a batch behind
+                     parsedFiles.put(file);
+                  }
+               });
+               parsed = true;
+            }
+            finally
+            {
+               if (parsed)
+               {
+                  try
+                  {
+                     parsedFiles.put(END_OF_STREAMED_FILES);
+                  }
+                  catch (InterruptedException ie)
+                  {
+                     // the installation was given up, so nobody's waiting for more files
+                  }
+               }
+               else
+               {
+                  // the installation may have been given up, in which case nobody takes the files 
+                  // off the (full) queue any more. Either way, the files which weren't taken aren't 
+                  // going to be installed, so they make room for the end marker
+                  parsedFiles.clear();
+                  parsedFiles.offer(END_OF_STREAMED_FILES);
+               }
+            }
+            return null;
+         }
+      });
+      Thread parser = new Thread(parsing, "package-xml-parser-" + pkgCtx.getPackageName());
+      parser.setDaemon(true);
+      parser.start();
+      List<InstallFileType> batch = new ArrayList<InstallFileType>(batchSize);
+      int installed = 0;
+      try
+      {
+         boolean ended = false;
+         while (!ended)
+         {
+            batch.add(parsedFiles.take());
+            parsedFiles.drainTo(batch, batchSize - 1);
+            // nothing follows the end marker
+            ended = batch.get(batch.size() - 1) == END_OF_STREAMED_FILES;
+            if (ended)
+            {
+               batch.remove(batch.size() - 1);
+            }
+            if (batch.isEmpty())
+            {
+               continue;
+            }
+            this.installFiles(pkgCtx, batch);
+            this.pkgDatabaseManager.recordInstalledFiles(installedPackage, pkgCtx, batch);
+            installed += batch.size();
+            batch.clear();
+         }
+         // let parsing failures surface (the parser has ended the queue, so this doesn't block for long)
+         parsing.get();
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new PackageManagerException("Interrupted while installing files of package " + pkgCtx, ie);
+      }
+      catch (ExecutionException ee)
+      {
+         Throwable cause = ee.getCause();
+         if (cause instanceof Error)
+         {
+            throw (Error) cause;
+         }
+         throw new PackageManagerException("Could not read files of package " + pkgCtx + " after installing "
+               + installed + " of them", (Exception) cause);
+      }
+      finally
+      {
+         // stops the parser, if the installation failed, and waits for it to let go of the package.xml
+         parsing.cancel(true);
+         try
+         {
+            parser.join();
+         }
+         catch (InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+      return installed;
+   }
+
+   /**
+    * Uninstalls the <code>files</code> of an installed package. The files are grouped
+    * by their parent directory and the groups are processed on a pool of (at most) 
+    * {@link #PROPERTY_UNINSTALL_THREADS} threads.
+    * 
+    * All the files are attempted, even if some of them fail to uninstall (for example, 
+    * because they are missing). The failures are then reported through a single
+    * {@link PackageManagerException}.
+    * 
+    * @param installedPackage The installed package
+    * @param files The files to uninstall
+    * @throws PackageManagerException If any of the files could not be uninstalled
+    */
+   private void uninstallFiles(final PersistentPackage installedPackage, Collection<PersistentFile> files)
+         throws PackageManagerException
+   {
+      File jbossHome = new File(this.installationServerHome);
+      // group the files by their parent directory
+      Map<File, List<PersistentFile>> filesByDirectory = new LinkedHashMap<File, List<PersistentFile>>();
+      for (PersistentFile file : files)
+      {
+         File dir = new File(jbossHome, IOUtil.getRelativePath(file.getInstalledPath(), file.getFileName()))
+               .getParentFile();
+         List<PersistentFile> filesInDirectory = filesByDirectory.get(dir);
+         if (filesInDirectory == null)
+         {
+            filesInDirectory = new ArrayList<PersistentFile>();
+            filesByDirectory.put(dir, filesInDirectory);
+         }
+         filesInDirectory.add(file);
+      }
+      // TODO : Revisit this installer creation
+      final Installer installer = new DefaultInstaller(this.pkgMgrCtx);
+      final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(filesByDirectory.size());
+      for (final List<PersistentFile> filesInDirectory : filesByDirectory.values())
+      {
+         tasks.add(new Callable<Void>()
+         {
+            public Void call() throws Exception
+            {
+               for (PersistentFile fileToUninstall : filesInDirectory)
+               {
+                  try
+                  {
+                     installer.uninstall(installedPackage, fileToUninstall);
+                  }
+                  catch (PackageManagerException pme)
+                  {
+                     failures.add(pme);
+                  }
+               }
+               return null;
+            }
+         });
+      }
+      int threads = this.environment.getIntProperty(PROPERTY_UNINSTALL_THREADS, 1);
+      ParallelTaskRunner runner = new ParallelTaskRunner("file-uninstaller", threads);
+      try
+      {
+         failures.addAll(runner.invokeAllCollectingFailures(tasks));
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new PackageManagerException("Interrupted while uninstalling files of package "
+               + installedPackage.getPackageName(), ie);
+      }
+      this.reportFailures(failures, "uninstall files of package " + installedPackage.getPackageName());
+   }
+
+   /**
+    * Logs each of the <code>failures</code> and throws a {@link PackageManagerException}
+    * for them. Does nothing if there are no failures.
+    * 
+    * @param failures The failures
+    * @param action The action which failed. Used in the log and exception messages.
+    * @throws PackageManagerException If there are any failures
+    */
+   private void reportFailures(List<Throwable> failures, String action) throws PackageManagerException
+   {
+      if (failures.isEmpty())
+      {
+         return;
+      }
+      for (Throwable failure : failures)
+      {
+         logger.error("Failed to " + action, failure);
+      }
+      Throwable firstFailure = failures.get(0);
+      if (firstFailure instanceof Error)
+      {
+         throw (Error) firstFailure;
+      }
+      if (failures.size() == 1 && firstFailure instanceof PackageManagerException)
+      {
+         throw (PackageManagerException) firstFailure;
+      }
+      throw new PackageManagerException(failures.size() + " failure(s) while trying to " + action,
+            (Exception) firstFailure);
+   }
+
    /**
     * Stores the scripts available in a package to a local store so 
     * that they are available during uninstallation of the package.
@@ -511,7 +983,7 @@ public class DefaultPackageManagerImpl implements PackageManager
       try
       {
          File destFile = new File(destDir, scriptFile.getName());
-         IOUtil.copy(scriptFile, destFile);
+         IOUtil.copy(scriptFile, destFile, this.pkgMgrCtx.getThrottle().getDiskBucket());
          logger.debug("Stored script file " + scriptFile + " at " + destDir);
       }
       catch (IOException e)
@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.ejb3.packagemanager.PackageContext;
+import org.jboss.ejb3.packagemanager.entity.PersistentFile;
+import org.jboss.ejb3.packagemanager.entity.PersistentPackage;
+import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+
+/**
+ * FileSetDiff
+ * 
+ * The difference between the files of an installed package and the files
+ * of a newer version of that package. Files are matched by their path relative
+ * to JBOSS_HOME and compared by their checksum. For files installed before checksums
+ * were being recorded, the checksum of the file under JBOSS_HOME is used.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class FileSetDiff
+{
+
+   /**
+    * Files which are only present in the new version
+    */
+   private List<InstallFileType> addedFiles = new ArrayList<InstallFileType>();
+
+   /**
+    * Files which are present in both versions, but with different content or type
+    */
+   private List<InstallFileType> changedFiles = new ArrayList<InstallFileType>();
+
+   /**
+    * Files which are present in both versions, with the same content
+    */
+   private List<InstallFileType> unchangedFiles = new ArrayList<InstallFileType>();
+
+   /**
+    * Files which are only present in the installed version
+    */
+   private List<PersistentFile> removedFiles = new ArrayList<PersistentFile>();
+
+   /**
+    * Computes the difference between the <code>installedPackage</code> and the
+    * new version of the package represented by <code>pkgCtx</code>
+    * 
+    * @param jbossHome The JBOSS_HOME where the package is installed
+    * @param installedPackage The installed version of the package
+    * @param pkgCtx The new version of the package
+    * @throws IOException If the checksum of any of the files cannot be computed
+    */
+   public FileSetDiff(File jbossHome, PersistentPackage installedPackage, PackageContext pkgCtx) throws IOException
+   {
+      Map<String, PersistentFile> installedFiles = new LinkedHashMap<String, PersistentFile>();
+      if (installedPackage.getInstallationFiles() != null)
+      {
+         for (PersistentFile installedFile : installedPackage.getInstallationFiles())
+         {
+            installedFiles.put(IOUtil.getRelativePath(installedFile.getInstalledPath(), installedFile.getFileName()),
+                  installedFile);
+         }
+      }
+      if (pkgCtx.getInstallationFiles() != null)
+      {
+         for (InstallFileType file : pkgCtx.getInstallationFiles())
+         {
+            PersistentFile installedFile = installedFiles.remove(IOUtil.getRelativePath(file.getDestPath(), file
+                  .getName()));
+            if (installedFile == null)
+            {
+               this.addedFiles.add(file);
+            }
+            else if (this.isSame(jbossHome, installedFile, pkgCtx, file))
+            {
+               this.unchangedFiles.add(file);
+            }
+            else
+            {
+               this.changedFiles.add(file);
+            }
+         }
+      }
+      this.removedFiles.addAll(installedFiles.values());
+   }
+
+   /**
+    * Returns true if the <code>installedFile</code> has the same type and content as 
+    * the <code>file</code> of the new version
+    */
+   private boolean isSame(File jbossHome, PersistentFile installedFile, PackageContext pkgCtx, InstallFileType file)
+         throws IOException
+   {
+      String newFileType = file.getType() == null ? null : file.getType().toString();
+      if (newFileType == null ? installedFile.getFileType() != null : !newFileType.equals(installedFile.getFileType()))
+      {
+         return false;
+      }
+      File fileUnderJBossHome = new File(jbossHome, IOUtil.getRelativePath(installedFile.getInstalledPath(),
+            installedFile.getFileName()));
+      if (!fileUnderJBossHome.isFile())
+      {
+         return false;
+      }
+      String installedChecksum = installedFile.getChecksum();
+      if (installedChecksum == null)
+      {
+         // not memoized, files under JBOSS_HOME can be edited without changing their size or timestamp
+         installedChecksum = DigestUtil.sha256(fileUnderJBossHome);
+      }
+      return installedChecksum.equals(pkgCtx.getInstallationFileChecksum(file));
+   }
+
+   public List<InstallFileType> getAddedFiles()
+   {
+      return this.addedFiles;
+   }
+
+   public List<InstallFileType> getChangedFiles()
+   {
+      return this.changedFiles;
+   }
+
+   public List<InstallFileType> getUnchangedFiles()
+   {
+      return this.unchangedFiles;
+   }
+
+   public List<PersistentFile> getRemovedFiles()
+   {
+      return this.removedFiles;
+   }
+
+   /**
+    * Returns the files which have to be installed (i.e. the added and the changed 
+    * files) to bring the installation up to date with the new version
+    * 
+    * @return
+    */
+   public Collection<InstallFileType> getFilesToInstall()
+   {
+      List<InstallFileType> filesToInstall = new ArrayList<InstallFileType>(this.addedFiles.size()
+            + this.changedFiles.size());
+      filesToInstall.addAll(this.addedFiles);
+      filesToInstall.addAll(this.changedFiles);
+      return filesToInstall;
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      StringBuffer sb = new StringBuffer("FileSetDiff [");
+      sb.append("added=" + this.addedFiles.size());
+      sb.append(" ,changed=" + this.changedFiles.size());
+      sb.append(" ,unchanged=" + this.unchangedFiles.size());
+      sb.append(" ,removed=" + this.removedFiles.size());
+      sb.append("]");
+      return sb.toString();
+   }
+}
@@ -207,6 +207,11 @@ public class TransactionalPackageManager extends DefaultPackageManagerImpl imple
          Synchronization dbManager = (Synchronization) this.getDatabaseManager();
          dbManager.afterCompletion(status);
       }
+      if (this.getWorkspaceManager() instanceof Synchronization)
+      {
+         Synchronization workspaceManager = (Synchronization) this.getWorkspaceManager();
+         workspaceManager.afterCompletion(status);
+      }
 
    }
 
@@ -221,6 +226,11 @@ public class TransactionalPackageManager extends DefaultPackageManagerImpl imple
          Synchronization dbManager = (Synchronization) this.getDatabaseManager();
          dbManager.beforeCompletion();
       }
+      if (this.getWorkspaceManager() instanceof Synchronization)
+      {
+         Synchronization workspaceManager = (Synchronization) this.getWorkspaceManager();
+         workspaceManager.beforeCompletion();
+      }
 
    }
 
@@ -0,0 +1,278 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * PackageIndex
+ * 
+ * A repository index which lists the name, version, digest, size, installed files and 
+ * dependencies of each package available at a location, so that tools can learn about the 
+ * packages of a repository without retrieving (and extracting) the packages themselves. 
+ * <p>
+ * The package manager itself doesn't consult the index: an index can be out of date with the
+ * packages it describes, and the packages (including their packaged dependencies) have to be
+ * retrieved anyway to be installed. So an install or upgrade is always decided by the package
+ * which is retrieved.
+ * </p>
+ * <p>
+ * The index is an XML file named {@link #INDEX_FILE_NAME} which sits alongside the packages 
+ * it describes: 
+ * <pre>
+ * &lt;package-index version="1"&gt;
+ *    &lt;package name="..." version="..." file="foo.jar" sha256="..." size="..."&gt;
+ *       &lt;file path="common/lib/foo.jar"/&gt;
+ *       &lt;dependency name="..." version="..." file="bar.jar"/&gt;
+ *    &lt;/package&gt;
+ * &lt;/package-index&gt;
+ * </pre>
+ * Indexes are generated by {@link PackageIndexGenerator}.
+ * </p>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class PackageIndex
+{
+
+   /**
+    * Name of the index file within a package repository
+    */
+   public static final String INDEX_FILE_NAME = "package-index.xml";
+
+   /**
+    * Version of the index format
+    */
+   public static final String FORMAT_VERSION = "1";
+
+   /**
+    * Entries keyed by the package file name
+    */
+   private Map<String, PackageIndexEntry> entries = new LinkedHashMap<String, PackageIndexEntry>();
+
+   public void addEntry(PackageIndexEntry entry)
+   {
+      this.entries.put(entry.getFile(), entry);
+   }
+
+   /**
+    * Returns the entry for the package file named <code>file</code>. Returns null
+    * if the index doesn't list such a package.
+    * 
+    * @param file The package file name
+    * @return
+    */
+   public PackageIndexEntry getEntry(String file)
+   {
+      return this.entries.get(file);
+   }
+
+   /**
+    * Returns the entry for the package at <code>packageURL</code>, which is expected to be 
+    * located alongside the index. Returns null if the index doesn't list such a package.
+    * 
+    * @param packageURL The package URL
+    * @return
+    */
+   public PackageIndexEntry getEntry(URL packageURL)
+   {
+      String path = packageURL.getPath();
+      return this.getEntry(path.substring(path.lastIndexOf('/') + 1));
+   }
+
+   public Collection<PackageIndexEntry> getEntries()
+   {
+      return Collections.unmodifiableCollection(this.entries.values());
+   }
+
+   /**
+    * Reads an index from the <code>indexXml</code> stream. The stream is <i>not</i> 
+    * closed by this method.
+    * 
+    * @param indexXml The stream of a {@link #INDEX_FILE_NAME} file
+    * @return
+    * @throws IOException If the stream can't be read or isn't a valid index
+    */
+   public static PackageIndex read(InputStream indexXml) throws IOException
+   {
+      PackageIndex index = new PackageIndex();
+      try
+      {
+         XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(indexXml);
+         PackageIndexEntry current = null;
+         boolean rootSeen = false;
+         while (reader.hasNext())
+         {
+            if (reader.next() != XMLStreamReader.START_ELEMENT)
+            {
+               continue;
+            }
+            String element = reader.getLocalName();
+            if (!rootSeen)
+            {
+               if (!"package-index".equals(element))
+               {
+                  throw new IOException("Not a package index, root element is " + element);
+               }
+               String version = reader.getAttributeValue(null, "version");
+               if (!FORMAT_VERSION.equals(version))
+               {
+                  throw new IOException("Unsupported package index version " + version);
+               }
+               rootSeen = true;
+            }
+            else if ("package".equals(element))
+            {
+               current = readEntry(reader);
+               String sha256 = reader.getAttributeValue(null, "sha256");
+               current.setSha256(sha256);
+               String size = reader.getAttributeValue(null, "size");
+               if (size != null)
+               {
+                  current.setSize(Long.parseLong(size));
+               }
+               index.addEntry(current);
+            }
+            else if ("file".equals(element) && current != null)
+            {
+               current.addFile(reader.getAttributeValue(null, "path"));
+            }
+            else if ("dependency".equals(element) && current != null)
+            {
+               current.addDependency(readEntry(reader));
+            }
+         }
+         reader.close();
+      }
+      catch (XMLStreamException xmle)
+      {
+         IOException ioe = new IOException("Could not parse package index");
+         ioe.initCause(xmle);
+         throw ioe;
+      }
+      catch (NumberFormatException nfe)
+      {
+         IOException ioe = new IOException("Invalid size in package index");
+         ioe.initCause(nfe);
+         throw ioe;
+      }
+      return index;
+   }
+
+   /**
+    * Writes out this index to the <code>out</code> stream. The stream is <i>not</i> 
+    * closed by this method.
+    * 
+    * @param out The stream to write to
+    * @throws IOException
+    */
+   public void write(OutputStream out) throws IOException
+   {
+      try
+      {
+         XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+         writer.writeStartDocument("UTF-8", "1.0");
+         writer.writeCharacters("\n");
+         writer.writeStartElement("package-index");
+         writer.writeAttribute("version", FORMAT_VERSION);
+         writer.writeCharacters("\n");
+         for (PackageIndexEntry entry : this.entries.values())
+         {
+            writer.writeCharacters("   ");
+            writer.writeStartElement("package");
+            writeEntryAttributes(writer, entry);
+            if (entry.getSha256() != null)
+            {
+               writer.writeAttribute("sha256", entry.getSha256());
+            }
+            if (entry.getSize() >= 0)
+            {
+               writer.writeAttribute("size", String.valueOf(entry.getSize()));
+            }
+            writer.writeCharacters("\n");
+            for (String file : entry.getFiles())
+            {
+               writer.writeCharacters("      ");
+               writer.writeEmptyElement("file");
+               writer.writeAttribute("path", file);
+               writer.writeCharacters("\n");
+            }
+            for (PackageIndexEntry dependency : entry.getDependencies())
+            {
+               writer.writeCharacters("      ");
+               writer.writeEmptyElement("dependency");
+               writeEntryAttributes(writer, dependency);
+               writer.writeCharacters("\n");
+            }
+            writer.writeCharacters("   ");
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+         }
+         writer.writeEndElement();
+         writer.writeCharacters("\n");
+         writer.writeEndDocument();
+         writer.flush();
+         writer.close();
+      }
+      catch (XMLStreamException xmle)
+      {
+         IOException ioe = new IOException("Could not write package index");
+         ioe.initCause(xmle);
+         throw ioe;
+      }
+   }
+
+   private static PackageIndexEntry readEntry(XMLStreamReader reader) throws IOException
+   {
+      String name = reader.getAttributeValue(null, "name");
+      String version = reader.getAttributeValue(null, "version");
+      String file = reader.getAttributeValue(null, "file");
+      if (name == null || version == null || file == null)
+      {
+         throw new IOException("Package index entry at line " + reader.getLocation().getLineNumber()
+               + " is missing the name, version or file");
+      }
+      return new PackageIndexEntry(name, version, file);
+   }
+
+   private static void writeEntryAttributes(XMLStreamWriter writer, PackageIndexEntry entry)
+         throws XMLStreamException
+   {
+      writer.writeAttribute("name", entry.getName());
+      writer.writeAttribute("version", entry.getVersion());
+      writer.writeAttribute("file", entry.getFile());
+   }
+}
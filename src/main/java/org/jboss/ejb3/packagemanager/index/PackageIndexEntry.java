@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PackageIndexEntry
+ * 
+ * Describes a single package of a {@link PackageIndex}: the name and version of the 
+ * package, the (hex encoded) SHA-256 digest and size of the package archive, the 
+ * files that the package installs and the packages it depends on.
+ * <p>
+ * Entries for dependencies carry just the name, version and the file (within the 
+ * dependent package) of the dependency package.
+ * </p>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class PackageIndexEntry
+{
+
+   private String name;
+
+   private String version;
+
+   private String file;
+
+   private String sha256;
+
+   private long size = -1;
+
+   /**
+    * Paths, relative to the JBoss Home, of the files installed by the package
+    */
+   private List<String> files = new ArrayList<String>();
+
+   private List<PackageIndexEntry> dependencies = new ArrayList<PackageIndexEntry>();
+
+   public PackageIndexEntry(String name, String version, String file)
+   {
+      this.name = name;
+      this.version = version;
+      this.file = file;
+   }
+
+   public String getName()
+   {
+      return this.name;
+   }
+
+   public String getVersion()
+   {
+      return this.version;
+   }
+
+   /**
+    * Returns the name of the package archive, relative to the location of the index
+    * (or the dependent package, for dependency entries)
+    * @return
+    */
+   public String getFile()
+   {
+      return this.file;
+   }
+
+   public String getSha256()
+   {
+      return this.sha256;
+   }
+
+   public void setSha256(String sha256)
+   {
+      this.sha256 = sha256;
+   }
+
+   /**
+    * Returns the size, in bytes, of the package archive. Returns -1 if the size is not known 
+    * @return
+    */
+   public long getSize()
+   {
+      return this.size;
+   }
+
+   public void setSize(long size)
+   {
+      this.size = size;
+   }
+
+   public List<String> getFiles()
+   {
+      return this.files;
+   }
+
+   public void addFile(String path)
+   {
+      this.files.add(path);
+   }
+
+   public List<PackageIndexEntry> getDependencies()
+   {
+      return this.dependencies;
+   }
+
+   public void addDependency(PackageIndexEntry dependency)
+   {
+      this.dependencies.add(dependency);
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuffer sb = new StringBuffer("PackageIndexEntry [");
+      sb.append("name=");
+      sb.append(this.name);
+      sb.append(" ,version=");
+      sb.append(this.version);
+      sb.append(" ,file=");
+      sb.append(this.file);
+      sb.append(" ,size=");
+      sb.append(this.size);
+      sb.append("]");
+      return sb.toString();
+   }
+}
@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.index;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.jboss.ejb3.packagemanager.metadata.DependenciesType;
+import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
+import org.jboss.ejb3.packagemanager.metadata.PackageType;
+import org.jboss.ejb3.packagemanager.metadata.PackagedDependency;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.ejb3.packagemanager.xml.PackageUnmarshaller;
+import org.jboss.logging.Logger;
+
+/**
+ * PackageIndexGenerator
+ * 
+ * Generates the {@link PackageIndex} of a directory containing packages, by reading the 
+ * package.xml of each package (and of its packaged dependencies).
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class PackageIndexGenerator
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(PackageIndexGenerator.class);
+
+   private static final String PACKAGE_XML = "package.xml";
+
+   /**
+    * Generates the index of the packages in <code>repositoryDir</code> and writes it out to
+    * {@link PackageIndex#INDEX_FILE_NAME} within that directory.
+    * 
+    * @param repositoryDir The directory containing the packages
+    * @return Returns the generated index
+    * @throws IOException
+    */
+   public PackageIndex generateIndexFile(File repositoryDir) throws IOException
+   {
+      PackageIndex index = this.generateIndex(repositoryDir);
+      File indexFile = new File(repositoryDir, PackageIndex.INDEX_FILE_NAME);
+      // write to a tmp file first, so that readers never see a partially written index
+      File tmpIndexFile = new File(repositoryDir, PackageIndex.INDEX_FILE_NAME + ".tmp");
+      OutputStream os = new FileOutputStream(tmpIndexFile);
+      try
+      {
+         index.write(os);
+      }
+      finally
+      {
+         IOUtil.close(os);
+      }
+      if (indexFile.exists() && !indexFile.delete())
+      {
+         throw new IOException("Could not replace package index " + indexFile);
+      }
+      if (!tmpIndexFile.renameTo(indexFile))
+      {
+         throw new IOException("Could not rename " + tmpIndexFile + " to " + indexFile);
+      }
+      logger.info("Generated package index " + indexFile + " listing " + index.getEntries().size() + " packages");
+      return index;
+   }
+
+   /**
+    * Generates the index of the packages (*.jar files) in <code>repositoryDir</code>. Jar files 
+    * which aren't packages are skipped.
+    * 
+    * @param repositoryDir The directory containing the packages
+    * @return
+    * @throws IOException
+    */
+   public PackageIndex generateIndex(File repositoryDir) throws IOException
+   {
+      if (!repositoryDir.isDirectory())
+      {
+         throw new IOException(repositoryDir + " is not a directory");
+      }
+      File[] packages = repositoryDir.listFiles(new FileFilter()
+      {
+         public boolean accept(File file)
+         {
+            return file.isFile() && file.getName().endsWith(".jar");
+         }
+      });
+      // keep the index stable across runs
+      Arrays.sort(packages);
+      PackageIndex index = new PackageIndex();
+      for (File pkg : packages)
+      {
+         PackageIndexEntry entry = this.createEntry(pkg);
+         if (entry != null)
+         {
+            index.addEntry(entry);
+         }
+      }
+      return index;
+   }
+
+   /**
+    * Creates the index entry for the package <code>pkg</code>. Returns null if 
+    * <code>pkg</code> isn't a package.
+    */
+   private PackageIndexEntry createEntry(File pkg) throws IOException
+   {
+      JarFile jar = new JarFile(pkg);
+      try
+      {
+         ZipEntry packageXml = jar.getEntry(PACKAGE_XML);
+         if (packageXml == null)
+         {
+            logger.warn("Skipping " + pkg + " from the package index, since it doesn't contain a " + PACKAGE_XML);
+            return null;
+         }
+         PackageType pkgMeta = this.parse(jar.getInputStream(packageXml), pkg.getName());
+         PackageIndexEntry entry = new PackageIndexEntry(pkgMeta.getName(), pkgMeta.getVersion(), pkg.getName());
+         entry.setSha256(DigestUtil.sha256(pkg));
+         entry.setSize(pkg.length());
+         if (pkgMeta.getFiles() != null)
+         {
+            for (InstallFileType file : pkgMeta.getFiles())
+            {
+               entry.addFile(IOUtil.getRelativePath(file.getDestPath(), file.getName()));
+            }
+         }
+         DependenciesType dependencies = pkgMeta.getDependencies();
+         if (dependencies != null && dependencies.getPackagedDependencies() != null)
+         {
+            for (PackagedDependency packagedDep : dependencies.getPackagedDependencies())
+            {
+               String depFile = IOUtil.getRelativePath(null, packagedDep.getFile());
+               entry.addDependency(this.createDependencyEntry(jar, depFile, pkg));
+            }
+         }
+         return entry;
+      }
+      finally
+      {
+         jar.close();
+      }
+   }
+
+   /**
+    * Creates the entry for the packaged dependency <code>depFile</code> within the package 
+    * <code>jar</code>, by reading the package.xml of the nested dependency package.
+    */
+   private PackageIndexEntry createDependencyEntry(JarFile jar, String depFile, File pkg) throws IOException
+   {
+      ZipEntry depEntry = jar.getEntry(depFile);
+      if (depEntry == null)
+      {
+         throw new IOException("packaged-dependency " + depFile + " not found in package " + pkg);
+      }
+      ZipInputStream zis = new ZipInputStream(jar.getInputStream(depEntry));
+      try
+      {
+         ZipEntry entry;
+         while ((entry = zis.getNextEntry()) != null)
+         {
+            if (PACKAGE_XML.equals(entry.getName()))
+            {
+               PackageType depMeta = this.parse(zis, depFile + " of " + pkg.getName());
+               return new PackageIndexEntry(depMeta.getName(), depMeta.getVersion(), depFile);
+            }
+         }
+      }
+      finally
+      {
+         IOUtil.close(zis);
+      }
+      throw new IOException("packaged-dependency " + depFile + " in package " + pkg + " does not contain a "
+            + PACKAGE_XML);
+   }
+
+   private PackageType parse(InputStream packageXml, String source) throws IOException
+   {
+      try
+      {
+         return PackageUnmarshaller.getInstance().unmarshal(packageXml);
+      }
+      catch (Exception e)
+      {
+         IOException ioe = new IOException("Could not parse " + PACKAGE_XML + " of " + source);
+         ioe.initCause(e);
+         throw ioe;
+      }
+   }
+}
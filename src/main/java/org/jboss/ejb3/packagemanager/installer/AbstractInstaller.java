@@ -22,6 +22,8 @@
 package org.jboss.ejb3.packagemanager.installer;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 import org.jboss.ejb3.packagemanager.PackageContext;
 import org.jboss.ejb3.packagemanager.PackageManagerContext;
@@ -29,6 +31,9 @@ import org.jboss.ejb3.packagemanager.entity.PersistentFile;
 import org.jboss.ejb3.packagemanager.entity.PersistentPackage;
 import org.jboss.ejb3.packagemanager.exception.PackageManagerException;
 import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.ejb3.packagemanager.workspace.WorkspaceManager;
 import org.jboss.logging.Logger;
 
 /**
@@ -40,6 +45,13 @@ import org.jboss.logging.Logger;
 public abstract class AbstractInstaller implements Installer
 {
 
+   /**
+    * Name of the property which specifies whether a file, which is already present
+    * at its destination with the same content, is left untouched instead of being 
+    * overwritten. Defaults to true.
+    */
+   public static final String PROPERTY_SKIP_UNCHANGED = "packagemanager.install.skip-unchanged";
+
    private static Logger logger = Logger.getLogger(AbstractInstaller.class);
 
    protected PackageManagerContext packageMgrContext;
@@ -59,17 +71,22 @@ public abstract class AbstractInstaller implements Installer
       File relativePathToFile = new File(jbossHome, installedFile.getInstalledPath());
       File fileToUninstall = new File(relativePathToFile, installedFile.getFileName());
       
-      if (!fileToUninstall.exists())
+      // attempt the delete straight away and find out the reason only
+      // if it fails
+      if (!fileToUninstall.delete())
       {
-         throw new PackageManagerException("Installed file missing: " + fileToUninstall.getAbsolutePath()
-               + " - cannot uninstall!");
+         if (!fileToUninstall.exists())
+         {
+            throw new PackageManagerException("Installed file missing: " + fileToUninstall.getAbsolutePath()
+                  + " - cannot uninstall!");
+         }
+         if (fileToUninstall.isDirectory())
+         {
+            throw new PackageManagerException("Installed file is a directory : " + fileToUninstall.getAbsolutePath()
+                  + " - cannot uninstall!");
+         }
+         throw new PackageManagerException("Could not delete installed file " + fileToUninstall.getAbsolutePath());
       }
-      if (fileToUninstall.isDirectory())
-      {
-         throw new PackageManagerException("Installed file is a directory : " + fileToUninstall.getAbsolutePath()
-               + " - cannot uninstall!");
-      }
-      fileToUninstall.delete();
       logger.info("Uninstalled file " + fileToUninstall + " from package  " + pkg.getPackageName());
 
    }
@@ -90,13 +107,6 @@ public abstract class AbstractInstaller implements Installer
       }
       File fileToInstall = new File(srcPathOfFileToInstall, fileMeta.getName());
 
-      if (!fileToInstall.exists())
-      {
-         throw new PackageManagerException(fileToInstall.getAbsolutePath() + " does not exist, package: " + pkgCtx
-               + " being installed from " + pkgCtx.getPackageRoot()
-               + " is probably corrupt!");
-      }
-
       if (fileMeta.getDestPath() == null)
       {
          throw new PackageManagerException("File " + fileMeta.getName() + " in package: " + pkgCtx
@@ -112,9 +122,47 @@ public abstract class AbstractInstaller implements Installer
                + fileMeta.getName() + " in package: " + pkgCtx
                + " is either not present or is not a directory");
       }
+
+      // leave the file alone if it's already installed with the same content.
+      // Rewriting it would just touch its timestamp (and trigger a redeployment)
+      File destFile = new File(locationToInstall, fileMeta.getName());
+      if (this.isAlreadyInstalled(pkgCtx, fileMeta, fileToInstall, destFile))
+      {
+         logger.info("File " + fileMeta.getName() + " from package: " + pkgCtx + " is unchanged in "
+               + locationToInstall.getAbsolutePath() + " - skipping");
+         return;
+      }
+
+      // the file might not have been extracted to the package root, in which
+      // case it's installed straight from the package
+      InputStream content = null;
+      if (!fileToInstall.exists())
+      {
+         try
+         {
+            content = pkgCtx.getInstallationFileContent(fileMeta);
+         }
+         catch (IOException ioe)
+         {
+            throw new PackageManagerException("Could not read file " + fileMeta.getName() + " from package: "
+                  + pkgCtx, ioe);
+         }
+         if (content == null)
+         {
+            throw new PackageManagerException(fileToInstall.getAbsolutePath() + " does not exist, package: " + pkgCtx
+                  + " being installed from " + pkgCtx.getPackageRoot() + " is probably corrupt!");
+         }
+      }
       try
       {
-         doInstall(fileMeta, fileToInstall, locationToInstall);
+         if (content == null)
+         {
+            doInstall(fileMeta, fileToInstall, locationToInstall);
+         }
+         else
+         {
+            doInstall(fileMeta, content, locationToInstall);
+         }
          logger.info("Installed file " + fileMeta.getName() + " from package: " + pkgCtx + " to " + locationToInstall.getAbsolutePath());
 
          // TODO: Write to DB about file install completion
@@ -125,9 +173,93 @@ public abstract class AbstractInstaller implements Installer
          // fails to install?
          throw new RuntimeException(t);
       }
+      finally
+      {
+         IOUtil.close(content);
+      }
+   }
+
+   /**
+    * Returns true if the <code>destFile</code> already has the same content as the 
+    * file being installed. The sizes are compared first (when the file being installed
+    * is available under the package root) and only then the checksums. The destination
+    * file is always read afresh, since it can be edited outside of the package manager 
+    * without its size or last modified time changing.
+    * 
+    * @param pkgCtx The package being installed
+    * @param fileMeta The file being installed
+    * @param fileToInstall The file under the package root. Might not exist, if the file 
+    *           was not extracted from the package
+    * @param destFile The destination file
+    * @return
+    */
+   protected boolean isAlreadyInstalled(PackageContext pkgCtx, InstallFileType fileMeta, File fileToInstall,
+         File destFile)
+   {
+      if (!this.packageMgrContext.getPackageManagerEnvironment().getBooleanProperty(PROPERTY_SKIP_UNCHANGED, true))
+      {
+         return false;
+      }
+      if (!destFile.isFile())
+      {
+         return false;
+      }
+      if (fileToInstall.isFile() && fileToInstall.length() != destFile.length())
+      {
+         return false;
+      }
+      try
+      {
+         String checksum = pkgCtx.getInstallationFileChecksum(fileMeta);
+         return checksum != null && checksum.equals(DigestUtil.sha256(destFile));
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not compare " + destFile + " with file " + fileMeta.getName() + " from package: "
+               + pkgCtx + " - will overwrite it", ioe);
+         return false;
+      }
    }
 
    protected abstract void doInstall(InstallFileType fileMetadata, File fileToInstall, File dest)
          throws PackageManagerException;
 
+   /**
+    * Installs a file whose content is available only as a stream (for example, a file 
+    * which is read straight from the package archive). 
+    * 
+    * This implementation writes out the content to a temporary file and then 
+    * invokes {@link #doInstall(InstallFileType, File, File)}. Installers are
+    * expected to override this method to avoid the temporary file.
+    * 
+    * @param fileMetadata The file being installed
+    * @param content The content of the file. The stream will be closed by the caller.
+    * @param dest The destination directory
+    * @throws PackageManagerException
+    */
+   protected void doInstall(InstallFileType fileMetadata, InputStream content, File dest)
+         throws PackageManagerException
+   {
+      WorkspaceManager workspaceManager = this.packageMgrContext.getWorkspaceManager();
+      File tmpFile = null;
+      try
+      {
+         tmpFile = workspaceManager.leaseTmpFile(fileMetadata.getName() + "-", null);
+         IOUtil.copy(content, tmpFile, this.packageMgrContext.getThrottle().getDiskBucket());
+         this.doInstall(fileMetadata, tmpFile, dest);
+      }
+      catch (IOException ioe)
+      {
+         throw new PackageManagerException("Could not install file: " + fileMetadata.getName() + " into "
+               + dest.getAbsolutePath(), ioe);
+      }
+      finally
+      {
+         if (tmpFile != null)
+         {
+            workspaceManager.release(tmpFile);
+         }
+      }
+   }
+
 }
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.installer;
+
+import java.io.File;
+
+import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.metadata.FileType;
+import org.jboss.ejb3.packagemanager.throttle.Throttle;
+import org.jboss.ejb3.packagemanager.throttle.TokenBucket;
+
+/**
+ * CopyStrategyFactory
+ * 
+ * Returns the {@link CopyStrategy} to be used for installing a file of a 
+ * specific {@link FileType}. The strategy for a file type is configured through the 
+ * <code>packagemanager.install.copy-strategy.&lt;file-type&gt;</code> property (for example,
+ * <code>packagemanager.install.copy-strategy.library=hardlink</code>). If not specified for
+ * the file type, the <code>packagemanager.install.copy-strategy</code> property is used.
+ * The supported values are <code>transfer</code> (the default) and <code>hardlink</code>.
+ * Copies are limited by the disk limit of the {@link Throttle}, if one is configured.
+ * 
+ * CONFIG files are always copied, since they are meant to be edited (or merged) after install 
+ * and an edit of a linked file changes the source file too. For the same reason, files from the
+ * package manager caches (which are shared and must never change) are never linked.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class CopyStrategyFactory
+{
+
+   /**
+    * Name of the property which specifies the default copy strategy
+    */
+   public static final String PROPERTY_COPY_STRATEGY = "packagemanager.install.copy-strategy";
+
+   /**
+    * Copy strategy which copies the file contents
+    */
+   public static final String TRANSFER = "transfer";
+
+   /**
+    * Copy strategy which creates hard links
+    */
+   public static final String HARD_LINK = "hardlink";
+
+   /**
+    * Name of the directory, under the package manager home, of the caches
+    */
+   private static final String CACHE_DIR_NAME = "cache";
+
+   private static final CopyStrategy TRANSFER_STRATEGY = new TransferCopyStrategy();
+
+   /**
+    * Returns the copy strategy configured for the <code>fileType</code>
+    * 
+    * @param pkgMgrCtx The package manager context
+    * @param fileType The type of the file being installed. Can be null.
+    * @return
+    * @throws IllegalArgumentException If the configured copy strategy is unknown
+    */
+   public static CopyStrategy getCopyStrategy(PackageManagerContext pkgMgrCtx, FileType fileType)
+   {
+      String strategy = pkgMgrCtx.getPackageManagerEnvironment().getProperty(PROPERTY_COPY_STRATEGY, TRANSFER);
+      if (fileType != null)
+      {
+         strategy = pkgMgrCtx.getPackageManagerEnvironment().getProperty(
+               PROPERTY_COPY_STRATEGY + "." + fileType.name().toLowerCase(), strategy);
+      }
+      TokenBucket diskBucket = pkgMgrCtx.getThrottle().getDiskBucket();
+      CopyStrategy transferStrategy = diskBucket.isUnlimited() ? TRANSFER_STRATEGY : new TransferCopyStrategy(
+            diskBucket);
+      if (TRANSFER.equalsIgnoreCase(strategy))
+      {
+         return transferStrategy;
+      }
+      if (HARD_LINK.equalsIgnoreCase(strategy))
+      {
+         if (fileType == FileType.CONFIG)
+         {
+            return transferStrategy;
+         }
+         // links don't write the contents, only the fallback copies need to be throttled
+         File cacheDir = new File(pkgMgrCtx.getPackageManagerEnvironment().getPackageManagerHome(), CACHE_DIR_NAME);
+         return new HardLinkCopyStrategy(transferStrategy, cacheDir);
+      }
+      throw new IllegalArgumentException("Unknown copy strategy " + strategy + " for file type " + fileType);
+   }
+}
@@ -23,6 +23,7 @@ package org.jboss.ejb3.packagemanager.installer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.jboss.ejb3.packagemanager.PackageManagerContext;
 import org.jboss.ejb3.packagemanager.exception.PackageManagerException;
@@ -54,24 +55,53 @@ public class DefaultInstaller extends AbstractInstaller
    protected void doInstall(InstallFileType fileMetadata, File fileToInstall, File dest) throws PackageManagerException
    {
       // just copy from source to dest
-      File destFile = new File(dest, fileMetadata.getName());
+      File destFile = this.getDestFile(fileMetadata, dest);
       PackageType pkgMeta = fileMetadata.getPackage();
-      if (destFile.exists())
-      {
-         logger.info("File " + fileMetadata.getName() + " from package: " + pkgMeta.getName() + " version: "
-               + pkgMeta.getVersion() + " already exists in " + dest + " - installer will overwrite it");
-      }
+      CopyStrategy copyStrategy = CopyStrategyFactory.getCopyStrategy(this.packageMgrContext, fileMetadata.getType());
       try
       {
-         IOUtil.copy(fileToInstall, destFile);
+         copyStrategy.copy(fileToInstall, destFile);
       }
       catch (IOException e)
       {
 
          throw new PackageManagerException("Could not install file: " + fileMetadata.getName() + " from package: "
-               + pkgMeta.getName() + " version: " + pkgMeta.getVersion() + " into " + dest.getAbsolutePath());
+               + pkgMeta.getName() + " version: " + pkgMeta.getVersion() + " into " + dest.getAbsolutePath(), e);
       }
 
    }
 
+   /**
+    * Writes out the <code>content</code> straight to the destination file.
+    * 
+    * @see org.jboss.ejb3.packagemanager.installer.AbstractInstaller#doInstall(org.jboss.ejb3.packagemanager.metadata.InstallFileType, java.io.InputStream, java.io.File)
+    */
+   @Override
+   protected void doInstall(InstallFileType fileMetadata, InputStream content, File dest)
+         throws PackageManagerException
+   {
+      File destFile = this.getDestFile(fileMetadata, dest);
+      try
+      {
+         IOUtil.copy(content, destFile, this.packageMgrContext.getThrottle().getDiskBucket());
+      }
+      catch (IOException e)
+      {
+         PackageType pkgMeta = fileMetadata.getPackage();
+         throw new PackageManagerException("Could not install file: " + fileMetadata.getName() + " from package: "
+               + pkgMeta.getName() + " version: " + pkgMeta.getVersion() + " into " + dest.getAbsolutePath(), e);
+      }
+   }
+
+   private File getDestFile(InstallFileType fileMetadata, File dest)
+   {
+      File destFile = new File(dest, fileMetadata.getName());
+      if (destFile.exists())
+      {
+         PackageType pkgMeta = fileMetadata.getPackage();
+         logger.info("File " + fileMetadata.getName() + " from package: " + pkgMeta.getName() + " version: "
+               + pkgMeta.getVersion() + " already exists in " + dest + " - installer will overwrite it");
+      }
+      return destFile;
+   }
 }
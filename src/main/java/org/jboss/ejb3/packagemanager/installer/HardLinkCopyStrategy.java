@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.jboss.logging.Logger;
+
+/**
+ * HardLinkCopyStrategy
+ * 
+ * Creates a hard link at the destination, pointing to the source file, instead
+ * of copying the contents. This makes installing a file (almost) free, but works only
+ * when the source and the destination are on the same filesystem. Furthermore, any
+ * change to the installed file is visible through the source file too (they are the
+ * same file), so this strategy should not be used for files which are meant to be 
+ * edited after install (like CONFIG files). For the same reason, files under any of the 
+ * <i>shared</i> directories passed to this strategy (like the package manager caches, whose
+ * contents must never change) are always copied.
+ * 
+ * Hard links are created through the Files.createLink API (NIO.2), which is available only on
+ * Java 7 and later. If that API is not available or if the link could not be created 
+ * (different filesystems, filesystem without hard link support etc...), then this strategy 
+ * falls back to a regular copy.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class HardLinkCopyStrategy implements CopyStrategy
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(HardLinkCopyStrategy.class);
+
+   /**
+    * java.io.File#toPath()
+    */
+   private static final Method TO_PATH;
+
+   /**
+    * Files#createLink(Path, Path) of NIO.2
+    */
+   private static final Method CREATE_LINK;
+
+   static
+   {
+      Method toPath = null;
+      Method createLink = null;
+      try
+      {
+         Class<?> pathClass = Class.forName("java.nio.file.Path");
+         Class<?> filesClass = Class.forName("java.nio.file.Files");
+         toPath = File.class.getMethod("toPath");
+         createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+      }
+      catch (Exception e)
+      {
+         // not available on this JVM, we'll fallback to copying
+         toPath = null;
+         createLink = null;
+      }
+      TO_PATH = toPath;
+      CREATE_LINK = createLink;
+   }
+
+   /**
+    * The strategy to use when a link cannot be created
+    */
+   private CopyStrategy fallback;
+
+   /**
+    * Canonical paths (ending with a separator) of the directories whose files are never linked
+    */
+   private String[] sharedDirPaths;
+
+   /**
+    * Creates a {@link HardLinkCopyStrategy} which falls back to {@link TransferCopyStrategy}
+    */
+   public HardLinkCopyStrategy()
+   {
+      this(new TransferCopyStrategy());
+   }
+
+   /**
+    * @param fallback The strategy to use when a link cannot be created
+    */
+   public HardLinkCopyStrategy(CopyStrategy fallback)
+   {
+      this(fallback, new File[0]);
+   }
+
+   /**
+    * @param fallback The strategy to use when a link cannot be created
+    * @param sharedDirs Directories whose files must not be linked, but copied through the 
+    *           <code>fallback</code>. A link would let an edit of the installed file change
+    *           the file in these directories.
+    */
+   public HardLinkCopyStrategy(CopyStrategy fallback, File... sharedDirs)
+   {
+      this.fallback = fallback;
+      this.sharedDirPaths = new String[sharedDirs.length];
+      for (int i = 0; i < sharedDirs.length; i++)
+      {
+         this.sharedDirPaths[i] = canonicalPath(sharedDirs[i]) + File.separator;
+      }
+   }
+
+   /**
+    * @return Returns true if hard links can be created on this JVM
+    */
+   public static boolean isSupported()
+   {
+      return CREATE_LINK != null;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.installer.CopyStrategy#copy(java.io.File, java.io.File)
+    */
+   public void copy(File src, File dest) throws IOException
+   {
+      if (!isSupported() || this.isShared(src))
+      {
+         this.fallback.copy(src, dest);
+         return;
+      }
+      // a link cannot be created if the file already exists
+      if (dest.exists() && !dest.delete())
+      {
+         throw new IOException("Could not delete existing file " + dest);
+      }
+      try
+      {
+         this.link(src, dest);
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not create hard link " + dest + " to " + src + " - falling back to copy", ioe);
+         this.fallback.copy(src, dest);
+      }
+   }
+
+   /**
+    * Creates the hard link <code>dest</code> to the <code>src</code> file
+    * 
+    * @param src The existing file
+    * @param dest The link to create. Should not exist.
+    * @throws IOException If the link could not be created
+    */
+   protected void link(File src, File dest) throws IOException
+   {
+      try
+      {
+         CREATE_LINK.invoke(null, TO_PATH.invoke(dest), TO_PATH.invoke(src));
+      }
+      catch (InvocationTargetException ite)
+      {
+         Throwable cause = ite.getCause();
+         if (cause instanceof IOException)
+         {
+            throw (IOException) cause;
+         }
+         // UnsupportedOperationException, SecurityException etc...
+         IOException ioe = new IOException("Could not create hard link " + dest + " to " + src);
+         ioe.initCause(cause);
+         throw ioe;
+      }
+      catch (IllegalAccessException iae)
+      {
+         throw new RuntimeException(iae);
+      }
+   }
+
+   /**
+    * Returns true if the <code>file</code> is under one of the shared directories
+    */
+   private boolean isShared(File file)
+   {
+      if (this.sharedDirPaths.length == 0)
+      {
+         return false;
+      }
+      String path = canonicalPath(file);
+      for (String sharedDirPath : this.sharedDirPaths)
+      {
+         if (path.startsWith(sharedDirPath))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static String canonicalPath(File file)
+   {
+      try
+      {
+         return file.getCanonicalPath();
+      }
+      catch (IOException ioe)
+      {
+         return file.getAbsolutePath();
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "hardlink";
+   }
+}
@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.installer;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jboss.ejb3.packagemanager.throttle.TokenBucket;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+
+/**
+ * TransferCopyStrategy
+ * 
+ * Copies the file through {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * which lets the OS copy the bytes without bringing them into the JVM heap. The copy can
+ * optionally be limited by a disk {@link TokenBucket}.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ * @see IOUtil#copy(File, File)
+ */
+public class TransferCopyStrategy implements CopyStrategy
+{
+
+   /**
+    * Limits the rate at which the bytes are written. Can be null.
+    */
+   private TokenBucket diskBucket;
+
+   /**
+    * Creates a strategy which copies as fast as the OS allows
+    */
+   public TransferCopyStrategy()
+   {
+      this(null);
+   }
+
+   /**
+    * @param diskBucket Limits the rate at which the bytes are written. Can be null.
+    */
+   public TransferCopyStrategy(TokenBucket diskBucket)
+   {
+      this.diskBucket = diskBucket;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.installer.CopyStrategy#copy(java.io.File, java.io.File)
+    */
+   public void copy(File src, File dest) throws IOException
+   {
+      IOUtil.copy(src, dest, this.diskBucket);
+   }
+
+   @Override
+   public String toString()
+   {
+      return "transfer";
+   }
+}
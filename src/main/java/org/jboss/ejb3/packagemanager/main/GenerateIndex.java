@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.main;
+
+import jargs.gnu.CmdLineParser;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jboss.ejb3.packagemanager.exception.PackageManagerException;
+import org.jboss.ejb3.packagemanager.index.PackageIndex;
+import org.jboss.ejb3.packagemanager.index.PackageIndexGenerator;
+import org.jboss.logging.Logger;
+
+/**
+ * GenerateIndex
+ * 
+ * Generates the {@link PackageIndex} of a directory of packages, so that the directory 
+ * can be served as a package repository.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class GenerateIndex
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(GenerateIndex.class);
+
+   /**
+    * Generates the {@link PackageIndex#INDEX_FILE_NAME} of the directory passed through 
+    * the -d option
+    * 
+    * @param args
+    * @throws PackageManagerException 
+    */
+   public static void main(String[] args) throws PackageManagerException
+   {
+      CmdLineParser cmdLineParser = new CmdLineParser();
+      CmdLineParser.Option repositoryDirCmdOption = cmdLineParser.addStringOption('d', "dir");
+
+      try
+      {
+         cmdLineParser.parse(args);
+      }
+      catch (CmdLineParser.OptionException e)
+      {
+         System.err.println("Error parsing command " + e.getMessage());
+         printUsage();
+         throw new PackageManagerException(e.getMessage());
+      }
+      String repositoryDir = (String) cmdLineParser.getOptionValue(repositoryDirCmdOption);
+      if (repositoryDir == null)
+      {
+         printUsage();
+         throw new PackageManagerException("Package directory has not been set");
+      }
+      File dir = new File(repositoryDir);
+      if (!dir.isDirectory())
+      {
+         throw new PackageManagerException("Package directory " + dir + " does not exist!");
+      }
+      logger.info("Generating package index for " + dir);
+      try
+      {
+         new PackageIndexGenerator().generateIndexFile(dir);
+      }
+      catch (IOException ioe)
+      {
+         throw new PackageManagerException("Could not generate package index for " + dir, ioe);
+      }
+   }
+
+   private static void printUsage()
+   {
+      System.out.println("Usage: generate-index -d path_to_package_dir");
+   }
+
+}
@@ -109,4 +109,19 @@ public interface InstallFileType
     */
    PackageType getPackage();
 
+   /**
+    * Returns the (hex encoded) SHA-256 checksum of the content of this file.
+    * Returns null if the checksum is not (yet) known.
+    * 
+    * @return
+    */
+   String getChecksum();
+
+   /**
+    * Sets the (hex encoded) SHA-256 checksum of the content of this file
+    * 
+    * @param checksum The checksum
+    */
+   void setChecksum(String checksum);
+
 }
@@ -46,10 +46,10 @@ public class InstallFileImpl implements InstallFileType
 
    protected String destPath;
 
-   protected String type;
-
    protected FileType fileType;
 
+   protected volatile String checksum;
+
    public String getName()
    {
       return name;
@@ -92,24 +92,31 @@ public class InstallFileImpl implements InstallFileType
       {
          return;
       }
+      this.setFileType(toFileType(ftype));
+   }
 
+   /**
+    * Returns the {@link FileType} for the type of file, as it's named in the package.xml
+    * 
+    * @param ftype The type of file
+    * @return
+    * @throws IllegalArgumentException If the type of file isn't recognized
+    */
+   static FileType toFileType(String ftype)
+   {
       if (ftype.equals("config"))
       {
-         this.setFileType(FileType.CONFIG);
+         return FileType.CONFIG;
       }
       else if (ftype.equals("library"))
       {
-         this.setFileType(FileType.LIBRARY);
+         return FileType.LIBRARY;
       }
       else if (ftype.equals("script"))
       {
-         this.setFileType(FileType.SCRIPT);
-      }
-      else
-      {
-         throw new IllegalArgumentException("Unrecognized file type " + ftype);
+         return FileType.SCRIPT;
       }
-      this.type = ftype;
+      throw new IllegalArgumentException("Unrecognized file type " + ftype);
    }
 
    /**
@@ -128,4 +135,20 @@ public class InstallFileImpl implements InstallFileType
       return this.pkg;
    }
 
+   /**
+    * @see org.jboss.ejb3.packagemanager.metadata.InstallFileType#getChecksum()
+    */
+   public String getChecksum()
+   {
+      return this.checksum;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.metadata.InstallFileType#setChecksum(java.lang.String)
+    */
+   public void setChecksum(String checksum)
+   {
+      this.checksum = checksum;
+   }
+
 }
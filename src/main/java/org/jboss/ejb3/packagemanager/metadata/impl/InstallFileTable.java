@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.metadata.impl;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.ejb3.packagemanager.metadata.FileType;
+import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
+import org.jboss.ejb3.packagemanager.metadata.PackageType;
+
+/**
+ * InstallFileTable
+ * 
+ * Holds the files of a package in a compact, column oriented, form. Instead of an object per 
+ * file with a string per attribute, a file is a row of the table:
+ * <ul>
+ *   <li>the src-path and dest-path of the files are indexes into a table of the distinct paths 
+ *   of the package. Generated packages list thousands of files under a handful of paths, so each
+ *   path is held only once</li>
+ *   <li>the type of a file is the ordinal of its {@link FileType}, instead of the type string of
+ *   the package.xml</li>
+ *   <li>the package to which the files belong is referenced once, by the table</li>
+ * </ul>
+ * 
+ * The rows are exposed as {@link InstallFileType} views (see {@link #asList()}), which are created 
+ * on demand and hold nothing but the row index. Views of the same row are equal.
+ * 
+ * The table is populated while the package.xml is parsed. Only the checksums of the files
+ * can be (concurrently) updated afterwards, through {@link InstallFileType#setChecksum(String)}.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class InstallFileTable
+{
+
+   /**
+    * Marks a missing path or type
+    */
+   private static final int NONE = -1;
+
+   private static final int INITIAL_CAPACITY = 8;
+
+   private static final FileType[] FILE_TYPES = FileType.values();
+
+   /**
+    * The package to which the files belong
+    */
+   private final PackageType pkg;
+
+   /**
+    * The distinct src/dest paths of the files
+    */
+   private String[] paths = new String[INITIAL_CAPACITY];
+
+   /**
+    * Index of each of the {@link #paths}
+    */
+   private final Map<String, Integer> pathIndexes = new HashMap<String, Integer>();
+
+   private int pathCount;
+
+   private String[] names = new String[INITIAL_CAPACITY];
+
+   private int[] srcPaths = new int[INITIAL_CAPACITY];
+
+   private int[] destPaths = new int[INITIAL_CAPACITY];
+
+   private byte[] types = new byte[INITIAL_CAPACITY];
+
+   /**
+    * Guarded by this table, since the checksums are memoized by the threads installing the files
+    */
+   private String[] checksums = new String[INITIAL_CAPACITY];
+
+   private int size;
+
+   /**
+    * The rows as a list
+    */
+   private final List<InstallFileType> rows = new AbstractList<InstallFileType>()
+   {
+      @Override
+      public InstallFileType get(int index)
+      {
+         if (index < 0 || index >= size)
+         {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+         }
+         return new InstallFileView(InstallFileTable.this, index);
+      }
+
+      @Override
+      public int size()
+      {
+         return size;
+      }
+   };
+
+   /**
+    * Creates an empty table for the files of <code>pkg</code>
+    * 
+    * @param pkg The package to which the files belong
+    */
+   public InstallFileTable(PackageType pkg)
+   {
+      this.pkg = pkg;
+   }
+
+   /**
+    * Adds a row for the <code>file</code>, copying its attributes. Later changes
+    * to <code>file</code> aren't reflected in the table.
+    * 
+    * @param file The file to add
+    * @return Returns the view of the added row
+    */
+   public InstallFileType add(InstallFileType file)
+   {
+      if (this.size == this.names.length)
+      {
+         int capacity = this.size * 2;
+         this.names = Arrays.copyOf(this.names, capacity);
+         this.srcPaths = Arrays.copyOf(this.srcPaths, capacity);
+         this.destPaths = Arrays.copyOf(this.destPaths, capacity);
+         this.types = Arrays.copyOf(this.types, capacity);
+         synchronized (this)
+         {
+            this.checksums = Arrays.copyOf(this.checksums, capacity);
+         }
+      }
+      int row = this.size;
+      this.names[row] = file.getName();
+      this.srcPaths[row] = this.indexOfPath(file.getSrcPath());
+      this.destPaths[row] = this.indexOfPath(file.getDestPath());
+      this.types[row] = (byte) (file.getType() == null ? NONE : file.getType().ordinal());
+      synchronized (this)
+      {
+         this.checksums[row] = file.getChecksum();
+      }
+      this.size++;
+      return new InstallFileView(this, row);
+   }
+
+   /**
+    * Returns the rows of this table as an (unmodifiable) list of {@link InstallFileType} views
+    */
+   public List<InstallFileType> asList()
+   {
+      return this.rows;
+   }
+
+   /**
+    * Returns the number of files in this table
+    */
+   public int size()
+   {
+      return this.size;
+   }
+
+   /**
+    * Returns the number of distinct src/dest paths of the files in this table
+    */
+   public int getPathCount()
+   {
+      return this.pathCount;
+   }
+
+   private int indexOfPath(String path)
+   {
+      if (path == null)
+      {
+         return NONE;
+      }
+      Integer index = this.pathIndexes.get(path);
+      if (index != null)
+      {
+         return index;
+      }
+      if (this.pathCount == this.paths.length)
+      {
+         this.paths = Arrays.copyOf(this.paths, this.pathCount * 2);
+      }
+      this.paths[this.pathCount] = path;
+      this.pathIndexes.put(path, this.pathCount);
+      return this.pathCount++;
+   }
+
+   private String getPath(int index)
+   {
+      return index == NONE ? null : this.paths[index];
+   }
+
+   /**
+    * View of a row of an {@link InstallFileTable}
+    */
+   private static class InstallFileView implements InstallFileType
+   {
+      private final InstallFileTable table;
+
+      private final int row;
+
+      InstallFileView(InstallFileTable table, int row)
+      {
+         this.table = table;
+         this.row = row;
+      }
+
+      public String getName()
+      {
+         return this.table.names[this.row];
+      }
+
+      public void setName(String name)
+      {
+         this.table.names[this.row] = name;
+      }
+
+      public String getSrcPath()
+      {
+         return this.table.getPath(this.table.srcPaths[this.row]);
+      }
+
+      public void setSrcPath(String path)
+      {
+         this.table.srcPaths[this.row] = this.table.indexOfPath(path);
+      }
+
+      public String getDestPath()
+      {
+         return this.table.getPath(this.table.destPaths[this.row]);
+      }
+
+      public void setDestPath(String path)
+      {
+         this.table.destPaths[this.row] = this.table.indexOfPath(path);
+      }
+
+      public FileType getType()
+      {
+         byte type = this.table.types[this.row];
+         return type == NONE ? null : FILE_TYPES[type];
+      }
+
+      public void setFileType(FileType ftype)
+      {
+         this.table.types[this.row] = (byte) (ftype == null ? NONE : ftype.ordinal());
+      }
+
+      public void setType(String type)
+      {
+         if (type != null)
+         {
+            this.setFileType(InstallFileImpl.toFileType(type));
+         }
+      }
+
+      public PackageType getPackage()
+      {
+         return this.table.pkg;
+      }
+
+      public String getChecksum()
+      {
+         synchronized (this.table)
+         {
+            return this.table.checksums[this.row];
+         }
+      }
+
+      public void setChecksum(String checksum)
+      {
+         synchronized (this.table)
+         {
+            this.table.checksums[this.row] = checksum;
+         }
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof InstallFileView))
+         {
+            return false;
+         }
+         InstallFileView other = (InstallFileView) obj;
+         return this.table == other.table && this.row == other.row;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return System.identityHashCode(this.table) * 31 + this.row;
+      }
+   }
+}
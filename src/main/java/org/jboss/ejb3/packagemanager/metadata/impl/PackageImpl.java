@@ -21,7 +21,6 @@
  */
 package org.jboss.ejb3.packagemanager.metadata.impl;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.jboss.ejb3.packagemanager.metadata.DependenciesType;
@@ -38,7 +37,10 @@ public class PackageImpl implements PackageType
 
    protected SystemRequirementsType systemRequirements;
 
-   protected List<InstallFileType> files;
+   /**
+    * The files of this package, in their compact form. Null if the package has no files.
+    */
+   protected InstallFileTable files;
 
    protected DependenciesType dependencies;
 
@@ -81,9 +83,15 @@ public class PackageImpl implements PackageType
       this.systemRequirements = ((SystemRequirementsImpl) value);
    }
 
+   /**
+    * Returns an unmodifiable list of views of the files of this package. The views 
+    * are backed by the compact form in which the files are held (see {@link InstallFileTable}).
+    * 
+    * @see org.jboss.ejb3.packagemanager.metadata.PackageType#getFiles()
+    */
    public List<InstallFileType> getFiles()
    {
-      return this.files;
+      return this.files == null ? null : this.files.asList();
    }
 
    public void setFiles(List<InstallFileType> files)
@@ -92,7 +100,12 @@ public class PackageImpl implements PackageType
       {
          throw new IllegalArgumentException("A package is expected to have atleast one file to install");
       }
-      this.files = files;
+      InstallFileTable table = new InstallFileTable(this);
+      for (InstallFileType file : files)
+      {
+         table.add(file);
+      }
+      this.files = table;
    }
 
    public DependenciesType getDependencies()
@@ -126,6 +139,10 @@ public class PackageImpl implements PackageType
    }
 
    /**
+    * Adds the file to this package. The attributes of the <code>file</code> are copied, so the 
+    * file is expected to be completely populated before it's added. Use the views returned by 
+    * {@link #getFiles()} to change the files of the package.
+    * 
     * @see org.jboss.ejb3.packagemanager.metadata.PackageType#addFile(org.jboss.ejb3.packagemanager.metadata.InstallFileType)
     */
    public void addFile(InstallFileType file)
@@ -136,8 +153,9 @@ public class PackageImpl implements PackageType
       }
       if (this.files == null)
       {
-         this.files = new ArrayList<InstallFileType>();
+         this.files = new InstallFileTable(this);
       }
+      // the file is copied into the table, so the file itself isn't retained
       this.files.add(file);
 
    }
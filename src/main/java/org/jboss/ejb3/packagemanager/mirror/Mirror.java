@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.mirror;
+
+/**
+ * Mirror
+ * 
+ * A server (or a location on a server) which serves the same packages as the other 
+ * mirrors of its {@link MirrorGroup}. Keeps track of the latency and health of the mirror,
+ * as measured by the probes and reported by the retrievals.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class Mirror
+{
+
+   /**
+    * Base URL of the mirror, always ending with a '/'
+    */
+   private String baseURL;
+
+   /**
+    * Smoothed latency, in milli seconds, of the mirror. -1 if not known yet
+    */
+   private volatile long latency = -1;
+
+   private volatile boolean healthy = true;
+
+   /**
+    * Number of consecutive failures
+    */
+   private volatile int failures;
+
+   /**
+    * @param baseURL The base URL of the mirror
+    */
+   public Mirror(String baseURL)
+   {
+      this.baseURL = baseURL.endsWith("/") ? baseURL : baseURL + "/";
+   }
+
+   public String getBaseURL()
+   {
+      return this.baseURL;
+   }
+
+   /**
+    * @return Returns the smoothed latency, in milli seconds, or -1 if the mirror
+    *           hasn't been probed yet 
+    */
+   public long getLatency()
+   {
+      return this.latency;
+   }
+
+   public boolean isHealthy()
+   {
+      return this.healthy;
+   }
+
+   public int getFailures()
+   {
+      return this.failures;
+   }
+
+   /**
+    * Returns true if <code>url</code> is located under the base URL of this mirror
+    * 
+    * @param url The (external form of the) URL
+    * @return
+    */
+   public boolean serves(String url)
+   {
+      return url.startsWith(this.baseURL);
+   }
+
+   /**
+    * Records a successful probe (or retrieval) which took <code>millis</code> milli seconds. 
+    * The latency of the mirror is smoothed across probes, so that a single slow 
+    * response doesn't flip the choice of mirror.
+    * 
+    * @param millis The time taken
+    */
+   synchronized void recordSuccess(long millis)
+   {
+      this.latency = this.latency < 0 ? millis : (this.latency + millis) / 2;
+      this.healthy = true;
+      this.failures = 0;
+   }
+
+   /**
+    * Records a successful retrieval from the mirror, which makes an unhealthy mirror
+    * healthy again. The latency isn't affected, since the time taken by a retrieval 
+    * depends on the size of the package.
+    */
+   synchronized void recordAvailable()
+   {
+      this.healthy = true;
+      this.failures = 0;
+   }
+
+   /**
+    * Records a failed probe or retrieval. The mirror is considered unhealthy until 
+    * the next success.
+    */
+   synchronized void recordFailure()
+   {
+      this.healthy = false;
+      this.failures++;
+   }
+
+   /**
+    * Records that a probe didn't complete in <code>millis</code> milli seconds. Unlike
+    * a failure, this only makes the mirror less preferable.
+    */
+   synchronized void recordTimeout(long millis)
+   {
+      this.latency = Math.max(this.latency, millis);
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("Mirror [url=");
+      sb.append(this.baseURL);
+      sb.append(" ,latency=");
+      sb.append(this.latency);
+      sb.append(" ,healthy=");
+      sb.append(this.healthy);
+      sb.append(" ,failures=");
+      sb.append(this.failures);
+      sb.append("]");
+      return sb.toString();
+   }
+}
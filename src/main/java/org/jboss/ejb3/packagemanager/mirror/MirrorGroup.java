@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.mirror;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * MirrorGroup
+ * 
+ * A named group of {@link Mirror}s which serve the same packages under the same 
+ * relative paths.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class MirrorGroup
+{
+
+   private String name;
+
+   /**
+    * Mirrors in the order they were configured
+    */
+   private List<Mirror> mirrors;
+
+   /**
+    * Set once all the mirrors of the group have been probed (or the probe timed out)
+    */
+   private volatile boolean probed;
+
+   public MirrorGroup(String name, List<Mirror> mirrors)
+   {
+      this.name = name;
+      this.mirrors = Collections.unmodifiableList(new ArrayList<Mirror>(mirrors));
+   }
+
+   public String getName()
+   {
+      return this.name;
+   }
+
+   public List<Mirror> getMirrors()
+   {
+      return this.mirrors;
+   }
+
+   /**
+    * Returns the mirror which serves <code>url</code> or null if <code>url</code> 
+    * isn't located under any of the mirrors of this group
+    * 
+    * @param url The (external form of the) URL
+    * @return
+    */
+   public Mirror getMirror(String url)
+   {
+      Mirror match = null;
+      for (Mirror mirror : this.mirrors)
+      {
+         // the most specific base URL wins
+         if (mirror.serves(url) && (match == null || mirror.getBaseURL().length() > match.getBaseURL().length()))
+         {
+            match = mirror;
+         }
+      }
+      return match;
+   }
+
+   /**
+    * Returns the mirrors in the order of preference: healthy mirrors before unhealthy ones and, 
+    * among those, mirrors with lower latency first. Mirrors whose latency isn't known yet come
+    * after the ones which have been measured. Ties retain the configured order.
+    * 
+    * @return
+    */
+   public List<Mirror> getMirrorsByPreference()
+   {
+      List<Mirror> preferred = new ArrayList<Mirror>(this.mirrors);
+      Collections.sort(preferred, new Comparator<Mirror>()
+      {
+         public int compare(Mirror m1, Mirror m2)
+         {
+            if (m1.isHealthy() != m2.isHealthy())
+            {
+               return m1.isHealthy() ? -1 : 1;
+            }
+            long l1 = m1.getLatency() < 0 ? Long.MAX_VALUE : m1.getLatency();
+            long l2 = m2.getLatency() < 0 ? Long.MAX_VALUE : m2.getLatency();
+            return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+         }
+      });
+      return preferred;
+   }
+
+   boolean isProbed()
+   {
+      return this.probed;
+   }
+
+   void setProbed(boolean probed)
+   {
+      this.probed = probed;
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("MirrorGroup [name=");
+      sb.append(this.name);
+      sb.append(" ,mirrors=");
+      sb.append(this.mirrors);
+      sb.append("]");
+      return sb.toString();
+   }
+}
@@ -0,0 +1,416 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.mirror;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.retriever.impl.HttpClientManager;
+import org.jboss.logging.Logger;
+
+/**
+ * MirrorSelector
+ * 
+ * Picks the mirrors from which a package is retrieved. Mirror groups are configured through
+ * properties named {@link #PROPERTY_MIRROR_GROUP_PREFIX}&lt;group-name&gt;, whose value is the 
+ * (comma or whitespace separated) list of the base URLs of the mirrors in the group. A package 
+ * located under any of the mirrors of a group can be retrieved from any other mirror of that 
+ * group, under the same relative path. 
+ * <p>
+ * The mirrors of a group are probed (with a HEAD request) when the group is first used and 
+ * then every {@link #PROPERTY_PROBE_INTERVAL} milli seconds in the background. Retrievals try 
+ * the mirrors in the order of their health and measured latency, failing over to the next 
+ * mirror if a mirror fails.
+ * </p>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class MirrorSelector
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(MirrorSelector.class);
+
+   /**
+    * Prefix of the names of the properties which configure the mirror groups
+    */
+   public static final String PROPERTY_MIRROR_GROUP_PREFIX = "packagemanager.mirror-group.";
+
+   /**
+    * Name of the property which specifies the interval, in milli seconds, between the 
+    * background probes of the mirrors. Defaults to 5 minutes. A value of 0 disables
+    * the background probes (the mirrors are then probed just once).
+    */
+   public static final String PROPERTY_PROBE_INTERVAL = "packagemanager.mirror.probe-interval";
+
+   /**
+    * Name of the property which specifies how long, in milli seconds, the first use of a 
+    * mirror group waits for the probes of its mirrors. Mirrors which haven't responded by then
+    * are tried last. Defaults to 2000.
+    */
+   public static final String PROPERTY_PROBE_TIMEOUT = "packagemanager.mirror.probe-timeout";
+
+   /**
+    * Name of the property which specifies the path, relative to the base URL of a mirror, 
+    * which is probed. Defaults to the base URL itself.
+    */
+   public static final String PROPERTY_PROBE_PATH = "packagemanager.mirror.probe-path";
+
+   private static final int PROBE_THREADS = 4;
+
+   private PackageManagerEnvironment environment;
+
+   private HttpClientManager httpClientManager;
+
+   private List<MirrorGroup> groups = Collections.emptyList();
+
+   /**
+    * The mirror group properties from which the {@link #groups} were created
+    */
+   private String configuration;
+
+   private ScheduledExecutorService executor;
+
+   private ScheduledFuture<?> periodicProbe;
+
+   /**
+    * @param environment The package manager environment which holds the mirror configuration
+    * @param httpClientManager Manages the HTTP client used for probing the mirrors
+    */
+   public MirrorSelector(PackageManagerEnvironment environment, HttpClientManager httpClientManager)
+   {
+      this.environment = environment;
+      this.httpClientManager = httpClientManager;
+   }
+
+   /**
+    * Returns the URLs from which the package at <code>url</code> can be retrieved, in the order
+    * in which they should be tried. If <code>url</code> doesn't belong to any mirror group, then
+    * the returned list contains just <code>url</code>.
+    * 
+    * @param url The package URL
+    * @return
+    */
+   public List<URL> getCandidateURLs(URL url)
+   {
+      String spec = url.toExternalForm();
+      MirrorGroup group = null;
+      Mirror mirror = null;
+      for (MirrorGroup mirrorGroup : this.getMirrorGroups())
+      {
+         mirror = mirrorGroup.getMirror(spec);
+         if (mirror != null)
+         {
+            group = mirrorGroup;
+            break;
+         }
+      }
+      if (group == null)
+      {
+         return Collections.singletonList(url);
+      }
+      if (!group.isProbed())
+      {
+         this.probe(group);
+      }
+      String relativePath = spec.substring(mirror.getBaseURL().length());
+      List<URL> candidates = new ArrayList<URL>();
+      for (Mirror preferred : group.getMirrorsByPreference())
+      {
+         try
+         {
+            candidates.add(new URL(preferred.getBaseURL() + relativePath));
+         }
+         catch (MalformedURLException mue)
+         {
+            logger.warn("Skipping mirror " + preferred.getBaseURL() + " for " + url + " - " + mue.getMessage());
+         }
+      }
+      logger.debug("Mirrors for " + url + " in the order of preference " + candidates);
+      return candidates;
+   }
+
+   /**
+    * Reports that a retrieval from <code>url</code> succeeded
+    * 
+    * @param url The URL
+    */
+   public void reportSuccess(URL url)
+   {
+      Mirror mirror = this.getMirror(url);
+      if (mirror != null)
+      {
+         mirror.recordAvailable();
+      }
+   }
+
+   /**
+    * Reports that a retrieval from <code>url</code> failed, so that its mirror is tried 
+    * after the healthy ones until it recovers
+    * 
+    * @param url The URL
+    */
+   public void reportFailure(URL url)
+   {
+      Mirror mirror = this.getMirror(url);
+      if (mirror != null)
+      {
+         mirror.recordFailure();
+         logger.info("Marked " + mirror + " as unhealthy after a failed retrieval of " + url);
+      }
+   }
+
+   /**
+    * Probes all the mirrors now, waiting (at most) {@link #PROPERTY_PROBE_TIMEOUT} milli 
+    * seconds for each group
+    */
+   public void probe()
+   {
+      for (MirrorGroup group : this.getMirrorGroups())
+      {
+         this.probe(group);
+      }
+   }
+
+   /**
+    * Returns the configured mirror groups. The groups are recreated if their configuration
+    * changed since the last call.
+    * 
+    * @return
+    */
+   public synchronized List<MirrorGroup> getMirrorGroups()
+   {
+      Map<String, String> groupProperties = new TreeMap<String, String>();
+      for (Map.Entry<String, String> property : this.environment.getProperties().entrySet())
+      {
+         if (property.getKey().startsWith(PROPERTY_MIRROR_GROUP_PREFIX) && property.getValue() != null)
+         {
+            groupProperties.put(property.getKey().substring(PROPERTY_MIRROR_GROUP_PREFIX.length()), property
+                  .getValue().trim());
+         }
+      }
+      String currentConfiguration = groupProperties.toString();
+      if (currentConfiguration.equals(this.configuration))
+      {
+         return this.groups;
+      }
+      List<MirrorGroup> mirrorGroups = new ArrayList<MirrorGroup>();
+      for (Map.Entry<String, String> groupProperty : groupProperties.entrySet())
+      {
+         List<Mirror> mirrors = new ArrayList<Mirror>();
+         for (String baseURL : groupProperty.getValue().split("[,\\s]+"))
+         {
+            if (baseURL.length() > 0)
+            {
+               mirrors.add(new Mirror(baseURL));
+            }
+         }
+         if (!mirrors.isEmpty())
+         {
+            mirrorGroups.add(new MirrorGroup(groupProperty.getKey(), mirrors));
+         }
+      }
+      this.groups = Collections.unmodifiableList(mirrorGroups);
+      this.configuration = currentConfiguration;
+      logger.debug("Configured mirror groups " + this.groups);
+      this.schedulePeriodicProbe();
+      return this.groups;
+   }
+
+   /**
+    * Stops the background probes. The selector can still be used afterwards, in which case
+    * the probes are restarted.
+    */
+   public synchronized void shutdown()
+   {
+      if (this.executor == null)
+      {
+         return;
+      }
+      this.executor.shutdownNow();
+      this.executor = null;
+      this.periodicProbe = null;
+      // so that the next use recreates the groups and restarts the probes
+      this.configuration = null;
+      logger.debug("Shutdown mirror probes");
+   }
+
+   private Mirror getMirror(URL url)
+   {
+      String spec = url.toExternalForm();
+      for (MirrorGroup group : this.getMirrorGroups())
+      {
+         Mirror mirror = group.getMirror(spec);
+         if (mirror != null)
+         {
+            return mirror;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Probes the mirrors of the <code>group</code> concurrently, waiting (at most) 
+    * {@link #PROPERTY_PROBE_TIMEOUT} milli seconds for them. Mirrors which don't respond in 
+    * time are treated as being at least that slow. Their probes complete in the background.
+    */
+   private void probe(MirrorGroup group)
+   {
+      long timeout = this.environment.getLongProperty(PROPERTY_PROBE_TIMEOUT, 2000);
+      List<Future<?>> probes = new ArrayList<Future<?>>();
+      for (final Mirror mirror : group.getMirrors())
+      {
+         ScheduledExecutorService probeExecutor = this.getExecutor();
+         probes.add(probeExecutor.submit(new Runnable()
+         {
+            public void run()
+            {
+               probe(mirror);
+            }
+         }));
+      }
+      long deadline = System.currentTimeMillis() + timeout;
+      for (int i = 0; i < probes.size(); i++)
+      {
+         try
+         {
+            probes.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+         }
+         catch (TimeoutException te)
+         {
+            Mirror mirror = group.getMirrors().get(i);
+            mirror.recordTimeout(timeout);
+            logger.debug("Probe of " + mirror + " did not complete in " + timeout + " ms");
+         }
+         catch (ExecutionException ee)
+         {
+            logger.debug("Probe of " + group.getMirrors().get(i) + " failed", ee.getCause());
+         }
+         catch (InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            return;
+         }
+      }
+      group.setProbed(true);
+      logger.debug("Probed " + group);
+   }
+
+   /**
+    * Sends a HEAD request to the <code>mirror</code> and records the time taken for the
+    * response. Any response other than a server error means that the mirror is up.
+    */
+   private void probe(Mirror mirror)
+   {
+      String probePath = this.environment.getProperty(PROPERTY_PROBE_PATH, "");
+      HttpHead httpHead = new HttpHead(mirror.getBaseURL() + probePath);
+      long start = System.currentTimeMillis();
+      try
+      {
+         HttpResponse httpResponse = this.httpClientManager.getHttpClient().execute(httpHead);
+         HttpEntity httpEntity = httpResponse.getEntity();
+         if (httpEntity != null)
+         {
+            httpEntity.consumeContent();
+         }
+         int statusCode = httpResponse.getStatusLine().getStatusCode();
+         if (statusCode >= 500)
+         {
+            mirror.recordFailure();
+            logger.debug("Probe of " + mirror + " returned status code " + statusCode);
+            return;
+         }
+         mirror.recordSuccess(System.currentTimeMillis() - start);
+      }
+      catch (IOException ioe)
+      {
+         httpHead.abort();
+         mirror.recordFailure();
+         logger.debug("Probe of " + mirror + " failed - " + ioe.getMessage());
+      }
+   }
+
+   private synchronized ScheduledExecutorService getExecutor()
+   {
+      if (this.executor == null)
+      {
+         final AtomicInteger threadNumber = new AtomicInteger(1);
+         this.executor = new ScheduledThreadPoolExecutor(PROBE_THREADS, new ThreadFactory()
+         {
+            public Thread newThread(Runnable r)
+            {
+               Thread thread = new Thread(r, "mirror-probe-" + threadNumber.getAndIncrement());
+               // the probes shouldn't keep the JVM alive
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return this.executor;
+   }
+
+   /**
+    * (Re)schedules the background probes of the mirror groups
+    */
+   private synchronized void schedulePeriodicProbe()
+   {
+      if (this.periodicProbe != null)
+      {
+         this.periodicProbe.cancel(false);
+         this.periodicProbe = null;
+      }
+      long interval = this.environment.getLongProperty(PROPERTY_PROBE_INTERVAL, 5 * 60 * 1000);
+      if (this.groups.isEmpty() || interval <= 0)
+      {
+         return;
+      }
+      this.periodicProbe = this.getExecutor().scheduleWithFixedDelay(new Runnable()
+      {
+         public void run()
+         {
+            probe();
+         }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+   }
+}
@@ -32,9 +32,12 @@ public class DefaultUpgradeOptions implements UpgradeOptions
 
    private boolean forceUpgrade;
    
+   private boolean incrementalUpgrade;
+   
    public DefaultUpgradeOptions()
    {
       this.forceUpgrade = true;
+      this.incrementalUpgrade = true;
    }
    
    /**
@@ -55,4 +58,22 @@ public class DefaultUpgradeOptions implements UpgradeOptions
       this.forceUpgrade = force;  
    }
 
+   /**
+    * @see org.jboss.ejb3.packagemanager.option.UpgradeOptions#isIncrementalUpgrade()
+    */
+   @Override
+   public boolean isIncrementalUpgrade()
+   {
+      return this.incrementalUpgrade;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.option.UpgradeOptions#setIncrementalUpgrade(boolean)
+    */
+   @Override
+   public void setIncrementalUpgrade(boolean incremental)
+   {
+      this.incrementalUpgrade = incremental;
+   }
+
 }
@@ -32,4 +32,16 @@ public interface UpgradeOptions extends PackageManagerOptions
    boolean isForceUpgrade();
 
    void setForcedUpgrade(boolean force);
+
+   /**
+    * Returns true if an installed package can be upgraded in place, by installing only the 
+    * files which were added or changed in the new version and removing the files which 
+    * are no longer part of it. If false, the installed package is completely uninstalled 
+    * before installing the new version.
+    * 
+    * @return
+    */
+   boolean isIncrementalUpgrade();
+
+   void setIncrementalUpgrade(boolean incremental);
 }
@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.retriever;
+
+import java.io.InputStream;
+import java.net.URL;
+
+import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.exception.PackageRetrievalException;
+
+/**
+ * InputStreamPackageRetriever
+ * 
+ * A {@link PackageRetriever} for sources (for example, classloader resources or packages 
+ * held in memory) which can hand out the contents of a package as a stream. Such packages 
+ * are extracted straight from the stream, without first being written out to a file.
+ * <p>
+ * {@link #retrievePackage(PackageManagerContext, URL)} is still used when a file is 
+ * required (for example, to cache the extracted package by its digest).
+ * </p>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public interface InputStreamPackageRetriever extends PackageRetriever
+{
+   /**
+    * Opens a stream to the contents of the package at <code>packagePath</code>. The
+    * caller is responsible for closing the stream.
+    * 
+    * @param pkgMgrCtx The package manager context
+    * @param packagePath The location of the package
+    * @return Returns the stream of the package archive
+    * @throws PackageRetrievalException If the package can't be found or opened
+    */
+   InputStream openPackage(PackageManagerContext pkgMgrCtx, URL packagePath) throws PackageRetrievalException;
+}
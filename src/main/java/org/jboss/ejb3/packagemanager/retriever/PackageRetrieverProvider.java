@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.retriever;
+
+/**
+ * PackageRetrieverProvider
+ * 
+ * Service provider interface through which {@link PackageRetriever}s for additional URL 
+ * protocols are plugged into the package manager. Providers are discovered through 
+ * {@link java.util.ServiceLoader}, by listing their class names in a
+ * <code>META-INF/services/org.jboss.ejb3.packagemanager.retriever.PackageRetrieverProvider</code> 
+ * file. A provider takes precedence over the built-in retrievers for the protocols it supports.
+ * 
+ * @see org.jboss.ejb3.packagemanager.retriever.impl.PackageRetrievalFactory
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public interface PackageRetrieverProvider
+{
+   /**
+    * Returns the URL protocols (ex: "http") of the packages which can be retrieved by 
+    * the retrievers of this provider
+    * @return
+    */
+   String[] getSupportedProtocols();
+
+   /**
+    * Returns a retriever for packages of the {@link #getSupportedProtocols() supported protocols}
+    * @return
+    */
+   PackageRetriever getPackageRetriever();
+}
@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.retriever;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URL;
+
+import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.exception.PackageRetrievalException;
+
+/**
+ * StreamingPackageRetriever
+ * 
+ * A {@link PackageRetriever} which can hand out the bytes of the package as they 
+ * are retrieved, so that the package can be processed (for example, extracted) while it's
+ * still being retrieved.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public interface StreamingPackageRetriever extends PackageRetriever
+{
+   /**
+    * Retrieves the package at <code>packagePath</code>, writing its bytes, in order, to the 
+    * <code>contentSink</code> as they are retrieved. 
+    * <p>
+    * The retriever stops writing to the sink if it can't feed it the bytes in order (for example,
+    * when the package is served from a cache or the retrieval has to start over) or if writing
+    * to the sink fails. So the sink is not guaranteed to receive the entire package and users are 
+    * expected to compare the number of bytes it received with the size of the returned file.
+    * The sink is not closed by the retriever.
+    * </p>
+    * 
+    * @param pkgMgrCtx The package manager context
+    * @param packagePath The location of the package
+    * @param contentSink The stream to which the bytes of the package are written
+    * @return Returns the retrieved package
+    * @throws PackageRetrievalException
+    */
+   File retrievePackage(PackageManagerContext pkgMgrCtx, URL packagePath, OutputStream contentSink)
+         throws PackageRetrievalException;
+}
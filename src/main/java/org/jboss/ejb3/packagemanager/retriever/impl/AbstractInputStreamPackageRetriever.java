@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.retriever.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.exception.PackageRetrievalException;
+import org.jboss.ejb3.packagemanager.retriever.InputStreamPackageRetriever;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+
+/**
+ * AbstractInputStreamPackageRetriever
+ * 
+ * Base class for {@link InputStreamPackageRetriever}s, which retrieves a package to a file 
+ * by copying its stream to a tmp file leased from the workspace manager.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public abstract class AbstractInputStreamPackageRetriever implements InputStreamPackageRetriever
+{
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.retriever.PackageRetriever#retrievePackage(PackageManagerContext, URL)
+    */
+   @Override
+   public File retrievePackage(PackageManagerContext pkgMgrCtx, URL packagePath) throws PackageRetrievalException
+   {
+      InputStream is = this.openPackage(pkgMgrCtx, packagePath);
+      try
+      {
+         File tmpPkgFile = pkgMgrCtx.getWorkspaceManager().leaseTmpFile("tmp", ".jar");
+         IOUtil.copy(is, tmpPkgFile, pkgMgrCtx.getThrottle().getDiskBucket());
+         return tmpPkgFile;
+      }
+      catch (IOException ioe)
+      {
+         throw new PackageRetrievalException("Could not retrieve package " + packagePath, ioe);
+      }
+      finally
+      {
+         IOUtil.close(is);
+      }
+   }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.retriever.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.exception.PackageRetrievalException;
+
+/**
+ * ClassLoaderPackageRetriever
+ * 
+ * Retrieves packages which are available as classloader resources, so that packages 
+ * shipped within an application's own jars can be installed without first copying them 
+ * to a file. Handles:
+ * <ul>
+ *   <li>classpath:path/to/package.jar URLs, which are looked up as resources of the thread
+ *   context classloader (or the classloader of this class, if there's no context classloader)</li>
+ *   <li>jar:file:/path/to/app.jar!/path/to/package.jar URLs, which point to an entry of 
+ *   a jar file</li>
+ * </ul>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class ClassLoaderPackageRetriever extends AbstractInputStreamPackageRetriever
+{
+
+   public static final String PROTOCOL_CLASSPATH = "classpath";
+
+   public static final String PROTOCOL_JAR = "jar";
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.retriever.InputStreamPackageRetriever#openPackage(PackageManagerContext, URL)
+    */
+   @Override
+   public InputStream openPackage(PackageManagerContext pkgMgrCtx, URL packagePath) throws PackageRetrievalException
+   {
+      URL resource = packagePath;
+      if (PROTOCOL_CLASSPATH.equalsIgnoreCase(packagePath.getProtocol()))
+      {
+         String resourceName = packagePath.getPath();
+         while (resourceName.startsWith("/"))
+         {
+            resourceName = resourceName.substring(1);
+         }
+         ClassLoader cl = Thread.currentThread().getContextClassLoader();
+         if (cl == null)
+         {
+            cl = ClassLoaderPackageRetriever.class.getClassLoader();
+         }
+         resource = cl.getResource(resourceName);
+         if (resource == null)
+         {
+            throw new PackageRetrievalException("Package " + packagePath + " not found in classloader " + cl);
+         }
+      }
+      else if (!PROTOCOL_JAR.equalsIgnoreCase(packagePath.getProtocol()))
+      {
+         throw new PackageRetrievalException("Cannot handle " + packagePath);
+      }
+      try
+      {
+         URLConnection connection = resource.openConnection();
+         // don't let the JDK hold on to (and lock) the enclosing jar file after the stream is closed
+         connection.setUseCaches(false);
+         return connection.getInputStream();
+      }
+      catch (IOException ioe)
+      {
+         throw new PackageRetrievalException("Could not open package " + packagePath, ioe);
+      }
+   }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.retriever.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.logging.Logger;
+
+/**
+ * HttpClientManager
+ * 
+ * Manages a {@link HttpClient} which is shared by all the HTTP retrievals of a 
+ * package manager. The client uses a pool of keep-alive connections, so that 
+ * retrieving a package and its dependencies from the same server does not need a 
+ * new connection for each of them. The client asks for gzip encoded content 
+ * and transparently decodes it.
+ * 
+ * The client is created on first use and its connections are closed on {@link #shutdown()}.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class HttpClientManager
+{
+
+   /**
+    * Name of the property which specifies the max number of (pooled) HTTP connections. 
+    * Defaults to 20
+    */
+   public static final String PROPERTY_MAX_CONNECTIONS = "packagemanager.http.max-connections";
+
+   /**
+    * Name of the property which specifies the max number of (pooled) HTTP connections 
+    * to a single server. Defaults to 5
+    */
+   public static final String PROPERTY_MAX_CONNECTIONS_PER_ROUTE = "packagemanager.http.max-connections-per-route";
+
+   /**
+    * Name of the property which specifies the timeout, in milli seconds, for establishing a 
+    * HTTP connection. Defaults to 30 seconds
+    */
+   public static final String PROPERTY_CONNECTION_TIMEOUT = "packagemanager.http.connection-timeout";
+
+   /**
+    * Name of the property which specifies the timeout, in milli seconds, for waiting 
+    * for data on a HTTP connection. Defaults to 60 seconds
+    */
+   public static final String PROPERTY_SOCKET_TIMEOUT = "packagemanager.http.socket-timeout";
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(HttpClientManager.class);
+
+   /**
+    * Package manager environment
+    */
+   private PackageManagerEnvironment environment;
+
+   /**
+    * The shared client. Created on first use
+    */
+   private DefaultHttpClient httpClient;
+
+   /**
+    * @param environment The package manager environment from which the connection settings
+    *           are read
+    */
+   public HttpClientManager(PackageManagerEnvironment environment)
+   {
+      this.environment = environment;
+   }
+
+   /**
+    * Returns the shared {@link HttpClient}, creating it if required. The returned
+    * client is thread safe. 
+    * 
+    * Callers are expected to completely consume (or close) the content of each 
+    * response, so that the connection is returned to the pool. 
+    * 
+    * @return
+    */
+   public synchronized HttpClient getHttpClient()
+   {
+      if (this.httpClient == null)
+      {
+         this.httpClient = this.createHttpClient();
+      }
+      return this.httpClient;
+   }
+
+   /**
+    * Closes the pooled connections of the shared client (if it was created). The next 
+    * call to {@link #getHttpClient()} creates a new client.
+    */
+   public synchronized void shutdown()
+   {
+      if (this.httpClient == null)
+      {
+         return;
+      }
+      this.httpClient.getConnectionManager().shutdown();
+      this.httpClient = null;
+      logger.debug("Shutdown HTTP client");
+   }
+
+   private DefaultHttpClient createHttpClient()
+   {
+      int maxConnections = this.environment.getIntProperty(PROPERTY_MAX_CONNECTIONS, 20);
+      int maxConnectionsPerRoute = this.environment.getIntProperty(PROPERTY_MAX_CONNECTIONS_PER_ROUTE, 5);
+
+      HttpParams params = new BasicHttpParams();
+      ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+      ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+      HttpConnectionParams.setConnectionTimeout(params, this.environment.getIntProperty(
+            PROPERTY_CONNECTION_TIMEOUT, 30000));
+      HttpConnectionParams.setSoTimeout(params, this.environment.getIntProperty(PROPERTY_SOCKET_TIMEOUT, 60000));
+      HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+      SchemeRegistry schemeRegistry = new SchemeRegistry();
+      schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+      schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+      ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+
+      DefaultHttpClient client = new DefaultHttpClient(connectionManager, params);
+      client.addRequestInterceptor(new HttpRequestInterceptor()
+      {
+         public void process(HttpRequest request, HttpContext context) throws HttpException, IOException
+         {
+            if (!request.containsHeader("Accept-Encoding"))
+            {
+               request.addHeader("Accept-Encoding", "gzip");
+            }
+         }
+      });
+      client.addResponseInterceptor(new HttpResponseInterceptor()
+      {
+         public void process(HttpResponse response, HttpContext context) throws HttpException, IOException
+         {
+            HttpEntity entity = response.getEntity();
+            if (entity == null || entity.getContentEncoding() == null)
+            {
+               return;
+            }
+            for (HeaderElement encoding : entity.getContentEncoding().getElements())
+            {
+               if (encoding.getName().equalsIgnoreCase("gzip"))
+               {
+                  response.setEntity(new GzipDecompressingEntity(entity));
+                  return;
+               }
+            }
+         }
+      });
+      logger.debug("Created HTTP client with max " + maxConnections + " connections (" + maxConnectionsPerRoute
+            + " per server)");
+      return client;
+   }
+
+   /**
+    * Decodes the gzip encoded content of the wrapped entity
+    */
+   private static class GzipDecompressingEntity extends HttpEntityWrapper
+   {
+
+      public GzipDecompressingEntity(HttpEntity entity)
+      {
+         super(entity);
+      }
+
+      @Override
+      public InputStream getContent() throws IOException
+      {
+         return new GZIPInputStream(this.wrappedEntity.getContent());
+      }
+
+      /**
+       * The length of the decoded content isn't known
+       */
+      @Override
+      public long getContentLength()
+      {
+         return -1;
+      }
+
+      @Override
+      public Header getContentEncoding()
+      {
+         return null;
+      }
+   }
+}
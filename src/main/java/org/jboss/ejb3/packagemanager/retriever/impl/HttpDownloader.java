@@ -0,0 +1,1141 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.retriever.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.exception.PackageRetrievalException;
+import org.jboss.ejb3.packagemanager.mirror.MirrorSelector;
+import org.jboss.ejb3.packagemanager.throttle.Throttle;
+import org.jboss.ejb3.packagemanager.throttle.TokenBucket;
+import org.jboss.ejb3.packagemanager.util.DigestMemo;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.ejb3.packagemanager.util.JarExtractor;
+import org.jboss.ejb3.packagemanager.util.ParallelTaskRunner;
+import org.jboss.logging.Logger;
+
+/**
+ * HttpDownloader
+ * 
+ * Downloads a package from a HTTP URL. The package is first written to a partial 
+ * file under &lt;package-manager-home&gt;/cache/partial and if the transfer fails midway, the 
+ * download is resumed from where it stopped, through a <code>Range</code> request (guarded 
+ * by <code>If-Range</code>, so that a package which changed on the server is downloaded afresh). 
+ * The partial file outlives a failed package manager operation, so a later retrieval of the 
+ * same URL resumes it too.
+ * 
+ * Packages larger than {@link #PROPERTY_SEGMENT_THRESHOLD} can optionally be downloaded in
+ * {@link #PROPERTY_SEGMENTS} byte ranges, which are fetched concurrently and written at their 
+ * offsets in the partial file. 
+ * 
+ * If the server publishes a &lt;url&gt;.sha256 file next to the package, the downloaded package
+ * is verified against it before it's handed out. A package without such a file is handed out 
+ * unverified (with a warning), unless {@link #PROPERTY_REQUIRE_CHECKSUM} is set.
+ * 
+ * If the URL belongs to a mirror group (see {@link MirrorSelector}), the package is requested 
+ * from the preferred mirror and a failed request fails over to the next mirror. The validators
+ * (<code>ETag</code>, <code>Last-Modified</code>) of a partial download are only meaningful to the 
+ * mirror which sent them, so a download is resumed only from that mirror and starts over on 
+ * any other.
+ * 
+ * The bytes are received and written no faster than the network and disk limits of the 
+ * {@link Throttle} allow, across all the segments and all the concurrent downloads.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class HttpDownloader
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(HttpDownloader.class);
+
+   /**
+    * Name of the property which specifies the number of times a failed transfer is 
+    * resumed before giving up. Defaults to 3.
+    */
+   public static final String PROPERTY_RETRIES = "packagemanager.http.retries";
+
+   /**
+    * Name of the property which specifies the number of byte ranges a large package 
+    * is downloaded in. Defaults to 1 (i.e. segmented downloads are disabled)
+    */
+   public static final String PROPERTY_SEGMENTS = "packagemanager.http.segments";
+
+   /**
+    * Name of the property which specifies the size (in bytes) above which a package is 
+    * downloaded in segments. Defaults to {@link #DEFAULT_SEGMENT_THRESHOLD}
+    */
+   public static final String PROPERTY_SEGMENT_THRESHOLD = "packagemanager.http.segment-threshold";
+
+   /**
+    * Name of the property which enables the verification of the downloaded package 
+    * against the &lt;url&gt;{@link #CHECKSUM_SUFFIX} file published by the server. Defaults 
+    * to true.
+    */
+   public static final String PROPERTY_VERIFY_CHECKSUM = "packagemanager.http.verify-checksum";
+
+   /**
+    * Name of the property which, when verification is enabled (see {@link #PROPERTY_VERIFY_CHECKSUM}),
+    * rejects a downloaded package for which the server doesn't publish a valid 
+    * &lt;url&gt;{@link #CHECKSUM_SUFFIX} file. Defaults to false.
+    */
+   public static final String PROPERTY_REQUIRE_CHECKSUM = "packagemanager.http.require-checksum";
+
+   /**
+    * Default size (in bytes) above which packages are downloaded in segments
+    */
+   public static final long DEFAULT_SEGMENT_THRESHOLD = 16 * 1024 * 1024;
+
+   /**
+    * Suffix of the file containing the (hex encoded) SHA-256 checksum of a package
+    */
+   public static final String CHECKSUM_SUFFIX = ".sha256";
+
+   private static final String HEADER_ETAG = "ETag";
+
+   private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+   private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+
+   private static final String HEADER_RANGE = "Range";
+
+   private static final String HEADER_IF_RANGE = "If-Range";
+
+   private static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+   private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
+   private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+   /**
+    * Partial files currently being written to, in this JVM
+    */
+   private static Set<File> partialFilesInUse = new HashSet<File>();
+
+   private HttpClient httpClient;
+
+   private URL url;
+
+   /**
+    * The URLs (of the mirrors) from which the package can be downloaded, in the 
+    * order of preference
+    */
+   private List<URL> urls;
+
+   /**
+    * Index of the URL to which requests are currently sent
+    */
+   private int current;
+
+   private MirrorSelector mirrorSelector;
+
+   /**
+    * Limits the rate at which the bytes are received. Can be null.
+    */
+   private TokenBucket networkBucket;
+
+   /**
+    * Limits the rate at which the bytes are written to the partial file. Can be null.
+    */
+   private TokenBucket diskBucket;
+
+   private File partialDir;
+
+   /**
+    * The file to which the package is downloaded
+    */
+   private File partialFile;
+
+   /**
+    * Holds the validators of the package being downloaded to the {@link #partialFile}
+    */
+   private File partialEntryFile;
+
+   private int retries;
+
+   private int segments;
+
+   private long segmentThreshold;
+
+   private boolean verifyChecksum;
+
+   private boolean requireChecksum;
+
+   private String etag;
+
+   private String lastModified;
+
+   /**
+    * The URL (of the mirror) from which the {@link #etag} and {@link #lastModified} were received
+    */
+   private String validatorsURL;
+
+   private boolean cacheable = true;
+
+   /**
+    * Receives the bytes of the package, in order, as they are downloaded. Can be null.
+    */
+   private OutputStream contentSink;
+
+   /**
+    * SHA-256 digest of the first {@link #processedLength} bytes of the partial file 
+    */
+   private MessageDigest digest = DigestUtil.newDigest(DigestUtil.SHA_256);
+
+   /**
+    * Number of bytes of the partial file which have been digested (and written to 
+    * the {@link #contentSink}, if any)
+    */
+   private long processedLength;
+
+   /**
+    * The (hex encoded) SHA-256 digest of the downloaded package
+    */
+   private String sha256;
+
+   /**
+    * @param pkgMgrCtx The package manager context
+    * @param url The URL of the package
+    */
+   public HttpDownloader(PackageManagerContext pkgMgrCtx, URL url)
+   {
+      PackageManagerEnvironment environment = pkgMgrCtx.getPackageManagerEnvironment();
+      this.httpClient = pkgMgrCtx.getHttpClient();
+      this.url = url;
+      this.mirrorSelector = pkgMgrCtx.getMirrorSelector();
+      this.urls = this.mirrorSelector == null ? Collections.singletonList(url) : this.mirrorSelector
+            .getCandidateURLs(url);
+      Throttle throttle = pkgMgrCtx.getThrottle();
+      if (throttle != null)
+      {
+         this.networkBucket = throttle.getNetworkBucket();
+         this.diskBucket = throttle.getDiskBucket();
+      }
+      this.partialDir = new File(new File(environment.getPackageManagerHome(), "cache"), "partial");
+      this.retries = environment.getIntProperty(PROPERTY_RETRIES, 3);
+      this.segments = environment.getIntProperty(PROPERTY_SEGMENTS, 1);
+      this.segmentThreshold = environment.getLongProperty(PROPERTY_SEGMENT_THRESHOLD, DEFAULT_SEGMENT_THRESHOLD);
+      this.verifyChecksum = environment.getBooleanProperty(PROPERTY_VERIFY_CHECKSUM, true);
+      this.requireChecksum = environment.getBooleanProperty(PROPERTY_REQUIRE_CHECKSUM, false);
+   }
+
+   /**
+    * Sets the stream which receives the bytes of the package, in order, as they are downloaded,
+    * so that the package can be processed while it's being downloaded. The downloader stops 
+    * writing to the sink (without closing it) if it can no longer feed the bytes in order, for 
+    * example when the download has to start over or is fetched in segments, or if writing to the 
+    * sink fails. Users of the sink are hence expected to compare the number of bytes it received 
+    * with the size of the downloaded package.
+    * 
+    * @param contentSink The stream. Can be null.
+    */
+   public void setContentSink(OutputStream contentSink)
+   {
+      this.contentSink = contentSink;
+   }
+
+   /**
+    * Downloads the package to <code>dest</code>, resuming the partial download left behind 
+    * by an earlier retrieval of the same URL, if any.
+    * 
+    * @param dest The file to which the package is written 
+    * @throws PackageRetrievalException If the package could not be downloaded
+    */
+   public void download(File dest) throws PackageRetrievalException
+   {
+      this.download(dest, null, null);
+   }
+
+   /**
+    * Downloads the package to <code>dest</code>, starting with the content of <code>httpResponse</code>,
+    * which is the (successful) response to the <code>httpGet</code> already sent for the package.  
+    * 
+    * @param dest The file to which the package is written
+    * @param httpGet The request for the package
+    * @param httpResponse The response to <code>httpGet</code>
+    * @throws PackageRetrievalException If the package could not be downloaded
+    */
+   public void download(File dest, HttpGet httpGet, HttpResponse httpResponse) throws PackageRetrievalException
+   {
+      this.acquirePartialFile();
+      try
+      {
+         int failures = 0;
+         // each mirror gets a chance, in addition to the retries
+         int attempts = this.retries + this.urls.size();
+         while (true)
+         {
+            try
+            {
+               if (httpResponse == null)
+               {
+                  httpGet = this.createRequest();
+                  httpResponse = this.httpClient.execute(httpGet);
+               }
+               this.transfer(httpGet, httpResponse);
+               break;
+            }
+            catch (IOException ioe)
+            {
+               if (httpGet != null)
+               {
+                  httpGet.abort();
+               }
+               if (isInterrupt(ioe))
+               {
+                  // the thread was interrupted (while throttled, for instance), which is no fault of the mirror
+                  throw new PackageRetrievalException("Interrupted while retrieving " + this.url, ioe);
+               }
+               failures++;
+               if (failures >= attempts)
+               {
+                  this.reportFailure();
+                  throw new PackageRetrievalException("Could not retrieve " + this.url + " after " + failures
+                        + " attempt(s)", ioe);
+               }
+               logger.warn("Retrieval of " + this.getRequestURL() + " failed after " + this.partialFile.length()
+                     + " bytes (" + ioe.getMessage() + "), resuming - attempt " + (failures + 1) + " of " + attempts);
+               this.failover();
+               httpResponse = null;
+            }
+            catch (PackageRetrievalException pre)
+            {
+               if (Thread.currentThread().isInterrupted())
+               {
+                  // a segmented retrieval which was interrupted
+                  throw pre;
+               }
+               // the mirror refused to serve the package, so it's of no use retrying it
+               failures++;
+               if (failures >= attempts || !this.failover())
+               {
+                  throw pre;
+               }
+               logger.warn("Retrieval failed (" + pre.getMessage() + "), trying the next mirror");
+               httpResponse = null;
+            }
+         }
+         this.complete(dest);
+         if (this.mirrorSelector != null)
+         {
+            this.mirrorSelector.reportSuccess(this.getRequestURL());
+         }
+      }
+      finally
+      {
+         this.releasePartialFile();
+      }
+   }
+
+   /**
+    * @return Returns the URL to which requests for the package are currently sent. This is the 
+    * URL of the preferred mirror, until a failure fails over to another mirror.
+    */
+   public URL getRequestURL()
+   {
+      return this.urls.get(this.current);
+   }
+
+   /**
+    * Reports the failure of the current request URL and switches to the next mirror, if any
+    * 
+    * @return Returns false if there's no other mirror to switch to
+    */
+   boolean failover()
+   {
+      URL failed = this.reportFailure();
+      if (this.current + 1 >= this.urls.size())
+      {
+         return false;
+      }
+      this.current++;
+      // the partial download (if any) is discarded on the next request, since it can't be 
+      // resumed from another mirror
+      logger.info("Failing over from " + failed + " to " + this.getRequestURL());
+      return true;
+   }
+
+   private URL reportFailure()
+   {
+      URL failed = this.getRequestURL();
+      if (this.mirrorSelector != null && this.urls.size() > 1)
+      {
+         this.mirrorSelector.reportFailure(failed);
+      }
+      return failed;
+   }
+
+   /**
+    * @return Returns the ETag of the downloaded package or null if the server didn't return one 
+    */
+   public String getETag()
+   {
+      return this.etag;
+   }
+
+   /**
+    * @return Returns the Last-Modified of the downloaded package or null if the server didn't return one
+    */
+   public String getLastModified()
+   {
+      return this.lastModified;
+   }
+
+   /**
+    * @return Returns false if the server asked the package not to be stored
+    */
+   public boolean isCacheable()
+   {
+      return this.cacheable;
+   }
+
+   /**
+    * @return Returns the (hex encoded) SHA-256 digest of the downloaded package. The digest is
+    * computed while the package is being downloaded.
+    */
+   public String getSha256()
+   {
+      return this.sha256;
+   }
+
+   /**
+    * Writes the content of the <code>httpResponse</code> to the partial file
+    * 
+    * @throws IOException If the transfer fails. The partial file then holds the bytes received 
+    *           till then, so the transfer can be resumed
+    * @throws PackageRetrievalException If the server returned an unexpected response
+    */
+   private void transfer(HttpGet httpGet, HttpResponse httpResponse) throws IOException,
+         PackageRetrievalException
+   {
+      HttpEntity httpEntity = httpResponse.getEntity();
+      int statusCode = httpResponse.getStatusLine().getStatusCode();
+      boolean append = false;
+      if (statusCode == HttpStatus.SC_OK)
+      {
+         // the response carries the whole package, so whatever was downloaded earlier is 
+         // of no use (and mustn't be digested or written to the content sink)
+         this.discardPartialFile();
+         this.resetProcessed();
+         this.setValidators(httpResponse);
+         if (httpEntity != null && this.isSegmentable(httpResponse))
+         {
+            // the segments are fetched on requests of their own
+            httpGet.abort();
+            this.downloadSegments(httpEntity.getContentLength());
+            return;
+         }
+         this.writeEntry();
+      }
+      else if (statusCode == HttpStatus.SC_PARTIAL_CONTENT
+            && getRangeStart(httpResponse) == this.partialFile.length())
+      {
+         append = true;
+         String cacheControl = getHeader(httpResponse, HEADER_CACHE_CONTROL);
+         this.cacheable = cacheControl == null || cacheControl.toLowerCase().indexOf("no-store") == -1;
+      }
+      else if (statusCode == HttpStatus.SC_PARTIAL_CONTENT
+            || statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE)
+      {
+         // the partial file is of no use, so start over
+         long offset = this.partialFile.length();
+         consume(httpEntity);
+         this.discardPartialFile();
+         throw new IOException("Server could not resume from byte " + offset);
+      }
+      else
+      {
+         consume(httpEntity);
+         throw new PackageRetrievalException("Http retrieval wasn't successful, returned status code  "
+               + statusCode);
+      }
+      if (httpEntity == null)
+      {
+         throw new PackageRetrievalException("Http retrieval of " + this.url + " did not return any content");
+      }
+      if (append)
+      {
+         // digest the bytes (of an earlier attempt) which haven't been yet
+         this.process(this.partialFile.length());
+      }
+      InputStream is = httpEntity.getContent();
+      try
+      {
+         OutputStream os = new FileOutputStream(this.partialFile, append);
+         try
+         {
+            byte[] buffer = new byte[JarExtractor.DEFAULT_BUFFER_SIZE];
+            int n = 0;
+            while ((n = is.read(buffer)) != -1)
+            {
+               this.throttle(n);
+               os.write(buffer, 0, n);
+               this.processed(buffer, n);
+            }
+         }
+         finally
+         {
+            IOUtil.close(os);
+         }
+      }
+      finally
+      {
+         // completely reading (and closing) the content releases the connection
+         IOUtil.close(is);
+      }
+   }
+
+   /**
+    * Waits till the throttle allows <code>length</code> more bytes to be received and 
+    * written to the partial file
+    */
+   private void throttle(int length) throws IOException
+   {
+      if (this.networkBucket != null)
+      {
+         this.networkBucket.acquire(length);
+      }
+      if (this.diskBucket != null)
+      {
+         this.diskBucket.acquire(length);
+      }
+   }
+
+   /**
+    * Digests (and writes to the content sink) the <code>length</code> bytes which were 
+    * just written to the partial file
+    */
+   private void processed(byte[] bytes, int length)
+   {
+      this.digest.update(bytes, 0, length);
+      this.processedLength += length;
+      if (this.contentSink != null)
+      {
+         try
+         {
+            this.contentSink.write(bytes, 0, length);
+         }
+         catch (IOException ioe)
+         {
+            // the user of the sink has given up on it. That doesn't affect the download though
+            logger.debug("Could not write to content sink of " + this.url + ", no longer writing to it - "
+                  + ioe.getMessage());
+            this.contentSink = null;
+         }
+      }
+   }
+
+   /**
+    * Digests (and writes to the content sink) the bytes of the partial file, upto 
+    * <code>length</code>, which haven't been processed yet
+    */
+   private void process(long length) throws IOException
+   {
+      if (this.processedLength >= length)
+      {
+         return;
+      }
+      InputStream is = new FileInputStream(this.partialFile);
+      try
+      {
+         long skipped = 0;
+         while (skipped < this.processedLength)
+         {
+            long n = is.skip(this.processedLength - skipped);
+            if (n <= 0)
+            {
+               throw new IOException("Could not skip to byte " + this.processedLength + " of " + this.partialFile);
+            }
+            skipped += n;
+         }
+         byte[] buffer = new byte[JarExtractor.DEFAULT_BUFFER_SIZE];
+         while (this.processedLength < length)
+         {
+            int n = is.read(buffer, 0, (int) Math.min(buffer.length, length - this.processedLength));
+            if (n == -1)
+            {
+               throw new IOException(this.partialFile + " is shorter than " + length + " bytes");
+            }
+            this.processed(buffer, n);
+         }
+      }
+      finally
+      {
+         IOUtil.close(is);
+      }
+   }
+
+   /**
+    * Starts the processing of the package bytes over. The content sink, if it has already 
+    * received any bytes, can't be fed any more.
+    */
+   private void resetProcessed()
+   {
+      if (this.processedLength > 0 && this.contentSink != null)
+      {
+         logger.debug("Retrieval of " + this.url + " restarted, no longer writing to content sink");
+         this.contentSink = null;
+      }
+      this.digest.reset();
+      this.processedLength = 0;
+   }
+
+   /**
+    * Downloads the package in byte ranges, which are fetched concurrently and written at their
+    * offsets in a file of the package's size. Each segment is resumed on its own, if its transfer 
+    * fails. 
+    */
+   private void downloadSegments(final long length) throws IOException, PackageRetrievalException
+   {
+      final String ifRange = this.getIfRange();
+      File segmentsFile = new File(this.partialDir, this.partialFile.getName() + "-" + System.nanoTime()
+            + ".segments");
+      RandomAccessFile raf = new RandomAccessFile(segmentsFile, "rw");
+      try
+      {
+         raf.setLength(length);
+      }
+      finally
+      {
+         IOUtil.close(raf);
+      }
+      boolean completed = false;
+      try
+      {
+         long segmentSize = (length + this.segments - 1) / this.segments;
+         List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+         for (long start = 0; start < length; start += segmentSize)
+         {
+            final long end = Math.min(start + segmentSize, length) - 1;
+            tasks.add(new SegmentDownload(this.getRequestURL(), segmentsFile, start, end, ifRange));
+         }
+         logger.info("Retrieving " + this.url + " (" + length / 1024 + " KB) in " + tasks.size() + " segments");
+         ParallelTaskRunner runner = new ParallelTaskRunner("http-segment", tasks.size());
+         try
+         {
+            runner.invokeAll(tasks);
+         }
+         catch (ExecutionException ee)
+         {
+            Throwable cause = ee.getCause();
+            if (cause instanceof Error)
+            {
+               throw (Error) cause;
+            }
+            throw new PackageRetrievalException("Segmented retrieval of " + this.url + " failed", (Exception) cause);
+         }
+         catch (InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            throw new PackageRetrievalException("Interrupted while retrieving " + this.url, ie);
+         }
+         this.discardPartialFile();
+         this.resetProcessed();
+         if (!segmentsFile.renameTo(this.partialFile))
+         {
+            throw new IOException("Could not rename " + segmentsFile + " to " + this.partialFile);
+         }
+         completed = true;
+      }
+      finally
+      {
+         if (!completed)
+         {
+            segmentsFile.delete();
+         }
+      }
+   }
+
+   /**
+    * Verifies the downloaded package and moves it to <code>dest</code>
+    */
+   private void complete(File dest) throws PackageRetrievalException
+   {
+      try
+      {
+         // the bytes are usually digested as they are downloaded, except for segmented downloads
+         if (this.processedLength != this.partialFile.length())
+         {
+            this.resetProcessed();
+            this.process(this.partialFile.length());
+         }
+         this.sha256 = DigestUtil.toHex(this.digest.digest());
+         String expectedChecksum = this.verifyChecksum ? this.retrieveChecksum() : null;
+         if (expectedChecksum != null)
+         {
+            String checksum = this.sha256;
+            if (!expectedChecksum.equals(checksum))
+            {
+               this.discardPartialFile();
+               throw new PackageRetrievalException("Checksum of package retrieved from " + this.url + " is "
+                     + checksum + ", expected " + expectedChecksum);
+            }
+            logger.debug("Verified checksum of " + this.url);
+         }
+         else if (this.verifyChecksum && this.requireChecksum)
+         {
+            this.discardPartialFile();
+            throw new PackageRetrievalException("No checksum available for package retrieved from " + this.url
+                  + ", which is required by " + PROPERTY_REQUIRE_CHECKSUM);
+         }
+         dest.delete();
+         if (!this.partialFile.renameTo(dest))
+         {
+            IOUtil.copy(this.partialFile, dest, this.diskBucket);
+         }
+         this.discardPartialFile();
+         // so that users of the package (the extraction cache, for instance) needn't read it again
+         DigestMemo.remember(dest, this.sha256);
+      }
+      catch (IOException ioe)
+      {
+         throw new PackageRetrievalException("Could not process the retrieved package", ioe);
+      }
+   }
+
+   /**
+    * Returns the (lower case) checksum published at &lt;url&gt;{@link #CHECKSUM_SUFFIX} or
+    * null if the server doesn't publish one
+    */
+   private String retrieveChecksum()
+   {
+      HttpGet httpGet = new HttpGet(this.getRequestURL().toExternalForm() + CHECKSUM_SUFFIX);
+      try
+      {
+         HttpResponse httpResponse = this.httpClient.execute(httpGet);
+         HttpEntity httpEntity = httpResponse.getEntity();
+         if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_OK || httpEntity == null)
+         {
+            consume(httpEntity);
+            logger.warn("No checksum published at " + httpGet.getURI() + ", package retrieved from " + this.url
+                  + " is not verified");
+            return null;
+         }
+         InputStream is = httpEntity.getContent();
+         byte[] content = new byte[1024];
+         int read = 0;
+         try
+         {
+            int n = 0;
+            while (read < content.length && (n = is.read(content, read, content.length - read)) != -1)
+            {
+               read += n;
+            }
+         }
+         finally
+         {
+            // the checksum file is small, so the rest (if any) is just discarded
+            httpGet.abort();
+            IOUtil.close(is);
+         }
+         // the checksum can be followed by the name of the file, as generated by sha256sum
+         String[] tokens = new String(content, 0, read, "US-ASCII").trim().split("\\s+");
+         if (tokens.length == 0 || !tokens[0].matches("[0-9a-fA-F]{64}"))
+         {
+            logger.warn("Ignoring invalid checksum file " + httpGet.getURI());
+            return null;
+         }
+         return tokens[0].toLowerCase();
+      }
+      catch (IOException ioe)
+      {
+         httpGet.abort();
+         logger.warn("Could not retrieve checksum of " + this.url + ", skipping verification - "
+               + ioe.getMessage());
+         return null;
+      }
+   }
+
+   /**
+    * Creates a request for the package. If there's a partial download of the package, then
+    * the request asks for the rest of the package.
+    */
+   private HttpGet createRequest()
+   {
+      HttpGet httpGet = new HttpGet(this.getRequestURL().toExternalForm());
+      long offset = this.partialFile.length();
+      String ifRange = this.getIfRange();
+      if (offset > 0 && ifRange == null)
+      {
+         // can't safely resume without a validator
+         this.discardPartialFile();
+         offset = 0;
+      }
+      if (offset > 0)
+      {
+         httpGet.addHeader(HEADER_RANGE, "bytes=" + offset + "-");
+         httpGet.addHeader(HEADER_IF_RANGE, ifRange);
+         // byte ranges apply to the encoded content, so ask for the content as is
+         httpGet.addHeader(HEADER_ACCEPT_ENCODING, "identity");
+         logger.debug("Resuming retrieval of " + this.url + " from byte " + offset + " of " + this.getRequestURL());
+      }
+      return httpGet;
+   }
+
+   /**
+    * Returns true if the package of the <code>httpResponse</code> is large enough to be 
+    * downloaded in segments, and the server supports byte ranges
+    */
+   private boolean isSegmentable(HttpResponse httpResponse)
+   {
+      long length = httpResponse.getEntity().getContentLength();
+      String acceptRanges = getHeader(httpResponse, HEADER_ACCEPT_RANGES);
+      // the length of encoded content isn't known
+      return this.contentSink == null && this.segments > 1 && length >= this.segmentThreshold && length > this.segments
+            && acceptRanges != null && acceptRanges.toLowerCase().indexOf("bytes") != -1
+            && this.getIfRange() != null;
+   }
+
+   /**
+    * Returns the validator to be sent in <code>If-Range</code> or null if the package 
+    * doesn't have a suitable (i.e. strong) validator from the current request URL
+    */
+   private String getIfRange()
+   {
+      // another mirror can have a different copy of the package, with the same Last-Modified
+      if (!this.getRequestURL().toExternalForm().equals(this.validatorsURL))
+      {
+         return null;
+      }
+      if (this.etag != null && !this.etag.startsWith("W/"))
+      {
+         return this.etag;
+      }
+      return this.lastModified;
+   }
+
+   private void setValidators(HttpResponse httpResponse)
+   {
+      this.etag = getHeader(httpResponse, HEADER_ETAG);
+      this.lastModified = getHeader(httpResponse, HEADER_LAST_MODIFIED);
+      this.validatorsURL = this.getRequestURL().toExternalForm();
+      String cacheControl = getHeader(httpResponse, HEADER_CACHE_CONTROL);
+      this.cacheable = cacheControl == null || cacheControl.toLowerCase().indexOf("no-store") == -1;
+   }
+
+   /**
+    * Records the validators of the package being downloaded, so that a later retrieval can
+    * resume the download
+    */
+   private void writeEntry() throws IOException
+   {
+      Properties entry = new Properties();
+      entry.setProperty("url", this.url.toExternalForm());
+      entry.setProperty("source", this.validatorsURL);
+      if (this.etag != null)
+      {
+         entry.setProperty("etag", this.etag);
+      }
+      if (this.lastModified != null)
+      {
+         entry.setProperty("last-modified", this.lastModified);
+      }
+      OutputStream os = new FileOutputStream(this.partialEntryFile);
+      try
+      {
+         entry.store(os, null);
+      }
+      finally
+      {
+         IOUtil.close(os);
+      }
+   }
+
+   private void readEntry()
+   {
+      if (!this.partialEntryFile.exists())
+      {
+         return;
+      }
+      Properties entry = new Properties();
+      try
+      {
+         InputStream is = new FileInputStream(this.partialEntryFile);
+         try
+         {
+            entry.load(is);
+         }
+         finally
+         {
+            IOUtil.close(is);
+         }
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not read " + this.partialEntryFile, ioe);
+         return;
+      }
+      if (this.url.toExternalForm().equals(entry.getProperty("url")))
+      {
+         this.etag = entry.getProperty("etag");
+         this.lastModified = entry.getProperty("last-modified");
+         this.validatorsURL = entry.getProperty("source", this.url.toExternalForm());
+      }
+   }
+
+   /**
+    * Picks the partial file for the download. If another download of the same URL is in 
+    * progress in this JVM, then a partial file of its own (which can't be resumed by a later 
+    * retrieval) is used.
+    */
+   private void acquirePartialFile()
+   {
+      this.partialDir.mkdirs();
+      String key = DigestUtil.sha256(this.url.toExternalForm());
+      File partialFile = new File(this.partialDir, key + ".part");
+      synchronized (partialFilesInUse)
+      {
+         if (!partialFilesInUse.add(partialFile))
+         {
+            partialFile = new File(this.partialDir, key + "-" + System.nanoTime() + ".part");
+            partialFilesInUse.add(partialFile);
+         }
+      }
+      this.partialFile = partialFile;
+      this.partialEntryFile = new File(this.partialDir, partialFile.getName() + ".properties");
+      this.readEntry();
+      if (this.getIfRange() == null)
+      {
+         this.discardPartialFile();
+      }
+   }
+
+   private void releasePartialFile()
+   {
+      synchronized (partialFilesInUse)
+      {
+         partialFilesInUse.remove(this.partialFile);
+      }
+      // a partial file of its own can't be resumed later, so don't leave it behind
+      if (this.partialFile.getName().indexOf('-') != -1)
+      {
+         this.discardPartialFile();
+      }
+   }
+
+   private void discardPartialFile()
+   {
+      this.partialFile.delete();
+      this.partialEntryFile.delete();
+   }
+
+   /**
+    * Returns the first byte position of the <code>Content-Range</code> of the response or
+    * -1 if the response doesn't have a valid <code>Content-Range</code>
+    */
+   private static long getRangeStart(HttpResponse httpResponse)
+   {
+      String contentRange = getHeader(httpResponse, HEADER_CONTENT_RANGE);
+      // bytes <first>-<last>/<length>
+      if (contentRange == null || !contentRange.startsWith("bytes "))
+      {
+         return -1;
+      }
+      int dash = contentRange.indexOf('-');
+      if (dash == -1)
+      {
+         return -1;
+      }
+      try
+      {
+         return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+      }
+      catch (NumberFormatException nfe)
+      {
+         return -1;
+      }
+   }
+
+   /**
+    * Returns true if <code>ioe</code> was thrown because the current thread was interrupted, as 
+    * opposed to a failure of the transfer. Socket timeouts are {@link InterruptedIOException}s too,
+    * but they don't interrupt the thread.
+    */
+   private static boolean isInterrupt(IOException ioe)
+   {
+      return ioe instanceof InterruptedIOException && Thread.currentThread().isInterrupted();
+   }
+
+   private static String getHeader(HttpResponse httpResponse, String headerName)
+   {
+      Header header = httpResponse.getFirstHeader(headerName);
+      return header == null ? null : header.getValue();
+   }
+
+   /**
+    * Consumes the content of the <code>httpEntity</code>, so that the underlying connection
+    * is released
+    */
+   private static void consume(HttpEntity httpEntity)
+   {
+      if (httpEntity == null)
+      {
+         return;
+      }
+      try
+      {
+         httpEntity.consumeContent();
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not consume HTTP response content", ioe);
+      }
+   }
+
+   /**
+    * Downloads the bytes <code>start</code> to <code>end</code> (both inclusive) of the 
+    * package and writes them at the same offsets of the segments file
+    */
+   private class SegmentDownload implements Callable<Void>
+   {
+      private URL segmentURL;
+
+      private File segmentsFile;
+
+      private long start;
+
+      private long end;
+
+      private String ifRange;
+
+      /**
+       * Position of the next byte to be written
+       */
+      private long position;
+
+      public SegmentDownload(URL segmentURL, File segmentsFile, long start, long end, String ifRange)
+      {
+         this.segmentURL = segmentURL;
+         this.segmentsFile = segmentsFile;
+         this.start = start;
+         this.end = end;
+         this.ifRange = ifRange;
+         this.position = start;
+      }
+
+      public Void call() throws Exception
+      {
+         int failures = 0;
+         while (this.position <= this.end)
+         {
+            HttpGet httpGet = new HttpGet(this.segmentURL.toExternalForm());
+            httpGet.addHeader(HEADER_RANGE, "bytes=" + this.position + "-" + this.end);
+            httpGet.addHeader(HEADER_IF_RANGE, this.ifRange);
+            httpGet.addHeader(HEADER_ACCEPT_ENCODING, "identity");
+            try
+            {
+               HttpResponse httpResponse = httpClient.execute(httpGet);
+               HttpEntity httpEntity = httpResponse.getEntity();
+               if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT
+                     || getRangeStart(httpResponse) != this.position || httpEntity == null)
+               {
+                  // either the package changed on the server or the server doesn't honour the range
+                  consume(httpEntity);
+                  throw new PackageRetrievalException("Server did not return bytes " + this.position + "-" + this.end
+                        + " of " + this.segmentURL + ", returned status code " + httpResponse.getStatusLine().getStatusCode());
+               }
+               this.write(httpEntity);
+            }
+            catch (IOException ioe)
+            {
+               httpGet.abort();
+               if (isInterrupt(ioe))
+               {
+                  throw new PackageRetrievalException("Interrupted while retrieving segment " + this.start + "-"
+                        + this.end + " of " + this.segmentURL, ioe);
+               }
+               failures++;
+               if (failures > retries)
+               {
+                  throw ioe;
+               }
+               logger.debug("Resuming segment " + this.start + "-" + this.end + " of " + this.segmentURL + " from byte "
+                     + this.position + " - " + ioe.getMessage());
+            }
+         }
+         return null;
+      }
+
+      /**
+       * Writes the content of the <code>httpEntity</code> at the current position of the segments
+       * file. The position is advanced as the bytes are written, so that a failed transfer is 
+       * resumed from the first missing byte.
+       */
+      private void write(HttpEntity httpEntity) throws IOException
+      {
+         InputStream is = httpEntity.getContent();
+         RandomAccessFile raf = new RandomAccessFile(this.segmentsFile, "rw");
+         try
+         {
+            raf.seek(this.position);
+            byte[] buffer = new byte[JarExtractor.DEFAULT_BUFFER_SIZE];
+            int n = 0;
+            while (this.position <= this.end && (n = is.read(buffer)) != -1)
+            {
+               int length = (int) Math.min(n, this.end - this.position + 1);
+               throttle(length);
+               raf.write(buffer, 0, length);
+               this.position += length;
+            }
+            if (this.position <= this.end)
+            {
+               throw new IOException("Connection closed at byte " + this.position + " of segment " + this.start
+                     + "-" + this.end);
+            }
+         }
+         finally
+         {
+            IOUtil.close(raf);
+            IOUtil.close(is);
+         }
+      }
+   }
+}
@@ -21,12 +21,9 @@
 */
 package org.jboss.ejb3.packagemanager.retriever.impl;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 
 import org.apache.http.HttpEntity;
@@ -34,10 +31,12 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.cache.CachedDownload;
+import org.jboss.ejb3.packagemanager.cache.DownloadCache;
 import org.jboss.ejb3.packagemanager.exception.PackageRetrievalException;
-import org.jboss.ejb3.packagemanager.retriever.PackageRetriever;
+import org.jboss.ejb3.packagemanager.retriever.StreamingPackageRetriever;
+import org.jboss.logging.Logger;
 
 /**
  * HttpPackageRetriever
@@ -45,78 +44,170 @@ import org.jboss.ejb3.packagemanager.retriever.PackageRetriever;
  * @author Jaikiran Pai
  * @version $Revision: $
  */
-public class HttpPackageRetriever implements PackageRetriever
+public class HttpPackageRetriever implements StreamingPackageRetriever
 {
 
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(HttpPackageRetriever.class);
+
+   private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+   private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
    /**
     * @see org.jboss.ejb3.packagemanager.retriever.PackageRetriever#retrievePackage(PackageManagerContext, URL)
     */
    @Override
    public File retrievePackage(PackageManagerContext pkgMgrCtx, URL packagePath) throws PackageRetrievalException
+   {
+      return this.retrievePackage(pkgMgrCtx, packagePath, null);
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.retriever.StreamingPackageRetriever#retrievePackage(PackageManagerContext, URL, OutputStream)
+    */
+   @Override
+   public File retrievePackage(PackageManagerContext pkgMgrCtx, URL packagePath, OutputStream contentSink)
+         throws PackageRetrievalException
    {
       if (!packagePath.getProtocol().equals("http"))
       {
          throw new PackageRetrievalException("Cannot handle " + packagePath);
       }
-      HttpClient httpClient = new DefaultHttpClient();
-      HttpGet httpGet = new HttpGet(packagePath.toExternalForm());
-      HttpResponse httpResponse = null;
-      try
+      DownloadCache downloadCache = pkgMgrCtx.getDownloadCache();
+      CachedDownload cachedDownload = downloadCache == null ? null : downloadCache.lookup(packagePath);
+      HttpDownloader downloader = new HttpDownloader(pkgMgrCtx, packagePath);
+      downloader.setContentSink(contentSink);
+      File tmpPkgFile = this.leaseTmpFile(pkgMgrCtx);
+      if (cachedDownload == null)
       {
-         httpResponse = httpClient.execute(httpGet);
+         downloader.download(tmpPkgFile);
       }
-      catch (Exception e)
+      else if (!this.retrieveIfModified(pkgMgrCtx, downloadCache, cachedDownload, downloader, tmpPkgFile))
       {
-         throw new PackageRetrievalException("Exception while retrieving package " + packagePath, e);
+         logger.info("Package " + packagePath + " not modified, using cached copy");
+         return tmpPkgFile;
       }
-      if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
+      if (downloadCache != null && downloader.isCacheable())
       {
-         throw new PackageRetrievalException("Http retrieval wasn't successful, returned status code  "
-               + httpResponse.getStatusLine().getStatusCode());
+         try
+         {
+            downloadCache.store(packagePath, tmpPkgFile, downloader.getETag(), downloader.getLastModified());
+         }
+         catch (IOException ioe)
+         {
+            // the package was retrieved fine, so just let the user know that it couldn't be cached
+            logger.warn("Could not cache package " + packagePath + " - " + ioe.getMessage());
+         }
       }
-      HttpEntity httpEntity = httpResponse.getEntity();
+      return tmpPkgFile;
+   }
 
+   /**
+    * Sends a conditional request for the package of the <code>cachedDownload</code>. If the
+    * server reports that the package hasn't been modified, the cached copy is copied to 
+    * <code>tmpPkgFile</code>. Else the package is downloaded to <code>tmpPkgFile</code>.
+    * 
+    * @return Returns true if the package was downloaded, false if it was served from the cache
+    */
+   private boolean retrieveIfModified(PackageManagerContext pkgMgrCtx, DownloadCache downloadCache,
+         CachedDownload cachedDownload, HttpDownloader downloader, File tmpPkgFile)
+         throws PackageRetrievalException
+   {
+      // the client is shared (and its connections pooled) across retrievals
+      HttpClient httpClient = pkgMgrCtx.getHttpClient();
+      // the request goes to the preferred mirror (if the package is mirrored)
+      HttpGet httpGet = new HttpGet(downloader.getRequestURL().toExternalForm());
+      if (cachedDownload.getETag() != null)
+      {
+         httpGet.addHeader(HEADER_IF_NONE_MATCH, cachedDownload.getETag());
+      }
+      if (cachedDownload.getLastModified() != null)
+      {
+         httpGet.addHeader(HEADER_IF_MODIFIED_SINCE, cachedDownload.getLastModified());
+      }
+      HttpResponse httpResponse = null;
       try
       {
-         // TODO: should this tmp be deleted on exit?
-         File tmpPkgFile = File.createTempFile("tmp", ".jar", pkgMgrCtx.getPackageManagerEnvironment()
-               .getPackageManagerTmpDir());
-         FileOutputStream fos = new FileOutputStream(tmpPkgFile);
-         BufferedOutputStream bos = null;
-         BufferedInputStream bis = null;
-         try
+         httpResponse = httpClient.execute(httpGet);
+      }
+      catch (Exception e)
+      {
+         httpGet.abort();
+         if (!downloader.failover())
          {
-            bos = new BufferedOutputStream(fos);
-            InputStream is = httpEntity.getContent();
-            bis = new BufferedInputStream(is);
-            byte[] content = new byte[4096];
-            int length;
-            while ((length = bis.read(content)) != -1)
-            {
-               bos.write(content, 0, length);
-            }
-            bos.flush();
+            throw new PackageRetrievalException("Exception while retrieving package " + cachedDownload.getURL(), e);
          }
-         finally
+         logger.warn("Could not revalidate " + cachedDownload.getURL() + " (" + e.getMessage()
+               + "), retrieving it from the next mirror");
+         downloader.download(tmpPkgFile);
+         return true;
+      }
+      int statusCode = httpResponse.getStatusLine().getStatusCode();
+      if (statusCode == HttpStatus.SC_NOT_MODIFIED)
+      {
+         consume(httpResponse.getEntity());
+         if (downloadCache.copyTo(cachedDownload, tmpPkgFile))
          {
-            if (bos != null)
-            {
-               bos.close();
-            }
-            if (bis != null)
-            {
-               bis.close();
-            }
+            return false;
          }
-         return tmpPkgFile;
+         // the cached copy went away in the meantime, so download it afresh
+         downloader.download(tmpPkgFile);
+         return true;
+      }
+      if (statusCode != HttpStatus.SC_OK)
+      {
+         // consume the response so that the connection can be reused
+         consume(httpResponse.getEntity());
+         if (!downloader.failover())
+         {
+            throw new PackageRetrievalException("Http retrieval wasn't successful, returned status code  "
+                  + statusCode);
+         }
+         downloader.download(tmpPkgFile);
+         return true;
+      }
+      downloader.download(tmpPkgFile, httpGet, httpResponse);
+      return true;
+   }
 
+   /**
+    * Leases a tmp file to which the package is written. The workspace manager deletes 
+    * the file once the package manager operation completes
+    */
+   private File leaseTmpFile(PackageManagerContext pkgMgrCtx) throws PackageRetrievalException
+   {
+      try
+      {
+         return pkgMgrCtx.getWorkspaceManager().leaseTmpFile("tmp", ".jar");
       }
       catch (IOException ioe)
       {
-         throw new PackageRetrievalException("Could not process the retrieved package", ioe);
+         throw new PackageRetrievalException("Could not create tmp file for the retrieved package", ioe);
       }
-      // TODO: I need to read the HttpClient 4.x javadocs to figure out the API for closing the
-      // Http connection
+   }
 
+   /**
+    * Consumes the content of the <code>httpEntity</code>, so that the underlying connection
+    * is released
+    * 
+    * @param httpEntity The entity. Can be null.
+    */
+   private static void consume(HttpEntity httpEntity)
+   {
+      if (httpEntity == null)
+      {
+         return;
+      }
+      try
+      {
+         httpEntity.consumeContent();
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not consume HTTP response content", ioe);
+      }
    }
 }
@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.retriever.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.exception.PackageRetrievalException;
+
+/**
+ * MemoryPackageRetriever
+ * 
+ * Retrieves packages which have been registered, as byte arrays, through 
+ * {@link #register(String, byte[])}. This lets embedders (and tests) hand packages 
+ * to the package manager without writing them out to a file. The packages are 
+ * addressed through memory:&lt;name&gt; URLs.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class MemoryPackageRetriever extends AbstractInputStreamPackageRetriever
+{
+
+   public static final String PROTOCOL = "memory";
+
+   /**
+    * Registered packages keyed by their name
+    */
+   private static Map<String, byte[]> packages = new ConcurrentHashMap<String, byte[]>();
+
+   /**
+    * Registers the package <code>content</code> under <code>name</code>, replacing any
+    * package previously registered under that name. The content is not copied, so it must
+    * not be modified afterwards.
+    * 
+    * @param name The name of the package (ex: my-package.jar)
+    * @param content The package archive
+    * @return Returns the URL through which the package can be installed
+    */
+   public static URL register(String name, byte[] content)
+   {
+      if (name == null || content == null)
+      {
+         throw new IllegalArgumentException("Package name and content cannot be null");
+      }
+      packages.put(name, content);
+      try
+      {
+         return PackageRetrievalFactory.getPackageURL(PROTOCOL + ":" + name);
+      }
+      catch (MalformedURLException mue)
+      {
+         packages.remove(name);
+         throw new IllegalArgumentException("Invalid package name " + name, mue);
+      }
+   }
+
+   /**
+    * Removes the package registered under <code>name</code>
+    * 
+    * @param name The name of the package
+    * @return Returns true if such a package was registered
+    */
+   public static boolean unregister(String name)
+   {
+      return packages.remove(name) != null;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.retriever.InputStreamPackageRetriever#openPackage(PackageManagerContext, URL)
+    */
+   @Override
+   public InputStream openPackage(PackageManagerContext pkgMgrCtx, URL packagePath) throws PackageRetrievalException
+   {
+      if (!PROTOCOL.equalsIgnoreCase(packagePath.getProtocol()))
+      {
+         throw new PackageRetrievalException("Cannot handle " + packagePath);
+      }
+      byte[] content = packages.get(packagePath.getPath());
+      if (content == null)
+      {
+         throw new PackageRetrievalException("No package registered for " + packagePath);
+      }
+      return new ByteArrayInputStream(content);
+   }
+
+}
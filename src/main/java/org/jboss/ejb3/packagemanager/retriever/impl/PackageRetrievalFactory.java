@@ -1,33 +1,48 @@
 /*
-* JBoss, Home of Professional Open Source
-* Copyright 2005, JBoss Inc., and individual contributors as indicated
-* by the @authors tag. See the copyright.txt in the distribution for a
-* full listing of individual contributors.
-*
-* This is free software; you can redistribute it and/or modify it
-* under the terms of the GNU Lesser General Public License as
-* published by the Free Software Foundation; either version 2.1 of
-* the License, or (at your option) any later version.
-*
-* This software is distributed in the hope that it will be useful,
-* but WITHOUT ANY WARRANTY; without even the implied warranty of
-* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
-* Lesser General Public License for more details.
-*
-* You should have received a copy of the GNU Lesser General Public
-* License along with this software; if not, write to the Free
-* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
-* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
-*/
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
 package org.jboss.ejb3.packagemanager.retriever.impl;
 
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 import org.jboss.ejb3.packagemanager.retriever.PackageRetriever;
+import org.jboss.ejb3.packagemanager.retriever.PackageRetrieverProvider;
 import org.jboss.logging.Logger;
 
 /**
  * PackageRetrievalFactory
+ * 
+ * Registry of the {@link PackageRetrieverProvider}s, keyed by the URL protocols they support.
+ * The built-in providers handle file:, http:, classpath:, jar: and memory: URLs. Additional
+ * providers are discovered through {@link ServiceLoader} or registered through 
+ * {@link #registerPackageRetrieverProvider(PackageRetrieverProvider)}.
  *
  * @author Jaikiran Pai
  * @version $Revision: $
@@ -40,6 +55,12 @@ public class PackageRetrievalFactory
     */
    private static Logger logger = Logger.getLogger(PackageRetrievalFactory.class);
 
+   /**
+    * Providers keyed by the (lower case) protocol they support. The map is replaced (never
+    * modified) on registration, so that lookups need not lock.
+    */
+   private static volatile Map<String, PackageRetrieverProvider> providers;
+
    /**
     * 
     * @param packagePath
@@ -47,17 +68,196 @@ public class PackageRetrievalFactory
     */
    public static PackageRetriever getPackageRetriever(URL packagePath)
    {
-      if (packagePath.getProtocol().equals("file"))
+      PackageRetrieverProvider provider = getProviders().get(packagePath.getProtocol().toLowerCase());
+      if (provider == null)
+      {
+         throw new RuntimeException("No package retriever available for protocol " + packagePath.getProtocol()
+               + " of " + packagePath);
+      }
+      return provider.getPackageRetriever();
+   }
+
+   /**
+    * Registers the <code>provider</code> for the protocols it supports, replacing any 
+    * provider previously registered for those protocols
+    * 
+    * @param provider The provider
+    */
+   public static void registerPackageRetrieverProvider(PackageRetrieverProvider provider)
+   {
+      synchronized (PackageRetrievalFactory.class)
+      {
+         Map<String, PackageRetrieverProvider> updated = new HashMap<String, PackageRetrieverProvider>(getProviders());
+         register(updated, provider);
+         providers = updated;
+      }
+   }
+
+   /**
+    * Returns true if a retriever is available for the protocol of <code>packagePath</code>
+    * 
+    * @param packagePath The package URL
+    * @return
+    */
+   public static boolean isSupported(URL packagePath)
+   {
+      return getProviders().containsKey(packagePath.getProtocol().toLowerCase());
+   }
+
+   /**
+    * Creates the URL for the package at <code>packagePath</code>. Unlike {@link URL#URL(String)}, 
+    * this also accepts paths with protocols which aren't known to the JDK (ex: classpath:), but 
+    * for which a retriever is registered. Such URLs can only be used for retrieving packages 
+    * through the package manager.
+    * 
+    * @param packagePath The path of the package, including the protocol
+    * @return
+    * @throws MalformedURLException If the path has no protocol or is not a valid URL
+    */
+   public static URL getPackageURL(String packagePath) throws MalformedURLException
+   {
+      int colon = packagePath.indexOf(':');
+      // a single letter "protocol" is more likely a Windows drive letter
+      if (colon > 1)
+      {
+         String protocol = packagePath.substring(0, colon).toLowerCase();
+         PackageRetrieverProvider provider = getProviders().get(protocol);
+         if (provider != null && !isKnownToJDK(protocol))
+         {
+            return new URL(null, packagePath, new RetrieverOnlyURLStreamHandler());
+         }
+      }
+      return new URL(packagePath);
+   }
+
+   private static Map<String, PackageRetrieverProvider> getProviders()
+   {
+      Map<String, PackageRetrieverProvider> registered = providers;
+      if (registered != null)
+      {
+         return registered;
+      }
+      synchronized (PackageRetrievalFactory.class)
+      {
+         if (providers == null)
+         {
+            providers = loadProviders();
+         }
+         return providers;
+      }
+   }
+
+   /**
+    * Registers the built-in providers followed by the providers discovered through 
+    * {@link ServiceLoader}
+    */
+   private static Map<String, PackageRetrieverProvider> loadProviders()
+   {
+      Map<String, PackageRetrieverProvider> loaded = new HashMap<String, PackageRetrieverProvider>();
+      register(loaded, new BuiltInProvider(FileSystemPackageRetriever.class, "file"));
+      register(loaded, new BuiltInProvider(HttpPackageRetriever.class, "http"));
+      register(loaded, new BuiltInProvider(ClassLoaderPackageRetriever.class, ClassLoaderPackageRetriever.PROTOCOL_CLASSPATH,
+            ClassLoaderPackageRetriever.PROTOCOL_JAR));
+      register(loaded, new BuiltInProvider(MemoryPackageRetriever.class, MemoryPackageRetriever.PROTOCOL));
+      Iterator<PackageRetrieverProvider> discovered = ServiceLoader.load(PackageRetrieverProvider.class,
+            getClassLoader()).iterator();
+      while (true)
+      {
+         try
+         {
+            if (!discovered.hasNext())
+            {
+               break;
+            }
+            PackageRetrieverProvider provider = discovered.next();
+            logger.debug("Discovered package retriever provider " + provider.getClass().getName());
+            register(loaded, provider);
+         }
+         catch (ServiceConfigurationError sce)
+         {
+            // a broken provider shouldn't make the rest of the retrievers unavailable
+            logger.warn("Could not load package retriever provider - " + sce.getMessage());
+         }
+      }
+      return loaded;
+   }
+
+   private static void register(Map<String, PackageRetrieverProvider> registry, PackageRetrieverProvider provider)
+   {
+      for (String protocol : provider.getSupportedProtocols())
+      {
+         PackageRetrieverProvider previous = registry.put(protocol.toLowerCase(), provider);
+         if (previous != null)
+         {
+            logger.info("Package retriever provider " + provider.getClass().getName() + " replaces "
+                  + previous.getClass().getName() + " for protocol " + protocol);
+         }
+      }
+   }
+
+   private static ClassLoader getClassLoader()
+   {
+      ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+      return tccl == null ? PackageRetrievalFactory.class.getClassLoader() : tccl;
+   }
+
+   private static boolean isKnownToJDK(String protocol)
+   {
+      try
       {
-         return new FileSystemPackageRetriever();
+         new URL(protocol, "", "");
+         return true;
       }
-      else if (packagePath.getProtocol().equals("http"))
+      catch (MalformedURLException mue)
       {
-         return new HttpPackageRetriever();
+         return false;
       }
-      else
+   }
+
+   /**
+    * Provider for the retrievers which ship with the package manager. The retrievers
+    * are stateless, but are created afresh for each retrieval, the way they always were.
+    */
+   private static class BuiltInProvider implements PackageRetrieverProvider
+   {
+      private Class<? extends PackageRetriever> retrieverClass;
+
+      private String[] protocols;
+
+      BuiltInProvider(Class<? extends PackageRetriever> retrieverClass, String... protocols)
+      {
+         this.retrieverClass = retrieverClass;
+         this.protocols = protocols;
+      }
+
+      public String[] getSupportedProtocols()
+      {
+         return this.protocols;
+      }
+
+      public PackageRetriever getPackageRetriever()
+      {
+         try
+         {
+            return this.retrieverClass.newInstance();
+         }
+         catch (Exception e)
+         {
+            throw new RuntimeException("Could not create package retriever " + this.retrieverClass.getName(), e);
+         }
+      }
+   }
+
+   /**
+    * Handler for URLs of protocols which the JDK doesn't know about. Such URLs are only 
+    * meant to be handed to the package retrievers.
+    */
+   private static class RetrieverOnlyURLStreamHandler extends URLStreamHandler
+   {
+      @Override
+      protected URLConnection openConnection(URL u) throws IOException
       {
-         throw new RuntimeException("Only file: and http: protocols are supported for package retrievers");
+         throw new IOException(u + " can only be retrieved through a package retriever");
       }
    }
 }
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.throttle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+
+/**
+ * Throttle
+ * 
+ * Limits the network and disk bandwidth used by the package manager, so that installing
+ * packages on a server which is serving traffic doesn't starve the server of IO. The network
+ * limit applies to the bytes retrieved from remote repositories. The disk limit applies to 
+ * the bytes written while retrieving, extracting and installing packages.
+ * 
+ * The limits are configured, in bytes per second, through the {@link #PROPERTY_NETWORK_RATE}
+ * and {@link #PROPERTY_DISK_RATE} properties and are not enforced by default. Each limit is a 
+ * {@link TokenBucket} which allows bursts of upto {@link #PROPERTY_BURST_MILLIS} worth of 
+ * bytes. Package managers which share the package manager home, share the throttle too, so the 
+ * limits hold for all the installs running against a server, not just for each of them.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class Throttle
+{
+
+   /**
+    * Name of the property which specifies the max number of bytes per second retrieved 
+    * from remote repositories. Defaults to 0, which means unlimited
+    */
+   public static final String PROPERTY_NETWORK_RATE = "packagemanager.throttle.network-bytes-per-second";
+
+   /**
+    * Name of the property which specifies the max number of bytes per second written 
+    * to the disk. Defaults to 0, which means unlimited
+    */
+   public static final String PROPERTY_DISK_RATE = "packagemanager.throttle.disk-bytes-per-second";
+
+   /**
+    * Name of the property which specifies the length (in milli seconds) of the burst allowed 
+    * after a limit has been idle. Defaults to {@link #DEFAULT_BURST_MILLIS}
+    */
+   public static final String PROPERTY_BURST_MILLIS = "packagemanager.throttle.burst-millis";
+
+   /**
+    * Default length (in milli seconds) of the allowed burst
+    */
+   public static final long DEFAULT_BURST_MILLIS = 1000;
+
+   /**
+    * Throttles, per package manager home
+    */
+   private static Map<File, Throttle> throttles = new HashMap<File, Throttle>();
+
+   /**
+    * Limits the bytes retrieved from remote repositories
+    */
+   private TokenBucket networkBucket = new TokenBucket(0);
+
+   /**
+    * Limits the bytes written to the disk
+    */
+   private TokenBucket diskBucket = new TokenBucket(0);
+
+   /**
+    * Returns the throttle for the package manager <code>environment</code>, with the limits
+    * currently configured in the <code>environment</code>.
+    * 
+    * @param environment The package manager environment
+    * @return
+    */
+   public static synchronized Throttle getThrottle(PackageManagerEnvironment environment)
+   {
+      File home = environment.getPackageManagerHome();
+      try
+      {
+         home = home.getCanonicalFile();
+      }
+      catch (IOException ioe)
+      {
+         home = home.getAbsoluteFile();
+      }
+      Throttle throttle = throttles.get(home);
+      if (throttle == null)
+      {
+         throttle = new Throttle();
+         throttles.put(home, throttle);
+      }
+      long burstMillis = Math.max(environment.getLongProperty(PROPERTY_BURST_MILLIS, DEFAULT_BURST_MILLIS), 1);
+      configure(throttle.networkBucket, environment.getLongProperty(PROPERTY_NETWORK_RATE, 0), burstMillis);
+      configure(throttle.diskBucket, environment.getLongProperty(PROPERTY_DISK_RATE, 0), burstMillis);
+      return throttle;
+   }
+
+   /**
+    * @return Returns the bucket limiting the bytes retrieved from remote repositories. 
+    *           Never returns null, an unlimited bucket is returned if no limit is configured
+    */
+   public TokenBucket getNetworkBucket()
+   {
+      return this.networkBucket;
+   }
+
+   /**
+    * @return Returns the bucket limiting the bytes written to the disk. Never returns null, 
+    *           an unlimited bucket is returned if no limit is configured
+    */
+   public TokenBucket getDiskBucket()
+   {
+      return this.diskBucket;
+   }
+
+   private static void configure(TokenBucket bucket, long rate, long burstMillis)
+   {
+      bucket.setRate(rate, Math.max(rate * burstMillis / 1000, 1));
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuffer sb = new StringBuffer("Throttle [network=");
+      sb.append(this.networkBucket);
+      sb.append(" ,disk=");
+      sb.append(this.diskBucket);
+      sb.append("]");
+      return sb.toString();
+   }
+}
@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.throttle;
+
+import java.io.InterruptedIOException;
+
+/**
+ * TokenBucket
+ * 
+ * Limits the rate at which bytes are transferred. The bucket fills up at {@link #getRate()} 
+ * tokens (bytes) per second, upto its capacity, and a transfer of <code>n</code> bytes takes 
+ * <code>n</code> tokens out of the bucket. If the bucket doesn't hold enough tokens, the 
+ * transfer is allowed to go into debt and the calling thread waits till the debt would have been 
+ * paid off by the rate. Since the debt is seen by the next caller too, the combined rate of 
+ * all the threads sharing a bucket stays at the configured rate, while each thread transfers 
+ * in whatever chunks it uses (a transfer is never split by the bucket).
+ * 
+ * A bucket with a rate of zero (or less) is unlimited and never blocks. The rate can be changed 
+ * at any time through {@link #setRate(long, long)}. Instances of this class are thread safe.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class TokenBucket
+{
+
+   /**
+    * Bytes per second. Zero or less means unlimited
+    */
+   private volatile long rate;
+
+   /**
+    * Max number of tokens the bucket holds. This is the largest burst allowed
+    * after the bucket has been idle for a while 
+    */
+   private long capacity;
+
+   /**
+    * Available tokens. Negative, if the bucket is in debt
+    */
+   private double tokens;
+
+   /**
+    * The time (in nano seconds) at which the tokens were last refilled 
+    */
+   private long lastRefill;
+
+   /**
+    * Creates a bucket which allows <code>rate</code> bytes per second, with bursts
+    * of upto one second's worth of bytes
+    * 
+    * @param rate Bytes per second. Zero or less means unlimited
+    */
+   public TokenBucket(long rate)
+   {
+      this(rate, rate);
+   }
+
+   /**
+    * @param rate Bytes per second. Zero or less means unlimited
+    * @param capacity Max number of bytes which can be transferred in a burst
+    */
+   public TokenBucket(long rate, long capacity)
+   {
+      this.setRate(rate, capacity);
+   }
+
+   /**
+    * @return Returns the allowed bytes per second. Zero or less means unlimited
+    */
+   public long getRate()
+   {
+      return this.rate;
+   }
+
+   /**
+    * @return Returns true if this bucket doesn't limit the transfers
+    */
+   public boolean isUnlimited()
+   {
+      return this.rate <= 0;
+   }
+
+   /**
+    * Changes the rate of this bucket. Any accumulated tokens (or debt) are retained,
+    * upto the new capacity. A bucket which was unlimited starts off full.
+    * 
+    * @param rate Bytes per second. Zero or less means unlimited
+    * @param capacity Max number of bytes which can be transferred in a burst
+    */
+   public synchronized void setRate(long rate, long capacity)
+   {
+      if (rate == this.rate && capacity == this.capacity)
+      {
+         return;
+      }
+      boolean wasUnlimited = this.rate <= 0;
+      this.refill(System.nanoTime());
+      this.rate = rate;
+      this.capacity = Math.max(capacity, 1);
+      this.tokens = wasUnlimited ? this.capacity : Math.min(this.tokens, this.capacity);
+   }
+
+   /**
+    * Takes <code>bytes</code> tokens out of the bucket, waiting if the bucket is in debt
+    * 
+    * @param bytes Number of bytes about to be (or just) transferred
+    * @throws InterruptedIOException If the thread is interrupted while waiting. The interrupt
+    *           status of the thread is retained.
+    */
+   public void acquire(long bytes) throws InterruptedIOException
+   {
+      if (this.rate <= 0 || bytes <= 0)
+      {
+         return;
+      }
+      long waitNanos = 0;
+      synchronized (this)
+      {
+         if (this.rate <= 0)
+         {
+            return;
+         }
+         this.refill(System.nanoTime());
+         this.tokens -= bytes;
+         if (this.tokens < 0)
+         {
+            waitNanos = (long) (-this.tokens * 1000000000L / this.rate);
+         }
+      }
+      if (waitNanos <= 0)
+      {
+         return;
+      }
+      try
+      {
+         Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         InterruptedIOException iioe = new InterruptedIOException("Interrupted while waiting for "
+               + bytes + " bytes to be allowed by " + this);
+         iioe.initCause(ie);
+         throw iioe;
+      }
+   }
+
+   /**
+    * Adds the tokens accumulated since the last refill
+    */
+   private void refill(long now)
+   {
+      if (this.rate > 0)
+      {
+         double accumulated = (now - this.lastRefill) * (double) this.rate / 1000000000L;
+         this.tokens = Math.min(this.capacity, this.tokens + accumulated);
+      }
+      this.lastRefill = now;
+   }
+
+   @Override
+   public synchronized String toString()
+   {
+      StringBuffer sb = new StringBuffer("TokenBucket [rate=");
+      sb.append(this.rate);
+      sb.append(" ,capacity=");
+      sb.append(this.capacity);
+      sb.append("]");
+      return sb.toString();
+   }
+}
@@ -29,6 +29,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
@@ -105,4 +107,68 @@ public class DBUtil
          }
       }
    }
+
+   /**
+    * Brings the schema of a package manager database, which was setup by an older 
+    * version of the package manager, upto date with the schema.sql. Does nothing 
+    * if the schema is already upto date or hasn't been setup at all.
+    * 
+    * @param conn Connection to the package manager database
+    * @throws SQLException
+    */
+   public static void upgradeSchema(Connection conn) throws SQLException
+   {
+      // checksums of installed files weren't recorded earlier
+      addColumnIfAbsent(conn, "installation_file", "checksum", "varchar(64)");
+   }
+
+   /**
+    * Adds a (nullable) column to an existing table, unless the table already has the column
+    * 
+    * @param conn The connection
+    * @param table The table name
+    * @param column The column name
+    * @param type The SQL type of the column
+    * @return Returns true if the column was added. Returns false if the column already 
+    *           exists or the table doesn't exist
+    * @throws SQLException
+    */
+   public static boolean addColumnIfAbsent(Connection conn, String table, String column, String type)
+         throws SQLException
+   {
+      DatabaseMetaData metaData = conn.getMetaData();
+      // unquoted identifiers are stored in upper case
+      if (!exists(metaData.getTables(null, null, table.toUpperCase(), null)))
+      {
+         return false;
+      }
+      if (exists(metaData.getColumns(null, null, table.toUpperCase(), column.toUpperCase())))
+      {
+         return false;
+      }
+      String sql = "ALTER TABLE " + table + " ADD COLUMN " + column + " " + type;
+      logger.info("Upgrading package manager database: " + sql);
+      Statement statement = conn.createStatement();
+      try
+      {
+         statement.execute(sql);
+      }
+      finally
+      {
+         statement.close();
+      }
+      return true;
+   }
+
+   private static boolean exists(ResultSet resultSet) throws SQLException
+   {
+      try
+      {
+         return resultSet.next();
+      }
+      finally
+      {
+         resultSet.close();
+      }
+   }
 }
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * DigestMemo
+ * 
+ * Remembers the SHA-256 digests of files, keyed by their path, length and last modified 
+ * time, so that a file whose digest is already known (for example, because the digest was 
+ * computed while the file was being downloaded or extracted) isn't read again just to compute 
+ * its digest. A file whose length or last modified time has changed since its digest was
+ * recorded is digested afresh. 
+ * 
+ * The memo is shared by all the package managers in the JVM and holds upto 
+ * {@link #MAX_ENTRIES} digests, forgetting the least recently used ones.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class DigestMemo
+{
+
+   /**
+    * Max number of digests remembered
+    */
+   public static final int MAX_ENTRIES = 10000;
+
+   /**
+    * Digests keyed by the absolute path of the file, in access order
+    */
+   private static Map<String, Digest> digests = new LinkedHashMap<String, Digest>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Digest> eldest)
+      {
+         return this.size() > MAX_ENTRIES;
+      }
+   };
+
+   private static long hits;
+
+   private static long misses;
+
+   /**
+    * Returns the (hex encoded) SHA-256 digest of the contents of the <code>file</code>,
+    * reading the file only if its digest isn't already known.
+    * 
+    * @param file The file
+    * @return
+    * @throws IOException
+    */
+   public static String sha256(File file) throws IOException
+   {
+      String path = file.getAbsolutePath();
+      long length = file.length();
+      long lastModified = file.lastModified();
+      synchronized (digests)
+      {
+         Digest entry = digests.get(path);
+         if (entry != null && entry.length == length && entry.lastModified == lastModified)
+         {
+            hits++;
+            return entry.sha256;
+         }
+         misses++;
+      }
+      String sha256 = DigestUtil.sha256(file);
+      // the file could have changed while it was being read
+      if (file.length() == length && file.lastModified() == lastModified)
+      {
+         synchronized (digests)
+         {
+            digests.put(path, new Digest(length, lastModified, sha256));
+         }
+      }
+      return sha256;
+   }
+
+   /**
+    * Returns the (hex encoded) SHA-256 digest of the contents of the <code>file</code>,
+    * if it's already known. Unlike {@link #sha256(File)}, the file is never read.
+    * 
+    * @param file The file
+    * @return Returns null if the digest of the current contents of the file isn't known
+    */
+   public static String lookup(File file)
+   {
+      String path = file.getAbsolutePath();
+      long length = file.length();
+      long lastModified = file.lastModified();
+      synchronized (digests)
+      {
+         Digest entry = digests.get(path);
+         if (entry != null && entry.length == length && entry.lastModified == lastModified)
+         {
+            hits++;
+            return entry.sha256;
+         }
+         return null;
+      }
+   }
+
+   /**
+    * Records the digest of the <code>file</code>. Expected to be called right after the 
+    * file has been written, by whoever computed the digest of the written bytes.
+    * 
+    * @param file The file
+    * @param sha256 The (hex encoded) SHA-256 digest of the contents of the file
+    */
+   public static void remember(File file, String sha256)
+   {
+      Digest entry = new Digest(file.length(), file.lastModified(), sha256);
+      synchronized (digests)
+      {
+         digests.put(file.getAbsolutePath(), entry);
+      }
+   }
+
+   /**
+    * @return Returns the number of times a digest was served from the memo
+    */
+   public static long getHits()
+   {
+      synchronized (digests)
+      {
+         return hits;
+      }
+   }
+
+   /**
+    * @return Returns the number of times a file had to be read to compute its digest
+    */
+   public static long getMisses()
+   {
+      synchronized (digests)
+      {
+         return misses;
+      }
+   }
+
+   private static class Digest
+   {
+      private long length;
+
+      private long lastModified;
+
+      private String sha256;
+
+      public Digest(long length, long lastModified, String sha256)
+      {
+         this.length = length;
+         this.lastModified = lastModified;
+         this.sha256 = sha256;
+      }
+   }
+}
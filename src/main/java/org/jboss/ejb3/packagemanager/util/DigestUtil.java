@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * DigestUtil
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class DigestUtil
+{
+
+   /**
+    * SHA-256 algorithm
+    */
+   public static final String SHA_256 = "SHA-256";
+
+   private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+   /**
+    * Returns a new {@link MessageDigest} for the <code>algorithm</code>
+    * 
+    * @param algorithm The digest algorithm
+    * @return
+    * @throws RuntimeException If the algorithm is not available 
+    */
+   public static MessageDigest newDigest(String algorithm)
+   {
+      try
+      {
+         return MessageDigest.getInstance(algorithm);
+      }
+      catch (NoSuchAlgorithmException nsae)
+      {
+         throw new RuntimeException("Digest algorithm " + algorithm + " not available", nsae);
+      }
+   }
+
+   /**
+    * Returns the (hex encoded) SHA-256 digest of the contents of the <code>file</code>
+    * 
+    * @param file The file
+    * @return
+    * @throws IOException
+    */
+   public static String sha256(File file) throws IOException
+   {
+      InputStream is = new FileInputStream(file);
+      try
+      {
+         return sha256(is);
+      }
+      finally
+      {
+         IOUtil.close(is);
+      }
+   }
+
+   /**
+    * Returns the (hex encoded) SHA-256 digest of the contents of the stream. 
+    * The stream is read completely, but is <i>not</i> closed by this method.
+    * 
+    * @param is The stream
+    * @return
+    * @throws IOException
+    */
+   public static String sha256(InputStream is) throws IOException
+   {
+      MessageDigest digest = newDigest(SHA_256);
+      byte[] buffer = new byte[JarExtractor.DEFAULT_BUFFER_SIZE];
+      int n = 0;
+      while (-1 != (n = is.read(buffer)))
+      {
+         digest.update(buffer, 0, n);
+      }
+      return toHex(digest.digest());
+   }
+
+   /**
+    * Returns the (hex encoded) SHA-256 digest of the UTF-8 encoded <code>text</code>
+    * 
+    * @param text The text
+    * @return
+    */
+   public static String sha256(String text)
+   {
+      try
+      {
+         return toHex(newDigest(SHA_256).digest(text.getBytes("UTF-8")));
+      }
+      catch (UnsupportedEncodingException uee)
+      {
+         // UTF-8 is always supported
+         throw new RuntimeException(uee);
+      }
+   }
+
+   /**
+    * Returns the (lower case) hex representation of the <code>bytes</code>
+    * 
+    * @param bytes
+    * @return
+    */
+   public static String toHex(byte[] bytes)
+   {
+      char[] hex = new char[bytes.length * 2];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         hex[i * 2] = HEX_CHARS[(bytes[i] >> 4) & 0x0f];
+         hex[i * 2 + 1] = HEX_CHARS[bytes[i] & 0x0f];
+      }
+      return new String(hex);
+   }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.util;
+
+/**
+ * ExtractionStatistics
+ * 
+ * Records the number of entries and bytes written out while extracting 
+ * a package archive, along with the time it took. 
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class ExtractionStatistics
+{
+
+   /**
+    * Number of file entries extracted
+    */
+   private int fileCount;
+
+   /**
+    * Number of directories created
+    */
+   private int directoryCount;
+
+   /**
+    * Total (uncompressed) bytes written out
+    */
+   private long bytes;
+
+   /**
+    * Time taken for the extraction, in milli seconds
+    */
+   private long elapsedMillis;
+
+   /**
+    * Records the extraction of a file of <code>size</code> bytes
+    * 
+    * @param size Number of bytes written out for the file
+    */
+   public synchronized void fileExtracted(long size)
+   {
+      this.fileCount++;
+      this.bytes += size;
+   }
+
+   /**
+    * Records the creation of a directory
+    */
+   public synchronized void directoryCreated()
+   {
+      this.directoryCount++;
+   }
+
+   /**
+    * Sets the total time taken for the extraction
+    * 
+    * @param elapsedMillis Time in milli seconds
+    */
+   public synchronized void setElapsedMillis(long elapsedMillis)
+   {
+      this.elapsedMillis = elapsedMillis;
+   }
+
+   public synchronized int getFileCount()
+   {
+      return this.fileCount;
+   }
+
+   public synchronized int getDirectoryCount()
+   {
+      return this.directoryCount;
+   }
+
+   public synchronized long getBytes()
+   {
+      return this.bytes;
+   }
+
+   public synchronized long getElapsedMillis()
+   {
+      return this.elapsedMillis;
+   }
+
+   /**
+    * @return Returns the extraction throughput in bytes per second. Returns
+    * the total number of bytes if the extraction took less than a milli second.
+    */
+   public synchronized long getThroughput()
+   {
+      if (this.elapsedMillis <= 0)
+      {
+         return this.bytes;
+      }
+      return (this.bytes * 1000) / this.elapsedMillis;
+   }
+
+   @Override
+   public synchronized String toString()
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append(this.fileCount);
+      sb.append(" files (");
+      sb.append(this.bytes / 1024);
+      sb.append(" KB) and ");
+      sb.append(this.directoryCount);
+      sb.append(" directories in ");
+      sb.append(this.elapsedMillis);
+      sb.append(" ms [");
+      sb.append(this.getThroughput() / 1024);
+      sb.append(" KB/s]");
+      return sb.toString();
+   }
+}
@@ -21,14 +21,21 @@
  */
 package org.jboss.ejb3.packagemanager.util;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.jar.JarEntry;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.Set;
 import java.util.jar.JarFile;
 
+import org.jboss.ejb3.packagemanager.throttle.TokenBucket;
+import org.jboss.logging.Logger;
+
 /**
  * IOUtil
  *
@@ -37,8 +44,16 @@ import java.util.jar.JarFile;
  */
 public class IOUtil
 {
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(IOUtil.class);
+
    /**
-    * Copies a file from one location to other
+    * Copies a file from one location to other. The contents are transferred
+    * through {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+    * so that the copy can happen without the bytes passing through the JVM heap.
     * 
     * @param src The source file (should not be a directory)
     * @param dest The destination file (should not be a directory)
@@ -46,74 +61,323 @@ public class IOUtil
     */
    public static void copy(File src, File dest) throws IOException
    {
-      FileInputStream fis = new FileInputStream(src);
-      FileOutputStream fos = new FileOutputStream(dest);
-      byte[] buffer = new byte[1024 * 4];
+      copy(src, dest, null);
+   }
+
+   /**
+    * Copies a file from one location to other, writing no faster than the <code>diskBucket</code> 
+    * allows. A limited copy is transferred in chunks of {@link JarExtractor#DEFAULT_BUFFER_SIZE}.
+    * 
+    * @param src The source file (should not be a directory)
+    * @param dest The destination file (should not be a directory)
+    * @param diskBucket Limits the rate at which the bytes are written. Can be null.
+    * @throws IOException
+    * @see #copy(File, File)
+    */
+   public static void copy(File src, File dest, TokenBucket diskBucket) throws IOException
+   {
+      FileInputStream fis = null;
+      FileOutputStream fos = null;
+      try
+      {
+         fis = new FileInputStream(src);
+         fos = new FileOutputStream(dest);
+         FileChannel srcChannel = fis.getChannel();
+         FileChannel destChannel = fos.getChannel();
+         long size = srcChannel.size();
+         long position = 0;
+         // transferTo may copy fewer bytes than requested (for example, some platforms
+         // limit a single transfer to 2 GB), so loop till everything is copied
+         boolean limited = diskBucket != null && !diskBucket.isUnlimited();
+         while (position < size)
+         {
+            long count = size - position;
+            if (limited)
+            {
+               count = Math.min(count, JarExtractor.DEFAULT_BUFFER_SIZE);
+               diskBucket.acquire(count);
+            }
+            long transferred = srcChannel.transferTo(position, count, destChannel);
+            if (transferred == 0)
+            {
+               // nothing left to transfer, the file was truncated after we read its size
+               break;
+            }
+            position += transferred;
+         }
+         if (position < size)
+         {
+            throw new IOException("Copied only " + position + " of " + size + " bytes of " + src + " to " + dest
+                  + " - the file was probably truncated while being copied");
+         }
+         fos.close();
+         fos = null;
+      }
+      finally
+      {
+         close(fos);
+         close(fis);
+      }
+   }
+
+   /**
+    * Copies the contents of the input stream to the output stream, through the
+    * passed <code>buffer</code>. The streams are <i>not</i> closed by this method.
+    * 
+    * @param is The stream to read from
+    * @param os The stream to write to
+    * @param buffer The buffer to use for the copy
+    * @return Returns the number of bytes copied
+    * @throws IOException
+    */
+   public static long copy(InputStream is, OutputStream os, byte[] buffer) throws IOException
+   {
+      return copy(is, os, buffer, null);
+   }
+
+   /**
+    * Copies the contents of the input stream to the output stream, through the
+    * passed <code>buffer</code>, writing no faster than the <code>bucket</code> allows. 
+    * The streams are <i>not</i> closed by this method.
+    * 
+    * @param is The stream to read from
+    * @param os The stream to write to
+    * @param buffer The buffer to use for the copy
+    * @param bucket Limits the rate at which the bytes are written. Can be null.
+    * @return Returns the number of bytes copied
+    * @throws IOException
+    */
+   public static long copy(InputStream is, OutputStream os, byte[] buffer, TokenBucket bucket) throws IOException
+   {
+      long total = 0;
       int n = 0;
-      while (-1 != (n = fis.read(buffer)))
+      while (-1 != (n = is.read(buffer)))
       {
-         fos.write(buffer, 0, n);
+         if (bucket != null)
+         {
+            bucket.acquire(n);
+         }
+         os.write(buffer, 0, n);
+         total += n;
+      }
+      return total;
+   }
 
+   /**
+    * Closes the <code>closeable</code>, if it's not null. Any {@link IOException}
+    * during close is logged and ignored. 
+    * 
+    * Since a failure to close an output stream can mean that the written content was lost, 
+    * output streams are expected to be closed explicitly once they have been written 
+    * (so that the failure is reported) and this method only used to release them on failure.
+    * 
+    * @param closeable The resource to close
+    */
+   public static void close(Closeable closeable)
+   {
+      if (closeable == null)
+      {
+         return;
+      }
+      try
+      {
+         closeable.close();
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Ignoring exception while closing " + closeable, ioe);
       }
-      
    }
 
-   public static void extractJarFile(File destDir, JarFile jar) throws IOException
+   /**
+    * Extracts the <code>jar</code> to the <code>destDir</code>
+    * 
+    * @param destDir The directory to which the jar will be extracted
+    * @param jar The jar file
+    * @return Returns the statistics of the extraction
+    * @throws IOException
+    * @see JarExtractor
+    */
+   public static ExtractionStatistics extractJarFile(File destDir, JarFile jar) throws IOException
+   {
+      return new JarExtractor().extract(jar, destDir);
+   }
+
+   /**
+    * Extracts the <code>jarFile</code> to the <code>destDir</code> using upto <code>threads</code>
+    * number of threads. 
+    * 
+    * @param destDir The directory to which the jar will be extracted
+    * @param jarFile The jar file
+    * @param threads The max number of threads to use for extraction. If less than 
+    *           or equal to 1, then the jar is extracted in the calling thread
+    * @return Returns the statistics of the extraction
+    * @throws IOException
+    * @see ParallelJarExtractor
+    */
+   public static ExtractionStatistics extractJarFile(File destDir, File jarFile, int threads) throws IOException
+   {
+      return new ParallelJarExtractor(threads).extract(jarFile, destDir);
+   }
+
+   /**
+    * Extracts the <code>jarFile</code>, except the <code>excludedEntries</code>, to the 
+    * <code>destDir</code> using upto <code>threads</code> number of threads.
+    * 
+    * @param destDir The directory to which the jar will be extracted
+    * @param jarFile The jar file
+    * @param threads The max number of threads to use for extraction. If less than 
+    *           or equal to 1, then the jar is extracted in the calling thread
+    * @param excludedEntries Names of the jar entries which should not be extracted
+    * @return Returns the statistics of the extraction
+    * @throws IOException
+    * @see ParallelJarExtractor
+    */
+   public static ExtractionStatistics extractJarFile(File destDir, File jarFile, int threads,
+         Set<String> excludedEntries) throws IOException
+   {
+      return extractJarFile(destDir, jarFile, threads, excludedEntries, null);
+   }
+
+   /**
+    * Extracts the <code>jarFile</code>, except the <code>excludedEntries</code>, to the 
+    * <code>destDir</code> using upto <code>threads</code> number of threads, writing no faster
+    * than the <code>diskBucket</code> allows. 
+    * 
+    * @param destDir The directory to which the jar will be extracted
+    * @param jarFile The jar file
+    * @param threads The max number of threads to use for extraction. If less than 
+    *           or equal to 1, then the jar is extracted in the calling thread
+    * @param excludedEntries Names of the jar entries which should not be extracted
+    * @param diskBucket Limits the rate at which the extracted files are written, across all 
+    *           the extraction threads. Can be null.
+    * @return Returns the statistics of the extraction
+    * @throws IOException
+    * @see ParallelJarExtractor
+    */
+   public static ExtractionStatistics extractJarFile(File destDir, File jarFile, int threads,
+         Set<String> excludedEntries, TokenBucket diskBucket) throws IOException
    {
-      if (!destDir.exists())
+      return new ParallelJarExtractor(threads, diskBucket).extract(jarFile, destDir, excludedEntries);
+   }
+
+   /**
+    * Writes out the contents of the input stream to the <code>dest</code> file. The 
+    * input stream is <i>not</i> closed by this method.
+    * 
+    * @param is The stream to read from
+    * @param dest The destination file (should not be a directory)
+    * @return Returns the number of bytes copied
+    * @throws IOException
+    */
+   public static long copy(InputStream is, File dest) throws IOException
+   {
+      return copy(is, dest, null);
+   }
+
+   /**
+    * Writes out the contents of the input stream to the <code>dest</code> file, no faster 
+    * than the <code>diskBucket</code> allows. The input stream is <i>not</i> closed by this method.
+    * 
+    * @param is The stream to read from
+    * @param dest The destination file (should not be a directory)
+    * @param diskBucket Limits the rate at which the bytes are written. Can be null.
+    * @return Returns the number of bytes copied
+    * @throws IOException
+    */
+   public static long copy(InputStream is, File dest, TokenBucket diskBucket) throws IOException
+   {
+      FileOutputStream fos = new FileOutputStream(dest);
+      try
       {
-         destDir.mkdirs();
+         long size = copy(is, fos, new byte[JarExtractor.DEFAULT_BUFFER_SIZE], diskBucket);
+         fos.close();
+         fos = null;
+         return size;
       }
-      Enumeration<JarEntry> jarEntries = jar.entries();
-      while (jarEntries.hasMoreElements())
+      finally
       {
-         JarEntry entry = jarEntries.nextElement();
-         File destFile = new File(destDir, entry.getName());
-         if (entry.isDirectory())
-         { // if its a directory, create it
-            destFile.mkdirs();
-            continue;
-         }
-         else
+         close(fos);
+      }
+   }
+
+   /**
+    * Deletes the <code>file</code>. If the file is a directory, then its contents
+    * are deleted recursively.
+    * 
+    * @param file The file or directory to delete
+    * @return Returns true if the file was deleted. Else returns false.
+    */
+   public static boolean delete(File file)
+   {
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
          {
-            // if this is a file and not a directory, make
-            // sure that it's parent directories have been
-            // created. Remember, while iterating the entries
-            // in a jar file, it's not guaranteed that the directories will be 
-            // processed first and then the file. So we need to check if the file's
-            // parent directories exist
-            File parentDir = destFile.getParentFile();
-            if (!parentDir.exists())
-            {
-               parentDir.mkdirs();
-            }
+            delete(child);
          }
+      }
+      return file.delete();
+   }
 
-         java.io.InputStream is = null;
-         java.io.FileOutputStream fos = null;
+   /**
+    * Returns the size, in bytes, of the <code>file</code>. If the file is a directory,
+    * then returns the total size of all the files under that directory
+    * 
+    * @param file The file or directory
+    * @return
+    */
+   public static long size(File file)
+   {
+      File[] children = file.listFiles();
+      if (children == null)
+      {
+         return file.length();
+      }
+      long size = 0;
+      for (File child : children)
+      {
+         size += size(child);
+      }
+      return size;
+   }
 
-         try
+   /**
+    * Returns the normalized, '/' separated, relative path of a file named <code>name</code>
+    * under the relative <code>path</code>. For files within a package this is the name of
+    * the corresponding archive entry.
+    * 
+    * @param path The relative path. Can be null.
+    * @param name The name of the file
+    * @return
+    */
+   public static String getRelativePath(String path, String name)
+   {
+      String relativePath = path == null ? name : path + "/" + name;
+      LinkedList<String> parts = new LinkedList<String>();
+      for (String part : relativePath.replace('\\', '/').split("/"))
+      {
+         if (part.length() == 0 || part.equals("."))
          {
-            is = jar.getInputStream(entry); // get the input stream
-            fos = new java.io.FileOutputStream(destFile);
-            while (is.available() > 0)
-            { // write contents of 'is' to 'fos'
-               fos.write(is.read());
-            }
+            continue;
          }
-         finally
+         if (part.equals("..") && !parts.isEmpty())
          {
-            if (fos != null)
-            {
-               fos.close();
-            }
-            if (is != null)
-            {
-               is.close();
-            }
+            parts.removeLast();
+            continue;
          }
-
+         parts.add(part);
       }
-
+      StringBuffer relativePathName = new StringBuffer();
+      for (String part : parts)
+      {
+         if (relativePathName.length() > 0)
+         {
+            relativePathName.append('/');
+         }
+         relativePathName.append(part);
+      }
+      return relativePathName.toString();
    }
 }
@@ -0,0 +1,290 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.jboss.ejb3.packagemanager.throttle.TokenBucket;
+
+/**
+ * JarExtractor
+ * 
+ * Extracts the contents of a jar file to a directory. The extractor
+ * copies the entries through a (large) buffer which is reused across all the entries
+ * and remembers the directories it has already created, so that each parent
+ * directory is checked/created only once per extraction.
+ * 
+ * Instances of this class are <i>not</i> thread safe. 
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class JarExtractor
+{
+
+   /**
+    * Default size of the copy buffer
+    */
+   public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * The buffer used for copying the entries
+    */
+   private byte[] buffer;
+
+   /**
+    * Directories which are known to exist
+    */
+   private Set<File> knownDirectories = new HashSet<File>();
+
+   /**
+    * Limits the rate at which the entries are written. Can be null.
+    */
+   private TokenBucket diskBucket;
+
+   /**
+    * Creates an extractor with a buffer of {@link #DEFAULT_BUFFER_SIZE}
+    */
+   public JarExtractor()
+   {
+      this(DEFAULT_BUFFER_SIZE);
+   }
+
+   /**
+    * Creates an extractor which uses a buffer of <code>bufferSize</code> bytes
+    * 
+    * @param bufferSize Size of the copy buffer
+    */
+   public JarExtractor(int bufferSize)
+   {
+      this(bufferSize, null);
+   }
+
+   /**
+    * Creates an extractor which uses a buffer of <code>bufferSize</code> bytes and writes the
+    * entries no faster than the <code>diskBucket</code> allows
+    * 
+    * @param bufferSize Size of the copy buffer
+    * @param diskBucket Limits the rate at which the entries are written. Can be null.
+    */
+   public JarExtractor(int bufferSize, TokenBucket diskBucket)
+   {
+      this.diskBucket = diskBucket;
+      if (bufferSize <= 0)
+      {
+         throw new IllegalArgumentException("Buffer size must be greater than zero, was " + bufferSize);
+      }
+      this.buffer = new byte[bufferSize];
+   }
+
+   /**
+    * Extracts all the entries of the <code>jar</code> to the <code>destDir</code>
+    * 
+    * @param jar The jar file to extract
+    * @param destDir The directory to which the jar has to be extracted. The directory
+    *           will be created if it does not exist
+    * @return Returns the statistics of this extraction
+    * @throws IOException If any IO exceptions occur during extraction
+    */
+   public ExtractionStatistics extract(JarFile jar, File destDir) throws IOException
+   {
+      long start = System.currentTimeMillis();
+      ExtractionStatistics stats = new ExtractionStatistics();
+      this.ensureDirectory(destDir, stats);
+      this.extractEntries(jar, Collections.list(jar.entries()), destDir, stats);
+      stats.setElapsedMillis(System.currentTimeMillis() - start);
+      return stats;
+   }
+
+   /**
+    * Extracts all the entries of the jar read from the <code>archiveStream</code> to the 
+    * <code>destDir</code>, as they are read. This allows a jar to be extracted while it's 
+    * still being downloaded. Once the entries have been extracted, the rest of the stream 
+    * (the central directory of the jar) is read and discarded. The stream is <i>not</i> closed 
+    * by this method.
+    * 
+    * @param archiveStream The stream of the jar file
+    * @param destDir The directory to which the jar has to be extracted. The directory
+    *           will be created if it does not exist
+    * @return Returns the statistics of this extraction
+    * @throws IOException If any IO exceptions occur during extraction
+    */
+   public ExtractionStatistics extract(InputStream archiveStream, File destDir) throws IOException
+   {
+      long start = System.currentTimeMillis();
+      ExtractionStatistics stats = new ExtractionStatistics();
+      this.ensureDirectory(destDir, stats);
+      ZipInputStream zis = new ZipInputStream(archiveStream);
+      ZipEntry entry = null;
+      while ((entry = zis.getNextEntry()) != null)
+      {
+         File destFile = new File(destDir, entry.getName());
+         if (entry.isDirectory())
+         {
+            this.ensureDirectory(destFile, stats);
+            continue;
+         }
+         this.ensureDirectory(destFile.getParentFile(), stats);
+         stats.fileExtracted(this.write(zis, destFile));
+      }
+      // drain the rest, so that the producer of the stream isn't left blocked
+      while (archiveStream.read(this.buffer) != -1)
+      {
+         // discard
+      }
+      stats.setElapsedMillis(System.currentTimeMillis() - start);
+      return stats;
+   }
+
+   /**
+    * Extracts the passed <code>entries</code> of the <code>jar</code> to the <code>destDir</code>.
+    * The <code>destDir</code> is expected to be present.
+    * 
+    * @param jar The jar file to which the entries belong
+    * @param entries The entries to extract
+    * @param destDir The directory to which the entries have to be extracted
+    * @param stats The statistics of the current extraction
+    * @throws IOException If any IO exceptions occur during extraction
+    */
+   public void extractEntries(JarFile jar, List<JarEntry> entries, File destDir, ExtractionStatistics stats)
+         throws IOException
+   {
+      for (JarEntry entry : entries)
+      {
+         File destFile = new File(destDir, entry.getName());
+         if (entry.isDirectory())
+         {
+            this.ensureDirectory(destFile, stats);
+            continue;
+         }
+         // while iterating the entries in a jar file, it's not guaranteed that the 
+         // directories will be processed first and then the file. So make sure the
+         // parent directory of the file exists
+         this.ensureDirectory(destFile.getParentFile(), stats);
+         this.extractEntry(jar, entry, destFile, stats);
+      }
+   }
+
+   /**
+    * Writes out the contents of the jar <code>entry</code> to the <code>destFile</code>.
+    * The parent directory of the <code>destFile</code> is expected to be present.
+    * 
+    * @param jar The jar file to which the entry belongs
+    * @param entry The (non-directory) entry to extract
+    * @param destFile The file to which the entry will be written
+    * @param stats The statistics of the current extraction
+    * @throws IOException
+    */
+   protected void extractEntry(JarFile jar, JarEntry entry, File destFile, ExtractionStatistics stats)
+         throws IOException
+   {
+      InputStream is = jar.getInputStream(entry);
+      try
+      {
+         stats.fileExtracted(this.write(is, destFile));
+      }
+      finally
+      {
+         IOUtil.close(is);
+      }
+   }
+
+   /**
+    * Writes out the contents of the stream to the <code>destFile</code>, computing the
+    * digest of the contents as they are written. The digest is recorded in the {@link DigestMemo}, 
+    * so that the extracted file needn't be read again to compute its digest. 
+    * 
+    * @param is The stream to read from. The stream is <i>not</i> closed by this method.
+    * @param destFile The file to write to
+    * @return Returns the number of bytes written
+    * @throws IOException
+    */
+   protected long write(InputStream is, File destFile) throws IOException
+   {
+      MessageDigest digest = DigestUtil.newDigest(DigestUtil.SHA_256);
+      long size = 0;
+      FileOutputStream fos = new FileOutputStream(destFile);
+      try
+      {
+         int n = 0;
+         while ((n = is.read(this.buffer)) != -1)
+         {
+            if (this.diskBucket != null)
+            {
+               this.diskBucket.acquire(n);
+            }
+            fos.write(this.buffer, 0, n);
+            digest.update(this.buffer, 0, n);
+            size += n;
+         }
+         // close explicitly (instead of quietly in the finally block) so that a failure to
+         // write out the buffered contents isn't lost
+         fos.close();
+         fos = null;
+      }
+      finally
+      {
+         IOUtil.close(fos);
+      }
+      DigestMemo.remember(destFile, DigestUtil.toHex(digest.digest()));
+      return size;
+   }
+
+   /**
+    * Creates the directory <code>dir</code> (and any missing parents) unless this
+    * extractor has already seen it.
+    * 
+    * @param dir The directory
+    * @param stats The statistics of the current extraction
+    * @throws IOException If the directory could not be created
+    */
+   protected void ensureDirectory(File dir, ExtractionStatistics stats) throws IOException
+   {
+      if (dir == null || !this.knownDirectories.add(dir))
+      {
+         return;
+      }
+      if (dir.isDirectory())
+      {
+         return;
+      }
+      // mkdirs returns false if the directory was concurrently created, so
+      // check once again before failing
+      if (!dir.mkdirs() && !dir.isDirectory())
+      {
+         throw new IOException("Could not create directory " + dir);
+      }
+      stats.directoryCreated();
+   }
+}
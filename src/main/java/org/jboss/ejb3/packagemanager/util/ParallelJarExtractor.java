@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.jboss.ejb3.packagemanager.throttle.TokenBucket;
+
+/**
+ * ParallelJarExtractor
+ * 
+ * Extracts the contents of a jar file to a directory using multiple threads.
+ * 
+ * The (non-directory) entries of the jar are split into work units of roughly
+ * equal (uncompressed) size, so that a few huge entries don't end up on the same thread. 
+ * Each work unit is extracted by a separate {@link JarExtractor} which opens its 
+ * own {@link JarFile}, since the inflater of a jar file is not meant to be shared across
+ * threads. All the directories are created upfront by the calling thread, so the 
+ * worker threads never race on directory creation.
+ * 
+ * Jars with very few entries are extracted in the calling thread. Entries can optionally
+ * be excluded from the extraction.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class ParallelJarExtractor
+{
+
+   /**
+    * Number of work units created per thread. More units than threads allows
+    * a thread which is done with its unit to pick up more work
+    */
+   private static final int UNITS_PER_THREAD = 2;
+
+   /**
+    * Max number of threads used for extraction
+    */
+   private int threads;
+
+   /**
+    * Limits the rate at which the entries are written, across all the threads. Can be null.
+    */
+   private TokenBucket diskBucket;
+
+   /**
+    * @param threads The max number of threads to be used for extraction
+    */
+   public ParallelJarExtractor(int threads)
+   {
+      this(threads, null);
+   }
+
+   /**
+    * @param threads The max number of threads to be used for extraction
+    * @param diskBucket Limits the rate at which the entries are written, across all 
+    *           the threads. Can be null.
+    */
+   public ParallelJarExtractor(int threads, TokenBucket diskBucket)
+   {
+      this.threads = threads;
+      this.diskBucket = diskBucket;
+   }
+
+   /**
+    * Extracts all the entries of the <code>jarFile</code> to the <code>destDir</code>
+    * 
+    * @param jarFile The jar file to extract
+    * @param destDir The directory to which the jar has to be extracted. The directory
+    *           will be created if it does not exist
+    * @return Returns the statistics of this extraction
+    * @throws IOException If any IO exceptions occur during extraction
+    */
+   public ExtractionStatistics extract(File jarFile, File destDir) throws IOException
+   {
+      Set<String> noExclusions = Collections.emptySet();
+      return this.extract(jarFile, destDir, noExclusions);
+   }
+
+   /**
+    * Extracts all the entries, except the <code>excludedEntries</code>, of the 
+    * <code>jarFile</code> to the <code>destDir</code>
+    * 
+    * @param jarFile The jar file to extract
+    * @param destDir The directory to which the jar has to be extracted. The directory
+    *           will be created if it does not exist
+    * @param excludedEntries Names of the entries which should not be extracted
+    * @return Returns the statistics of this extraction
+    * @throws IOException If any IO exceptions occur during extraction
+    */
+   public ExtractionStatistics extract(final File jarFile, final File destDir, Set<String> excludedEntries)
+         throws IOException
+   {
+      long start = System.currentTimeMillis();
+      final ExtractionStatistics stats = new ExtractionStatistics();
+      List<JarEntry> files = new ArrayList<JarEntry>();
+      JarFile jar = new JarFile(jarFile);
+      try
+      {
+         JarExtractor extractor = new JarExtractor(JarExtractor.DEFAULT_BUFFER_SIZE, this.diskBucket);
+         // create all the directories upfront and collect the file entries
+         extractor.ensureDirectory(destDir, stats);
+         Enumeration<JarEntry> entries = jar.entries();
+         while (entries.hasMoreElements())
+         {
+            JarEntry entry = entries.nextElement();
+            if (excludedEntries.contains(entry.getName()))
+            {
+               continue;
+            }
+            File destFile = new File(destDir, entry.getName());
+            if (entry.isDirectory())
+            {
+               extractor.ensureDirectory(destFile, stats);
+            }
+            else
+            {
+               extractor.ensureDirectory(destFile.getParentFile(), stats);
+               files.add(entry);
+            }
+         }
+         if (this.threads <= 1 || files.size() <= this.threads)
+         {
+            extractor.extractEntries(jar, files, destDir, stats);
+            stats.setElapsedMillis(System.currentTimeMillis() - start);
+            return stats;
+         }
+      }
+      finally
+      {
+         jar.close();
+      }
+
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (final List<JarEntry> unit : this.createWorkUnits(files))
+      {
+         tasks.add(new Callable<Void>()
+         {
+            public Void call() throws Exception
+            {
+               JarFile workerJar = new JarFile(jarFile);
+               try
+               {
+                  new JarExtractor(JarExtractor.DEFAULT_BUFFER_SIZE, diskBucket).extractEntries(workerJar, unit, destDir, stats);
+               }
+               finally
+               {
+                  workerJar.close();
+               }
+               return null;
+            }
+         });
+      }
+      ParallelTaskRunner runner = new ParallelTaskRunner("jar-extractor", this.threads);
+      try
+      {
+         runner.invokeAll(tasks);
+      }
+      catch (ExecutionException ee)
+      {
+         Throwable cause = ee.getCause();
+         if (cause instanceof IOException)
+         {
+            throw (IOException) cause;
+         }
+         throw new RuntimeException("Could not extract " + jarFile + " to " + destDir, cause);
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted while extracting " + jarFile + " to " + destDir, ie);
+      }
+      stats.setElapsedMillis(System.currentTimeMillis() - start);
+      return stats;
+   }
+
+   /**
+    * Splits the <code>entries</code> into work units of roughly equal size. The 
+    * entries are sorted by (descending) size and each entry is assigned to the 
+    * currently smallest unit.
+    * 
+    * @param entries The entries to split
+    * @return Returns the work units
+    */
+   protected List<List<JarEntry>> createWorkUnits(List<JarEntry> entries)
+   {
+      int unitCount = Math.min(entries.size(), this.threads * UNITS_PER_THREAD);
+      List<List<JarEntry>> units = new ArrayList<List<JarEntry>>(unitCount);
+      long[] unitSizes = new long[unitCount];
+      for (int i = 0; i < unitCount; i++)
+      {
+         units.add(new ArrayList<JarEntry>());
+      }
+      List<JarEntry> sortedEntries = new ArrayList<JarEntry>(entries);
+      Collections.sort(sortedEntries, new Comparator<JarEntry>()
+      {
+         public int compare(JarEntry entry, JarEntry other)
+         {
+            long size = sizeOf(entry);
+            long otherSize = sizeOf(other);
+            return size > otherSize ? -1 : (size == otherSize ? 0 : 1);
+         }
+      });
+      for (JarEntry entry : sortedEntries)
+      {
+         int smallest = 0;
+         for (int i = 1; i < unitCount; i++)
+         {
+            if (unitSizes[i] < unitSizes[smallest])
+            {
+               smallest = i;
+            }
+         }
+         units.get(smallest).add(entry);
+         unitSizes[smallest] += sizeOf(entry);
+      }
+      return units;
+   }
+
+   /**
+    * Returns the (approximate) cost of extracting the <code>entry</code>. Uses the
+    * uncompressed size, if known, else the compressed size.
+    * 
+    * @param entry The jar entry
+    * @return
+    */
+   private static long sizeOf(JarEntry entry)
+   {
+      long size = entry.getSize();
+      if (size < 0)
+      {
+         size = entry.getCompressedSize();
+      }
+      // every entry has a fixed cost (file creation etc...) irrespective of its size
+      return Math.max(size, 0) + 1024;
+   }
+}
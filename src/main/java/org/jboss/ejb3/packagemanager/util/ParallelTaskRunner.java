@@ -0,0 +1,278 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelTaskRunner
+ * 
+ * Runs a batch of tasks on a bounded pool of threads. The pool is created
+ * for each batch and is shutdown once the batch completes. If the runner is configured 
+ * with a single thread (or if there's just one task), the tasks are run in the calling thread.
+ * 
+ * Tasks can either be run in a fail fast mode {@link #invokeAll(List)} where the first failure
+ * cancels the rest of the tasks, or in a mode where all tasks are run and the failures are
+ * collected {@link #invokeAllCollectingFailures(List)}. Either way, none of the tasks is running
+ * any more once the runner returns (or throws), so the caller can safely clean up after them.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class ParallelTaskRunner
+{
+
+   /**
+    * Name used for the threads of this runner
+    */
+   private String name;
+
+   /**
+    * Max number of threads
+    */
+   private int threads;
+
+   /**
+    * @param name Name used as a prefix for the threads created by this runner
+    * @param threads The max number of threads to use. Values less than 1 are 
+    *           treated as 1.
+    */
+   public ParallelTaskRunner(String name, int threads)
+   {
+      this.name = name;
+      this.threads = threads < 1 ? 1 : threads;
+   }
+
+   /**
+    * @return Returns the max number of threads used by this runner
+    */
+   public int getThreads()
+   {
+      return this.threads;
+   }
+
+   /**
+    * Runs all the <code>tasks</code> and returns their results, in the same order
+    * as the tasks. If any of the tasks fails, the remaining tasks are cancelled
+    * and an {@link ExecutionException} wrapping the first failure is thrown.
+    * 
+    * @param <T> 
+    * @param tasks The tasks to run
+    * @return Returns the results of the tasks
+    * @throws ExecutionException If any of the tasks failed
+    * @throws InterruptedException If the calling thread was interrupted while waiting for 
+    *           the tasks to complete
+    */
+   public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws ExecutionException,
+         InterruptedException
+   {
+      List<T> results = new ArrayList<T>(tasks.size());
+      if (!this.isParallel(tasks))
+      {
+         for (Callable<T> task : tasks)
+         {
+            results.add(this.call(task));
+         }
+         return results;
+      }
+      ExecutorService executor = this.createExecutor(tasks.size());
+      List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+      try
+      {
+         CompletionService<T> completionService = new ExecutorCompletionService<T>(executor);
+         for (Callable<T> task : tasks)
+         {
+            futures.add(completionService.submit(task));
+         }
+         for (int i = 0; i < futures.size(); i++)
+         {
+            Future<T> completed = completionService.take();
+            // throws ExecutionException on failure, which results in the
+            // rest of the tasks being cancelled in the finally block
+            completed.get();
+         }
+         for (Future<T> future : futures)
+         {
+            results.add(future.get());
+         }
+         return results;
+      }
+      finally
+      {
+         for (Future<T> future : futures)
+         {
+            future.cancel(true);
+         }
+         shutdownAndAwaitTermination(executor);
+      }
+   }
+
+   /**
+    * Runs all the <code>tasks</code>, irrespective of whether any of them fail. 
+    * Returns the failures (if any) of the tasks. Returns an empty list if all 
+    * the tasks completed successfully.
+    * 
+    * @param tasks The tasks to run
+    * @return Returns the failures of the tasks
+    * @throws InterruptedException If the calling thread was interrupted while waiting for 
+    *           the tasks to complete
+    */
+   public List<Throwable> invokeAllCollectingFailures(List<? extends Callable<?>> tasks) throws InterruptedException
+   {
+      List<Throwable> failures = new ArrayList<Throwable>();
+      if (!this.isParallel(tasks))
+      {
+         for (Callable<?> task : tasks)
+         {
+            try
+            {
+               task.call();
+            }
+            catch (Throwable t)
+            {
+               failures.add(t);
+            }
+         }
+         return failures;
+      }
+      ExecutorService executor = this.createExecutor(tasks.size());
+      try
+      {
+         List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+         for (Callable<?> task : tasks)
+         {
+            futures.add(executor.submit(task));
+         }
+         for (Future<?> future : futures)
+         {
+            try
+            {
+               future.get();
+            }
+            catch (ExecutionException ee)
+            {
+               failures.add(ee.getCause());
+            }
+         }
+         return failures;
+      }
+      finally
+      {
+         shutdownAndAwaitTermination(executor);
+      }
+   }
+
+   /**
+    * Shuts down the <code>executor</code>, interrupting the tasks which are still running, and 
+    * waits for them to complete. A cancelled task doesn't necessarily stop straight away, and it
+    * mustn't be left running (for example, writing to a file) while the caller cleans up after it.
+    * 
+    * The wait isn't cut short if the calling thread is interrupted, but the interrupt is 
+    * preserved for the caller.
+    * 
+    * @param executor The executor to shutdown
+    */
+   private static void shutdownAndAwaitTermination(ExecutorService executor)
+   {
+      executor.shutdownNow();
+      boolean interrupted = false;
+      while (true)
+      {
+         try
+         {
+            if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS))
+            {
+               break;
+            }
+         }
+         catch (InterruptedException ie)
+         {
+            interrupted = true;
+         }
+      }
+      if (interrupted)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private boolean isParallel(List<?> tasks)
+   {
+      return this.threads > 1 && tasks.size() > 1;
+   }
+
+   private <T> T call(Callable<T> task) throws ExecutionException
+   {
+      try
+      {
+         return task.call();
+      }
+      catch (Exception e)
+      {
+         throw new ExecutionException(e);
+      }
+   }
+
+   private ExecutorService createExecutor(int taskCount)
+   {
+      int poolSize = Math.min(this.threads, taskCount);
+      return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory(this.name));
+   }
+
+   /**
+    * Creates daemon threads named after the runner
+    */
+   private static class NamedThreadFactory implements ThreadFactory
+   {
+      private String prefix;
+
+      private AtomicInteger count = new AtomicInteger();
+
+      public NamedThreadFactory(String prefix)
+      {
+         this.prefix = prefix;
+      }
+
+      /**
+       * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+       */
+      public Thread newThread(Runnable runnable)
+      {
+         Thread thread = new Thread(runnable, this.prefix + "-" + this.count.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   }
+}
@@ -0,0 +1,447 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.workspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.transaction.Synchronization;
+
+import org.jboss.ejb3.packagemanager.PackageManagerContext;
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.logging.Logger;
+
+/**
+ * DefaultWorkspaceManager
+ * 
+ * Hands out leases on folders/files under the build and tmp folders of the package manager
+ * environment. All outstanding leases are reclaimed, by deleting the leased folders/files, when
+ * the transaction of the package manager operation completes (see {@link #afterCompletion(int)}). 
+ * 
+ * So the build and tmp folders only hold the folders/files in use, along with whatever a 
+ * crashed package manager left behind. Such leftovers are evicted once, when a workspace 
+ * manager is created, instead of sizing up the workspace after every operation.
+ * 
+ * The build and tmp folders may be shared by several package managers (even in different 
+ * processes) using the same package manager home. So the leased folders/files are given unique
+ * names and each lease is guarded by a marker file (named after the leased file, with the 
+ * {@link #LEASE_MARKER_SUFFIX}) which is locked, through a {@link FileLock}, for as long as the 
+ * lease is held. Folders/files whose marker is locked are never evicted. Since the lock is 
+ * released by the OS when the process holding it dies, leases of crashed package managers are
+ * evicted like any other leftover.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class DefaultWorkspaceManager implements WorkspaceManager, Synchronization
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(DefaultWorkspaceManager.class);
+
+   /**
+    * Suffix of the marker files which guard the leases
+    */
+   public static final String LEASE_MARKER_SUFFIX = ".lease";
+
+   /**
+    * Generates the unique suffixes of the leased folders/files
+    */
+   private static final Random random = new Random();
+
+   private File buildDir;
+
+   private File tmpDir;
+
+   /**
+    * The outstanding leases
+    */
+   private Set<File> leases = new HashSet<File>();
+
+   /**
+    * The locks on the marker files of the outstanding leases
+    */
+   private Map<File, FileLock> leaseLocks = new HashMap<File, FileLock>();
+
+   private long totalLeases;
+
+   private long reclaimed;
+
+   private long evicted;
+
+   private long evictedBytes;
+
+   /**
+    * @param pkgMgrCtx The package manager context
+    */
+   public DefaultWorkspaceManager(PackageManagerContext pkgMgrCtx)
+   {
+      this(pkgMgrCtx.getPackageManagerEnvironment());
+   }
+
+   /**
+    * @param environment The package manager environment
+    */
+   public DefaultWorkspaceManager(PackageManagerEnvironment environment)
+   {
+      this.buildDir = environment.getPackageManagerBuildDir().getAbsoluteFile();
+      this.tmpDir = environment.getPackageManagerTmpDir().getAbsoluteFile();
+      // clean up any leftovers from earlier runs
+      this.evictLeftovers();
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.workspace.WorkspaceManager#leaseBuildDirectory(java.lang.String)
+    */
+   @Override
+   public synchronized File leaseBuildDirectory(String name)
+   {
+      return this.leaseDirectory(this.buildDir, name);
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.workspace.WorkspaceManager#leaseTmpDirectory(java.lang.String)
+    */
+   @Override
+   public synchronized File leaseTmpDirectory(String name)
+   {
+      return this.leaseDirectory(this.tmpDir, name);
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.workspace.WorkspaceManager#leaseTmpFile(java.lang.String, java.lang.String)
+    */
+   @Override
+   public synchronized File leaseTmpFile(String prefix, String suffix) throws IOException
+   {
+      File tmpFile = this.reserve(this.tmpDir, prefix, suffix == null ? ".tmp" : suffix);
+      if (!tmpFile.createNewFile())
+      {
+         this.unlock(tmpFile);
+         throw new IOException("Could not create " + tmpFile);
+      }
+      this.leases.add(tmpFile);
+      this.totalLeases++;
+      return tmpFile;
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.workspace.WorkspaceManager#release(java.io.File)
+    */
+   @Override
+   public void release(File leasedFile)
+   {
+      File leased = leasedFile.getAbsoluteFile();
+      synchronized (this)
+      {
+         if (!this.leases.remove(leased))
+         {
+            throw new IllegalArgumentException(leasedFile + " has not been leased from the workspace manager");
+         }
+      }
+      this.reclaim(leased);
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.workspace.WorkspaceManager#releaseAll()
+    */
+   @Override
+   public void releaseAll()
+   {
+      List<File> released = new ArrayList<File>();
+      synchronized (this)
+      {
+         released.addAll(this.leases);
+         this.leases.clear();
+      }
+      for (File leased : released)
+      {
+         this.reclaim(leased);
+      }
+   }
+
+   /**
+    * @see org.jboss.ejb3.packagemanager.workspace.WorkspaceManager#getStatistics()
+    */
+   @Override
+   public synchronized WorkspaceStatistics getStatistics()
+   {
+      return new WorkspaceStatistics(this.leases.size(), this.totalLeases, this.reclaimed, this.evicted,
+            this.evictedBytes);
+   }
+
+   /**
+    * Reclaims the leases handed out during the (now completed) package manager operation
+    * 
+    * @see javax.transaction.Synchronization#afterCompletion(int)
+    */
+   @Override
+   public void afterCompletion(int status)
+   {
+      this.releaseAll();
+      logger.debug("Reclaimed workspace after tx completion - " + this.getStatistics());
+   }
+
+   /**
+    * @see javax.transaction.Synchronization#beforeCompletion()
+    */
+   @Override
+   public void beforeCompletion()
+   {
+      // nothing to do
+   }
+
+   private File leaseDirectory(File parent, String name)
+   {
+      File dir;
+      try
+      {
+         dir = this.reserve(parent, name + "-", "");
+      }
+      catch (IOException ioe)
+      {
+         throw new RuntimeException("Could not lease directory " + name + " under " + parent, ioe);
+      }
+      if (!dir.mkdir())
+      {
+         this.unlock(dir);
+         throw new RuntimeException("Could not create directory " + dir);
+      }
+      this.leases.add(dir);
+      this.totalLeases++;
+      return dir;
+   }
+
+   private void reclaim(File leased)
+   {
+      IOUtil.delete(leased);
+      synchronized (this)
+      {
+         this.reclaimed++;
+      }
+      this.unlock(leased);
+   }
+
+   /**
+    * Reserves a new, unique, file name under the <code>parent</code> by creating and locking 
+    * the marker file of that name. The file (or folder) itself is not created.
+    * 
+    * @param parent The parent folder
+    * @param prefix Prefix of the file name
+    * @param suffix Suffix of the file name
+    * @return Returns the reserved file
+    * @throws IOException If the marker file could not be created
+    */
+   private File reserve(File parent, String prefix, String suffix) throws IOException
+   {
+      parent.mkdirs();
+      while (true)
+      {
+         String name = prefix + Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + suffix;
+         File file = new File(parent, name).getAbsoluteFile();
+         File marker = new File(parent, name + LEASE_MARKER_SUFFIX);
+         // the marker is created first, so that the file is guarded from the moment it exists
+         if (file.exists() || !marker.createNewFile())
+         {
+            continue;
+         }
+         FileChannel channel = new RandomAccessFile(marker, "rw").getChannel();
+         FileLock lock;
+         try
+         {
+            lock = channel.lock();
+         }
+         catch (IOException ioe)
+         {
+            channel.close();
+            marker.delete();
+            throw ioe;
+         }
+         // some other workspace manager might have taken it for the marker of a crashed 
+         // package manager and deleted it, before it was locked
+         if (!marker.exists())
+         {
+            channel.close();
+            continue;
+         }
+         this.leaseLocks.put(file, lock);
+         return file;
+      }
+   }
+
+   /**
+    * Releases the lock on, and deletes, the marker file of the <code>leased</code> file
+    */
+   private void unlock(File leased)
+   {
+      FileLock lock;
+      synchronized (this)
+      {
+         lock = this.leaseLocks.remove(leased);
+      }
+      if (lock == null)
+      {
+         return;
+      }
+      IOUtil.close(lock.channel());
+      new File(leased.getPath() + LEASE_MARKER_SUFFIX).delete();
+   }
+
+   /**
+    * Evicts the <code>file</code>, unless it's leased (by this or any other workspace manager).
+    * 
+    * @param file The folder/file to evict
+    * @return Returns the number of bytes freed, or -1 if the file wasn't evicted
+    */
+   private long evict(File file)
+   {
+      if (this.leases.contains(file))
+      {
+         return -1;
+      }
+      File marker = new File(file.getPath() + LEASE_MARKER_SUFFIX);
+      if (!marker.exists())
+      {
+         long size = IOUtil.size(file);
+         IOUtil.delete(file);
+         return size;
+      }
+      FileChannel channel = null;
+      try
+      {
+         channel = new RandomAccessFile(marker, "rw").getChannel();
+         FileLock lock = channel.tryLock();
+         if (lock == null)
+         {
+            // leased by some other process
+            return -1;
+         }
+         // the marker of a crashed package manager, it's safe to evict the file
+         long size = IOUtil.size(file);
+         IOUtil.delete(file);
+         marker.delete();
+         return size;
+      }
+      catch (OverlappingFileLockException ofle)
+      {
+         // leased by some other workspace manager in this JVM
+         return -1;
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not check whether " + file + " is leased - not evicting it", ioe);
+         return -1;
+      }
+      finally
+      {
+         // also releases the lock, if acquired
+         IOUtil.close(channel);
+      }
+   }
+
+   /**
+    * Evicts the folders/files, left behind in the build and tmp folders by earlier runs of the 
+    * package manager, which aren't leased (by this or any other workspace manager)
+    */
+   private void evictLeftovers()
+   {
+      File[] workspaceDirs = {this.buildDir, this.tmpDir};
+      for (File dir : workspaceDirs)
+      {
+         File[] children = dir.listFiles();
+         if (children == null)
+         {
+            continue;
+         }
+         for (File child : children)
+         {
+            File file = child.getAbsoluteFile();
+            if (file.getName().endsWith(LEASE_MARKER_SUFFIX))
+            {
+               // markers of leases which have disappeared (for example, the package manager 
+               // crashed before creating the leased file)
+               File leased = new File(file.getPath().substring(0, file.getPath().length()
+                     - LEASE_MARKER_SUFFIX.length()));
+               if (!leased.exists())
+               {
+                  this.evictMarker(file);
+               }
+               continue;
+            }
+            synchronized (this)
+            {
+               // evicted while holding the lock, so that it isn't leased meanwhile
+               long size = this.evict(file);
+               if (size < 0)
+               {
+                  continue;
+               }
+               this.evicted++;
+               this.evictedBytes += size;
+            }
+            logger.debug("Evicted leftover " + file + " from workspace");
+         }
+      }
+   }
+
+   /**
+    * Deletes the <code>marker</code> of a lease, unless it's locked
+    */
+   private void evictMarker(File marker)
+   {
+      FileChannel channel = null;
+      try
+      {
+         channel = new RandomAccessFile(marker, "rw").getChannel();
+         if (channel.tryLock() != null)
+         {
+            marker.delete();
+         }
+      }
+      catch (OverlappingFileLockException ofle)
+      {
+         // locked by this JVM
+      }
+      catch (IOException ioe)
+      {
+         logger.debug("Could not evict lease marker " + marker, ioe);
+      }
+      finally
+      {
+         IOUtil.close(channel);
+      }
+   }
+}
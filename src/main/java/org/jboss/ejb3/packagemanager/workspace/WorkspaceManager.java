@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.workspace;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * WorkspaceManager
+ * 
+ * Manages the working folders (build and tmp) of the package manager. Package manager 
+ * operations lease the folders/files they work on from the workspace manager, instead 
+ * of creating them directly. The leases are reclaimed, by deleting the leased folders and
+ * files, once the operation completes.
+ * 
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public interface WorkspaceManager
+{
+
+   /**
+    * Leases a new, empty, folder under the package manager's build folder. The folder is 
+    * named after <code>name</code>, with a unique suffix, so that folders leased by different
+    * operations (or package managers sharing the build folder) never clash.
+    * 
+    * @param name Name of the folder
+    * @return Returns the leased folder
+    */
+   File leaseBuildDirectory(String name);
+
+   /**
+    * Leases a new, empty, folder under the package manager's tmp folder. The folder is 
+    * named after <code>name</code>, with a unique suffix, so that folders leased by different
+    * operations (or package managers sharing the tmp folder) never clash.
+    * 
+    * @param name Name of the folder
+    * @return Returns the leased folder
+    */
+   File leaseTmpDirectory(String name);
+
+   /**
+    * Leases a new file under the package manager's tmp folder
+    * 
+    * @param prefix Prefix of the file name
+    * @param suffix Suffix of the file name
+    * @return Returns the leased file
+    * @throws IOException If the file could not be created
+    */
+   File leaseTmpFile(String prefix, String suffix) throws IOException;
+
+   /**
+    * Releases the lease on <code>leasedFile</code> which was previously leased from this
+    * workspace manager, and deletes it
+    * 
+    * @param leasedFile The leased folder or file
+    */
+   void release(File leasedFile);
+
+   /**
+    * Releases all the outstanding leases
+    */
+   void releaseAll();
+
+   /**
+    * @return Returns the usage statistics of the workspace
+    */
+   WorkspaceStatistics getStatistics();
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.workspace;
+
+/**
+ * WorkspaceStatistics
+ * 
+ * A snapshot of the usage statistics of a {@link WorkspaceManager}
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class WorkspaceStatistics
+{
+
+   private int activeLeases;
+
+   private long totalLeases;
+
+   private long reclaimed;
+
+   private long evicted;
+
+   private long evictedBytes;
+
+   public WorkspaceStatistics(int activeLeases, long totalLeases, long reclaimed, long evicted, long evictedBytes)
+   {
+      this.activeLeases = activeLeases;
+      this.totalLeases = totalLeases;
+      this.reclaimed = reclaimed;
+      this.evicted = evicted;
+      this.evictedBytes = evictedBytes;
+   }
+
+   /**
+    * @return Returns the number of outstanding leases
+    */
+   public int getActiveLeases()
+   {
+      return this.activeLeases;
+   }
+
+   /**
+    * @return Returns the number of leases handed out so far
+    */
+   public long getTotalLeases()
+   {
+      return this.totalLeases;
+   }
+
+   /**
+    * @return Returns the number of folders and files deleted when their lease 
+    *       was released
+    */
+   public long getReclaimed()
+   {
+      return this.reclaimed;
+   }
+
+   /**
+    * @return Returns the number of leftover folders/files, of earlier runs, evicted
+    */
+   public long getEvicted()
+   {
+      return this.evicted;
+   }
+
+   /**
+    * @return Returns the number of bytes freed by evictions
+    */
+   public long getEvictedBytes()
+   {
+      return this.evictedBytes;
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("WorkspaceStatistics [activeLeases=");
+      sb.append(this.activeLeases);
+      sb.append(" ,totalLeases=");
+      sb.append(this.totalLeases);
+      sb.append(" ,reclaimed=");
+      sb.append(this.reclaimed);
+      sb.append(" ,evicted=");
+      sb.append(this.evicted);
+      sb.append(" (");
+      sb.append(this.evictedBytes / 1024);
+      sb.append(" KB)]");
+      return sb.toString();
+   }
+}
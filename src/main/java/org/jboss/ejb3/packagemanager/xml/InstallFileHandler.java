@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.xml;
+
+import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
+
+/**
+ * InstallFileHandler
+ * 
+ * Receives the files of a package, one at a time, as they are parsed out of a package.xml 
+ * by {@link PackageUnmarshaller#unmarshal(java.io.InputStream, InstallFileHandler)}. 
+ * The files handed to a handler aren't added to the package metadata, so a package.xml
+ * listing any number of files can be processed without holding the files in memory.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public interface InstallFileHandler
+{
+
+   /**
+    * Handles a file parsed out of the package.xml. Files are handed out in the order 
+    * in which they are listed in the package.xml.
+    * 
+    * @param file The file
+    * @throws Exception If the file could not be handled. Parsing of the package.xml is aborted.
+    */
+   void handleFile(InstallFileType file) throws Exception;
+}
@@ -21,8 +21,11 @@
 */
 package org.jboss.ejb3.packagemanager.xml;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 
+import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.XMLEvent;
 
 import org.codehaus.stax2.XMLInputFactory2;
@@ -53,9 +56,19 @@ import org.jboss.ejb3.packagemanager.metadata.impl.PreInstallScript;
 import org.jboss.ejb3.packagemanager.metadata.impl.PreUnInstallImpl;
 import org.jboss.ejb3.packagemanager.metadata.impl.PreUninstallScript;
 import org.jboss.ejb3.packagemanager.metadata.impl.UnProcessedDependenciesImpl;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
 
 /**
  * PackageXMLParser
+ * 
+ * Creates the {@link PackageType} metadata out of a package.xml, validating it against
+ * package.xsd while it's parsed. Compiling the schema costs far more than parsing a typical
+ * package.xml, so an unmarshaller compiles the schema once, on first use, and reuses the 
+ * compiled schema and its {@link XMLInputFactory2} for all the package.xml files it processes.
+ * 
+ * Instances of this class are thread safe. Use {@link #getInstance()} to share the compiled
+ * schema across the package manager.
  *
  * @author Jaikiran Pai
  * @version $Revision: $
@@ -63,6 +76,51 @@ import org.jboss.ejb3.packagemanager.metadata.impl.UnProcessedDependenciesImpl;
 public class PackageUnmarshaller
 {
 
+   /**
+    * Name of the schema resource against which package.xml files are validated
+    */
+   public static final String PACKAGE_XSD = "package.xsd";
+
+   /**
+    * The shared unmarshaller
+    */
+   private static final PackageUnmarshaller INSTANCE = new PackageUnmarshaller();
+
+   /**
+    * Creates the stream readers. The factory isn't reconfigured after it's created, 
+    * so it can be used concurrently
+    */
+   private final XMLInputFactory2 xmlFactory;
+
+   /**
+    * The compiled package.xsd. Compiled schemas are immutable and can be used by multiple 
+    * readers concurrently
+    */
+   private volatile XMLValidationSchema schema;
+
+   /**
+    * The (hex encoded) SHA-256 digest of the package.xsd from which the {@link #schema} was compiled
+    */
+   private volatile String schemaDigest;
+
+   /**
+    * Returns the shared unmarshaller
+    * 
+    * @return
+    */
+   public static PackageUnmarshaller getInstance()
+   {
+      return INSTANCE;
+   }
+
+   /**
+    * Creates an unmarshaller. The schema is compiled when the first package.xml is unmarshalled.
+    */
+   public PackageUnmarshaller()
+   {
+      this.xmlFactory = (XMLInputFactory2) XMLInputFactory2.newInstance();
+   }
+
    /**
     * Creates {@link PackageType} out of the URL pointing to a package.xml file
     * 
@@ -72,33 +130,171 @@ public class PackageUnmarshaller
     */
    public PackageType unmarshal(URL packageXml) throws Exception
    {
+      return this.unmarshal(packageXml, null);
+   }
+
+   /**
+    * Creates {@link PackageType} out of the URL pointing to a package.xml file, handing the
+    * files listed in the package.xml to the <code>fileHandler</code> instead of adding them
+    * to the returned {@link PackageType}
+    * 
+    * @param packageXml package.xml URL 
+    * @param fileHandler The handler of the files. If null, the files are added to the returned
+    *           {@link PackageType}
+    * @return Returns the {@link PackageType} corresponding to the package.xml
+    * @throws Exception If any exceptions occur during processing the package.xml
+    * @see #unmarshal(InputStream, InstallFileHandler)
+    */
+   public PackageType unmarshal(URL packageXml, InstallFileHandler fileHandler) throws Exception
+   {
+      InputStream is = packageXml.openStream();
+      try
+      {
+         return this.unmarshal(is, fileHandler);
+      }
+      finally
+      {
+         IOUtil.close(is);
+      }
+   }
+
+   /**
+    * Creates {@link PackageType} out of the stream of a package.xml file. The stream
+    * is <i>not</i> closed by this method.
+    * 
+    * @param packageXml package.xml stream 
+    * @return Returns the {@link PackageType} corresponding to the package.xml
+    * @throws Exception If any exceptions occur during processing the package.xml
+    */
+   public PackageType unmarshal(InputStream packageXml) throws Exception
+   {
+      return this.unmarshal(packageXml, null);
+   }
+
+   /**
+    * Creates {@link PackageType} out of the stream of a package.xml file, handing the files
+    * listed in the package.xml to the <code>fileHandler</code>, as they are parsed, instead of 
+    * adding them to the returned {@link PackageType}. The memory used to process a package.xml 
+    * is then independent of the number of files it lists. The stream is <i>not</i> closed by 
+    * this method.
+    * 
+    * Note that the package.xml is validated while it's parsed, so files might have been handed
+    * to the <code>fileHandler</code> by the time a package.xml is found to be invalid.
+    * 
+    * @param packageXml package.xml stream 
+    * @param fileHandler The handler of the files. If null, the files are added to the returned
+    *           {@link PackageType}
+    * @return Returns the {@link PackageType} corresponding to the package.xml
+    * @throws Exception If any exceptions occur during processing the package.xml, or the 
+    *           <code>fileHandler</code> fails to handle a file
+    */
+   public PackageType unmarshal(InputStream packageXml, InstallFileHandler fileHandler) throws Exception
+   {
+      XMLValidationSchema packageSchema = this.getSchema();
+      XMLStreamReader2 xmlStreamReader = (XMLStreamReader2) this.xmlFactory.createXMLStreamReader(packageXml);
+      try
+      {
+         // enable validation (note: validation will happen during parse)
+         xmlStreamReader.validateAgainst(packageSchema);
+
+         // parse the xml
+         PackageType pkgMetadata = null;
+         while (xmlStreamReader.hasNext())
+         {
+            int event = xmlStreamReader.next();
+            if (event == XMLEvent.START_ELEMENT && xmlStreamReader.getLocalName().equals("package"))
+            {
+               pkgMetadata = processPackage(xmlStreamReader, fileHandler);
+            }
+         }
+         return pkgMetadata;
+      }
+      finally
+      {
+         // doesn't close the underlying stream, but lets the parser recycle its buffers
+         xmlStreamReader.close();
+      }
+   }
+
+   /**
+    * Returns the (hex encoded) SHA-256 digest of the package.xsd against which this unmarshaller 
+    * validates. Metadata which was unmarshalled and validated against one version of the schema 
+    * can be recognized through the digest, once the schema changes. 
+    * 
+    * @return
+    * @throws XMLStreamException If the schema could not be compiled
+    */
+   public String getSchemaDigest() throws XMLStreamException
+   {
+      this.getSchema();
+      return this.schemaDigest;
+   }
 
-      XMLInputFactory2 xmlFactory = (XMLInputFactory2) XMLInputFactory2.newInstance();
-      XMLStreamReader2 xmlStreamReader = (XMLStreamReader2) xmlFactory.createXMLStreamReader(packageXml.openStream());
-
-      // create a validator for the package.xml
-      XMLValidationSchemaFactory validationSchemaFactory = XMLValidationSchemaFactory
-            .newInstance(XMLValidationSchema.SCHEMA_ID_W3C_SCHEMA);
-      // TODO: Is this good enough to get hold of package.xsd? Need to think about this.
-      URL packageXsd = Thread.currentThread().getContextClassLoader().getResource("package.xsd");
-      XMLValidationSchema schema = validationSchemaFactory.createSchema(packageXsd);;
-      // enable validation (note: validation will happen during parse)
-      xmlStreamReader.validateAgainst(schema);
-
-      // parse the xml
-      PackageType pkgMetadata = null;
-      while (xmlStreamReader.hasNext())
+   /**
+    * Returns the compiled package.xsd, compiling it if this is the first use of this unmarshaller.
+    * The schema is looked up through the context classloader, falling back to the classloader 
+    * of this class.
+    * 
+    * @return
+    * @throws XMLStreamException If the schema could not be compiled
+    */
+   protected XMLValidationSchema getSchema() throws XMLStreamException
+   {
+      XMLValidationSchema packageSchema = this.schema;
+      if (packageSchema != null)
+      {
+         return packageSchema;
+      }
+      synchronized (this)
       {
-         int event = xmlStreamReader.next();
-         if (event == XMLEvent.START_ELEMENT && xmlStreamReader.getLocalName().equals("package"))
+         if (this.schema == null)
          {
-            pkgMetadata = processPackage(xmlStreamReader);
+            URL packageXsd = null;
+            ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+            if (tccl != null)
+            {
+               packageXsd = tccl.getResource(PACKAGE_XSD);
+            }
+            if (packageXsd == null)
+            {
+               packageXsd = PackageUnmarshaller.class.getClassLoader().getResource(PACKAGE_XSD);
+            }
+            if (packageXsd == null)
+            {
+               throw new XMLStreamException("Could not find " + PACKAGE_XSD + " to validate package.xml against");
+            }
+            XMLValidationSchemaFactory validationSchemaFactory = XMLValidationSchemaFactory
+                  .newInstance(XMLValidationSchema.SCHEMA_ID_W3C_SCHEMA);
+            XMLValidationSchema compiledSchema = validationSchemaFactory.createSchema(packageXsd);
+            this.schemaDigest = this.digest(packageXsd);
+            this.schema = compiledSchema;
          }
+         return this.schema;
       }
-      return pkgMetadata;
    }
 
-   private PackageType processPackage(XMLStreamReader2 xmlStreamReader) throws Exception
+   private String digest(URL packageXsd) throws XMLStreamException
+   {
+      try
+      {
+         InputStream is = packageXsd.openStream();
+         try
+         {
+            return DigestUtil.sha256(is);
+         }
+         finally
+         {
+            IOUtil.close(is);
+         }
+      }
+      catch (IOException ioe)
+      {
+         throw new XMLStreamException("Could not read " + packageXsd, ioe);
+      }
+   }
+
+   private PackageType processPackage(XMLStreamReader2 xmlStreamReader, InstallFileHandler fileHandler)
+         throws Exception
    {
       PackageType pkgMeta = new PackageImpl();
       for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++)
@@ -129,7 +325,14 @@ public class PackageUnmarshaller
                else if (childElement.equals("file"))
                {
                   InstallFileType file = processFiles(pkgMeta, xmlStreamReader);
-                  pkgMeta.addFile(file);
+                  if (fileHandler == null)
+                  {
+                     pkgMeta.addFile(file);
+                  }
+                  else
+                  {
+                     fileHandler.handleFile(file);
+                  }
                }
                else if (childElement.equals("pre-install"))
                {
@@ -215,6 +418,10 @@ public class PackageUnmarshaller
          {
             fileMeta.setType(xmlStreamReader.getAttributeValue(i));
          }
+         else if ("checksum".equals(name))
+         {
+            fileMeta.setChecksum(xmlStreamReader.getAttributeValue(i).toLowerCase());
+         }
 
       }
       // consume the end event of file
@@ -26,6 +26,7 @@ CREATE TABLE installation_file (
 	fileName varchar(255) not null,
 	installedPath varchar(255) not null,
 	fileType varchar(255),
+	checksum varchar(64),
 	foreign key (package_name) references package (name) 
 
 );
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.db.unit;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
+import org.jboss.ejb3.packagemanager.util.DBUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * SchemaUpgradeTestCase
+ *
+ * Tests that a package manager database setup by an older version of the 
+ * package manager is upgraded to the current schema
+ * 
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class SchemaUpgradeTestCase extends PackageManagerTestCase
+{
+
+   /**
+    * Tests that the checksum column is added to an installation_file table which 
+    * doesn't have it, that the existing records are retained (with a null checksum) 
+    * and that upgrading an upto date schema does nothing
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testChecksumColumnIsAdded() throws Exception
+   {
+      File dbDir = new File(getPerTestTargetDir(this.getClass()), "olddb");
+      IOUtil.delete(dbDir);
+      // the database is kept apart from the one used by the other tests
+      Connection conn = DriverManager.getConnection("jdbc:derby:" + dbDir.getAbsolutePath() + ";create=true");
+      try
+      {
+         Statement statement = conn.createStatement();
+         try
+         {
+            // the installation_file table, as it was before checksums were recorded
+            statement.execute("CREATE TABLE installation_file (id bigint not null, package_name varchar(255) not null, "
+                  + "fileName varchar(255) not null, installedPath varchar(255) not null, fileType varchar(255))");
+            statement.execute("INSERT INTO installation_file VALUES (1, 'old-package', 'dummy.jar', 'common/lib', null)");
+
+            DBUtil.upgradeSchema(conn);
+
+            ResultSet result = statement.executeQuery("SELECT fileName, checksum FROM installation_file");
+            try
+            {
+               Assert.assertTrue("Existing record was lost during upgrade", result.next());
+               Assert.assertEquals("Unexpected file name", "dummy.jar", result.getString(1));
+               Assert.assertNull("Existing record has a checksum", result.getString(2));
+            }
+            finally
+            {
+               result.close();
+            }
+            Assert.assertFalse("Checksum column was added again", DBUtil.addColumnIfAbsent(conn,
+                  "installation_file", "checksum", "varchar(64)"));
+            Assert.assertFalse("Column was added to a non-existent table", DBUtil.addColumnIfAbsent(conn,
+                  "no_such_table", "checksum", "varchar(64)"));
+         }
+         finally
+         {
+            statement.close();
+         }
+      }
+      finally
+      {
+         conn.close();
+      }
+   }
+}
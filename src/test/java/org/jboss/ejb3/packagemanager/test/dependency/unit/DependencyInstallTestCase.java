@@ -29,6 +29,7 @@ import java.util.List;
 import org.jboss.ejb3.packagemanager.PackageManager;
 import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
 import org.jboss.ejb3.packagemanager.PackageManagerFactory;
+import org.jboss.ejb3.packagemanager.impl.DefaultPackageContext;
 import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
 import org.jboss.logging.Logger;
 import org.jboss.shrinkwrap.api.spec.JavaArchive;
@@ -127,6 +128,35 @@ public class DependencyInstallTestCase extends PackageManagerTestCase
 
    }
 
+   /**
+    * Tests that a package containing multiple packaged dependencies is installed correctly
+    * when the dependency packages are processed concurrently
+    *  
+    * @throws Exception
+    */
+   @Test
+   public void testConcurrentPackagedDependencyResolution() throws Exception
+   {
+      File packageToInstall = this
+            .createPackageWithMultiplePackagedDependencies("package-with-concurrently-resolved-dependencies");
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(DefaultPackageContext.PROPERTY_DEPENDENCY_THREADS, "3");
+      try
+      {
+         this.pkgMgr.installPackage(packageToInstall.toURI().toURL());
+      }
+      finally
+      {
+         env.setProperty(DefaultPackageContext.PROPERTY_DEPENDENCY_THREADS, "1");
+      }
+
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/deployers/dummy1.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/deployers/dummy2.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/deployers/dummy3.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "bin/kilroy-was-here-again.txt");
+   }
+
    /**
     * 
     * @throws Exception
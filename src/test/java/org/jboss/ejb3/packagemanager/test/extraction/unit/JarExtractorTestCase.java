@@ -0,0 +1,319 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.extraction.unit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
+import org.jboss.ejb3.packagemanager.util.DigestMemo;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.ExtractionStatistics;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.ejb3.packagemanager.util.JarExtractor;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JarExtractorTestCase
+ *
+ * Tests that the {@link JarExtractor} (and the {@link IOUtil} copy methods) write out 
+ * exactly the contents of the archive, even when the contents are larger than the 
+ * (reused) copy buffer
+ * 
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class JarExtractorTestCase extends PackageManagerTestCase
+{
+
+   /**
+    * A small buffer, so that the entries span several reads through the same buffer
+    */
+   private static final int BUFFER_SIZE = 1024;
+
+   /**
+    * The dir in which the archive is created and extracted in each test
+    */
+   private File workDir;
+
+   @Before
+   public void before() throws Exception
+   {
+      this.workDir = new File(getPerTestTargetDir(this.getClass()), "work");
+      IOUtil.delete(this.workDir);
+      this.workDir.mkdirs();
+   }
+
+   /**
+    * Tests that the extracted tree has exactly the entries of the archive
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testExtractedTreeMatchesArchive() throws Exception
+   {
+      Map<String, byte[]> entries = createEntries(new Random(1));
+      File jarFile = createJar(new File(this.workDir, "test.jar"), entries);
+      File destDir = new File(this.workDir, "extracted");
+
+      JarFile jar = new JarFile(jarFile);
+      ExtractionStatistics stats = null;
+      try
+      {
+         stats = new JarExtractor(BUFFER_SIZE).extract(jar, destDir);
+      }
+      finally
+      {
+         jar.close();
+      }
+      assertTree(entries, destDir);
+      Assert.assertEquals("Unexpected number of extracted files", entries.size(), stats.getFileCount());
+      Assert.assertEquals("Unexpected number of extracted bytes", totalSize(entries), stats.getBytes());
+   }
+
+   /**
+    * Tests that extracting the archive while it's being read from a stream results in the 
+    * same tree as extracting the archive file
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testStreamExtractionMatchesArchive() throws Exception
+   {
+      Map<String, byte[]> entries = createEntries(new Random(2));
+      File jarFile = createJar(new File(this.workDir, "test.jar"), entries);
+      File destDir = new File(this.workDir, "extracted");
+
+      InputStream is = new FileInputStream(jarFile);
+      ExtractionStatistics stats = null;
+      try
+      {
+         stats = new JarExtractor(BUFFER_SIZE).extract(is, destDir);
+         Assert.assertEquals("Archive stream was not completely read", -1, is.read());
+      }
+      finally
+      {
+         is.close();
+      }
+      assertTree(entries, destDir);
+      Assert.assertEquals("Unexpected number of extracted files", entries.size(), stats.getFileCount());
+   }
+
+   /**
+    * Tests that the digests of the extracted files, which are computed while the files 
+    * are written, are the digests of their contents
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testExtractionRemembersDigests() throws Exception
+   {
+      Map<String, byte[]> entries = createEntries(new Random(3));
+      File jarFile = createJar(new File(this.workDir, "test.jar"), entries);
+      File destDir = new File(this.workDir, "extracted");
+
+      JarFile jar = new JarFile(jarFile);
+      try
+      {
+         new JarExtractor(BUFFER_SIZE).extract(jar, destDir);
+      }
+      finally
+      {
+         jar.close();
+      }
+      long hits = DigestMemo.getHits();
+      for (String name : entries.keySet())
+      {
+         File file = new File(destDir, name);
+         Assert.assertEquals("Unexpected digest for " + name, DigestUtil.sha256(file), DigestMemo.sha256(file));
+      }
+      Assert.assertEquals("Digests of the extracted files were not remembered", hits + entries.size(), DigestMemo
+            .getHits());
+   }
+
+   /**
+    * Tests that copying several streams through the same buffer copies each of them
+    * completely and without any leftovers of the previous copy
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testCopyReusesBuffer() throws Exception
+   {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      Random random = new Random(4);
+      // sizes below, at and above the size of the buffer, in decreasing order so that
+      // any stale content in the buffer would show up
+      int[] sizes =
+      {10 * BUFFER_SIZE + 7, 3 * BUFFER_SIZE, BUFFER_SIZE + 1, BUFFER_SIZE, BUFFER_SIZE - 1, 1, 0};
+      for (int size : sizes)
+      {
+         byte[] content = new byte[size];
+         random.nextBytes(content);
+         ByteArrayOutputStream bos = new ByteArrayOutputStream();
+         long copied = IOUtil.copy(new ByteArrayInputStream(content), bos, buffer);
+         Assert.assertEquals("Unexpected number of bytes copied", size, copied);
+         Assert.assertTrue("Unexpected content copied for size " + size, Arrays.equals(content, bos.toByteArray()));
+      }
+   }
+
+   /**
+    * Tests that a stream and a file are copied completely to a file
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testCopyToFile() throws Exception
+   {
+      byte[] content = new byte[5 * JarExtractor.DEFAULT_BUFFER_SIZE + 11];
+      new Random(5).nextBytes(content);
+      File copy = new File(this.workDir, "copy.bin");
+      Assert.assertEquals("Unexpected number of bytes copied", content.length, IOUtil.copy(
+            new ByteArrayInputStream(content), copy));
+      Assert.assertTrue("Unexpected content copied", Arrays.equals(content, read(copy)));
+
+      File copyOfCopy = new File(this.workDir, "copy-of-copy.bin");
+      IOUtil.copy(copy, copyOfCopy);
+      Assert.assertTrue("Unexpected content copied", Arrays.equals(content, read(copyOfCopy)));
+   }
+
+   /**
+    * Returns the contents of a test archive keyed by the entry name. The contents include
+    * nested directories and empty, small and larger-than-the-buffer files
+    */
+   static Map<String, byte[]> createEntries(Random random)
+   {
+      Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+      entries.put("empty.txt", new byte[0]);
+      entries.put("buffer-sized.bin", randomBytes(random, BUFFER_SIZE));
+      entries.put("lib/large.jar", randomBytes(random, 20 * BUFFER_SIZE + 3));
+      for (int i = 0; i < 50; i++)
+      {
+         entries.put("conf/" + (i % 5) + "/nested/file" + i + ".xml", randomBytes(random, random.nextInt(3 * BUFFER_SIZE)));
+      }
+      return entries;
+   }
+
+   /**
+    * Writes out the <code>entries</code> to the <code>jarFile</code>. Directory entries
+    * are written only for some of the directories, like in archives created by various tools.
+    */
+   static File createJar(File jarFile, Map<String, byte[]> entries) throws IOException
+   {
+      JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile));
+      try
+      {
+         jos.putNextEntry(new JarEntry("conf/"));
+         jos.closeEntry();
+         for (Map.Entry<String, byte[]> entry : entries.entrySet())
+         {
+            jos.putNextEntry(new JarEntry(entry.getKey()));
+            jos.write(entry.getValue());
+            jos.closeEntry();
+         }
+      }
+      finally
+      {
+         jos.close();
+      }
+      return jarFile;
+   }
+
+   /**
+    * Asserts that the <code>dir</code> contains exactly the files (and the contents) of 
+    * the <code>entries</code>
+    */
+   static void assertTree(Map<String, byte[]> entries, File dir) throws IOException
+   {
+      Map<String, byte[]> extracted = new HashMap<String, byte[]>();
+      readTree(dir, "", extracted);
+      Assert.assertEquals("Unexpected files extracted", entries.keySet(), extracted.keySet());
+      for (Map.Entry<String, byte[]> entry : entries.entrySet())
+      {
+         Assert.assertTrue("Unexpected content in " + entry.getKey(), Arrays.equals(entry.getValue(), extracted
+               .get(entry.getKey())));
+      }
+   }
+
+   private static void readTree(File dir, String path, Map<String, byte[]> files) throws IOException
+   {
+      for (File child : dir.listFiles())
+      {
+         String childPath = path + child.getName();
+         if (child.isDirectory())
+         {
+            readTree(child, childPath + "/", files);
+         }
+         else
+         {
+            files.put(childPath, read(child));
+         }
+      }
+   }
+
+   private static byte[] read(File file) throws IOException
+   {
+      InputStream is = new FileInputStream(file);
+      try
+      {
+         ByteArrayOutputStream bos = new ByteArrayOutputStream();
+         IOUtil.copy(is, bos, new byte[BUFFER_SIZE]);
+         return bos.toByteArray();
+      }
+      finally
+      {
+         is.close();
+      }
+   }
+
+   private static byte[] randomBytes(Random random, int size)
+   {
+      byte[] bytes = new byte[size];
+      random.nextBytes(bytes);
+      return bytes;
+   }
+
+   private static long totalSize(Map<String, byte[]> entries)
+   {
+      long size = 0;
+      for (byte[] content : entries.values())
+      {
+         size += content.length;
+      }
+      return size;
+   }
+}
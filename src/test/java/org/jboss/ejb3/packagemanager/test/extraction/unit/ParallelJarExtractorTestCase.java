@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.extraction.unit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
+import org.jboss.ejb3.packagemanager.util.ExtractionStatistics;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.ejb3.packagemanager.util.JarExtractor;
+import org.jboss.ejb3.packagemanager.util.ParallelJarExtractor;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ParallelJarExtractorTestCase
+ *
+ * Tests that extracting an archive on several threads, through the {@link ParallelJarExtractor},
+ * results in the same tree as extracting it sequentially
+ * 
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class ParallelJarExtractorTestCase extends PackageManagerTestCase
+{
+
+   private static final int THREADS = 4;
+
+   /**
+    * The dir in which the archive is created and extracted in each test
+    */
+   private File workDir;
+
+   @Before
+   public void before() throws Exception
+   {
+      this.workDir = new File(getPerTestTargetDir(this.getClass()), "work");
+      IOUtil.delete(this.workDir);
+      this.workDir.mkdirs();
+   }
+
+   /**
+    * Tests that the parallel extraction results in the same tree (and statistics) as 
+    * the sequential extraction
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testParallelExtractionMatchesSequential() throws Exception
+   {
+      Map<String, byte[]> entries = JarExtractorTestCase.createEntries(new Random(10));
+      File jarFile = JarExtractorTestCase.createJar(new File(this.workDir, "test.jar"), entries);
+
+      File sequentialDir = new File(this.workDir, "sequential");
+      JarFile jar = new JarFile(jarFile);
+      ExtractionStatistics sequentialStats = null;
+      try
+      {
+         sequentialStats = new JarExtractor().extract(jar, sequentialDir);
+      }
+      finally
+      {
+         jar.close();
+      }
+      File parallelDir = new File(this.workDir, "parallel");
+      ExtractionStatistics parallelStats = new ParallelJarExtractor(THREADS).extract(jarFile, parallelDir);
+
+      JarExtractorTestCase.assertTree(entries, sequentialDir);
+      JarExtractorTestCase.assertTree(entries, parallelDir);
+      Assert.assertEquals("Unexpected number of extracted files", sequentialStats.getFileCount(), parallelStats
+            .getFileCount());
+      Assert.assertEquals("Unexpected number of extracted bytes", sequentialStats.getBytes(), parallelStats
+            .getBytes());
+      Assert.assertEquals("Unexpected number of created directories", sequentialStats.getDirectoryCount(),
+            parallelStats.getDirectoryCount());
+   }
+
+   /**
+    * Tests that an archive with fewer files than threads (which is extracted in the calling
+    * thread) is completely extracted
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testExtractionOfFewFiles() throws Exception
+   {
+      Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+      entries.put("lib/a.jar", new byte[]
+      {1, 2, 3});
+      entries.put("b.txt", new byte[0]);
+      File jarFile = JarExtractorTestCase.createJar(new File(this.workDir, "test.jar"), entries);
+      File destDir = new File(this.workDir, "extracted");
+      new ParallelJarExtractor(THREADS).extract(jarFile, destDir);
+      JarExtractorTestCase.assertTree(entries, destDir);
+   }
+
+   /**
+    * Tests that the excluded entries are not extracted
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testExcludedEntriesAreNotExtracted() throws Exception
+   {
+      Map<String, byte[]> entries = JarExtractorTestCase.createEntries(new Random(11));
+      File jarFile = JarExtractorTestCase.createJar(new File(this.workDir, "test.jar"), entries);
+      Set<String> excluded = new HashSet<String>();
+      excluded.add("lib/large.jar");
+      excluded.add("conf/0/nested/file0.xml");
+      File destDir = new File(this.workDir, "extracted");
+      new ParallelJarExtractor(THREADS).extract(jarFile, destDir, excluded);
+
+      entries.keySet().removeAll(excluded);
+      JarExtractorTestCase.assertTree(entries, destDir);
+   }
+
+   /**
+    * Tests that a failure to extract an entry on one of the extraction threads is reported
+    * to the caller
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testFailureOnExtractionThreadIsReported() throws Exception
+   {
+      Map<String, byte[]> entries = JarExtractorTestCase.createEntries(new Random(12));
+      File jarFile = JarExtractorTestCase.createJar(new File(this.workDir, "test.jar"), entries);
+      File destDir = new File(this.workDir, "extracted");
+      // a directory in place of one of the files, so that the file can't be written
+      new File(destDir, "lib/large.jar").mkdirs();
+      try
+      {
+         new ParallelJarExtractor(THREADS).extract(jarFile, destDir);
+         Assert.fail("Extraction to " + destDir + " was expected to fail");
+      }
+      catch (IOException expected)
+      {
+         // expected
+      }
+   }
+}
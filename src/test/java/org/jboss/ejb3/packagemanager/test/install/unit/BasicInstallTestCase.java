@@ -22,17 +22,58 @@
 
 package org.jboss.ejb3.packagemanager.test.install.unit;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
 
+import org.jboss.ejb3.packagemanager.PackageContext;
 import org.jboss.ejb3.packagemanager.PackageManager;
 import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
 import org.jboss.ejb3.packagemanager.PackageManagerFactory;
+import org.jboss.ejb3.packagemanager.cache.DownloadCache;
+import org.jboss.ejb3.packagemanager.cache.ExtractionCache;
+import org.jboss.ejb3.packagemanager.cache.MetadataCache;
+import org.jboss.ejb3.packagemanager.exception.ChecksumMismatchException;
+import org.jboss.ejb3.packagemanager.exception.PackageManagerException;
+import org.jboss.ejb3.packagemanager.impl.DefaultPackageContext;
+import org.jboss.ejb3.packagemanager.impl.DefaultPackageManagerContext;
+import org.jboss.ejb3.packagemanager.impl.DefaultPackageManagerImpl;
+import org.jboss.ejb3.packagemanager.installer.CopyStrategyFactory;
+import org.jboss.ejb3.packagemanager.mirror.MirrorSelector;
+import org.jboss.ejb3.packagemanager.retriever.impl.HttpDownloader;
+import org.jboss.ejb3.packagemanager.retriever.impl.MemoryPackageRetriever;
 import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
+import org.jboss.ejb3.packagemanager.throttle.Throttle;
+import org.jboss.ejb3.packagemanager.util.DigestMemo;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
 import org.jboss.logging.Logger;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.shrinkwrap.api.spec.JavaArchiveFactory;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 /**
  * Tests the basic install feature of the package manager
  * 
@@ -172,4 +213,1218 @@ public class BasicInstallTestCase extends PackageManagerTestCase
       this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
    }
 
+   /**
+    * Tests that in the selective extraction mode, the files to be installed are
+    * installed straight from the package, without being extracted to the package 
+    * manager's build folder. The pre-install script, on the other hand, is expected
+    * to be extracted and run. The build folder is deleted once the install completes.
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testSelectiveExtractionInstall() throws Exception
+   {
+      String packageName = "selective-extraction-test-package";
+      File pkg = this.createPackageWithPreInstallScript(packageName);
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(DefaultPackageContext.PROPERTY_EXTRACTION_MODE, DefaultPackageContext.EXTRACTION_MODE_SELECTIVE);
+      try
+      {
+         // the build folder lives only as long as its lease, so look into it before it's released
+         PackageContext pkgCtx = new DefaultPackageContext(new DefaultPackageManagerContext(pkgMgr), pkg.toURI()
+               .toURL());
+         File pkgRoot = pkgCtx.getPackageRoot();
+         try
+         {
+            Assert.assertTrue("Pre-install script not extracted to " + pkgRoot, new File(pkgRoot, "build.xml")
+                  .exists());
+            Assert.assertFalse("dummy.jar unexpectedly extracted to " + pkgRoot, new File(pkgRoot, "dummy.jar")
+                  .exists());
+         }
+         finally
+         {
+            pkgCtx.release();
+            pkgMgr.getWorkspaceManager().release(pkgRoot);
+         }
+         Assert.assertFalse("Released build folder " + pkgRoot + " not deleted", pkgRoot.exists());
+
+         pkgMgr.installPackage(pkg.getAbsolutePath());
+      }
+      finally
+      {
+         env.setProperty(DefaultPackageContext.PROPERTY_EXTRACTION_MODE, DefaultPackageContext.EXTRACTION_MODE_FULL);
+      }
+      // the file was installed and the pre-install script was run
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/deploy/dummy.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "bin/test.txt");
+      // and nothing of the install was left behind in the build folder
+      List<File> pkgRoots = this.getBuildDirectories(env, pkg.getName());
+      Assert.assertTrue("Build folders left behind " + pkgRoots, pkgRoots.isEmpty());
+   }
+
+   /**
+    * Tests that with the extraction cache enabled, the package is extracted
+    * to the cache (instead of the build folder) and is installed from there
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallWithExtractionCache() throws Exception
+   {
+      File pkg = this.createSimplePackage("extraction-cache-test-package");
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(ExtractionCache.PROPERTY_CACHE_ENABLED, "true");
+      try
+      {
+         pkgMgr.installPackage(pkg.toURI().toURL());
+      }
+      finally
+      {
+         env.setProperty(ExtractionCache.PROPERTY_CACHE_ENABLED, "false");
+      }
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+
+      File cachedTree = new File(env.getPackageManagerHome(), "cache/extracted/" + DigestUtil.sha256(pkg));
+      Assert.assertTrue("Package not extracted to cache at " + cachedTree, new File(cachedTree, "package.xml")
+            .exists());
+      Assert.assertTrue("Package unexpectedly extracted to build folder", this.getBuildDirectories(env,
+            pkg.getName()).isEmpty());
+   }
+
+   /**
+    * Tests that the files of a package are installed with the content of the package when they
+    * are copied through the transfer copy strategy
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallWithTransferCopyStrategy() throws Exception
+   {
+      File pkg = this.createSimplePackage("transfer-copy-strategy-test-package");
+      File installedFile = new File(jbossHome, "common/lib/dummy.jar");
+      // make sure the file is really installed and not skipped as unchanged
+      installedFile.delete();
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(CopyStrategyFactory.PROPERTY_COPY_STRATEGY, CopyStrategyFactory.TRANSFER);
+      try
+      {
+         pkgMgr.installPackage(pkg.getAbsolutePath());
+      }
+      finally
+      {
+         env.setProperty(CopyStrategyFactory.PROPERTY_COPY_STRATEGY, CopyStrategyFactory.TRANSFER);
+      }
+      Assert.assertEquals("Unexpected content installed", DigestUtil.sha256(this.createDummyJar()), DigestUtil
+            .sha256(installedFile));
+   }
+
+   /**
+    * Tests that the files of a package are installed with the content of the package when they
+    * are installed through the hard link copy strategy, and that the files installed from the 
+    * extraction cache are not linked to the cached files (an edit of the installed file must not 
+    * change the cache)
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallWithHardLinkCopyStrategy() throws Exception
+   {
+      File pkg = this.createSimplePackage("hardlink-copy-strategy-test-package");
+      File installedFile = new File(jbossHome, "common/lib/dummy.jar");
+      installedFile.delete();
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(CopyStrategyFactory.PROPERTY_COPY_STRATEGY, CopyStrategyFactory.HARD_LINK);
+      env.setProperty(ExtractionCache.PROPERTY_CACHE_ENABLED, "true");
+      try
+      {
+         pkgMgr.installPackage(pkg.getAbsolutePath());
+      }
+      finally
+      {
+         env.setProperty(CopyStrategyFactory.PROPERTY_COPY_STRATEGY, CopyStrategyFactory.TRANSFER);
+         env.setProperty(ExtractionCache.PROPERTY_CACHE_ENABLED, "false");
+      }
+      String expectedChecksum = DigestUtil.sha256(this.createDummyJar());
+      Assert.assertEquals("Unexpected content installed", expectedChecksum, DigestUtil.sha256(installedFile));
+
+      // edit the installed file and make sure the cached file is left as is
+      FileWriter writer = new FileWriter(installedFile, true);
+      try
+      {
+         writer.write("edited");
+      }
+      finally
+      {
+         writer.close();
+      }
+      File cachedFile = new File(env.getPackageManagerHome(), "cache/extracted/" + DigestUtil.sha256(pkg)
+            + "/dummy.jar");
+      Assert.assertTrue("Package not extracted to cache at " + cachedFile, cachedFile.exists());
+      Assert.assertEquals("Edit of the installed file changed the cached file", expectedChecksum, DigestUtil
+            .sha256(cachedFile));
+      installedFile.delete();
+   }
+
+   /**
+    * Tests that the files of a package are installed correctly when they are
+    * installed on multiple threads, and that files sharing the same destination
+    * are installed in the order in which they are listed in the package.xml
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testParallelFileInstall() throws Exception
+   {
+      File pkgFile = this.createPackageWithMultipleInstallFiles("parallel-install-test-package");
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(DefaultPackageManagerImpl.PROPERTY_INSTALL_THREADS, "4");
+      try
+      {
+         pkgMgr.installPackage(pkgFile.getAbsolutePath());
+      }
+      finally
+      {
+         env.setProperty(DefaultPackageManagerImpl.PROPERTY_INSTALL_THREADS, "1");
+      }
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/lib/dummy.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/deploy/dummy.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "bin/notes.txt");
+      BufferedReader reader = new BufferedReader(new FileReader(new File(jbossHome, "bin/notes.txt")));
+      try
+      {
+         Assert.assertEquals("Files with the same destination installed out of order", "second", reader.readLine());
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+   /**
+    * Tests that the files of a package are installed, in the order in which they are listed
+    * in the package.xml, and recorded when they are streamed through the installation a few 
+    * files at a time, and that such a package can be removed
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallWithStreamedFiles() throws Exception
+   {
+      String packageName = "streamed-files-test-package";
+      File pkgFile = this.createPackageWithMultipleInstallFiles(packageName);
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(DefaultPackageContext.PROPERTY_STREAMING_FILES, "true");
+      env.setProperty(DefaultPackageManagerImpl.PROPERTY_STREAMING_BATCH_SIZE, "2");
+      try
+      {
+         pkgMgr.installPackage(pkgFile.getAbsolutePath());
+      }
+      finally
+      {
+         env.setProperty(DefaultPackageContext.PROPERTY_STREAMING_FILES, "false");
+         env.setProperty(DefaultPackageManagerImpl.PROPERTY_STREAMING_BATCH_SIZE, String
+               .valueOf(DefaultPackageManagerImpl.DEFAULT_STREAMING_BATCH_SIZE));
+      }
+      Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/lib/dummy.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/deploy/dummy.jar");
+      BufferedReader reader = new BufferedReader(new FileReader(new File(jbossHome, "bin/notes.txt")));
+      try
+      {
+         Assert.assertEquals("Streamed files installed out of order", "second", reader.readLine());
+      }
+      finally
+      {
+         reader.close();
+      }
+
+      // the files are removed only if they were all recorded
+      pkgMgr.removePackage(packageName);
+      this.assertFileAbsenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+      this.assertFileAbsenceUnderJBossHome(jbossHome, "server/default/lib/dummy.jar");
+      this.assertFileAbsenceUnderJBossHome(jbossHome, "server/default/deploy/dummy.jar");
+      this.assertFileAbsenceUnderJBossHome(jbossHome, "bin/notes.txt");
+   }
+
+   /**
+    * Tests that the installation of a package whose files are streamed fails, and doesn't
+    * leave the package.xml parser behind, when a file fails to install while the parser is
+    * blocked a few files ahead of the installation
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallWithStreamedFilesFailingMidStream() throws Exception
+   {
+      String packageName = "streamed-failing-file-test-package";
+      File dummyJar = this.createDummyJar();
+      File pkgFile = new File(getPerTestTargetDir(this.getClass()), packageName + JAR_SUFFIX);
+      JavaArchive pkg = JavaArchiveFactory.create(pkgFile.getName());
+      pkg.addResource("dummy.jar", dummyJar);
+      URL packageXmlURL = this.getResource(this.getClass(), "package-with-failing-install-file.xml");
+      pkg.addResource("package.xml", this.processPackageXml(new File(packageXmlURL.getFile()), packageName,
+            DEFAULT_PACKAGE_VERSION));
+      this.exportZip(pkg, pkgFile);
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(DefaultPackageContext.PROPERTY_STREAMING_FILES, "true");
+      // a single file on the queue, so that the parser blocks with the rest of the files pending
+      env.setProperty(DefaultPackageManagerImpl.PROPERTY_STREAMING_BATCH_SIZE, "1");
+      try
+      {
+         pkgMgr.installPackage(pkgFile.getAbsolutePath());
+         Assert.fail("Package with a file which can't be installed was installed");
+      }
+      catch (PackageManagerException pme)
+      {
+         // expected
+      }
+      finally
+      {
+         env.setProperty(DefaultPackageContext.PROPERTY_STREAMING_FILES, "false");
+         env.setProperty(DefaultPackageManagerImpl.PROPERTY_STREAMING_BATCH_SIZE, String
+               .valueOf(DefaultPackageManagerImpl.DEFAULT_STREAMING_BATCH_SIZE));
+      }
+      Assert.assertFalse("Package with a file which can't be installed was recorded", pkgMgr
+            .getAllInstalledPackages().contains(packageName));
+      for (Thread thread : Thread.getAllStackTraces().keySet())
+      {
+         Assert.assertFalse("package.xml parser still running after the installation failed", thread.getName()
+               .equals("package-xml-parser-" + packageName)
+               && thread.isAlive());
+      }
+   }
+
+   /**
+    * Tests that a package whose files are streamed is rejected, without installing any of 
+    * its files, when its files don't match the checksums declared in the package.xml 
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallWithStreamedFilesVerifiesDeclaredChecksums() throws Exception
+   {
+      File notes = new File(getPerTestTargetDir(this.getClass()), "streamed-checksum-notes.txt");
+      this.writeText(notes, "the genuine notes");
+      String checksum = DigestUtil.sha256(notes);
+      String packageName = "streamed-corrupt-checksum-test-package";
+      File corruptPackage = this.createPackageWithDeclaredChecksum(packageName, notes, checksum.replace(checksum
+            .charAt(0), checksum.charAt(0) == 'a' ? 'b' : 'a'));
+      // the file might have been installed by a genuine package in another test
+      File installedNotes = new File(jbossHome, "bin/checksum-notes.txt");
+      installedNotes.delete();
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(DefaultPackageContext.PROPERTY_STREAMING_FILES, "true");
+      try
+      {
+         pkgMgr.installPackage(corruptPackage.getAbsolutePath());
+         Assert.fail("Package with a checksum mismatch was installed");
+      }
+      catch (ChecksumMismatchException cme)
+      {
+         // expected
+      }
+      finally
+      {
+         env.setProperty(DefaultPackageContext.PROPERTY_STREAMING_FILES, "false");
+      }
+      Assert.assertFalse("Package with a checksum mismatch was recorded", pkgMgr.getAllInstalledPackages()
+            .contains(packageName));
+      Assert.assertFalse("File of corrupt package was installed", installedNotes.exists());
+   }
+
+   /**
+    * Tests that a file which is already present at its destination, with the same 
+    * content, is not rewritten during the installation of a package
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallSkipsUnchangedFile() throws Exception
+   {
+      // both the packages install the same dummy.jar to JBOSS_HOME/common/lib
+      File firstPackage = this.createSimplePackage("skip-unchanged-test-package-1");
+      pkgMgr.installPackage(firstPackage.getAbsolutePath());
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+
+      // move the last modified time of the installed file to the past, so that
+      // a rewrite of the file can be detected
+      File installedFile = new File(jbossHome, "common/lib/dummy.jar");
+      long lastModified = (System.currentTimeMillis() - 24 * 60 * 60 * 1000) / 1000 * 1000;
+      installedFile.setLastModified(lastModified);
+
+      File secondPackage = this.createSimplePackage("skip-unchanged-test-package-2");
+      pkgMgr.installPackage(secondPackage.getAbsolutePath());
+      Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(
+            "skip-unchanged-test-package-2"));
+      Assert.assertEquals("Unchanged file was rewritten", lastModified, installedFile.lastModified());
+   }
+
+   /**
+    * Tests that a file which was edited at its destination, without its size or last 
+    * modified time changing, is not mistaken for an unchanged file because its 
+    * digest was known from before the edit
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallOverwritesFileEditedInPlace() throws Exception
+   {
+      File firstPackage = this.createSimplePackage("edited-in-place-test-package-1");
+      pkgMgr.installPackage(firstPackage.getAbsolutePath());
+      File installedFile = new File(jbossHome, "common/lib/dummy.jar");
+      String installedDigest = DigestUtil.sha256(installedFile);
+      // make sure the digest of the installed file is remembered
+      DigestMemo.sha256(installedFile);
+
+      // overwrite the content with garbage of the same size, keeping the last modified time
+      long lastModified = installedFile.lastModified();
+      byte[] garbage = new byte[(int) installedFile.length()];
+      Arrays.fill(garbage, (byte) 'x');
+      IOUtil.copy(new ByteArrayInputStream(garbage), installedFile);
+      installedFile.setLastModified(lastModified);
+
+      File secondPackage = this.createSimplePackage("edited-in-place-test-package-2");
+      pkgMgr.installPackage(secondPackage.getAbsolutePath());
+      Assert.assertEquals("Edited file was not reinstalled", installedDigest, DigestUtil.sha256(installedFile));
+   }
+
+   /**
+    * Tests that a package retrieved over HTTP is stored in the download cache and that
+    * a subsequent retrieval of the same URL is revalidated with a conditional request
+    * and served from the cache
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testHttpInstallWithDownloadCache() throws Exception
+   {
+      String packageName = "download-cache-test-package";
+      final File pkg = this.createSimplePackage(packageName);
+      final String etag = "\"" + DigestUtil.sha256(pkg) + "\"";
+      final List<Integer> responseCodes = Collections.synchronizedList(new ArrayList<Integer>());
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            if (exchange.getRequestURI().getPath().endsWith(HttpDownloader.CHECKSUM_SUFFIX))
+            {
+               exchange.sendResponseHeaders(404, -1);
+               exchange.close();
+               return;
+            }
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+            {
+               responseCodes.add(304);
+               exchange.sendResponseHeaders(304, -1);
+               exchange.close();
+               return;
+            }
+            responseCodes.add(200);
+            exchange.sendResponseHeaders(200, pkg.length());
+            OutputStream os = exchange.getResponseBody();
+            InputStream is = new FileInputStream(pkg);
+            try
+            {
+               IOUtil.copy(is, os, new byte[8192]);
+            }
+            finally
+            {
+               is.close();
+               os.close();
+            }
+         }
+      });
+      server.start();
+      try
+      {
+         String packageURL = "http://127.0.0.1:" + server.getAddress().getPort() + "/" + pkg.getName();
+         DownloadCache downloadCache = DownloadCache.getDownloadCache(pkgMgr.getPackageManagerEnvironment());
+         long hits = downloadCache.getHits();
+
+         pkgMgr.installPackage(packageURL);
+         this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+         pkgMgr.removePackage(packageName);
+
+         // the second retrieval is served from the cache
+         pkgMgr.installPackage(packageURL);
+         Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+         Assert.assertEquals("Unexpected responses from server", Arrays.asList(200, 304), responseCodes);
+         Assert.assertEquals("Package not served from download cache", hits + 1, downloadCache.getHits());
+      }
+      finally
+      {
+         server.stop(0);
+      }
+   }
+
+   /**
+    * Tests that a HTTP download which is interrupted midway is resumed from where it
+    * stopped, through a range request, and that the package is verified against the 
+    * checksum published by the server
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testHttpInstallResumesInterruptedDownload() throws Exception
+   {
+      String packageName = "resumed-download-test-package";
+      File pkg = this.createSimplePackage(packageName);
+      final byte[] content = new byte[(int) pkg.length()];
+      DataInputStream is = new DataInputStream(new FileInputStream(pkg));
+      try
+      {
+         is.readFully(content);
+      }
+      finally
+      {
+         is.close();
+      }
+      final String checksum = DigestUtil.sha256(pkg);
+      final List<String> requestedRanges = Collections.synchronizedList(new ArrayList<String>());
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            if (exchange.getRequestURI().getPath().endsWith(HttpDownloader.CHECKSUM_SUFFIX))
+            {
+               byte[] body = checksum.getBytes("US-ASCII");
+               exchange.sendResponseHeaders(200, body.length);
+               exchange.getResponseBody().write(body);
+               exchange.close();
+               return;
+            }
+            exchange.getResponseHeaders().set("ETag", "\"" + checksum + "\"");
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            requestedRanges.add(String.valueOf(range));
+            OutputStream os = exchange.getResponseBody();
+            if (range == null)
+            {
+               // send just half of the package and drop the connection
+               exchange.sendResponseHeaders(200, content.length);
+               os.write(content, 0, content.length / 2);
+               os.flush();
+               exchange.close();
+               return;
+            }
+            int start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            exchange.getResponseHeaders().set("Content-Range",
+                  "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, content.length - start);
+            os.write(content, start, content.length - start);
+            os.close();
+         }
+      });
+      server.start();
+      try
+      {
+         pkgMgr.installPackage("http://127.0.0.1:" + server.getAddress().getPort() + "/" + pkg.getName());
+         Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+         Assert.assertEquals("Unexpected requests for the package", Arrays.asList("null", "bytes="
+               + content.length / 2 + "-"), requestedRanges);
+      }
+      finally
+      {
+         server.stop(0);
+      }
+   }
+
+   /**
+    * Tests that a partial download, left behind by an earlier retrieval of a package 
+    * which has since changed on the server, is discarded (rather than being digested along 
+    * with the new package) when the server responds with the whole package
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testHttpInstallRestartsChangedDownload() throws Exception
+   {
+      String packageName = "changed-download-test-package";
+      final File pkg = this.createSimplePackage(packageName);
+      final String checksum = DigestUtil.sha256(pkg);
+      final String etag = "\"" + checksum + "\"";
+      final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith(HttpDownloader.CHECKSUM_SUFFIX))
+            {
+               byte[] body = checksum.getBytes("US-ASCII");
+               exchange.sendResponseHeaders(200, body.length);
+               exchange.getResponseBody().write(body);
+               exchange.close();
+               return;
+            }
+            if (!path.endsWith(JAR_SUFFIX))
+            {
+               exchange.sendResponseHeaders(404, -1);
+               exchange.close();
+               return;
+            }
+            requests.add(exchange.getRequestHeaders().getFirst("Range") + " "
+                  + exchange.getRequestHeaders().getFirst("If-Range"));
+            // the package has changed since the partial download, so the If-Range doesn't match
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(200, pkg.length());
+            InputStream is = new FileInputStream(pkg);
+            OutputStream os = exchange.getResponseBody();
+            try
+            {
+               IOUtil.copy(is, os, new byte[8192]);
+            }
+            finally
+            {
+               is.close();
+               os.close();
+            }
+         }
+      });
+      server.start();
+      String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/" + pkg.getName();
+      // the partial download of an older version of the package
+      File partialDir = new File(pkgMgrHome, "cache/partial");
+      partialDir.mkdirs();
+      File partialFile = new File(partialDir, DigestUtil.sha256(url) + ".part");
+      byte[] stale = new byte[1000];
+      Arrays.fill(stale, (byte) 's');
+      IOUtil.copy(new ByteArrayInputStream(stale), partialFile);
+      FileWriter entry = new FileWriter(new File(partialDir, partialFile.getName() + ".properties"));
+      try
+      {
+         entry.write("url=" + url.replace(":", "\\:") + "\n");
+         entry.write("source=" + url.replace(":", "\\:") + "\n");
+         entry.write("etag=\"stale\"\n");
+      }
+      finally
+      {
+         entry.close();
+      }
+      try
+      {
+         pkgMgr.installPackage(url);
+      }
+      finally
+      {
+         server.stop(0);
+      }
+      Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+      Assert.assertEquals("Unexpected requests for the package", Arrays.asList("bytes=" + stale.length
+            + "- \"stale\""), requests);
+      Assert.assertFalse("Partial download was left behind", partialFile.exists());
+   }
+
+   /**
+    * Tests that a package retrieved over HTTP is installed correctly when it's
+    * extracted while it's being retrieved
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testHttpInstallWithStreamingExtraction() throws Exception
+   {
+      String packageName = "streaming-extraction-test-package";
+      final File pkg = this.createSimplePackage(packageName);
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            if (exchange.getRequestURI().getPath().endsWith(HttpDownloader.CHECKSUM_SUFFIX))
+            {
+               exchange.sendResponseHeaders(404, -1);
+               exchange.close();
+               return;
+            }
+            exchange.sendResponseHeaders(200, pkg.length());
+            OutputStream os = exchange.getResponseBody();
+            InputStream is = new FileInputStream(pkg);
+            try
+            {
+               IOUtil.copy(is, os, new byte[8192]);
+            }
+            finally
+            {
+               is.close();
+               os.close();
+            }
+         }
+      });
+      server.start();
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(DefaultPackageContext.PROPERTY_STREAMING_EXTRACTION, "true");
+      try
+      {
+         pkgMgr.installPackage("http://127.0.0.1:" + server.getAddress().getPort() + "/" + pkg.getName());
+      }
+      finally
+      {
+         env.setProperty(DefaultPackageContext.PROPERTY_STREAMING_EXTRACTION, "false");
+         server.stop(0);
+      }
+      Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+   }
+
+   /**
+    * Tests that a package from a mirrored repository is retrieved from the fastest
+    * healthy mirror and that a download which fails midway is started over on another
+    * mirror of the same group (the partial download can only be resumed from the mirror
+    * which served it)
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testHttpInstallFailsOverBetweenMirrors() throws Exception
+   {
+      String packageName = "mirrored-download-test-package";
+      File pkg = this.createSimplePackage(packageName);
+      byte[] content = new byte[(int) pkg.length()];
+      DataInputStream is = new DataInputStream(new FileInputStream(pkg));
+      try
+      {
+         is.readFully(content);
+      }
+      finally
+      {
+         is.close();
+      }
+      String etag = "\"" + DigestUtil.sha256(pkg) + "\"";
+      List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+      HttpServer slowMirror = this.createMirror("slow", 1000, false, content, etag, requests);
+      HttpServer brokenMirror = this.createMirror("broken", 0, true, content, etag, requests);
+      HttpServer goodMirror = this.createMirror("good", 200, false, content, etag, requests);
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(MirrorSelector.PROPERTY_PROBE_INTERVAL, "0");
+      env.setProperty(MirrorSelector.PROPERTY_MIRROR_GROUP_PREFIX + "test", this.getBaseURL(slowMirror) + " "
+            + this.getBaseURL(brokenMirror) + " " + this.getBaseURL(goodMirror));
+      try
+      {
+         pkgMgr.installPackage(this.getBaseURL(slowMirror) + pkg.getName());
+      }
+      finally
+      {
+         env.setProperty(MirrorSelector.PROPERTY_MIRROR_GROUP_PREFIX + "test", "");
+         slowMirror.stop(0);
+         brokenMirror.stop(0);
+         goodMirror.stop(0);
+      }
+      Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+      Assert.assertEquals("Unexpected requests for the package", Arrays.asList("broken null", "good null"),
+            requests);
+   }
+
+   /**
+    * Tests that a package retrieved over HTTP is retrieved no faster than the 
+    * configured network limit
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testThrottledHttpInstall() throws Exception
+   {
+      String packageName = "throttled-download-test-package";
+      final File pkg = this.createSimplePackage(packageName);
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            if (exchange.getRequestURI().getPath().endsWith(HttpDownloader.CHECKSUM_SUFFIX))
+            {
+               exchange.sendResponseHeaders(404, -1);
+               exchange.close();
+               return;
+            }
+            exchange.sendResponseHeaders(200, pkg.length());
+            OutputStream os = exchange.getResponseBody();
+            InputStream is = new FileInputStream(pkg);
+            try
+            {
+               IOUtil.copy(is, os, new byte[8192]);
+            }
+            finally
+            {
+               is.close();
+               os.close();
+            }
+         }
+      });
+      server.start();
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      // allow (almost) no burst, so that retrieving the package takes about a second
+      env.setProperty(Throttle.PROPERTY_NETWORK_RATE, String.valueOf(pkg.length()));
+      env.setProperty(Throttle.PROPERTY_BURST_MILLIS, "1");
+      long start = System.currentTimeMillis();
+      try
+      {
+         pkgMgr.installPackage("http://127.0.0.1:" + server.getAddress().getPort() + "/" + pkg.getName());
+      }
+      finally
+      {
+         env.setProperty(Throttle.PROPERTY_NETWORK_RATE, "0");
+         env.setProperty(Throttle.PROPERTY_BURST_MILLIS, String.valueOf(Throttle.DEFAULT_BURST_MILLIS));
+         server.stop(0);
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+      Assert.assertTrue("Package was retrieved faster than the network limit, in " + elapsed + " ms",
+            elapsed >= 900);
+   }
+
+   /**
+    * Tests that a throttled retrieval which is interrupted is abandoned, instead of being 
+    * retried on another mirror (the interrupt is no fault of the mirror)
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInterruptedHttpInstallDoesNotFailOver() throws Exception
+   {
+      String packageName = "interrupted-download-test-package";
+      File pkg = this.createSimplePackage(packageName);
+      byte[] content = new byte[(int) pkg.length()];
+      DataInputStream is = new DataInputStream(new FileInputStream(pkg));
+      try
+      {
+         is.readFully(content);
+      }
+      finally
+      {
+         is.close();
+      }
+      String etag = "\"" + DigestUtil.sha256(pkg) + "\"";
+      List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+      HttpServer firstMirror = this.createMirror("first", 0, false, content, etag, requests);
+      HttpServer secondMirror = this.createMirror("second", 200, false, content, etag, requests);
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(MirrorSelector.PROPERTY_PROBE_INTERVAL, "0");
+      env.setProperty(MirrorSelector.PROPERTY_MIRROR_GROUP_PREFIX + "test", this.getBaseURL(firstMirror) + " "
+            + this.getBaseURL(secondMirror));
+      // the retrieval takes about a second, most of which is spent waiting for the throttle
+      env.setProperty(Throttle.PROPERTY_NETWORK_RATE, String.valueOf(pkg.length()));
+      env.setProperty(Throttle.PROPERTY_BURST_MILLIS, "1");
+      final Thread installer = Thread.currentThread();
+      Thread interrupter = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               Thread.sleep(500);
+            }
+            catch (InterruptedException ie)
+            {
+               return;
+            }
+            installer.interrupt();
+         }
+      };
+      interrupter.start();
+      try
+      {
+         pkgMgr.installPackage(this.getBaseURL(firstMirror) + pkg.getName());
+         Assert.fail("Interrupted retrieval did not fail");
+      }
+      catch (PackageManagerException pme)
+      {
+         // expected
+      }
+      finally
+      {
+         interrupter.interrupt();
+         interrupter.join();
+         // clear the interrupt, if the install didn't notice it
+         Thread.interrupted();
+         env.setProperty(Throttle.PROPERTY_NETWORK_RATE, "0");
+         env.setProperty(Throttle.PROPERTY_BURST_MILLIS, String.valueOf(Throttle.DEFAULT_BURST_MILLIS));
+         env.setProperty(MirrorSelector.PROPERTY_MIRROR_GROUP_PREFIX + "test", "");
+         firstMirror.stop(0);
+         secondMirror.stop(0);
+      }
+      Assert.assertFalse("Package was installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+      Assert.assertEquals("Unexpected requests for the package", Arrays.asList("first null"), requests);
+   }
+
+   /**
+    * Tests that a package is installed when its files match the checksums declared in 
+    * the package.xml, and is rejected, without installing any of its files, when they don't
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallVerifiesDeclaredChecksums() throws Exception
+   {
+      File notes = new File(getPerTestTargetDir(this.getClass()), "checksum-notes.txt");
+      this.writeText(notes, "the genuine notes");
+      String checksum = DigestUtil.sha256(notes);
+
+      File corruptPackage = this.createPackageWithDeclaredChecksum("corrupt-checksum-test-package", notes,
+            checksum.replace(checksum.charAt(0), checksum.charAt(0) == 'a' ? 'b' : 'a'));
+      try
+      {
+         pkgMgr.installPackage(corruptPackage.getAbsolutePath());
+         Assert.fail("Package with a checksum mismatch was installed");
+      }
+      catch (ChecksumMismatchException cme)
+      {
+         // expected
+      }
+      Assert.assertFalse("File of corrupt package was installed", new File(jbossHome, "bin/checksum-notes.txt")
+            .exists());
+
+      File genuinePackage = this.createPackageWithDeclaredChecksum("genuine-checksum-test-package", notes, checksum);
+      pkgMgr.installPackage(genuinePackage.getAbsolutePath());
+      this.assertFileExistenceUnderJBossHome(jbossHome, "bin/checksum-notes.txt");
+   }
+
+   /**
+    * Tests that a package which doesn't contain a file declared, with a checksum, in its 
+    * package.xml is rejected
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallRejectsMissingDeclaredFile() throws Exception
+   {
+      String packageName = "missing-checksum-file-test-package";
+      File incompletePackage = this.createPackageWithDeclaredChecksum(packageName, null, DigestUtil
+            .sha256("the genuine notes"));
+      try
+      {
+         pkgMgr.installPackage(incompletePackage.getAbsolutePath());
+         Assert.fail("Package without a declared file was installed");
+      }
+      catch (ChecksumMismatchException cme)
+      {
+         // expected
+      }
+      Assert.assertFalse("Package without a declared file was recorded", pkgMgr.getAllInstalledPackages()
+            .contains(packageName));
+   }
+
+   /**
+    * Tests that a package retrieved over HTTP, for which the server doesn't publish a 
+    * checksum, is rejected when checksums are required
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testHttpInstallRequiresChecksum() throws Exception
+   {
+      String packageName = "required-checksum-test-package";
+      final File pkg = this.createSimplePackage(packageName);
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            if (!exchange.getRequestURI().getPath().endsWith(JAR_SUFFIX))
+            {
+               exchange.sendResponseHeaders(404, -1);
+               exchange.close();
+               return;
+            }
+            exchange.sendResponseHeaders(200, pkg.length());
+            InputStream is = new FileInputStream(pkg);
+            OutputStream os = exchange.getResponseBody();
+            try
+            {
+               IOUtil.copy(is, os, new byte[8192]);
+            }
+            finally
+            {
+               is.close();
+               os.close();
+            }
+         }
+      });
+      server.start();
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      env.setProperty(HttpDownloader.PROPERTY_REQUIRE_CHECKSUM, "true");
+      try
+      {
+         pkgMgr.installPackage("http://127.0.0.1:" + server.getAddress().getPort() + "/" + pkg.getName());
+         Assert.fail("Package without a published checksum was installed");
+      }
+      catch (Exception e)
+      {
+         // expected - the retrieval failure can be wrapped in a runtime exception
+      }
+      finally
+      {
+         env.setProperty(HttpDownloader.PROPERTY_REQUIRE_CHECKSUM, "false");
+         server.stop(0);
+      }
+      Assert.assertFalse("Package without a published checksum was recorded", pkgMgr.getAllInstalledPackages()
+            .contains(packageName));
+   }
+
+   /**
+    * Tests that a package shipped within a jar on the classpath is installed through
+    * a classpath: URL and through the jar: URL of the classloader resource
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallFromClasspath() throws Exception
+   {
+      String packageName = "classpath-test-package";
+      File pkg = this.createSimplePackage(packageName);
+      File appJar = new File(getPerTestTargetDir(this.getClass()), "app-with-packages.jar");
+      JavaArchive app = JavaArchiveFactory.create(appJar.getName());
+      app.addResource("packages/" + pkg.getName(), pkg);
+      this.exportZip(app, appJar);
+
+      ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+      URLClassLoader appClassLoader = new URLClassLoader(new URL[] {appJar.toURI().toURL()}, tccl);
+      Thread.currentThread().setContextClassLoader(appClassLoader);
+      try
+      {
+         pkgMgr.installPackage("classpath:packages/" + pkg.getName());
+         this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+         Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+         pkgMgr.removePackage(packageName);
+
+         URL resource = appClassLoader.getResource("packages/" + pkg.getName());
+         Assert.assertEquals("Unexpected protocol of classloader resource", "jar", resource.getProtocol());
+         pkgMgr.installPackage(resource);
+         this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+         Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+      }
+      finally
+      {
+         Thread.currentThread().setContextClassLoader(tccl);
+      }
+   }
+
+   /**
+    * Tests that a package registered in memory is installed through its memory: URL
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallFromMemory() throws Exception
+   {
+      String packageName = "in-memory-test-package";
+      File pkg = this.createSimplePackage(packageName);
+      byte[] content = new byte[(int) pkg.length()];
+      DataInputStream dis = new DataInputStream(new FileInputStream(pkg));
+      try
+      {
+         dis.readFully(content);
+      }
+      finally
+      {
+         dis.close();
+      }
+      URL packageURL = MemoryPackageRetriever.register(pkg.getName(), content);
+      try
+      {
+         pkgMgr.installPackage(packageURL.toExternalForm());
+      }
+      finally
+      {
+         MemoryPackageRetriever.unregister(pkg.getName());
+      }
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+      Assert.assertTrue("Package not installed", pkgMgr.getAllInstalledPackages().contains(packageName));
+   }
+
+   /**
+    * Tests that the parsed metadata of a package.xml is stored in the metadata cache
+    * and that a subsequent install of the same package is served from the cache
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInstallUsesMetadataCache() throws Exception
+   {
+      String packageName = "metadata-cache-test-package";
+      File pkg = this.createSimplePackage(packageName);
+      pkgMgr.installPackage(pkg.getAbsolutePath());
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+
+      PackageManagerEnvironment env = pkgMgr.getPackageManagerEnvironment();
+      File metadataDir = new File(env.getPackageManagerHome(), "cache/metadata");
+      Assert.assertTrue("Package metadata not stored in cache at " + metadataDir, metadataDir.isDirectory()
+            && metadataDir.list().length > 0);
+
+      pkgMgr.removePackage(packageName);
+      MetadataCache metadataCache = MetadataCache.getMetadataCache(env);
+      long hits = metadataCache.getHits();
+      pkgMgr.installPackage(pkg.getAbsolutePath());
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/dummy.jar");
+      Assert.assertTrue("Package installed from cached metadata not listed as installed", pkgMgr
+            .getAllInstalledPackages().contains(packageName));
+      Assert.assertTrue("Package metadata not served from metadata cache", metadataCache.getHits() > hits);
+   }
+
+   private File createPackageWithMultipleInstallFiles(String packageName) throws IOException
+   {
+      File dummyJar = this.createDummyJar();
+      File first = new File(getPerTestTargetDir(this.getClass()), "first-notes.txt");
+      File second = new File(getPerTestTargetDir(this.getClass()), "second-notes.txt");
+      this.writeText(first, "first");
+      this.writeText(second, "second");
+
+      File pkgFile = new File(getPerTestTargetDir(this.getClass()), packageName + JAR_SUFFIX);
+      JavaArchive pkg = JavaArchiveFactory.create(pkgFile.getName());
+      pkg.addResource("dummy.jar", dummyJar);
+      pkg.addResource("first/notes.txt", first);
+      pkg.addResource("second/notes.txt", second);
+      URL packageXmlURL = this.getResource(this.getClass(), "package-with-multiple-install-files.xml");
+      File processedPackageXml = this.processPackageXml(new File(packageXmlURL.getFile()), packageName,
+            DEFAULT_PACKAGE_VERSION);
+      pkg.addResource("package.xml", processedPackageXml);
+      this.exportZip(pkg, pkgFile);
+      return pkgFile;
+   }
+
+   private File createPackageWithDeclaredChecksum(String packageName, File notes, String checksum)
+         throws IOException
+   {
+      URL packageXmlURL = this.getResource(this.getClass(), "package-with-declared-checksum.xml");
+      File packageXml = this.processPackageXml(new File(packageXmlURL.getFile()), packageName,
+            DEFAULT_PACKAGE_VERSION);
+      BufferedReader reader = new BufferedReader(new FileReader(packageXml));
+      StringBuffer content = new StringBuffer();
+      try
+      {
+         String line = null;
+         while ((line = reader.readLine()) != null)
+         {
+            content.append(line.replace("${file.checksum}", checksum)).append("\n");
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      this.writeText(packageXml, content.toString());
+
+      File pkgFile = new File(getPerTestTargetDir(this.getClass()), packageName + JAR_SUFFIX);
+      JavaArchive pkg = JavaArchiveFactory.create(pkgFile.getName());
+      // a package without the notes is corrupt, since its package.xml declares them
+      if (notes != null)
+      {
+         pkg.addResource("checksum-notes.txt", notes);
+      }
+      pkg.addResource("package.xml", packageXml);
+      this.exportZip(pkg, pkgFile);
+      return pkgFile;
+   }
+
+   private HttpServer createMirror(final String name, final long delay, final boolean broken,
+         final byte[] content, final String etag, final List<String> requests) throws IOException
+   {
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.setExecutor(Executors.newCachedThreadPool());
+      server.createContext("/", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            try
+            {
+               Thread.sleep(delay);
+            }
+            catch (InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+            }
+            if (!exchange.getRequestURI().getPath().endsWith(JAR_SUFFIX)
+                  || !"GET".equals(exchange.getRequestMethod()))
+            {
+               exchange.sendResponseHeaders(404, -1);
+               exchange.close();
+               return;
+            }
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            requests.add(name + " " + range);
+            int start = 0;
+            OutputStream os = exchange.getResponseBody();
+            if (range == null)
+            {
+               exchange.sendResponseHeaders(200, content.length);
+            }
+            else
+            {
+               start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+               exchange.getResponseHeaders().set("Content-Range",
+                     "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+               exchange.sendResponseHeaders(206, content.length - start);
+            }
+            if (broken)
+            {
+               // send just half of the package and drop the connection
+               os.write(content, start, (content.length - start) / 2);
+               os.flush();
+               exchange.close();
+               return;
+            }
+            os.write(content, start, content.length - start);
+            os.close();
+         }
+      });
+      server.start();
+      return server;
+   }
+
+   private String getBaseURL(HttpServer server)
+   {
+      return "http://127.0.0.1:" + server.getAddress().getPort() + "/mirror/";
+   }
+
+   /**
+    * Returns the folders leased, for the package named <code>name</code>, under the build folder
+    */
+   private List<File> getBuildDirectories(PackageManagerEnvironment env, String name)
+   {
+      List<File> dirs = new ArrayList<File>();
+      File[] children = env.getPackageManagerBuildDir().listFiles();
+      if (children == null)
+      {
+         return dirs;
+      }
+      for (File child : children)
+      {
+         if (child.isDirectory() && child.getName().startsWith(name + "-"))
+         {
+            dirs.add(child);
+         }
+      }
+      return dirs;
+   }
+
+   private void writeText(File file, String text) throws IOException
+   {
+      FileWriter writer = new FileWriter(file);
+      try
+      {
+         writer.write(text);
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
 }
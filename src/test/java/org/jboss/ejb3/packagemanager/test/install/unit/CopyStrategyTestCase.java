@@ -0,0 +1,187 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.install.unit;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jboss.ejb3.packagemanager.installer.CopyStrategy;
+import org.jboss.ejb3.packagemanager.installer.HardLinkCopyStrategy;
+import org.jboss.ejb3.packagemanager.installer.TransferCopyStrategy;
+import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * CopyStrategyTestCase
+ *
+ * Tests the {@link CopyStrategy}s used for installing files
+ * 
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class CopyStrategyTestCase extends PackageManagerTestCase
+{
+
+   /**
+    * The dir in which the files are copied in each test
+    */
+   private File workDir;
+
+   /**
+    * The file to be copied
+    */
+   private File src;
+
+   @Before
+   public void before() throws Exception
+   {
+      this.workDir = new File(getPerTestTargetDir(this.getClass()), "work");
+      IOUtil.delete(this.workDir);
+      this.workDir.mkdirs();
+      this.src = this.createFile(new File(this.workDir, "src.bin"), 3 * 64 * 1024 + 5);
+   }
+
+   /**
+    * Tests that the transfer strategy copies the contents and overwrites an existing 
+    * (larger) file
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testTransferCopy() throws Exception
+   {
+      File dest = this.createFile(new File(this.workDir, "dest.bin"), 5 * 64 * 1024);
+      new TransferCopyStrategy().copy(this.src, dest);
+      Assert.assertEquals("Unexpected size of copy", this.src.length(), dest.length());
+      Assert.assertEquals("Unexpected content copied", DigestUtil.sha256(this.src), DigestUtil.sha256(dest));
+   }
+
+   /**
+    * Tests that the hard link strategy places the contents at the destination and overwrites
+    * an existing file
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testHardLinkCopy() throws Exception
+   {
+      File dest = this.createFile(new File(this.workDir, "dest.bin"), 10);
+      RecordingCopyStrategy fallback = new RecordingCopyStrategy();
+      new HardLinkCopyStrategy(fallback).copy(this.src, dest);
+      Assert.assertEquals("Unexpected content at destination", DigestUtil.sha256(this.src), DigestUtil.sha256(dest));
+      if (HardLinkCopyStrategy.isSupported())
+      {
+         Assert.assertTrue("Unexpected fallback to copy", fallback.copies.isEmpty());
+      }
+   }
+
+   /**
+    * Tests that the hard link strategy falls back to copying when the link can't be created
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testHardLinkFallsBackToCopyWhenLinkFails() throws Exception
+   {
+      File dest = new File(this.workDir, "dest.bin");
+      RecordingCopyStrategy fallback = new RecordingCopyStrategy();
+      CopyStrategy failingLinkStrategy = new HardLinkCopyStrategy(fallback)
+      {
+         @Override
+         protected void link(File src, File dest) throws IOException
+         {
+            throw new IOException("Simulated failure to link " + dest + " to " + src);
+         }
+      };
+      failingLinkStrategy.copy(this.src, dest);
+      Assert.assertEquals("Fallback strategy not used", 1, fallback.copies.size());
+      Assert.assertEquals("Unexpected content copied", DigestUtil.sha256(this.src), DigestUtil.sha256(dest));
+      this.assertNotLinked(this.src, dest);
+   }
+
+   /**
+    * Tests that the files of the shared directories are copied and not linked
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testHardLinkCopiesFilesOfSharedDirectories() throws Exception
+   {
+      File sharedDir = new File(this.workDir, "cache");
+      File sharedFile = this.createFile(new File(sharedDir, "nested/shared.bin"), 1024);
+      File dest = new File(this.workDir, "dest.bin");
+      RecordingCopyStrategy fallback = new RecordingCopyStrategy();
+      new HardLinkCopyStrategy(fallback, sharedDir).copy(sharedFile, dest);
+      Assert.assertEquals("Shared file was not copied", 1, fallback.copies.size());
+      this.assertNotLinked(sharedFile, dest);
+   }
+
+   /**
+    * Asserts that an edit of the <code>dest</code> file doesn't change the <code>src</code> file
+    */
+   private void assertNotLinked(File src, File dest) throws IOException
+   {
+      String checksum = DigestUtil.sha256(src);
+      FileWriter writer = new FileWriter(dest, true);
+      try
+      {
+         writer.write("edited");
+      }
+      finally
+      {
+         writer.close();
+      }
+      Assert.assertEquals("Edit of " + dest + " changed " + src, checksum, DigestUtil.sha256(src));
+   }
+
+   private File createFile(File file, int size) throws IOException
+   {
+      file.getParentFile().mkdirs();
+      byte[] content = new byte[size];
+      new Random(size).nextBytes(content);
+      IOUtil.copy(new ByteArrayInputStream(content), file);
+      return file;
+   }
+
+   /**
+    * Copies through the {@link TransferCopyStrategy} and records the copied files
+    */
+   private static class RecordingCopyStrategy implements CopyStrategy
+   {
+      private List<File> copies = new ArrayList<File>();
+
+      public void copy(File src, File dest) throws IOException
+      {
+         this.copies.add(src);
+         new TransferCopyStrategy().copy(src, dest);
+      }
+   }
+}
@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.perf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.jboss.ejb3.packagemanager.util.ExtractionStatistics;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+
+/**
+ * ExtractionBenchmark
+ * 
+ * Measures the time taken to extract a package with 1 to N threads (N being the 
+ * number of available processors, unless passed as the first argument). Two packages 
+ * are generated for the benchmark - one with many small files and another with a 
+ * few huge files.
+ * 
+ * This is not a testcase and isn't run as part of the build. Run it through:
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; org.jboss.ejb3.packagemanager.test.perf.ExtractionBenchmark
+ * </pre>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class ExtractionBenchmark
+{
+
+   private static final int SMALL_FILE_COUNT = 20000;
+
+   private static final int SMALL_FILE_SIZE = 4 * 1024;
+
+   private static final int HUGE_FILE_COUNT = 4;
+
+   private static final int HUGE_FILE_SIZE = 64 * 1024 * 1024;
+
+   private static final int ITERATIONS = 3;
+
+   public static void main(String[] args) throws Exception
+   {
+      int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+      File workDir = new File(System.getProperty("java.io.tmpdir"), "extraction-benchmark");
+      workDir.mkdirs();
+
+      File smallFilesPkg = createPackage(new File(workDir, "small-files.jar"), SMALL_FILE_COUNT, SMALL_FILE_SIZE);
+      File hugeFilesPkg = createPackage(new File(workDir, "huge-files.jar"), HUGE_FILE_COUNT, HUGE_FILE_SIZE);
+
+      run(smallFilesPkg, workDir, maxThreads);
+      run(hugeFilesPkg, workDir, maxThreads);
+   }
+
+   private static void run(File pkg, File workDir, int maxThreads) throws IOException
+   {
+      System.out.println("Extracting " + pkg.getName() + " (" + pkg.length() / 1024 + " KB)");
+      long singleThreaded = 0;
+      for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1)
+      {
+         long best = Long.MAX_VALUE;
+         ExtractionStatistics stats = null;
+         for (int i = 0; i < ITERATIONS; i++)
+         {
+            File destDir = new File(workDir, "extracted");
+            delete(destDir);
+            stats = IOUtil.extractJarFile(destDir, pkg, threads);
+            best = Math.min(best, stats.getElapsedMillis());
+         }
+         if (threads == 1)
+         {
+            singleThreaded = best;
+         }
+         double speedup = best == 0 ? 0 : (double) singleThreaded / best;
+         System.out.println("  " + threads + " thread(s): best of " + ITERATIONS + " = " + best + " ms, speedup "
+               + String.format("%.2f", speedup) + "x - " + stats);
+      }
+   }
+
+   /**
+    * Creates a jar with <code>fileCount</code> files of <code>fileSize</code> bytes each.
+    * The content is semi-random so that it is compressible, but not trivially so. 
+    */
+   private static File createPackage(File jar, int fileCount, int fileSize) throws IOException
+   {
+      if (jar.exists())
+      {
+         return jar;
+      }
+      Random random = new Random(fileCount);
+      byte[] content = new byte[fileSize];
+      JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+      try
+      {
+         for (int i = 0; i < fileCount; i++)
+         {
+            for (int j = 0; j < content.length; j++)
+            {
+               content[j] = (byte) ('a' + random.nextInt(16));
+            }
+            jos.putNextEntry(new JarEntry("dir" + (i % 100) + "/file" + i + ".txt"));
+            jos.write(content);
+            jos.closeEntry();
+         }
+      }
+      finally
+      {
+         jos.close();
+      }
+      return jar;
+   }
+
+   private static void delete(File file)
+   {
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
+         {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+}
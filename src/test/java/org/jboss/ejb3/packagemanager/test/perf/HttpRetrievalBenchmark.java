@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.perf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.retriever.impl.HttpClientManager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HttpRetrievalBenchmark
+ * 
+ * Measures the time taken, and the number of connections opened, to retrieve a 
+ * set of packages from a local HTTP server - once with a new client for each
+ * retrieval (the way the HTTP retriever used to work) and once with the shared, 
+ * pooled client of {@link HttpClientManager}. The server gzip encodes its responses
+ * for clients which accept it.
+ * 
+ * This is not a testcase and isn't run as part of the build. Run it through:
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; org.jboss.ejb3.packagemanager.test.perf.HttpRetrievalBenchmark [retrievals]
+ * </pre>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class HttpRetrievalBenchmark
+{
+
+   private static final int PACKAGE_SIZE = 256 * 1024;
+
+   private static final int ITERATIONS = 3;
+
+   public static void main(String[] args) throws Exception
+   {
+      int retrievals = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+      byte[] content = createContent(PACKAGE_SIZE);
+      ConnectionCountingHandler handler = new ConnectionCountingHandler(content);
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", handler);
+      server.start();
+      String baseURL = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+      try
+      {
+         System.out.println("Retrieving " + retrievals + " packages of " + PACKAGE_SIZE / 1024 + " KB each");
+         for (int i = 0; i < ITERATIONS; i++)
+         {
+            handler.reset();
+            long start = System.currentTimeMillis();
+            for (int j = 0; j < retrievals; j++)
+            {
+               // a new client for every retrieval, which is never shutdown
+               retrieve(new DefaultHttpClient(), baseURL + "package-" + j + ".jar");
+            }
+            report("new client per retrieval", start, handler);
+
+            handler.reset();
+            PackageManagerEnvironment env = new PackageManagerEnvironment(System.getProperty("java.io.tmpdir"));
+            HttpClientManager httpClientManager = new HttpClientManager(env);
+            start = System.currentTimeMillis();
+            try
+            {
+               for (int j = 0; j < retrievals; j++)
+               {
+                  retrieve(httpClientManager.getHttpClient(), baseURL + "package-" + j + ".jar");
+               }
+            }
+            finally
+            {
+               httpClientManager.shutdown();
+            }
+            report("shared pooled client", start, handler);
+         }
+      }
+      finally
+      {
+         server.stop(0);
+      }
+   }
+
+   private static long retrieve(HttpClient client, String url) throws IOException
+   {
+      HttpResponse response = client.execute(new HttpGet(url));
+      InputStream is = response.getEntity().getContent();
+      long read = 0;
+      try
+      {
+         byte[] buffer = new byte[8192];
+         int n = 0;
+         while ((n = is.read(buffer)) != -1)
+         {
+            read += n;
+         }
+      }
+      finally
+      {
+         is.close();
+      }
+      if (read != PACKAGE_SIZE)
+      {
+         throw new IllegalStateException("Read " + read + " bytes from " + url + ", expected " + PACKAGE_SIZE);
+      }
+      return read;
+   }
+
+   private static void report(String mode, long start, ConnectionCountingHandler handler)
+   {
+      long elapsed = System.currentTimeMillis() - start;
+      System.out.println("  " + mode + ": " + elapsed + " ms, " + handler.getConnections() + " connection(s), "
+            + handler.getBytesSent() / 1024 + " KB sent");
+   }
+
+   /**
+    * Content which is compressible, but not trivially so
+    */
+   private static byte[] createContent(int size)
+   {
+      Random random = new Random(size);
+      byte[] content = new byte[size];
+      for (int i = 0; i < content.length; i++)
+      {
+         content[i] = (byte) ('a' + random.nextInt(16));
+      }
+      return content;
+   }
+
+   /**
+    * Serves the same content for every request and keeps track of the distinct 
+    * client connections (by their remote address)
+    */
+   private static class ConnectionCountingHandler implements HttpHandler
+   {
+      private byte[] content;
+
+      private byte[] gzippedContent;
+
+      private Set<InetSocketAddress> connections = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+
+      private AtomicLong bytesSent = new AtomicLong();
+
+      public ConnectionCountingHandler(byte[] content) throws IOException
+      {
+         this.content = content;
+         ByteArrayOutputStream bos = new ByteArrayOutputStream();
+         GZIPOutputStream gzip = new GZIPOutputStream(bos);
+         gzip.write(content);
+         gzip.close();
+         this.gzippedContent = bos.toByteArray();
+      }
+
+      public void handle(HttpExchange exchange) throws IOException
+      {
+         this.connections.add(exchange.getRemoteAddress());
+         String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+         byte[] body = this.content;
+         if (acceptEncoding != null && acceptEncoding.contains("gzip"))
+         {
+            body = this.gzippedContent;
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+         }
+         this.bytesSent.addAndGet(body.length);
+         exchange.sendResponseHeaders(200, body.length);
+         OutputStream os = exchange.getResponseBody();
+         os.write(body);
+         os.close();
+      }
+
+      public void reset()
+      {
+         this.connections.clear();
+         this.bytesSent.set(0);
+      }
+
+      public int getConnections()
+      {
+         return this.connections.size();
+      }
+
+      public long getBytesSent()
+      {
+         return this.bytesSent.get();
+      }
+   }
+}
@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.perf;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.ejb3.packagemanager.metadata.FileType;
+import org.jboss.ejb3.packagemanager.metadata.InstallFileType;
+import org.jboss.ejb3.packagemanager.metadata.PackageType;
+import org.jboss.ejb3.packagemanager.xml.PackageUnmarshaller;
+
+/**
+ * PackageMetadataFootprintBenchmark
+ * 
+ * Measures the heap retained by the metadata of a generated package.xml listing a large number
+ * of files (spread over a few hundred directories, like generated packages usually are), when 
+ * the files are held in their compact form (see {@link org.jboss.ejb3.packagemanager.metadata.impl.InstallFileTable})
+ * against an object per file with a string per attribute, as the files were held before. 
+ * The number of files can be passed as the first argument.
+ * 
+ * The heap is measured through {@link Runtime}, after forcing garbage collection, so run it 
+ * with a fixed heap size, for example:
+ * <pre>
+ * java -Xms512m -Xmx512m -cp target/classes:target/test-classes:&lt;dependencies&gt; org.jboss.ejb3.packagemanager.test.perf.PackageMetadataFootprintBenchmark
+ * </pre>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class PackageMetadataFootprintBenchmark
+{
+
+   private static final int DEFAULT_FILE_COUNT = 100000;
+
+   private static final int FILES_PER_DIRECTORY = 250;
+
+   /**
+    * The number of copies of the metadata which are measured together, to even out the
+    * imprecision of the measurement
+    */
+   private static final int COPIES = 5;
+
+   public static void main(String[] args) throws Exception
+   {
+      int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILE_COUNT;
+      byte[] packageXml = createPackageXml(fileCount);
+      System.out.println("Metadata of a package.xml with " + fileCount + " files in "
+            + (fileCount / FILES_PER_DIRECTORY) + " directories (" + packageXml.length + " bytes)");
+
+      List<Object> retained = new ArrayList<Object>(COPIES);
+      long before = usedMemory();
+      for (int i = 0; i < COPIES; i++)
+      {
+         retained.add(PackageUnmarshaller.getInstance().unmarshal(new ByteArrayInputStream(packageXml)));
+      }
+      long compact = (usedMemory() - before) / COPIES;
+      PackageType pkg = (PackageType) retained.get(0);
+      retained.clear();
+
+      before = usedMemory();
+      for (int i = 0; i < COPIES; i++)
+      {
+         retained.add(toLooseFiles(pkg));
+      }
+      long loose = (usedMemory() - before) / COPIES;
+      retained.clear();
+
+      report("object per file", loose, fileCount);
+      report("compact", compact, fileCount);
+      System.out.println("  object per file/compact = " + String.format("%.1f", (double) loose / compact) + "x");
+   }
+
+   private static void report(String name, long bytes, int fileCount)
+   {
+      System.out.println("  " + name + ": " + (bytes / 1024) + " KB, " + String.format("%.1f", (double) bytes / fileCount)
+            + " bytes/file");
+   }
+
+   /**
+    * Returns the files of <code>pkg</code> as they were held before they were compacted - an 
+    * object per file, with the strings of each file (which the parser creates per attribute)
+    * of its own
+    */
+   private static List<LooseInstallFile> toLooseFiles(PackageType pkg)
+   {
+      List<LooseInstallFile> looseFiles = new ArrayList<LooseInstallFile>();
+      for (InstallFileType file : pkg.getFiles())
+      {
+         LooseInstallFile looseFile = new LooseInstallFile();
+         looseFile.pkg = pkg;
+         looseFile.name = copy(file.getName());
+         looseFile.srcPath = copy(file.getSrcPath());
+         looseFile.destPath = copy(file.getDestPath());
+         looseFile.type = copy(file.getType().name().toLowerCase());
+         looseFile.fileType = file.getType();
+         looseFiles.add(looseFile);
+      }
+      return looseFiles;
+   }
+
+   private static String copy(String s)
+   {
+      return s == null ? null : new String(s.toCharArray());
+   }
+
+   private static long usedMemory() throws InterruptedException
+   {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 5; i++)
+      {
+         System.gc();
+         Thread.sleep(100);
+      }
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+
+   /**
+    * The fields of a file, as they were held before the files were compacted
+    */
+   private static class LooseInstallFile
+   {
+      PackageType pkg;
+
+      String name;
+
+      String srcPath;
+
+      String destPath;
+
+      String type;
+
+      FileType fileType;
+
+      String checksum;
+   }
+
+   private static byte[] createPackageXml(int fileCount) throws Exception
+   {
+      StringBuffer xml = new StringBuffer();
+      xml.append("<package name=\"benchmark-package\" version=\"1.0.0\" xmlns=\"org/jboss/packagemanager/package\">\n");
+      for (int i = 0; i < fileCount; i++)
+      {
+         int dir = i / FILES_PER_DIRECTORY;
+         xml.append("  <file name=\"resource-").append(i).append(".xml\" src-path=\"modules/module-").append(dir)
+               .append("/conf\" dest-path=\"server/default/deploy/module-").append(dir).append(
+                     ".sar/META-INF\" type=\"library\"/>\n");
+      }
+      xml.append("</package>\n");
+      return xml.toString().getBytes("UTF-8");
+   }
+}
@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.perf;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jboss.ejb3.packagemanager.metadata.PackageType;
+import org.jboss.ejb3.packagemanager.xml.PackageUnmarshaller;
+
+/**
+ * PackageUnmarshallerBenchmark
+ * 
+ * Measures the throughput of unmarshalling a package.xml when the schema is compiled
+ * for each package.xml (cold - a new {@link PackageUnmarshaller} per package.xml) against
+ * reusing the compiled schema of the shared unmarshaller (warm), in the calling thread and 
+ * from N threads (N being the number of available processors, unless passed as the first 
+ * argument).
+ * 
+ * This is not a testcase and isn't run as part of the build. Run it through:
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; org.jboss.ejb3.packagemanager.test.perf.PackageUnmarshallerBenchmark
+ * </pre>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class PackageUnmarshallerBenchmark
+{
+
+   private static final int FILE_COUNT = 20;
+
+   private static final long WARMUP_MILLIS = 3000;
+
+   private static final long MEASUREMENT_MILLIS = 5000;
+
+   public static void main(String[] args) throws Exception
+   {
+      int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+      byte[] packageXml = createPackageXml(FILE_COUNT);
+      System.out.println("Unmarshalling a package.xml with " + FILE_COUNT + " files (" + packageXml.length
+            + " bytes)");
+
+      measure("cold", packageXml, false, WARMUP_MILLIS);
+      double cold = measure("cold", packageXml, false, MEASUREMENT_MILLIS);
+      measure("warm", packageXml, true, WARMUP_MILLIS);
+      double warm = measure("warm", packageXml, true, MEASUREMENT_MILLIS);
+      System.out.println("  warm/cold = " + String.format("%.1f", warm / cold) + "x");
+      double concurrent = measureConcurrent(packageXml, threads, MEASUREMENT_MILLIS);
+      System.out.println("  warm, " + threads + " thread(s) = " + String.format("%.1f", concurrent) + " ops/s");
+   }
+
+   /**
+    * Unmarshals the <code>packageXml</code> repeatedly, for <code>millis</code> milli seconds
+    * and returns the number of package.xml unmarshalled per second
+    */
+   private static double measure(String name, byte[] packageXml, boolean shared, long millis) throws Exception
+   {
+      long ops = unmarshalFor(packageXml, shared, millis);
+      double opsPerSecond = ops * 1000.0 / millis;
+      System.out.println("  " + name + ": " + String.format("%.1f", opsPerSecond) + " ops/s, "
+            + String.format("%.1f", 1000000.0 / opsPerSecond) + " us/op");
+      return opsPerSecond;
+   }
+
+   private static double measureConcurrent(final byte[] packageXml, int threads, final long millis)
+         throws Exception
+   {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try
+      {
+         List<Future<Long>> results = new ArrayList<Future<Long>>();
+         for (int i = 0; i < threads; i++)
+         {
+            results.add(executor.submit(new Callable<Long>()
+            {
+               public Long call() throws Exception
+               {
+                  return unmarshalFor(packageXml, true, millis);
+               }
+            }));
+         }
+         long ops = 0;
+         for (Future<Long> result : results)
+         {
+            ops += result.get();
+         }
+         return ops * 1000.0 / millis;
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+   }
+
+   private static long unmarshalFor(byte[] packageXml, boolean shared, long millis) throws Exception
+   {
+      long ops = 0;
+      long end = System.currentTimeMillis() + millis;
+      while (System.currentTimeMillis() < end)
+      {
+         PackageUnmarshaller unmarshaller = shared ? PackageUnmarshaller.getInstance() : new PackageUnmarshaller();
+         PackageType pkg = unmarshaller.unmarshal(new ByteArrayInputStream(packageXml));
+         if (pkg.getFiles().size() != FILE_COUNT)
+         {
+            throw new IllegalStateException("Unexpected number of files in " + pkg);
+         }
+         ops++;
+      }
+      return ops;
+   }
+
+   private static byte[] createPackageXml(int fileCount) throws Exception
+   {
+      StringBuffer xml = new StringBuffer();
+      xml.append("<package name=\"benchmark-package\" version=\"1.0.0\" xmlns=\"org/jboss/packagemanager/package\">\n");
+      for (int i = 0; i < fileCount; i++)
+      {
+         xml.append("  <file name=\"file").append(i).append(".jar\" src-path=\"lib\" dest-path=\"common/lib\" type=\"library\"/>\n");
+      }
+      xml.append("</package>\n");
+      return xml.toString().getBytes("UTF-8");
+   }
+}
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.perf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.jboss.ejb3.packagemanager.PackageVersion;
+import org.jboss.ejb3.packagemanager.PackageVersionComparator;
+import org.jboss.ejb3.packagemanager.test.common.LegacyPackageVersionComparator;
+
+/**
+ * PackageVersionComparatorBenchmark
+ * 
+ * Measures the throughput (and, when the JVM can report it, the allocation) of comparing 
+ * package versions through the regular expression based {@link LegacyPackageVersionComparator}
+ * against {@link PackageVersionComparator}, which compares cached {@link PackageVersion}s. 
+ * Each operation sorts a shuffled list of versions, which is how the package manager 
+ * compares versions when it picks the latest of the available versions of a package. 
+ * 
+ * This is not a testcase and isn't run as part of the build. Run it through:
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; org.jboss.ejb3.packagemanager.test.perf.PackageVersionComparatorBenchmark
+ * </pre>
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class PackageVersionComparatorBenchmark
+{
+
+   private static final int VERSION_COUNT = 500;
+
+   private static final long WARMUP_MILLIS = 3000;
+
+   private static final long MEASUREMENT_MILLIS = 5000;
+
+   public static void main(String[] args) throws Exception
+   {
+      List<String> versions = createVersions(VERSION_COUNT);
+      System.out.println("Sorting " + VERSION_COUNT + " versions");
+
+      measure("legacy", new LegacyPackageVersionComparator(), versions, WARMUP_MILLIS);
+      double legacy = measure("legacy", new LegacyPackageVersionComparator(), versions, MEASUREMENT_MILLIS);
+      measure("cached", new PackageVersionComparator(), versions, WARMUP_MILLIS);
+      double cached = measure("cached", new PackageVersionComparator(), versions, MEASUREMENT_MILLIS);
+      System.out.println("  cached/legacy = " + String.format("%.1f", cached / legacy) + "x");
+   }
+
+   /**
+    * Sorts the <code>versions</code> repeatedly, for <code>millis</code> milli seconds and 
+    * returns the number of sorts per second
+    */
+   private static double measure(String name, Comparator<String> comparator, List<String> versions, long millis)
+   {
+      Random random = new Random(1);
+      List<String> list = new ArrayList<String>(versions);
+      long comparisons = 0;
+      long ops = 0;
+      long allocatedBefore = allocatedBytes();
+      long end = System.currentTimeMillis() + millis;
+      while (System.currentTimeMillis() < end)
+      {
+         Collections.shuffle(list, random);
+         CountingComparator counting = new CountingComparator(comparator);
+         Collections.sort(list, counting);
+         comparisons += counting.count;
+         ops++;
+      }
+      long allocated = allocatedBytes() - allocatedBefore;
+      double opsPerSecond = ops * 1000.0 / millis;
+      StringBuffer result = new StringBuffer();
+      result.append("  ").append(name).append(": ").append(String.format("%.1f", opsPerSecond)).append(" sorts/s, ");
+      result.append(String.format("%.1f", millis * 1000000.0 / comparisons)).append(" ns/comparison");
+      if (allocatedBefore >= 0)
+      {
+         result.append(", ").append(String.format("%.1f", (double) allocated / comparisons)).append(
+               " bytes allocated/comparison");
+      }
+      System.out.println(result);
+      return opsPerSecond;
+   }
+
+   /**
+    * Returns the number of bytes allocated by the current thread, or -1 if the JVM doesn't
+    * report it
+    */
+   private static long allocatedBytes()
+   {
+      ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      if (threadMXBean instanceof com.sun.management.ThreadMXBean)
+      {
+         return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread()
+               .getId());
+      }
+      return -1;
+   }
+
+   private static List<String> createVersions(int count)
+   {
+      String[] qualifiers =
+      {"", ".GA", ".Final", "-SNAPSHOT", ".Beta1", ".Beta2", ".CR1", ".SP1"};
+      Random random = new Random(0);
+      List<String> versions = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++)
+      {
+         versions.add(random.nextInt(6) + "." + random.nextInt(20) + "." + random.nextInt(10)
+               + qualifiers[random.nextInt(qualifiers.length)]);
+      }
+      return versions;
+   }
+
+   private static class CountingComparator implements Comparator<String>
+   {
+      private final Comparator<String> delegate;
+
+      private long count;
+
+      CountingComparator(Comparator<String> delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      public int compare(String version1, String version2)
+      {
+         this.count++;
+         return this.delegate.compare(version1, version2);
+      }
+   }
+}
@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.retriever.unit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.retriever.impl.HttpClientManager;
+import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HttpClientManagerTestCase
+ *
+ * Tests that the {@link HttpClientManager} reuses connections, decodes gzip encoded 
+ * content and closes its connections on shutdown 
+ * 
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class HttpClientManagerTestCase extends PackageManagerTestCase
+{
+
+   /**
+    * Content served by the test server
+    */
+   private static final String CONTENT = "Hello from the package manager test server";
+
+   /**
+    * The address (host:port) of the client end of the connection of each request received 
+    * by the test server
+    */
+   private List<String> clientAddresses = Collections.synchronizedList(new ArrayList<String>());
+
+   /**
+    * The Accept-Encoding header of each request received by the test server
+    */
+   private List<String> acceptEncodings = Collections.synchronizedList(new ArrayList<String>());
+
+   private HttpServer server;
+
+   private HttpClientManager httpClientManager;
+
+   @Before
+   public void before() throws Exception
+   {
+      this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      this.server.createContext("/", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            clientAddresses.add(exchange.getRemoteAddress().toString());
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            acceptEncodings.add(acceptEncoding);
+            byte[] content = CONTENT.getBytes("UTF-8");
+            if (exchange.getRequestURI().getPath().endsWith(".gz"))
+            {
+               ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+               GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+               gzip.write(content);
+               gzip.close();
+               content = bytes.toByteArray();
+               exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, content.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(content);
+            os.close();
+         }
+      });
+      this.server.start();
+      File home = new File(getPerTestTargetDir(this.getClass()), "pm-home");
+      home.mkdirs();
+      this.httpClientManager = new HttpClientManager(new PackageManagerEnvironment(home.getAbsolutePath()));
+   }
+
+   @After
+   public void after() throws Exception
+   {
+      this.httpClientManager.shutdown();
+      this.server.stop(0);
+   }
+
+   /**
+    * Tests that consecutive requests to the same server are sent over the same 
+    * (pooled) connection
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testConnectionReuse() throws Exception
+   {
+      HttpClient client = this.httpClientManager.getHttpClient();
+      Assert.assertSame("Client is not shared", client, this.httpClientManager.getHttpClient());
+      for (int i = 0; i < 5; i++)
+      {
+         Assert.assertEquals("Unexpected content", CONTENT, this.get(client, "/file-" + i));
+      }
+      Assert.assertEquals("Unexpected number of requests", 5, this.clientAddresses.size());
+      Assert.assertEquals("Connection was not reused across requests: " + this.clientAddresses, 1,
+            new HashSet<String>(this.clientAddresses).size());
+   }
+
+   /**
+    * Tests that gzip encoding is asked for and that gzip encoded content is decoded 
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testGzipDecoding() throws Exception
+   {
+      HttpClient client = this.httpClientManager.getHttpClient();
+      Assert.assertEquals("Gzip encoded content was not decoded", CONTENT, this.get(client, "/file.gz"));
+      Assert.assertEquals("Unexpected content", CONTENT, this.get(client, "/file"));
+      for (String acceptEncoding : this.acceptEncodings)
+      {
+         Assert.assertNotNull("Gzip encoding was not asked for", acceptEncoding);
+         Assert.assertTrue("Gzip encoding was not asked for: " + acceptEncoding, acceptEncoding.contains("gzip"));
+      }
+   }
+
+   /**
+    * Tests that shutdown closes the pooled connections and that a new client, with 
+    * new connections, is created on next use
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testShutdown() throws Exception
+   {
+      // shutting down before the client is created does nothing
+      this.httpClientManager.shutdown();
+
+      HttpClient client = this.httpClientManager.getHttpClient();
+      Assert.assertEquals("Unexpected content", CONTENT, this.get(client, "/file"));
+      this.httpClientManager.shutdown();
+
+      HttpClient newClient = this.httpClientManager.getHttpClient();
+      Assert.assertNotSame("Client was not recreated after shutdown", client, newClient);
+      Assert.assertEquals("Unexpected content", CONTENT, this.get(newClient, "/file"));
+      Assert.assertEquals("Unexpected number of requests", 2, this.clientAddresses.size());
+      Assert.assertFalse("Connection was not closed on shutdown", this.clientAddresses.get(0).equals(
+            this.clientAddresses.get(1)));
+   }
+
+   /**
+    * Retrieves the <code>path</code> from the test server, consuming the content
+    * so that the connection is returned to the pool
+    */
+   private String get(HttpClient client, String path) throws IOException
+   {
+      HttpGet get = new HttpGet("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+      HttpResponse response = client.execute(get);
+      Assert.assertEquals("Unexpected response status", 200, response.getStatusLine().getStatusCode());
+      return EntityUtils.toString(response.getEntity(), "UTF-8");
+   }
+}
@@ -22,13 +22,17 @@
 package org.jboss.ejb3.packagemanager.test.uninstall.unit;
 
 import java.io.File;
+import java.net.URL;
 
 import org.jboss.ejb3.packagemanager.PackageManager;
 import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
 import org.jboss.ejb3.packagemanager.PackageManagerFactory;
+import org.jboss.ejb3.packagemanager.exception.PackageManagerException;
 import org.jboss.ejb3.packagemanager.exception.PackageNotInstalledException;
 import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
 import org.jboss.logging.Logger;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.shrinkwrap.api.spec.JavaArchiveFactory;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -216,4 +220,47 @@ public class UnInstallTestCase extends PackageManagerTestCase
       
    }
 
+   /**
+    * Tests that a missing installed file does not stop the rest of the files of the 
+    * package from being uninstalled, and that the failure is still reported
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testUninstallWithMissingFile() throws Exception
+   {
+      String packageName = "missing-file-uninstall-test-package";
+      File pkgFile = new File(getPerTestTargetDir(this.getClass()), packageName + JAR_SUFFIX);
+      JavaArchive pkg = JavaArchiveFactory.create(pkgFile.getName());
+      pkg.addResource("dummy.jar", this.createDummyJar());
+      URL packageXmlURL = this.getResource(this.getClass(), "package-with-multiple-dest-paths.xml");
+      File processedPackageXml = this.processPackageXml(new File(packageXmlURL.getFile()), packageName,
+            DEFAULT_PACKAGE_VERSION);
+      pkg.addResource("package.xml", processedPackageXml);
+      this.exportZip(pkg, pkgFile);
+
+      // the destination folders are expected to exist
+      new File(jbossHome, "server/missing-file-test/lib").mkdirs();
+      new File(jbossHome, "server/missing-file-test/deploy").mkdirs();
+      pkgMgr.installPackage(pkgFile.getAbsolutePath());
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/missing-file-test/lib/dummy.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/missing-file-test/deploy/dummy.jar");
+
+      // remove one of the installed files behind the package manager's back
+      Assert.assertTrue("Could not delete installed file", new File(jbossHome,
+            "server/missing-file-test/deploy/dummy.jar").delete());
+
+      try
+      {
+         pkgMgr.removePackage(packageName);
+         Assert.fail("Uninstalling a package with a missing file did not raise error");
+      }
+      catch (PackageManagerException pme)
+      {
+         // expected
+      }
+      // the rest of the files were still uninstalled
+      this.assertFileAbsenceUnderJBossHome(jbossHome, "server/missing-file-test/lib/dummy.jar");
+   }
+
 }
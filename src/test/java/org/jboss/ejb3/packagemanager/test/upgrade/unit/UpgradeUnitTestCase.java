@@ -22,16 +22,24 @@
 package org.jboss.ejb3.packagemanager.test.upgrade.unit;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 
 import org.jboss.ejb3.packagemanager.PackageManager;
 import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
 import org.jboss.ejb3.packagemanager.PackageManagerFactory;
+import org.jboss.ejb3.packagemanager.index.PackageIndex;
+import org.jboss.ejb3.packagemanager.index.PackageIndexEntry;
+import org.jboss.ejb3.packagemanager.index.PackageIndexGenerator;
 import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
+import org.jboss.ejb3.packagemanager.util.DigestUtil;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
 import org.jboss.logging.Logger;
 import org.jboss.shrinkwrap.api.spec.JavaArchive;
 import org.jboss.shrinkwrap.api.spec.JavaArchiveFactory;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -172,6 +180,88 @@ public class UpgradeUnitTestCase extends PackageManagerTestCase
       
    }
 
+   /**
+    * Tests that a package without uninstall scripts is upgraded in place - the files
+    * which are unchanged in the newer version are left untouched, while the files which
+    * are no longer part of the newer version are removed
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testIncrementalUpgrade() throws Exception
+   {
+      File versionOne = this.createIncrementalPackage("incremental-upgrade-test-package", "1.0.0-alpha-1",
+            "package-incremental-version1.xml", "dummy-version1.jar");
+      this.pkgMgr.installPackage(versionOne.getAbsolutePath());
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/deploy/dummy-version1.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/common-util.jar");
+
+      // move the last modified time of the installed file to the past, so that 
+      // any rewrite of the file during the upgrade can be detected
+      File commonUtil = new File(jbossHome, "common/lib/common-util.jar");
+      long lastModified = (System.currentTimeMillis() - 24 * 60 * 60 * 1000) / 1000 * 1000;
+      commonUtil.setLastModified(lastModified);
+
+      File versionTwo = this.createIncrementalPackage("incremental-upgrade-test-package", "1.0.0-alpha-2",
+            "package-incremental-version2.xml", "dummy-version2.jar");
+      this.pkgMgr.updatePackage(versionTwo.getAbsolutePath());
+
+      this.assertFileAbsenceUnderJBossHome(jbossHome, "server/default/deploy/dummy-version1.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "server/default/deploy/dummy-version2.jar");
+      this.assertFileExistenceUnderJBossHome(jbossHome, "common/lib/common-util.jar");
+      Assert.assertEquals("Unchanged file was reinstalled during upgrade", lastModified, commonUtil.lastModified());
+      
+      // removing the upgraded package should remove exactly the files of the newer version
+      this.pkgMgr.removePackage("incremental-upgrade-test-package");
+      this.assertFileAbsenceUnderJBossHome(jbossHome, "server/default/deploy/dummy-version2.jar");
+      this.assertFileAbsenceUnderJBossHome(jbossHome, "common/lib/common-util.jar");
+   }
+
+   /**
+    * Tests that the package index of a repository is generated from the packages in it
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testGenerateIndex() throws Exception
+   {
+      String packageName = "indexed-test-package";
+      File pkg = this.createPackageWithSimplePackagedDependency(packageName);
+      // keep the repository separate from the packages created by the other tests
+      File repositoryDir = new File(getPerTestTargetDir(this.getClass()), "indexed-repository");
+      repositoryDir.mkdirs();
+      File indexedPkg = new File(repositoryDir, pkg.getName());
+      IOUtil.copy(pkg, indexedPkg);
+
+      PackageIndex index = new PackageIndexGenerator().generateIndexFile(repositoryDir);
+      File indexFile = new File(repositoryDir, PackageIndex.INDEX_FILE_NAME);
+      Assert.assertTrue("Package index file not created", indexFile.exists());
+      PackageIndexEntry entry = index.getEntry(indexedPkg.getName());
+      Assert.assertNotNull("Package not indexed", entry);
+      Assert.assertEquals("Unexpected package name in index", packageName, entry.getName());
+      Assert.assertEquals("Unexpected package version in index", DEFAULT_PACKAGE_VERSION, entry.getVersion());
+      Assert.assertEquals("Unexpected digest in index", DigestUtil.sha256(indexedPkg), entry.getSha256());
+      Assert.assertEquals("Unexpected size in index", indexedPkg.length(), entry.getSize());
+      Assert.assertTrue("Installed file not indexed", entry.getFiles().contains("server/default/lib/dummy.jar"));
+      Assert.assertEquals("Unexpected dependencies in index", 1, entry.getDependencies().size());
+      Assert.assertEquals("Unexpected dependency in index", "dependee-package", entry.getDependencies().get(0)
+            .getName());
+
+      // the written index reads back the same
+      InputStream is = new FileInputStream(indexFile);
+      try
+      {
+         PackageIndexEntry readEntry = PackageIndex.read(is).getEntry(indexedPkg.getName());
+         Assert.assertNotNull("Package not in written index", readEntry);
+         Assert.assertEquals("Unexpected digest in written index", entry.getSha256(), readEntry.getSha256());
+         Assert.assertEquals("Unexpected files in written index", entry.getFiles(), readEntry.getFiles());
+      }
+      finally
+      {
+         is.close();
+      }
+   }
+
    /**
     * Creates a simple package with the following structure:
     * 
@@ -247,4 +337,40 @@ public class UpgradeUnitTestCase extends PackageManagerTestCase
 
       return simplePackage;
    }
+
+   /**
+    * Creates a package, without any scripts, with the following structure:
+    * <package-name>
+    *   |
+    *   |--- <jarName> (will be installed to server/default/deploy) 
+    *   |--- common-util.jar (will be installed to common/lib)
+    *   |--- package.xml
+    * 
+    * @param packageName Name of the package
+    * @param packageVersion Version of the package
+    * @param packageXml The package.xml resource to use
+    * @param jarName The name of the jar to be installed to server/default/deploy 
+    * @return
+    * @throws IOException
+    */
+   private File createIncrementalPackage(String packageName, String packageVersion, String packageXml, String jarName)
+         throws IOException
+   {
+      File dummyJar = this.createDummyJar();
+
+      File incrementalPackage = new File(getPerTestTargetDir(this.getClass()), packageName + "-" + packageVersion
+            + JAR_SUFFIX);
+      JavaArchive pkg = JavaArchiveFactory.create(incrementalPackage.getName());
+      pkg.addResource(jarName, dummyJar);
+      pkg.addResource("common-util.jar", dummyJar);
+      URL packageXmlURL = this.getResource(this.getClass(), packageXml);
+      File file = new File(packageXmlURL.getFile());
+      File processedPackageXmlFile = this.processPackageXml(file, packageName, packageVersion);
+      pkg.addResource("package.xml", processedPackageXmlFile);
+      // now write out the package to disk
+      logger.debug("Writing out the created package " + pkg.toString(true));
+      this.exportZip(pkg, incrementalPackage);
+
+      return incrementalPackage;
+   }
 }
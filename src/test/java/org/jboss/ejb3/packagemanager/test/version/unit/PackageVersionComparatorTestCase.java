@@ -0,0 +1,205 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.version.unit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.jboss.ejb3.packagemanager.PackageVersion;
+import org.jboss.ejb3.packagemanager.PackageVersionComparator;
+import org.jboss.ejb3.packagemanager.test.common.LegacyPackageVersionComparator;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * PackageVersionComparatorTestCase
+ * 
+ * Tests that {@link PackageVersionComparator} orders versions exactly like the regular expression
+ * based implementation it replaced ({@link LegacyPackageVersionComparator}), for well known 
+ * versions as well as for randomly generated ones.
+ *
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class PackageVersionComparatorTestCase
+{
+
+   private static final String[] VERSIONS =
+   {"1.0", "1.0.0", "1.0.1", "1.1", "1.10", "1.01", "1-0", "1_0", "1+0", "1.0.0.GA", "1.0.0.Beta1",
+         "1.0.0.beta2", "1.0.0-CR1", "1.0.0.SP1", "2.0.0.Alpha1", "2", "2a", "2a1", "a", "A", "", ".", "..",
+         ".1", "1.", "1..0", "-", "1.0-", "10", "010", "0", "00", "1.0\u00e9", "\u00e91", "v1.2.3", "1.2.3v",
+         "99999999999999999999", "1.99999999999999999999", "9223372036854775807", "9223372036854775808"};
+
+   private static final char[] ALPHABET = "0123456789abzABZ._-+\u00e9".toCharArray();
+
+   private static final int RANDOM_PAIRS = 50000;
+
+   /**
+    * Tests the ordering of each pair of some well known (and some not so well formed) versions
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testWellKnownVersions() throws Exception
+   {
+      for (String version1 : VERSIONS)
+      {
+         for (String version2 : VERSIONS)
+         {
+            this.assertSameOrdering(version1, version2);
+         }
+      }
+   }
+
+   /**
+    * Tests the ordering of randomly generated pairs of versions. The second version of each
+    * pair is usually derived from the first, so that the pairs often share a few parts.
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testRandomVersions() throws Exception
+   {
+      // fixed seed, so that a failure can be reproduced
+      Random random = new Random(20100101L);
+      for (int i = 0; i < RANDOM_PAIRS; i++)
+      {
+         String version1 = this.randomVersion(random);
+         String version2 = random.nextInt(4) == 0 ? this.randomVersion(random) : this.mutate(version1, random);
+         this.assertSameOrdering(version1, version2);
+      }
+   }
+
+   /**
+    * Tests that sorting a list of versions results in the same order as sorting them 
+    * through the legacy implementation
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testSort() throws Exception
+   {
+      Random random = new Random(20100102L);
+      List<String> versions = new ArrayList<String>();
+      for (int i = 0; i < 2000; i++)
+      {
+         // numbers which fit in a long, since larger numbers can't be compared
+         versions.add(random.nextInt(3) + "." + random.nextInt(12) + "." + random.nextInt(3)
+               + (random.nextBoolean() ? "" : (random.nextBoolean() ? ".GA" : "-Beta" + random.nextInt(3))));
+      }
+      List<String> sorted = new ArrayList<String>(versions);
+      Collections.sort(sorted, new PackageVersionComparator());
+      List<String> legacySorted = new ArrayList<String>(versions);
+      Collections.sort(legacySorted, new LegacyPackageVersionComparator());
+      Assert.assertEquals("Versions sorted differently", legacySorted, sorted);
+   }
+
+   /**
+    * Tests that a parsed version is cached
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testParsedVersionIsCached() throws Exception
+   {
+      PackageVersion version = PackageVersion.valueOf("3.1.4.GA");
+      Assert.assertSame("Parsed version not cached", version, PackageVersion.valueOf(new String("3.1.4.GA")));
+      Assert.assertEquals("Unexpected number of parts", 4, version.getPartCount());
+   }
+
+   /**
+    * Asserts that both the implementations return the same result (or fail the same way)
+    * when comparing <code>version1</code> with <code>version2</code>
+    */
+   private void assertSameOrdering(String version1, String version2)
+   {
+      String expected = this.compare(new LegacyPackageVersionComparator(), version1, version2);
+      String actual = this.compare(new PackageVersionComparator(), version1, version2);
+      Assert.assertEquals("Unexpected result of comparing '" + version1 + "' with '" + version2 + "'", expected,
+            actual);
+   }
+
+   private String compare(java.util.Comparator<String> comparator, String version1, String version2)
+   {
+      try
+      {
+         return String.valueOf(comparator.compare(version1, version2));
+      }
+      catch (NumberFormatException nfe)
+      {
+         return nfe.toString();
+      }
+   }
+
+   private String randomVersion(Random random)
+   {
+      int length = random.nextInt(12);
+      StringBuffer version = new StringBuffer(length);
+      for (int i = 0; i < length; i++)
+      {
+         if (random.nextInt(50) == 0)
+         {
+            // a number too large for a long
+            version.append("12345678901234567890");
+         }
+         else
+         {
+            version.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+         }
+      }
+      return version.toString();
+   }
+
+   /**
+    * Returns <code>version</code> with a random character replaced, inserted or removed, or 
+    * with a random suffix
+    */
+   private String mutate(String version, Random random)
+   {
+      StringBuffer mutated = new StringBuffer(version);
+      int position = version.length() == 0 ? 0 : random.nextInt(version.length());
+      char c = ALPHABET[random.nextInt(ALPHABET.length)];
+      switch (random.nextInt(4))
+      {
+         case 0 :
+            if (version.length() > 0)
+            {
+               mutated.setCharAt(position, c);
+            }
+            break;
+         case 1 :
+            mutated.insert(position, c);
+            break;
+         case 2 :
+            if (version.length() > 0)
+            {
+               mutated.deleteCharAt(position);
+            }
+            break;
+         default :
+            mutated.append(this.randomVersion(random));
+      }
+      return mutated.toString();
+   }
+}
@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.packagemanager.test.workspace.unit;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.jboss.ejb3.packagemanager.PackageManagerEnvironment;
+import org.jboss.ejb3.packagemanager.test.common.PackageManagerTestCase;
+import org.jboss.ejb3.packagemanager.util.IOUtil;
+import org.jboss.ejb3.packagemanager.workspace.DefaultWorkspaceManager;
+import org.jboss.ejb3.packagemanager.workspace.WorkspaceManager;
+import org.jboss.ejb3.packagemanager.workspace.WorkspaceStatistics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * WorkspaceManagerTestCase
+ *
+ * Tests the leasing, release and eviction of leftovers of the {@link DefaultWorkspaceManager}, 
+ * including workspace managers which share the same package manager home
+ * 
+ * @author Jaikiran Pai
+ * @version $Revision: $
+ */
+public class WorkspaceManagerTestCase extends PackageManagerTestCase
+{
+
+   /**
+    * Size of the content written to the leased (and leftover) folders
+    */
+   private static final int CONTENT_SIZE = 64 * 1024;
+
+   /**
+    * Package manager environment, with a fresh home, for each test
+    */
+   private PackageManagerEnvironment environment;
+
+   @Before
+   public void before() throws Exception
+   {
+      File home = new File(getPerTestTargetDir(this.getClass()), "pm-home");
+      IOUtil.delete(home);
+      home.mkdirs();
+      this.environment = new PackageManagerEnvironment(home.getAbsolutePath());
+   }
+
+   /**
+    * Tests that each lease gets a new, empty folder, even for the same name and even across 
+    * workspace managers sharing the package manager home
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testLeasesAreUnique() throws Exception
+   {
+      WorkspaceManager workspaceManager = new DefaultWorkspaceManager(this.environment);
+      WorkspaceManager otherWorkspaceManager = new DefaultWorkspaceManager(this.environment);
+
+      File dir = workspaceManager.leaseBuildDirectory("pkg");
+      this.writeContent(new File(dir, "content.bin"), 10);
+      File otherDir = workspaceManager.leaseBuildDirectory("pkg");
+      File otherManagersDir = otherWorkspaceManager.leaseBuildDirectory("pkg");
+
+      Assert.assertFalse("Same folder leased twice", dir.equals(otherDir));
+      Assert.assertFalse("Same folder leased by two workspace managers", dir.equals(otherManagersDir));
+      Assert.assertFalse("Same folder leased by two workspace managers", otherDir.equals(otherManagersDir));
+      Assert.assertTrue("Content of leased folder was deleted", new File(dir, "content.bin").exists());
+      Assert.assertEquals("Leased folder is not empty", 0, otherManagersDir.list().length);
+      Assert.assertTrue("Leased folder not named after the requested name", otherDir.getName().startsWith("pkg-"));
+   }
+
+   /**
+    * Tests that a folder which has the requested name (for example, created by some other 
+    * package manager operation) is not deleted when a folder is leased
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testLeaseDoesNotDeleteExistingFolder() throws Exception
+   {
+      WorkspaceManager workspaceManager = new DefaultWorkspaceManager(this.environment);
+      File existing = new File(this.environment.getPackageManagerBuildDir(), "pkg");
+      this.writeContent(new File(existing, "content.bin"), 10);
+
+      File dir = workspaceManager.leaseBuildDirectory("pkg");
+      Assert.assertFalse("Existing folder leased", existing.equals(dir));
+      Assert.assertTrue("Existing folder was deleted", new File(existing, "content.bin").exists());
+   }
+
+   /**
+    * Tests that the released build and tmp folders/files are deleted
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testRelease() throws Exception
+   {
+      WorkspaceManager workspaceManager = new DefaultWorkspaceManager(this.environment);
+      File buildDir = workspaceManager.leaseBuildDirectory("pkg");
+      File tmpDir = workspaceManager.leaseTmpDirectory("pkg");
+      File tmpFile = workspaceManager.leaseTmpFile("pkg", ".jar");
+      Assert.assertTrue("Leased tmp file not created", tmpFile.isFile());
+      Assert.assertEquals("Unexpected number of active leases", 3, workspaceManager.getStatistics()
+            .getActiveLeases());
+
+      workspaceManager.release(tmpFile);
+      Assert.assertFalse("Released tmp file not deleted", tmpFile.exists());
+      Assert.assertEquals("Unexpected number of active leases", 2, workspaceManager.getStatistics()
+            .getActiveLeases());
+
+      workspaceManager.releaseAll();
+      Assert.assertFalse("Released tmp folder not deleted", tmpDir.exists());
+      Assert.assertFalse("Released build folder not deleted", buildDir.exists());
+      WorkspaceStatistics stats = workspaceManager.getStatistics();
+      Assert.assertEquals("Unexpected number of active leases", 0, stats.getActiveLeases());
+      Assert.assertEquals("Unexpected number of reclaimed leases", 3, stats.getReclaimed());
+      this.assertNoLeaseMarkers();
+   }
+
+   /**
+    * Tests that a file which wasn't leased can't be released
+    * 
+    * @throws Exception
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void testReleaseOfUnknownFile() throws Exception
+   {
+      WorkspaceManager workspaceManager = new DefaultWorkspaceManager(this.environment);
+      workspaceManager.release(new File(this.environment.getPackageManagerTmpDir(), "unknown"));
+   }
+
+   /**
+    * Tests that the folders/files left over in the build and tmp folders, by earlier runs of 
+    * the package manager, are evicted when a workspace manager is created
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testLeftoversAreEvicted() throws Exception
+   {
+      File leftoverDir = new File(this.environment.getPackageManagerBuildDir(), "pkg-leftover");
+      this.writeContent(new File(leftoverDir, "content.bin"), CONTENT_SIZE);
+      File leftoverFile = new File(this.environment.getPackageManagerTmpDir(), "tmp-leftover.jar");
+      this.writeContent(leftoverFile, CONTENT_SIZE);
+
+      WorkspaceManager workspaceManager = new DefaultWorkspaceManager(this.environment);
+      Assert.assertFalse("Leftover build folder not evicted", leftoverDir.exists());
+      Assert.assertFalse("Leftover tmp file not evicted", leftoverFile.exists());
+      WorkspaceStatistics stats = workspaceManager.getStatistics();
+      Assert.assertEquals("Unexpected number of evictions", 2, stats.getEvicted());
+      Assert.assertEquals("Unexpected number of evicted bytes", 2 * CONTENT_SIZE, stats.getEvictedBytes());
+   }
+
+   /**
+    * Tests that the folders leased by a workspace manager are not evicted by another 
+    * workspace manager sharing the same package manager home
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testEvictionSkipsLeasesOfOtherWorkspaceManagers() throws Exception
+   {
+      WorkspaceManager workspaceManager = new DefaultWorkspaceManager(this.environment);
+      File buildDir = workspaceManager.leaseBuildDirectory("pkg");
+      this.writeContent(new File(buildDir, "content.bin"), CONTENT_SIZE);
+      File tmpDir = workspaceManager.leaseTmpDirectory("pkg");
+      this.writeContent(new File(tmpDir, "content.bin"), CONTENT_SIZE);
+      File leftoverDir = new File(this.environment.getPackageManagerBuildDir(), "pkg-leftover");
+      this.writeContent(new File(leftoverDir, "content.bin"), CONTENT_SIZE);
+
+      // only the leftover is evicted, both the leased folders are in use
+      WorkspaceManager otherWorkspaceManager = new DefaultWorkspaceManager(this.environment);
+      Assert.assertTrue("Leased build folder evicted", new File(buildDir, "content.bin").exists());
+      Assert.assertTrue("Leased tmp folder evicted", new File(tmpDir, "content.bin").exists());
+      Assert.assertFalse("Leftover build folder not evicted", leftoverDir.exists());
+      Assert.assertEquals("Unexpected number of evictions", 1, otherWorkspaceManager.getStatistics().getEvicted());
+
+      workspaceManager.releaseAll();
+      Assert.assertFalse("Released build folder not deleted", buildDir.exists());
+      Assert.assertFalse("Released tmp folder not deleted", tmpDir.exists());
+      this.assertNoLeaseMarkers();
+   }
+
+   /**
+    * Tests that the folders of a crashed package manager, whose lease markers were left
+    * behind (but are no longer locked), are evicted
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testEvictionOfCrashedLeases() throws Exception
+   {
+      File crashedDir = new File(this.environment.getPackageManagerBuildDir(), "pkg-crashed");
+      this.writeContent(new File(crashedDir, "content.bin"), 2 * CONTENT_SIZE);
+      File crashedMarker = new File(crashedDir.getPath() + DefaultWorkspaceManager.LEASE_MARKER_SUFFIX);
+      crashedMarker.createNewFile();
+      File orphanMarker = new File(this.environment.getPackageManagerBuildDir(), "pkg-orphan"
+            + DefaultWorkspaceManager.LEASE_MARKER_SUFFIX);
+      orphanMarker.createNewFile();
+
+      new DefaultWorkspaceManager(this.environment);
+      Assert.assertFalse("Folder of crashed package manager not evicted", crashedDir.exists());
+      Assert.assertFalse("Marker of crashed package manager not evicted", crashedMarker.exists());
+      Assert.assertFalse("Orphan marker not evicted", orphanMarker.exists());
+   }
+
+   private void assertNoLeaseMarkers()
+   {
+      File[] workspaceDirs =
+      {this.environment.getPackageManagerBuildDir(), this.environment.getPackageManagerTmpDir()};
+      for (File dir : workspaceDirs)
+      {
+         for (String name : dir.list())
+         {
+            Assert.assertFalse("Lease marker " + name + " left behind in " + dir, name
+                  .endsWith(DefaultWorkspaceManager.LEASE_MARKER_SUFFIX));
+         }
+      }
+   }
+
+   private void writeContent(File file, int size) throws IOException
+   {
+      file.getParentFile().mkdirs();
+      IOUtil.copy(new ByteArrayInputStream(new byte[size]), file);
+   }
+}